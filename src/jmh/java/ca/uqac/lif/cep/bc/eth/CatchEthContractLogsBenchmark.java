@@ -0,0 +1,98 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.functions.ApplyFunction;
+import ca.uqac.lif.cep.tmf.Tank;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the push path from a {@link CatchEthContractLogs} to a {@link Tank},
+ * either directly or through a {@link GetEthEventParameters} function, and with
+ * or without conversion to {@link CompactLog}s.
+ * No node is contacted: logs are handed to the catcher as if they had
+ * just been received from the node.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatchEthContractLogsBenchmark
+{
+    /**
+     * The number of distinct logs pushed in turn
+     */
+    private static final int LOG_NB = 1024;
+
+    @Param({"false", "true"})
+    public boolean m_decode;
+
+    @Param({"false", "true"})
+    public boolean m_compact;
+
+    private CatchEthContractLogs m_catcher;
+
+    private Pullable m_tankOutput;
+
+    private Log[] m_logs;
+
+    private int m_index;
+
+    @Setup
+    public void setUp()
+    {
+        m_catcher = CatchEthContractLogs.buildWithRPC(
+                EthereumNodeRPC.DEFAULT_NODE_URL,
+                SyntheticLogs.CONTRACT_ADDRESS,
+                false).setCompactLogs(m_compact);
+        Tank tank = new Tank();
+        if (m_decode)
+        {
+            ApplyFunction getEventParameters =
+                    new ApplyFunction(new GetEthEventParameters(SyntheticLogs.INSTRUCTOR_EVENT));
+            Connector.connect(m_catcher, getEventParameters, tank);
+        }
+        else
+        {
+            Connector.connect(m_catcher, tank);
+        }
+        m_tankOutput = tank.getPullableOutput(0);
+
+        m_logs = new Log[LOG_NB];
+        for (int i = 0; i < LOG_NB; i++)
+        {
+            m_logs[i] = SyntheticLogs.newLog(SyntheticLogs.Shape.LONG_STRING, i);
+        }
+        m_index = 0;
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        m_catcher.stop();
+    }
+
+    @Benchmark
+    public Object pushToTank()
+    {
+        m_index = (m_index + 1) % LOG_NB;
+        m_catcher.catchLog(m_logs[m_index]);
+        return m_tankOutput.pull();
+    }
+}
@@ -0,0 +1,62 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of decoding the parameters of a {@link Log} with
+ * {@link GetEthEventParameters#getValue(Log)} for different shapes of events.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetEthEventParametersBenchmark
+{
+    /**
+     * The number of distinct logs decoded in turn
+     */
+    private static final int LOG_NB = 1024;
+
+    @Param({"STATIC", "LONG_STRING", "INDEXED"})
+    public SyntheticLogs.Shape m_shape;
+
+    private GetEthEventParameters m_getter;
+
+    private Log[] m_logs;
+
+    private int m_index;
+
+    @Setup
+    public void setUp()
+    {
+        m_getter = new GetEthEventParameters(SyntheticLogs.getEvent(m_shape));
+        m_logs = new Log[LOG_NB];
+        for (int i = 0; i < LOG_NB; i++)
+        {
+            m_logs[i] = SyntheticLogs.newLog(m_shape, i);
+        }
+        m_index = 0;
+    }
+
+    @Benchmark
+    public Object[] getValue()
+    {
+        m_index = (m_index + 1) % LOG_NB;
+        return m_getter.getValue(m_logs[m_index]);
+    }
+}
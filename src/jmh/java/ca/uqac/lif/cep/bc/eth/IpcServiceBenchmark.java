@@ -0,0 +1,79 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.ipc.UnixIpcService;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the number of requests per second sent over IPC by web3j's
+ * {@link UnixIpcService} and by the {@link PipelinedUnixIpcService}, with
+ * several threads sending requests to a {@link MockEthereumNode} at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class IpcServiceBenchmark
+{
+    @Param({"blocking", "pipelined"})
+    public String m_service;
+
+    private MockEthereumNode m_node;
+
+    private Web3j m_web3j;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        m_node = new MockEthereumNode();
+        m_node.startIpc();
+        for (int i = 0; i < 10; i++)
+        {
+            m_node.mineBlock(new ArrayList<>());
+        }
+        m_web3j = Web3j.build("pipelined".equals(m_service) ?
+                new PipelinedUnixIpcService(m_node.getIpcPath()) :
+                new UnixIpcService(m_node.getIpcPath()));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        m_web3j.shutdown();
+        m_node.stop();
+    }
+
+    @Benchmark
+    public Object blockNumber() throws IOException
+    {
+        return m_web3j.ethBlockNumber().send().getBlockNumber();
+    }
+
+    @Benchmark
+    public Object getBlock() throws IOException
+    {
+        return m_web3j.ethGetBlockByNumber(DefaultBlockParameter.valueOf(BigInteger.TEN), false)
+                .send().getBlock();
+    }
+}
@@ -0,0 +1,73 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.tmf.BlackHole;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many logs per second {@link ReplayEthLogs} pushes when replaying
+ * a file as fast as possible.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayEthLogsBenchmark
+{
+    /**
+     * The number of logs in the replayed file
+     */
+    private static final int LOG_NB = 100000;
+
+    private File m_file;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        m_file = File.createTempFile("replay-benchmark", ".bin");
+        m_file.delete();
+        RecordEthLogs recorder = new RecordEthLogs(m_file);
+        Connector.connect(recorder, new BlackHole());
+        Pushable pushable = recorder.getPushableInput(0);
+        for (int i = 0; i < LOG_NB; i++)
+        {
+            pushable.push(SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, i));
+        }
+        recorder.stop();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        m_file.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOG_NB)
+    public long replay() throws InterruptedException
+    {
+        ReplayEthLogs replay = new ReplayEthLogs(m_file, false);
+        Connector.connect(replay, new BlackHole());
+        replay.start();
+        replay.waitUntilDone();
+        return replay.getReplayCount();
+    }
+}
@@ -0,0 +1,71 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.protocol.Web3jService;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A connection to an Ethereum node able to send several JSON-RPC requests at
+ * once, rather than waiting for the response to each request before sending
+ * the next one.
+ */
+public interface BatchingService
+{
+    /**
+     * Sends requests to the node and waits for all their responses
+     *
+     * @param requests
+     *          The requests, all expecting the same type of response
+     *
+     * @param response_type
+     *          The type of the responses
+     *
+     * @param <T>
+     *          The type of the responses
+     *
+     * @return The responses, in the order of the requests
+     *
+     * @throws IOException if the node cannot be reached
+     */
+    <T extends Response> List<T> sendBatch(List<? extends Request<?, T>> requests, Class<T> response_type)
+            throws IOException;
+
+    /**
+     * Sends requests through a service: in a single batch if the service is a
+     * {@link BatchingService}, one after the other otherwise
+     *
+     * @param service
+     *          The service the requests were built with
+     *
+     * @param requests
+     *          The requests, all expecting the same type of response
+     *
+     * @param response_type
+     *          The type of the responses
+     *
+     * @param <T>
+     *          The type of the responses
+     *
+     * @return The responses, in the order of the requests
+     *
+     * @throws IOException if the node cannot be reached
+     */
+    static <T extends Response> List<T> sendAll(Web3jService service, List<? extends Request<?, T>> requests,
+                                                Class<T> response_type) throws IOException
+    {
+        if (service instanceof BatchingService)
+        {
+            return ((BatchingService) service).sendBatch(requests, response_type);
+        }
+        List<T> responses = new ArrayList<>(requests.size());
+        for (Request<?, T> request : requests)
+        {
+            responses.add(request.send());
+        }
+        return responses;
+    }
+}
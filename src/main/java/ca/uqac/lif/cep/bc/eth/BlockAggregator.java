@@ -0,0 +1,52 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.protocol.core.methods.response.Log;
+
+/**
+ * Computes a value over the {@link Log}s of a window of blocks, updating it
+ * as logs enter and leave the window rather than going through the whole
+ * window each time it slides.
+ *
+ * Ready-made aggregators are found in {@link BlockAggregators}.
+ *
+ * @see WindowEthLogs
+ */
+public interface BlockAggregator
+{
+    /**
+     * Updates the value with a log entering the window
+     *
+     * @param log
+     *          The log
+     */
+    void add(Log log);
+
+    /**
+     * Updates the value with a log leaving the window. The log is one that was
+     * given to {@link #add(Log)} before.
+     *
+     * @param log
+     *          The log
+     */
+    void remove(Log log);
+
+    /**
+     * Gets the value for the logs currently in the window. The object returned
+     * must not change when the window slides.
+     *
+     * @return The value
+     */
+    Object getValue();
+
+    /**
+     * Brings the aggregator back to the value of an empty window
+     */
+    void reset();
+
+    /**
+     * Creates a new aggregator of the same kind, for an empty window
+     *
+     * @return The aggregator
+     */
+    BlockAggregator duplicate();
+}
@@ -0,0 +1,166 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Common {@link BlockAggregator}s.
+ */
+public abstract class BlockAggregators
+{
+    /**
+     * Counts the logs in the window. The value is a {@link Long}.
+     */
+    public static class Count implements BlockAggregator
+    {
+        private long m_count = 0;
+
+        @Override
+        public void add(Log log)
+        {
+            m_count++;
+        }
+
+        @Override
+        public void remove(Log log)
+        {
+            m_count--;
+        }
+
+        @Override
+        public Object getValue()
+        {
+            return m_count;
+        }
+
+        @Override
+        public void reset()
+        {
+            m_count = 0;
+        }
+
+        @Override
+        public Count duplicate()
+        {
+            return new Count();
+        }
+    }
+
+    /**
+     * Sums a quantity computed from each log in the window, e.g. the amount of
+     * a transfer. The value is a {@link BigInteger}, as Solidity quantities are
+     * usually 256-bit integers.
+     */
+    public static class Sum implements BlockAggregator
+    {
+        /**
+         * The function computing the quantity of a log
+         */
+        private final Function<Log, BigInteger> m_quantity;
+
+        private BigInteger m_sum = BigInteger.ZERO;
+
+        /**
+         * Creates the aggregator
+         *
+         * @param quantity
+         *          The function computing the quantity of a log
+         */
+        public Sum(Function<Log, BigInteger> quantity)
+        {
+            m_quantity = quantity;
+        }
+
+        @Override
+        public void add(Log log)
+        {
+            m_sum = m_sum.add(m_quantity.apply(log));
+        }
+
+        @Override
+        public void remove(Log log)
+        {
+            m_sum = m_sum.subtract(m_quantity.apply(log));
+        }
+
+        @Override
+        public Object getValue()
+        {
+            return m_sum;
+        }
+
+        @Override
+        public void reset()
+        {
+            m_sum = BigInteger.ZERO;
+        }
+
+        @Override
+        public Sum duplicate()
+        {
+            return new Sum(m_quantity);
+        }
+    }
+
+    /**
+     * Counts the distinct keys of the logs in the window, e.g. the distinct
+     * senders of transfers. The value is an {@link Integer}.
+     */
+    public static class DistinctCount implements BlockAggregator
+    {
+        /**
+         * The function computing the key of a log
+         */
+        private final Function<Log, ?> m_key;
+
+        /**
+         * The number of logs in the window for each key
+         */
+        private final Map<Object, Integer> m_counts = new HashMap<>();
+
+        /**
+         * Creates the aggregator
+         *
+         * @param key
+         *          The function computing the key of a log
+         */
+        public DistinctCount(Function<Log, ?> key)
+        {
+            m_key = key;
+        }
+
+        @Override
+        public void add(Log log)
+        {
+            m_counts.merge(m_key.apply(log), 1, Integer::sum);
+        }
+
+        @Override
+        public void remove(Log log)
+        {
+            m_counts.computeIfPresent(m_key.apply(log), (k, n) -> n == 1 ? null : n - 1);
+        }
+
+        @Override
+        public Object getValue()
+        {
+            return m_counts.size();
+        }
+
+        @Override
+        public void reset()
+        {
+            m_counts.clear();
+        }
+
+        @Override
+        public DistinctCount duplicate()
+        {
+            return new DistinctCount(m_key);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package ca.uqac.lif.cep.bc.eth;
+
+/**
+ * Signals that all the logs of a block and of the blocks before it have been
+ * output, so that no log of these blocks is expected anymore (except for logs
+ * removed or replaced by a reorganization of the chain).
+ *
+ * A {@link CatchEthContractLogs} outputs watermarks when asked to (see
+ * {@link CatchEthContractLogs#setWatermarks(boolean)}), which lets
+ * {@link MergeEthLogs} order the logs of several catchers.
+ */
+public class BlockWatermark
+{
+    /**
+     * The number of the block
+     */
+    private final long m_blockNumber;
+
+    /**
+     * Creates a watermark
+     *
+     * @param block_number
+     *          The number of the last block whose logs have all been output
+     */
+    public BlockWatermark(long block_number)
+    {
+        m_blockNumber = block_number;
+    }
+
+    /**
+     * Gets the number of the last block whose logs have all been output
+     *
+     * @return The block number
+     */
+    public long getBlockNumber()
+    {
+        return m_blockNumber;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return o instanceof BlockWatermark && m_blockNumber == ((BlockWatermark) o).m_blockNumber;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Long.hashCode(m_blockNumber);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Watermark at block " + m_blockNumber;
+    }
+}
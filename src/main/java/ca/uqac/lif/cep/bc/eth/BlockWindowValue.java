@@ -0,0 +1,96 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import java.util.Objects;
+
+/**
+ * The value computed by a {@link WindowEthLogs} over a window of blocks.
+ */
+public class BlockWindowValue
+{
+    /**
+     * The number of the first block of the window
+     */
+    private final long m_firstBlock;
+
+    /**
+     * The number of the last block of the window
+     */
+    private final long m_lastBlock;
+
+    /**
+     * The value computed over the logs of the window
+     */
+    private final Object m_value;
+
+    /**
+     * Creates a window value
+     *
+     * @param first_block
+     *          The number of the first block of the window
+     *
+     * @param last_block
+     *          The number of the last block of the window
+     *
+     * @param value
+     *          The value computed over the logs of the window
+     */
+    public BlockWindowValue(long first_block, long last_block, Object value)
+    {
+        m_firstBlock = first_block;
+        m_lastBlock = last_block;
+        m_value = value;
+    }
+
+    /**
+     * Gets the number of the first block of the window
+     *
+     * @return The block number
+     */
+    public long getFirstBlock()
+    {
+        return m_firstBlock;
+    }
+
+    /**
+     * Gets the number of the last block of the window
+     *
+     * @return The block number
+     */
+    public long getLastBlock()
+    {
+        return m_lastBlock;
+    }
+
+    /**
+     * Gets the value computed over the logs of the window
+     *
+     * @return The value
+     */
+    public Object getValue()
+    {
+        return m_value;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof BlockWindowValue))
+        {
+            return false;
+        }
+        BlockWindowValue v = (BlockWindowValue) o;
+        return m_firstBlock == v.m_firstBlock && m_lastBlock == v.m_lastBlock && Objects.equals(m_value, v.m_value);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(m_firstBlock, m_lastBlock, m_value);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + m_firstBlock + ", " + m_lastBlock + "]: " + m_value;
+    }
+}
@@ -3,15 +3,41 @@ package ca.uqac.lif.cep.bc.eth;
 import ca.uqac.lif.cep.Processor;
 import ca.uqac.lif.cep.Pullable;
 import ca.uqac.lif.cep.Pushable;
-import io.reactivex.disposables.Disposable;
+import org.web3j.abi.EventEncoder;
+import org.web3j.abi.TypeEncoder;
+import org.web3j.abi.datatypes.Array;
+import org.web3j.abi.datatypes.DynamicBytes;
+import org.web3j.abi.datatypes.Event;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.Utf8String;
+import org.web3j.crypto.Hash;
 import org.web3j.protocol.Web3j;
 import org.web3j.protocol.Web3jService;
+import org.web3j.protocol.core.DefaultBlockParameter;
 import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.Request;
 import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.protocol.core.methods.response.EthBlockNumber;
+import org.web3j.protocol.core.methods.response.EthLog;
 import org.web3j.protocol.core.methods.response.Log;
-import org.web3j.protocol.http.HttpService;
-import org.web3j.utils.Async;
+import org.web3j.utils.Numeric;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
@@ -44,32 +70,192 @@ public class CatchEthContractLogs extends Processor implements Runnable
      */
     public static final long POLLING_INTERVAL = 500;
 
+    /**
+     * The maximum number of blocks asked for in a single <code>eth_getLogs</code>
+     * request when filling an {@link EthLogArchive}
+     */
+    public static final long ARCHIVE_FETCH_RANGE = 5000;
+
+    /**
+     * The default number of blocks a block must be followed by before its logs
+     * are added to an archive
+     */
+    public static final int DEFAULT_ARCHIVE_CONFIRMATIONS = 12;
+
+    /**
+     * The number of block headers asked for at once when scanning blocks
+     */
+    public static final int SCAN_BATCH_SIZE = 100;
+
+    /**
+     * The maximum number of topics of a log
+     */
+    public static final int MAX_TOPICS = 4;
+
+    /**
+     * The maximum time (in milliseconds) {@link #stop()} waits for the catcher
+     * thread before closing the connection to the node under it
+     */
+    public static final long STOP_TIMEOUT = 10000;
+
     /**
      * Semaphore used to stop the listener
      */
     private volatile boolean m_run;
 
+    /**
+     * The thread catching the logs, or null
+     */
+    private Thread m_thread;
+
+    /**
+     * Whether the catcher has been stopped, after which it cannot be started again
+     */
+    private boolean m_stopped = false;
+
     /**
      * The {@link Web3j} object acting as interface to the ETH node
      */
     private Web3j m_web3j;
 
     /**
-     * The filter to specify what kind of log should be caught
+     * The service used to reach the node
+     */
+    private final Web3jService m_service;
+
+    /**
+     * The addresses of the contracts whose logs are caught, as used by the
+     * catcher thread
+     */
+    private List<String> m_addresses;
+
+    /**
+     * The addresses of the contracts to catch the logs of, which replace
+     * {@link #m_addresses} at the next poll
+     */
+    private final List<String> m_nextAddresses = new ArrayList<>();
+
+    /**
+     * Whether the logs from the beginning of the blockchain are caught
+     */
+    private final boolean m_fromFirstBlock;
+
+    /**
+     * The first block whose logs are pushed, or -1 to follow {@link #m_fromFirstBlock}
+     */
+    private long m_fromBlock = -1;
+
+    /**
+     * The archive answering queries on past blocks, if any
+     */
+    private EthLogArchive m_archive;
+
+    /**
+     * The number of blocks a block must be followed by before its logs are
+     * added to the archive
+     */
+    private int m_archiveConfirmations = DEFAULT_ARCHIVE_CONFIRMATIONS;
+
+    /**
+     * The accepted values of each topic of the logs, null accepting any value,
+     * as used by the catcher thread
+     */
+    private String[][] m_topics = new String[MAX_TOPICS][];
+
+    /**
+     * The accepted values of each topic of the logs, which replace
+     * {@link #m_topics} at the next poll
+     */
+    private final String[][] m_nextTopics = new String[MAX_TOPICS][];
+
+    /**
+     * Whether the addresses or the topics changed since the catcher thread last
+     * took them into account
+     */
+    private volatile boolean m_filtersChanged = false;
+
+    /**
+     * Whether past logs are found by scanning the blooms of the block headers
+     */
+    private boolean m_bloomScan = false;
+
+    /**
+     * Whether the logs are pushed as {@link CompactLog}s
+     */
+    private boolean m_compactLogs = false;
+
+    /**
+     * Whether the logs are pushed as {@link TracedLog}s
+     */
+    private boolean m_tracing = false;
+
+    /**
+     * The number of block times kept for the tracing
+     */
+    private static final int BLOCK_TIMES = 256;
+
+    /**
+     * The times of the last blocks seen by the tracing, in microseconds since
+     * the epoch, or -1 while being asked for or if they could not be had
+     */
+    private final Map<Long, Long> m_blockTimes = Collections.synchronizedMap(
+            new LinkedHashMap<Long, Long>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest)
+                {
+                    return size() > BLOCK_TIMES;
+                }
+            });
+
+    /**
+     * The time at which the response of the node being pushed was received, in
+     * microseconds since the epoch, or -1 until its first log is pushed
+     */
+    private long m_receivedTime = -1;
+
+    /**
+     * Whether a {@link BlockWatermark} is pushed each time more blocks are covered
+     */
+    private boolean m_watermarks = false;
+
+    /**
+     * The block number of the last {@link BlockWatermark} pushed
+     */
+    private long m_lastWatermark = -1;
+
+    /**
+     * Whether the catcher is polling the node for new logs
+     */
+    private volatile boolean m_polling = false;
+
+    /**
+     * The highest block such that the logs of this block and of all the blocks
+     * before it have been pushed
+     */
+    private volatile long m_coveredBlock = -1;
+
+    /**
+     * The block of the last log pushed while polling. When a refetch fails
+     * partway, the logs of the blocks after the covered ones are already
+     * pushed up to this log.
+     */
+    private long m_pushedBlock = -1;
+
+    /**
+     * The index of the last log pushed while polling, in its block
      */
-    private EthFilter m_ethFilter;
+    private long m_pushedLogIndex = -1;
 
     /**
-     * The subscription to the event.
-     * Used to stop listening to events.
+     * The number of discontinuities detected while polling the node
      */
-    private Disposable m_subscription;
+    private volatile long m_gapCount = 0;
 
     /**
-     * The hash of the last transaction. Is used to know if a duplicated transaction was
-     * caught when subscribing to the Ethereum filter (this may happen due to a bug in Web3j)
+     * The number of blocks asked for again after a discontinuity
      */
-    private String m_lastTransactionHash;
+    private volatile long m_refetchedBlockCount = 0;
 
     /**
      * Initializes the catcher so it can communicate with a running and
@@ -97,15 +283,12 @@ public class CatchEthContractLogs extends Processor implements Runnable
     {
         super(0,1);
         LOGGER.info("Initiating connection to eth node at " + web3j_service.toString());
-        m_web3j = Web3j.build(web3j_service, POLLING_INTERVAL, Async.defaultExecutorService());
+        m_service = web3j_service;
+        m_web3j = Web3j.build(web3j_service, POLLING_INTERVAL, newExecutor());
 
-        DefaultBlockParameterName startingBlock = from_first_block ?
-                DefaultBlockParameterName.EARLIEST : DefaultBlockParameterName.LATEST;
-
-        m_ethFilter = new EthFilter(
-                startingBlock,
-                DefaultBlockParameterName.LATEST,
-                contract_address);
+        m_nextAddresses.add(contract_address);
+        m_addresses = new ArrayList<>(m_nextAddresses);
+        m_fromFirstBlock = from_first_block;
     }
 
     /**
@@ -113,6 +296,9 @@ public class CatchEthContractLogs extends Processor implements Runnable
      * (RPC should be enabled on the node).
      * A {@link CatchEthContractLogs} PROCESSOR FORCES PUSH MODE.
      *
+     * Past logs are read through a {@link StreamingHttpService}: each of them
+     * is pushed as soon as it is received.
+     *
      * @param eth_node_url
      *          The node RPC url
      *
@@ -129,7 +315,7 @@ public class CatchEthContractLogs extends Processor implements Runnable
      */
     public static CatchEthContractLogs buildWithRPC(String eth_node_url, String contract_address, boolean from_first_block)
     {
-        return new CatchEthContractLogs(new HttpService(eth_node_url), contract_address, from_first_block);
+        return new CatchEthContractLogs(new StreamingHttpService(eth_node_url), contract_address, from_first_block);
     }
 
     /**
@@ -137,6 +323,9 @@ public class CatchEthContractLogs extends Processor implements Runnable
      * (IPC should be enabled on the node).
      * A {@link CatchEthContractLogs} PROCESSOR FORCES PUSH MODE.
      *
+     * On UNIX, requests go through a {@link PipelinedUnixIpcService}, which keeps
+     * a single connection to the node open.
+     *
      * @param eth_node_ipc
      *          The node IPC socket path
      *
@@ -153,68 +342,1382 @@ public class CatchEthContractLogs extends Processor implements Runnable
      */
     public static CatchEthContractLogs buildWithIPC(String eth_node_ipc, String contract_address, boolean from_first_block)
     {
-        return new CatchEthContractLogs(IpcUtils.newIpcService(eth_node_ipc), contract_address, from_first_block);
+        return new CatchEthContractLogs(IpcUtils.newPipelinedIpcService(eth_node_ipc), contract_address, from_first_block);
+    }
+
+    /**
+     * Constructs a {@link CatchEthContractLogs} which will listen to events via
+     * RPC, sending its requests within a {@link RequestBudget}. Catchers reaching
+     * the same endpoint should share the same budget.
+     *
+     * @param eth_node_url
+     *          The node RPC url
+     *
+     * @param contract_address
+     *          The address of the contract in the ETH blockchain (must start with "0x")
+     *
+     * @param from_first_block
+     *          Specifies if all the events of the contract from the beginning of the blockchain
+     *          (true) or if only the latest ones should be caught (false)
+     *
+     * @param budget
+     *          The budget of the requests sent to the node
+     *
+     * @return The initiated RPC-enabled {@link CatchEthContractLogs} processor
+     */
+    public static CatchEthContractLogs buildWithRPC(String eth_node_url, String contract_address, boolean from_first_block,
+                                                    RequestBudget budget)
+    {
+        return new CatchEthContractLogs(new RateLimitedService(new StreamingHttpService(eth_node_url), budget),
+                contract_address, from_first_block);
+    }
+
+    /**
+     * Constructs a {@link CatchEthContractLogs} which will listen to events via
+     * IPC, sending its requests within a {@link RequestBudget}. Catchers reaching
+     * the same node should share the same budget.
+     *
+     * @param eth_node_ipc
+     *          The node IPC socket path
+     *
+     * @param contract_address
+     *          The address of the contract in the ETH blockchain (must start with "0x")
+     *
+     * @param from_first_block
+     *          Specifies if all the events of the contract from the beginning of the blockchain
+     *          (true) or if only the latest ones should be caught (false)
+     *
+     * @param budget
+     *          The budget of the requests sent to the node
+     *
+     * @return The initiated IPC-enabled {@link CatchEthContractLogs} processor
+     */
+    public static CatchEthContractLogs buildWithIPC(String eth_node_ipc, String contract_address, boolean from_first_block,
+                                                    RequestBudget budget)
+    {
+        return new CatchEthContractLogs(new RateLimitedService(IpcUtils.newPipelinedIpcService(eth_node_ipc), budget),
+                contract_address, from_first_block);
     }
 
 
 
-    @Override
-    public void run()
+    /**
+     * Makes the catcher retrieve past logs through an {@link EthLogArchive}.
+     * When catching logs from the first block, the logs of the blocks already
+     * in the archive are read from it, and only the other blocks are asked to
+     * the node. The logs retrieved from the node are added to the archive, so that
+     * the next catchers do not need to ask for them again.
+     *
+     * Only the blocks followed by {@link #DEFAULT_ARCHIVE_CONFIRMATIONS} blocks
+     * are archived, as the logs of more recent blocks may still be removed by a
+     * reorganization of the chain: they are always asked to the node.
+     *
+     * Must be called before {@link #start()}.
+     *
+     * @param archive
+     *          The archive
+     *
+     * @return This catcher
+     */
+    public CatchEthContractLogs setArchive(EthLogArchive archive)
     {
-        m_lastTransactionHash = "";
-        m_run = true;
-        LOGGER.info("Listening for events...");
-        m_subscription = m_web3j.ethLogFlowable(m_ethFilter).subscribe(
-                log -> {
-                    Pushable pushable = getPushableOutput(0);
+        return setArchive(archive, DEFAULT_ARCHIVE_CONFIRMATIONS);
+    }
 
-                    if(m_lastTransactionHash.equals(log.getTransactionHash()))
-                    {
-                        LOGGER.info("Ignored repeated transaction");
-                    }
-                    else
-                    {
-                        m_lastTransactionHash = log.getTransactionHash();
-                        pushable.push(log);
-                    }
-                },
-                throwable -> {
-                    LOGGER.warning("Subscription finished prematurely (this might not be a problem)");
-                });
+    /**
+     * Makes the catcher retrieve past logs through an {@link EthLogArchive},
+     * archiving only the blocks followed by a given number of blocks (see
+     * {@link #setArchive(EthLogArchive)}).
+     *
+     * Must be called before {@link #start()}.
+     *
+     * @param archive
+     *          The archive
+     *
+     * @param confirmations
+     *          The number of blocks a block must be followed by before its logs
+     *          are archived
+     *
+     * @return This catcher
+     */
+    public CatchEthContractLogs setArchive(EthLogArchive archive, int confirmations)
+    {
+        if (confirmations < 0)
+        {
+            throw new IllegalArgumentException("The number of confirmations cannot be negative");
+        }
+        m_archive = archive;
+        m_archiveConfirmations = confirmations;
+        return this;
     }
 
-    @Override
-    public void start()
+    /**
+     * Makes the catcher push the logs from a given block on, e.g. the block
+     * following the last one covered by a previous catcher (see
+     * {@link #getCoveredBlock()}). This replaces the choice made when the
+     * catcher was built between the first block and the latest one.
+     *
+     * Must be called before {@link #start()}.
+     *
+     * @param block
+     *          The number of the first block whose logs are pushed
+     *
+     * @return This catcher
+     */
+    public CatchEthContractLogs setFromBlock(long block)
     {
-        if (!m_run)
+        m_fromBlock = block;
+        return this;
+    }
+
+    /**
+     * Makes the catcher push {@link CompactLog}s instead of the logs built by
+     * web3j. Compact logs use less memory, which matters when many of them are
+     * kept downstream (e.g. in a window), but rebuild their strings each time a
+     * getter is called.
+     *
+     * Must be called before {@link #start()}.
+     *
+     * @param compact_logs
+     *          Specifies if compact logs are pushed (true) or not (false)
+     *
+     * @return This catcher
+     */
+    public CatchEthContractLogs setCompactLogs(boolean compact_logs)
+    {
+        m_compactLogs = compact_logs;
+        return this;
+    }
+
+    /**
+     * Makes the catcher push {@link TracedLog}s, stamped with the time of their
+     * block, the time the catcher received them and the time it pushed them
+     * (see {@link LatencyTrace}). A {@link RecordLatency} downstream then tells
+     * the latency of each stage of the pipeline.
+     *
+     * The node does not tell when it saw a block, so the time of the block
+     * stands for it. It is taken from the headers the catcher reads anyway: the
+     * head of the chain is read as a header at each poll, and so are the blocks
+     * scanned with {@link #setBloomScan(boolean)}. The time of any other block is
+     * asked for in the background when its first log is received, so that the
+     * logs are not held back; logs whose block time is not known yet are not
+     * stamped with it. All the logs of a response of the node are stamped as
+     * received at the same time, when the first of them is handed out. Traced
+     * logs are compact logs, whatever {@link #setCompactLogs(boolean)} says.
+     *
+     * Must be called before {@link #start()}.
+     *
+     * @param tracing
+     *          Specifies if traced logs are pushed (true) or not (false)
+     *
+     * @return This catcher
+     */
+    public CatchEthContractLogs setTracing(boolean tracing)
+    {
+        m_tracing = tracing;
+        return this;
+    }
+
+    /**
+     * Makes the catcher find past logs by scanning block headers, for nodes
+     * where <code>eth_getLogs</code> over wide ranges is disabled or slow.
+     *
+     * Headers are asked for in batches of {@link #SCAN_BATCH_SIZE}, and the
+     * <code>logsBloom</code> of each header is tested locally against the
+     * address of the contract. Logs are only asked for the blocks that may hold
+     * logs of the contract, which most blocks do not.
+     *
+     * Must be called before {@link #start()}.
+     *
+     * @param bloom_scan
+     *          Specifies if blocks are scanned (true) or if logs are asked for
+     *          whole ranges of blocks (false)
+     *
+     * @return This catcher
+     */
+    public CatchEthContractLogs setBloomScan(boolean bloom_scan)
+    {
+        m_bloomScan = bloom_scan;
+        return this;
+    }
+
+    /**
+     * Makes the catcher only push the logs of some events of the contract. The
+     * node does the filtering: the logs of other events are neither sent over
+     * the connection nor decoded.
+     *
+     * Can be called while the catcher is running (see {@link #addAddress(String)}).
+     *
+     * @param events
+     *          The events, as declared in the contract
+     *
+     * @return This catcher
+     */
+    public CatchEthContractLogs setEvents(Event... events)
+    {
+        String[] signatures = new String[events.length];
+        for (int i = 0; i < events.length; i++)
         {
-            Thread t = new Thread(this);
-            t.start();
+            signatures[i] = EventEncoder.encode(events[i]);
         }
+        return setTopics(0, signatures);
     }
 
-    @Override
-    public synchronized void stop()
+    /**
+     * Makes the catcher only push the logs having one of some values as one of
+     * their topics. Topic 0 is the signature of the event (see
+     * {@link #setEvents(Event...)}), and topics 1 to 3 are the indexed
+     * parameters of the event, in their order of declaration (see
+     * {@link #toTopic(Type)}). The node does the filtering.
+     *
+     * Can be called while the catcher is running (see {@link #addAddress(String)}).
+     *
+     * @param position
+     *          The position of the topic, from 0 to 3
+     *
+     * @param values
+     *          The accepted values, or no value to accept any value
+     *
+     * @return This catcher
+     */
+    public synchronized CatchEthContractLogs setTopics(int position, String... values)
     {
-        m_run = false;
+        checkTopicPosition(position);
+        String[] topics = null;
+        if (values.length > 0)
+        {
+            topics = new String[values.length];
+            for (int i = 0; i < values.length; i++)
+            {
+                topics[i] = values[i].toLowerCase();
+            }
+        }
+        m_nextTopics[position] = topics;
+        m_filtersChanged = true;
+        return this;
+    }
 
-        if (m_subscription != null)
+    /**
+     * Adds values to the accepted values of a topic (see
+     * {@link #setTopics(int, String...)}). If the topic accepted any value, it
+     * now only accepts the given ones.
+     *
+     * Can be called while the catcher is running (see {@link #addAddress(String)}).
+     *
+     * @param position
+     *          The position of the topic, from 0 to 3
+     *
+     * @param values
+     *          The values to accept
+     *
+     * @return This catcher
+     */
+    public synchronized CatchEthContractLogs addTopics(int position, String... values)
+    {
+        checkTopicPosition(position);
+        List<String> topics = new ArrayList<>();
+        if (m_nextTopics[position] != null)
+        {
+            topics.addAll(Arrays.asList(m_nextTopics[position]));
+        }
+        for (String value : values)
         {
-            m_subscription.dispose();
+            if (!topics.contains(value.toLowerCase()))
+            {
+                topics.add(value.toLowerCase());
+            }
         }
-        m_web3j.shutdown();
+        return setTopics(position, topics.toArray(new String[0]));
     }
 
     /**
-     * Indicates if the {@link CatchEthContractLogs} is currently listening
-     * to events from the blockchain.
+     * Removes values from the accepted values of a topic (see
+     * {@link #setTopics(int, String...)}).
      *
-     * @return true if the {@link CatchEthContractLogs} is currently listening to
-     *          events from the blockchain, false otherwise.
+     * Can be called while the catcher is running (see {@link #addAddress(String)}).
+     *
+     * @param position
+     *          The position of the topic, from 0 to 3
+     *
+     * @param values
+     *          The values not to accept anymore
+     *
+     * @return This catcher
+     *
+     * @throws IllegalArgumentException if no value would be left: a topic
+     *          accepting any value is set with {@link #setTopics(int, String...)}
      */
-    public boolean isCatching()
+    public synchronized CatchEthContractLogs removeTopics(int position, String... values)
+    {
+        checkTopicPosition(position);
+        if (m_nextTopics[position] == null)
+        {
+            return this;
+        }
+        List<String> topics = new ArrayList<>(Arrays.asList(m_nextTopics[position]));
+        for (String value : values)
+        {
+            topics.remove(value.toLowerCase());
+        }
+        if (topics.isEmpty())
+        {
+            throw new IllegalArgumentException("Topic " + position + " would accept no value");
+        }
+        return setTopics(position, topics.toArray(new String[0]));
+    }
+
+    /**
+     * Makes the catcher also push the logs of another contract, with the same
+     * topic filters.
+     *
+     * When the catcher is running, the new filters are taken into account at the
+     * next poll of the node: the filter installed on the node is replaced, and the
+     * blocks not covered yet (see {@link #getCoveredBlock()}) are asked for again
+     * with the new filters. The logs of these blocks are thus pushed once, with the
+     * new filters, and the logs of the blocks already covered are not asked for.
+     * The connection to the node is kept.
+     *
+     * @param contract_address
+     *          The address of the contract (must start with "0x")
+     *
+     * @return This catcher
+     */
+    public synchronized CatchEthContractLogs addAddress(String contract_address)
+    {
+        if (indexOf(m_nextAddresses, contract_address) < 0)
+        {
+            m_nextAddresses.add(contract_address);
+            m_filtersChanged = true;
+        }
+        return this;
+    }
+
+    /**
+     * Makes the catcher stop pushing the logs of a contract.
+     *
+     * Can be called while the catcher is running (see {@link #addAddress(String)}).
+     *
+     * @param contract_address
+     *          The address of the contract
+     *
+     * @return This catcher
+     *
+     * @throws IllegalArgumentException if it is the last address of the catcher
+     */
+    public synchronized CatchEthContractLogs removeAddress(String contract_address)
+    {
+        int index = indexOf(m_nextAddresses, contract_address);
+        if (index < 0)
+        {
+            return this;
+        }
+        if (m_nextAddresses.size() == 1)
+        {
+            // A filter without address would accept the logs of every contract
+            throw new IllegalArgumentException("A catcher needs at least one address");
+        }
+        m_nextAddresses.remove(index);
+        m_filtersChanged = true;
+        return this;
+    }
+
+    /**
+     * Gets the addresses of the contracts whose logs are caught, including the
+     * changes not taken into account yet
+     *
+     * @return The addresses
+     */
+    public synchronized List<String> getAddresses()
+    {
+        return new ArrayList<>(m_nextAddresses);
+    }
+
+    /**
+     * Makes the addresses and topics set by the user the ones used by the
+     * catcher thread
+     */
+    private synchronized void applyFilters()
+    {
+        m_addresses = new ArrayList<>(m_nextAddresses);
+        String[][] topics = new String[MAX_TOPICS][];
+        for (int i = 0; i < MAX_TOPICS; i++)
+        {
+            topics[i] = m_nextTopics[i] == null ? null : m_nextTopics[i].clone();
+        }
+        m_topics = topics;
+        m_filtersChanged = false;
+    }
+
+    private static void checkTopicPosition(int position)
+    {
+        if (position < 0 || position >= MAX_TOPICS)
+        {
+            throw new IllegalArgumentException("No topic at position " + position);
+        }
+    }
+
+    private static int indexOf(List<String> addresses, String address)
+    {
+        for (int i = 0; i < addresses.size(); i++)
+        {
+            if (addresses.get(i).equalsIgnoreCase(address))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes the value of an indexed parameter as a topic, to filter logs
+     * with {@link #setTopics(int, String...)}. The topic of a string, of a
+     * byte array or of an array is not the value itself but its Keccak-256
+     * hash, as computed by Solidity.
+     *
+     * @param value
+     *          The value, e.g. an {@link org.web3j.abi.datatypes.Address}
+     *
+     * @return The topic
+     */
+    public static String toTopic(Type<?> value)
+    {
+        if (value instanceof Utf8String || value instanceof DynamicBytes || value instanceof Array)
+        {
+            return Numeric.toHexString(Hash.sha3(encodeInPlace(value)));
+        }
+        return Numeric.prependHexPrefix(TypeEncoder.encode(value));
+    }
+
+    /**
+     * Encodes a value the way Solidity does before hashing it into a topic: a
+     * string or a byte array as its bytes, without length, and an array as the
+     * encodings of its elements, each padded to a multiple of 32 bytes
+     *
+     * @param value
+     *          The value
+     *
+     * @return The encoded value
+     */
+    private static byte[] encodeInPlace(Type<?> value)
+    {
+        if (value instanceof Utf8String)
+        {
+            return ((Utf8String) value).getValue().getBytes(StandardCharsets.UTF_8);
+        }
+        if (value instanceof DynamicBytes)
+        {
+            return ((DynamicBytes) value).getValue();
+        }
+        if (value instanceof Array)
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (Type<?> element : ((Array<?>) value).getValue())
+            {
+                byte[] encoded = encodeInPlace(element);
+                out.write(encoded, 0, encoded.length);
+                int padding = (32 - encoded.length % 32) % 32;
+                out.write(new byte[padding], 0, padding);
+            }
+            return out.toByteArray();
+        }
+        return Numeric.hexStringToByteArray(TypeEncoder.encode(value));
+    }
+
+    /**
+     * Makes the catcher push a {@link BlockWatermark} after the logs of each
+     * newly covered range of blocks, including ranges without any log of the
+     * contract. Watermarks are what lets {@link MergeEthLogs} order the logs of
+     * several catchers without waiting for logs that will never come.
+     *
+     * Must be called before {@link #start()}.
+     *
+     * @param watermarks
+     *          Specifies if watermarks are pushed (true) or not (false)
+     *
+     * @return This catcher
+     */
+    public CatchEthContractLogs setWatermarks(boolean watermarks)
+    {
+        m_watermarks = watermarks;
+        return this;
+    }
+
+    @Override
+    public void run()
+    {
+        applyFilters();
+        try
+        {
+            long head = getHead();
+            long from = m_fromBlock >= 0 ? m_fromBlock : m_fromFirstBlock ? 0 : head;
+            if (m_archive != null && (m_fromFirstBlock || m_fromBlock >= 0) && from <= head)
+            {
+                catchArchivedLogs(from, head);
+            }
+            else
+            {
+                fetchLogs(from, head, true, this::catchPastLog);
+            }
+            // The node may not have reached the first block yet
+            cover(Math.max(head, from - 1));
+        }
+        catch (IOException e)
+        {
+            LOGGER.severe("Could not retrieve past events: " + e.getMessage());
+            m_run = false;
+            return;
+        }
+        LOGGER.info("Listening for events...");
+        poll();
+    }
+
+    /**
+     * Polls a filter on the node until the catcher is stopped.
+     *
+     * The catcher keeps track of the highest block up to which every log has been
+     * pushed. Logs of blocks already covered are ignored, so that no log is pushed
+     * twice. When the filter cannot be trusted anymore (the node has lost it, a poll
+     * failed, or the node reports a head behind the blocks already covered, as when
+     * a load balancer switches to a late node), a new filter is installed and only
+     * the blocks between the last covered block and the current head are asked for
+     * with <code>eth_getLogs</code>. The same is done when the addresses or topics
+     * of the catcher change.
+     */
+    private void poll()
+    {
+        BigInteger filterId = null;
+        boolean discontinuity = false;
+        m_polling = true;
+        while (m_run)
+        {
+            try
+            {
+                if (m_filtersChanged)
+                {
+                    // The new filters apply from the first block not covered yet
+                    if (filterId != null)
+                    {
+                        uninstallFilter(filterId);
+                        filterId = null;
+                    }
+                    applyFilters();
+                    LOGGER.info("Catching the logs of " + m_addresses + " from block " + (m_coveredBlock + 1));
+                }
+                long head = getHead();
+                if (filterId == null)
+                {
+                    if (head < m_coveredBlock)
+                    {
+                        // still waiting for the node to reach the blocks already covered
+                        sleep();
+                        continue;
+                    }
+                    filterId = m_web3j.ethNewFilter(newFilter(DefaultBlockParameterName.LATEST,
+                            DefaultBlockParameterName.LATEST, true)).send().getFilterId();
+                    // The new filter only reports the blocks mined after it was installed
+                    head = getHead();
+                    if (discontinuity && head > m_coveredBlock)
+                    {
+                        m_refetchedBlockCount += head - m_coveredBlock;
+                    }
+                    fetchLogs(m_coveredBlock + 1, head, true, this::catchNewLog);
+                    cover(Math.max(m_coveredBlock, head));
+                    discontinuity = false;
+                }
+                else
+                {
+                    EthLog changes = m_web3j.ethGetFilterChanges(filterId).send();
+                    m_receivedTime = -1;
+                    if (changes.hasError())
+                    {
+                        throw new IOException(changes.getError().getMessage());
+                    }
+                    boolean reorg = false;
+                    // The node may have mined blocks after the head was read
+                    long delivered = head;
+                    for (EthLog.LogResult result : changes.getLogs())
+                    {
+                        Log log = (Log) result.get();
+                        reorg |= log.isRemoved();
+                        if (!log.isRemoved())
+                        {
+                            delivered = Math.max(delivered, EthLogCodec.blockNumber(log));
+                        }
+                        catchNewLog(log);
+                    }
+                    if (head < m_coveredBlock)
+                    {
+                        LOGGER.warning("The node is at block " + head + ", behind block " + m_coveredBlock);
+                        m_gapCount++;
+                        uninstallFilter(filterId);
+                        filterId = null;
+                        discontinuity = true;
+                    }
+                    else if (!reorg)
+                    {
+                        cover(delivered);
+                    }
+                }
+            }
+            catch (RuntimeException e)
+            {
+                if (m_run)
+                {
+                    LOGGER.severe("Stopped catching events: " + e);
+                    m_run = false;
+                }
+                break;
+            }
+            catch (IOException e)
+            {
+                if (!m_run)
+                {
+                    break;
+                }
+                if (filterId != null)
+                {
+                    LOGGER.warning("Lost the filter on the node: " + e.getMessage());
+                    m_gapCount++;
+                    // in case the node still has it
+                    uninstallFilter(filterId);
+                    filterId = null;
+                }
+                discontinuity = true;
+            }
+            sleep();
+        }
+        m_polling = false;
+        if (filterId != null)
+        {
+            uninstallFilter(filterId);
+        }
+    }
+
+    /**
+     * Waits until the next poll, or until the catcher is stopped. The catcher
+     * stops if interrupted.
+     */
+    private void sleep()
+    {
+        try
+        {
+            synchronized (this)
+            {
+                if (m_run)
+                {
+                    wait(POLLING_INTERVAL);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            m_run = false;
+        }
+    }
+
+    /**
+     * Uninstalls a filter from the node, if still possible
+     *
+     * @param filter_id
+     *          The id of the filter
+     */
+    private void uninstallFilter(BigInteger filter_id)
+    {
+        try
+        {
+            m_web3j.ethUninstallFilter(filter_id).send();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // the node will drop the filter after a while anyway
+            LOGGER.fine("Could not uninstall filter: " + e);
+        }
+    }
+
+    /**
+     * Gets the number of the most recent block from the node
+     *
+     * @return The block number
+     *
+     * @throws IOException if the node cannot be reached or answers with an error
+     */
+    private long getHead() throws IOException
+    {
+        if (m_tracing)
+        {
+            // The header of the head tells the time of the block as well
+            EthBlock head = m_web3j.ethGetBlockByNumber(DefaultBlockParameterName.LATEST, false).send();
+            if (head.hasError() || head.getBlock() == null)
+            {
+                throw new IOException("Could not get the head of the chain: "
+                        + (head.hasError() ? head.getError().getMessage() : "no block"));
+            }
+            putBlockTime(head.getBlock());
+            return head.getBlock().getNumber().longValue();
+        }
+        EthBlockNumber blockNumber = m_web3j.ethBlockNumber().send();
+        if (blockNumber.hasError())
+        {
+            throw new IOException(blockNumber.getError().getMessage());
+        }
+        return blockNumber.getBlockNumber().longValue();
+    }
+
+    /**
+     * Builds a filter on the logs of the contracts
+     *
+     * @param from
+     *          The first block of the filter
+     *
+     * @param to
+     *          The last block of the filter
+     *
+     * @param filtered
+     *          Whether the filter only accepts the logs matching the topic filters
+     *
+     * @return The filter
+     */
+    private EthFilter newFilter(DefaultBlockParameter from, DefaultBlockParameter to, boolean filtered)
+    {
+        EthFilter filter = new EthFilter(from, to, m_addresses);
+        if (!filtered)
+        {
+            return filter;
+        }
+        int last = MAX_TOPICS - 1;
+        while (last >= 0 && m_topics[last] == null)
+        {
+            last--;
+        }
+        for (int i = 0; i <= last; i++)
+        {
+            String[] topics = m_topics[i];
+            if (topics == null)
+            {
+                filter.addNullTopic();
+            }
+            else if (topics.length == 1)
+            {
+                filter.addSingleTopic(topics[0]);
+            }
+            else
+            {
+                filter.addOptionalTopics(topics);
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * Checks if a log matches the topic filters
+     *
+     * @param log
+     *          The log
+     *
+     * @return true if the log matches, false otherwise
+     */
+    private boolean matchesTopics(Log log)
+    {
+        List<String> topics = log.getTopics();
+        for (int i = 0; i < MAX_TOPICS; i++)
+        {
+            if (m_topics[i] == null)
+            {
+                continue;
+            }
+            if (topics == null || topics.size() <= i)
+            {
+                return false;
+            }
+            boolean found = false;
+            for (String topic : m_topics[i])
+            {
+                found |= topic.equalsIgnoreCase(topics.get(i));
+            }
+            if (!found)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pushes the logs of a range of blocks read from the archive, after having
+     * asked the node for the blocks missing from the archive. The logs of the
+     * blocks not confirmed yet are asked to the node without being archived.
+     *
+     * @param from
+     *          The first block of the range
+     *
+     * @param to
+     *          The last block of the range
+     *
+     * @throws IOException if the node or the archive cannot be reached
+     */
+    private void catchArchivedLogs(long from, long to) throws IOException
+    {
+        // The first block not confirmed yet
+        long recent = Math.max(from, to - m_archiveConfirmations + 1);
+        long archived = recent - 1;
+        // The ranges missing for any of the contracts are fetched once for all of them
+        Map<String, List<long[]>> missing = new HashMap<>();
+        List<long[]> union = new ArrayList<>();
+        for (String address : m_addresses)
+        {
+            List<long[]> ranges = m_archive.getMissingRanges(address, from, archived);
+            missing.put(address.toLowerCase(), ranges);
+            union.addAll(ranges);
+        }
+        union.sort((r1, r2) -> Long.compare(r1[0], r2[0]));
+        // The coverage is saved once, for the chunks fetched before any failure
+        Map<String, List<long[]>> covered = new HashMap<>();
+        try
+        {
+            long next = from;
+            for (long[] range : union)
+            {
+                for (long start = Math.max(next, range[0]); start <= range[1]; start += ARCHIVE_FETCH_RANGE)
+                {
+                    long end = Math.min(range[1], start + ARCHIVE_FETCH_RANGE - 1);
+                    try
+                    {
+                        // The archive keeps every log of the contracts, whatever the topic filters
+                        fetchLogs(start, end, false, log -> {
+                            List<long[]> ranges = log.getAddress() == null ? null
+                                    : missing.get(log.getAddress().toLowerCase());
+                            if (ranges == null || !contains(ranges, EthLogCodec.blockNumber(log)))
+                            {
+                                // the block is already archived for this contract
+                                return;
+                            }
+                            try
+                            {
+                                m_archive.append(log);
+                            }
+                            catch (IOException e)
+                            {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+                    }
+                    catch (UncheckedIOException e)
+                    {
+                        throw e.getCause();
+                    }
+                    for (Map.Entry<String, List<long[]>> entry : missing.entrySet())
+                    {
+                        for (long[] r : entry.getValue())
+                        {
+                            covered.computeIfAbsent(entry.getKey(), k -> new ArrayList<>())
+                                    .add(new long[]{Math.max(start, r[0]), Math.min(end, r[1])});
+                        }
+                    }
+                }
+                next = Math.max(next, range[1] + 1);
+            }
+        }
+        finally
+        {
+            m_archive.markCovered(covered);
+        }
+        String topic0 = m_topics[0] != null && m_topics[0].length == 1 ? m_topics[0][0] : null;
+        m_receivedTime = -1;
+        if (m_addresses.size() == 1)
+        {
+            m_archive.query(m_addresses.get(0), topic0, from, archived, log -> {
+                if (matchesTopics(log))
+                {
+                    catchPastLog(log);
+                }
+            });
+            fetchLogs(recent, to, true, this::catchPastLog);
+            return;
+        }
+        // The logs of several contracts are pushed in chain order
+        List<Log> logs = new ArrayList<>();
+        for (String address : m_addresses)
+        {
+            m_archive.query(address, topic0, from, archived, log -> {
+                if (matchesTopics(log))
+                {
+                    logs.add(log);
+                }
+            });
+        }
+        logs.sort(EthLogArchive.CHAIN_ORDER);
+        logs.forEach(this::catchPastLog);
+        fetchLogs(recent, to, true, this::catchPastLog);
+    }
+
+    /**
+     * Checks if a block is in one of some ranges
+     *
+     * @param ranges
+     *          The ranges, each as an array {first block, last block}
+     *
+     * @param block
+     *          The block number
+     *
+     * @return true if the block is in one of the ranges, false otherwise
+     */
+    private static boolean contains(List<long[]> ranges, long block)
+    {
+        for (long[] range : ranges)
+        {
+            if (block >= range[0] && block <= range[1])
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Asks the node for the logs of the contract in a range of blocks. When the
+     * service is a {@link LogStreamingService}, each log is handed out as soon as
+     * it is received; otherwise, once the whole response has been received.
+     *
+     * @param from
+     *          The first block of the range
+     *
+     * @param to
+     *          The last block of the range
+     *
+     * @param filtered
+     *          Whether only the logs matching the topic filters are asked for
+     *
+     * @param consumer
+     *          The consumer of the logs
+     *
+     * @throws IOException if the node cannot be reached or answers with an error
+     */
+    private void fetchLogs(long from, long to, boolean filtered, Consumer<Log> consumer) throws IOException
+    {
+        if (from > to)
+        {
+            return;
+        }
+        m_receivedTime = -1;
+        if (m_bloomScan)
+        {
+            scanLogs(from, to, filtered, consumer);
+            return;
+        }
+        EthFilter filter = newFilter(
+                DefaultBlockParameter.valueOf(BigInteger.valueOf(from)),
+                DefaultBlockParameter.valueOf(BigInteger.valueOf(to)), filtered);
+        if (m_service instanceof LogStreamingService)
+        {
+            ((LogStreamingService) m_service).streamLogs(filter, consumer);
+            return;
+        }
+        EthLog ethLog = m_web3j.ethGetLogs(filter).send();
+        if (ethLog.hasError())
+        {
+            throw new IOException(ethLog.getError().getMessage());
+        }
+        for (EthLog.LogResult result : ethLog.getLogs())
+        {
+            consumer.accept((Log) result.get());
+        }
+    }
+
+    /**
+     * Asks the node for the logs of the contract in a range of blocks, by
+     * testing the bloom of each block first
+     *
+     * @param from
+     *          The first block of the range
+     *
+     * @param to
+     *          The last block of the range
+     *
+     * @param filtered
+     *          Whether only the logs matching the topic filters are asked for
+     *
+     * @param consumer
+     *          The consumer of the logs
+     *
+     * @throws IOException if the node cannot be reached or answers with an error
+     */
+    private void scanLogs(long from, long to, boolean filtered, Consumer<Log> consumer) throws IOException
+    {
+        List<byte[]> addresses = new ArrayList<>();
+        for (String address : m_addresses)
+        {
+            addresses.add(HexUtils.fromHex(address));
+        }
+        List<byte[]> topics = new ArrayList<>();
+        if (filtered && m_topics[0] != null)
+        {
+            for (String topic : m_topics[0])
+            {
+                topics.add(HexUtils.fromHex(topic));
+            }
+        }
+        for (long start = from; start <= to; start += SCAN_BATCH_SIZE)
+        {
+            long end = Math.min(to, start + SCAN_BATCH_SIZE - 1);
+            List<Request<?, EthBlock>> headerRequests = new ArrayList<>();
+            for (long n = start; n <= end; n++)
+            {
+                headerRequests.add(m_web3j.ethGetBlockByNumber(
+                        DefaultBlockParameter.valueOf(BigInteger.valueOf(n)), false));
+            }
+            List<Request<?, EthLog>> logRequests = new ArrayList<>();
+            for (EthBlock header : BatchingService.sendAll(m_service, headerRequests, EthBlock.class))
+            {
+                if (header.hasError() || header.getBlock() == null)
+                {
+                    throw new IOException("Could not get block header: "
+                            + (header.hasError() ? header.getError().getMessage() : "unknown block"));
+                }
+                EthBlock.Block block = header.getBlock();
+                putBlockTime(block);
+                byte[] bloom = HexUtils.fromHex(block.getLogsBloom());
+                boolean match = false;
+                for (byte[] address : addresses)
+                {
+                    match |= LogsBloom.mightContainLogsOf(bloom, address, topics);
+                }
+                if (match)
+                {
+                    DefaultBlockParameter number = DefaultBlockParameter.valueOf(block.getNumber());
+                    logRequests.add(m_web3j.ethGetLogs(newFilter(number, number, filtered)));
+                }
+            }
+            for (EthLog ethLog : BatchingService.sendAll(m_service, logRequests, EthLog.class))
+            {
+                m_receivedTime = -1;
+                if (ethLog.hasError())
+                {
+                    throw new IOException(ethLog.getError().getMessage());
+                }
+                for (EthLog.LogResult result : ethLog.getLogs())
+                {
+                    consumer.accept((Log) result.get());
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that the logs of the blocks up to some block have all been pushed,
+     * and pushes a {@link BlockWatermark} if asked to
+     *
+     * @param block
+     *          The block number
+     */
+    private void cover(long block)
+    {
+        if (!m_run)
+        {
+            // the logs of the block may not all have been pushed
+            return;
+        }
+        m_coveredBlock = block;
+        if (m_watermarks && block > m_lastWatermark)
+        {
+            m_lastWatermark = block;
+            getPushableOutput(0).push(new BlockWatermark(block));
+        }
+    }
+
+    /**
+     * Handles a {@link Log} received while polling the node: logs of the blocks
+     * already covered, and logs at or before the last log pushed (as when a
+     * refetch that failed partway is done again), are ignored; any other log is
+     * pushed to the output. Logs removed by a reorganization of the chain are
+     * always pushed, with their <code>removed</code> flag set (see
+     * {@link ConfirmEthLogs}), and make the blocks from theirs not covered anymore.
+     *
+     * @param log
+     *          The {@link Log} received from the node
+     */
+    private void catchNewLog(Log log)
+    {
+        if (!m_run)
+        {
+            // the catcher was stopped while the logs were on their way
+            return;
+        }
+        long number = EthLogCodec.blockNumber(log);
+        long index = EthLogCodec.logIndex(log);
+        if (log.isRemoved())
+        {
+            m_coveredBlock = Math.min(m_coveredBlock, number - 1);
+            if (number <= m_pushedBlock)
+            {
+                // the replacements of the block must not be ignored
+                m_pushedBlock = number - 1;
+                m_pushedLogIndex = Long.MAX_VALUE;
+            }
+        }
+        else if (number <= m_coveredBlock)
+        {
+            LOGGER.fine("Ignored log of block " + number + ", already covered");
+            return;
+        }
+        else if (number < m_pushedBlock || (number == m_pushedBlock && index <= m_pushedLogIndex))
+        {
+            LOGGER.fine("Ignored log " + index + " of block " + number + ", already pushed");
+            return;
+        }
+        else
+        {
+            m_pushedBlock = number;
+            m_pushedLogIndex = index;
+        }
+        catchLog(log);
+    }
+
+    /**
+     * Pushes a {@link Log} of the blocks before the filter was installed, unless
+     * the catcher has been stopped in the meantime
+     *
+     * @param log
+     *          The {@link Log} received from the node or the archive
+     */
+    private void catchPastLog(Log log)
+    {
+        if (m_run)
+        {
+            catchLog(log);
+        }
+    }
+
+    /**
+     * Pushes a {@link Log} to the output
+     *
+     * @param log
+     *          The {@link Log} received from the node
+     */
+    void catchLog(Log log)
+    {
+        if (m_tracing)
+        {
+            catchTracedLog(log);
+            return;
+        }
+        getPushableOutput(0).push(m_compactLogs ? CompactLog.of(log) : log);
+    }
+
+    /**
+     * Pushes a {@link Log} to the output as a {@link TracedLog}
+     *
+     * @param log
+     *          The {@link Log} received from the node
+     */
+    private void catchTracedLog(Log log)
+    {
+        if (m_receivedTime < 0)
+        {
+            m_receivedTime = LatencyTrace.now();
+        }
+        LatencyTrace trace = new LatencyTrace();
+        long blockTime = getBlockTime(EthLogCodec.blockNumber(log));
+        if (blockTime >= 0)
+        {
+            trace.stamp(LatencyTrace.BLOCK, blockTime);
+        }
+        trace.stamp(LatencyTrace.RECEIVED, m_receivedTime);
+        TracedLog traced = new TracedLog(log, trace);
+        trace.stamp(LatencyTrace.PUSHED);
+        getPushableOutput(0).push(traced);
+    }
+
+    /**
+     * Gets the time of a block, if known. Otherwise, the time is asked for in
+     * the background, for the next logs of the block.
+     *
+     * @param number
+     *          The block number
+     *
+     * @return The time in microseconds since the epoch, or -1 if not known yet
+     */
+    private long getBlockTime(long number)
+    {
+        synchronized (m_blockTimes)
+        {
+            Long time = m_blockTimes.get(number);
+            if (time != null)
+            {
+                return time;
+            }
+            m_blockTimes.put(number, -1L);
+        }
+        m_web3j.ethGetBlockByNumber(DefaultBlockParameter.valueOf(BigInteger.valueOf(number)), false)
+                .sendAsync().whenComplete((block, e) -> {
+                    if (e == null && !block.hasError() && block.getBlock() != null)
+                    {
+                        putBlockTime(block.getBlock());
+                    }
+                    else
+                    {
+                        LOGGER.fine("Could not get the time of block " + number + ": " + (e != null ? e.getMessage()
+                                : block.hasError() ? block.getError().getMessage() : "unknown block"));
+                    }
+                });
+        return -1;
+    }
+
+    /**
+     * Keeps the time of a block read by the catcher, for the tracing
+     *
+     * @param block
+     *          The header of the block
+     */
+    private void putBlockTime(EthBlock.Block block)
+    {
+        if (m_tracing && block.getNumber() != null && block.getTimestamp() != null)
+        {
+            m_blockTimes.put(block.getNumber().longValue(), block.getTimestamp().longValue() * 1000000);
+        }
+    }
+
+    /**
+     * Creates the executor given to web3j. Unlike the one of
+     * {@link org.web3j.utils.Async#defaultExecutorService()}, it registers no
+     * shutdown hook, which would keep it (and the processor) alive until the JVM
+     * exits: it is shut down with the {@link Web3j} instance, and its only thread
+     * is not even started unless web3j schedules a task, which the processors of
+     * this package never make it do.
+     *
+     * @return The executor
+     */
+    static ScheduledExecutorService newExecutor()
+    {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "web3j-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Starts the catcher thread
+     *
+     * @throws IllegalStateException if the catcher has been stopped
+     */
+    @Override
+    public synchronized void start()
+    {
+        if (m_stopped)
+        {
+            throw new IllegalStateException("A stopped catcher cannot be started again");
+        }
+        if (!m_run)
+        {
+            // Set before the thread runs, so that a stop right after the start is not lost
+            m_run = true;
+            m_thread = new Thread(this, "CatchEthContractLogs-" + getId());
+            m_thread.start();
+        }
+    }
+
+    /**
+     * Stops the catcher and closes its connection to the node. Once this method
+     * returns, the catcher thread has ended and no log is pushed anymore, unless
+     * it is called by the catcher thread itself (e.g. from a downstream processor).
+     *
+     * The catcher thread is given {@link #STOP_TIMEOUT} milliseconds to finish
+     * the request in progress and uninstall its filter, after which the
+     * connection is closed under it. It is then given as long again to end,
+     * after which this method returns anyway and logs a warning. A stopped
+     * catcher cannot be started again.
+     */
+    @Override
+    public void stop()
+    {
+        Thread t;
+        synchronized (this)
+        {
+            m_run = false;
+            m_stopped = true;
+            notifyAll();
+            t = m_thread;
+            m_thread = null;
+        }
+        boolean join = t != null && t != Thread.currentThread();
+        try
+        {
+            if (join)
+            {
+                t.join(STOP_TIMEOUT);
+            }
+            m_web3j.shutdown();
+            if (join)
+            {
+                t.join(STOP_TIMEOUT);
+                if (t.isAlive())
+                {
+                    LOGGER.warning("The thread " + t.getName() + " did not end after the connection was closed");
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Indicates if the {@link CatchEthContractLogs} is currently listening
+     * to events from the blockchain.
+     *
+     * @return true if the {@link CatchEthContractLogs} is currently listening to
+     *          events from the blockchain, false otherwise.
+     */
+    public boolean isCatching()
+    {
+        return m_run;
+    }
+
+    /**
+     * Indicates if the {@link CatchEthContractLogs} is still pushing the logs of
+     * the blocks mined before it started, i.e. has not started polling the node
+     * for new logs yet.
+     *
+     * @return true if the catcher is catching past logs, false otherwise
+     */
+    public boolean isBackfilling()
+    {
+        return m_run && !m_polling;
+    }
+
+    /**
+     * Gets the highest block such that the logs of this block and of all the
+     * blocks before it have been pushed
+     *
+     * @return The block number, or -1 if no block is covered yet
+     */
+    public long getCoveredBlock()
+    {
+        return m_coveredBlock;
+    }
+
+    /**
+     * Gets the number of discontinuities detected while polling the node: lost
+     * filters, failed polls, and a head going back before the blocks already covered
+     *
+     * @return The number of discontinuities
+     */
+    public long getGapCount()
+    {
+        return m_gapCount;
+    }
+
+    /**
+     * Gets the number of blocks asked for again with <code>eth_getLogs</code>
+     * after a discontinuity
+     *
+     * @return The number of blocks
+     */
+    public long getRefetchedBlockCount()
     {
-        return m_subscription != null && !m_subscription.isDisposed();
+        return m_refetchedBlockCount;
     }
 
     @Override
@@ -0,0 +1,460 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link Log} that keeps its content as bytes and numbers rather than as
+ * hexadecimal strings, to reduce the memory used by logs buffered in large
+ * numbers (e.g. in a {@link ca.uqac.lif.cep.tmf.Tank} or a window).
+ *
+ * Hashes, addresses, data and topics are stored as byte arrays, and quantities
+ * as primitive numbers. Arrays that are often repeated (contract addresses, first
+ * topics and block hashes) are shared between logs. The usual getters of
+ * {@link Log} still work: they rebuild the strings each time they are called, so
+ * that a {@link CompactLog} can be used wherever a {@link Log} is expected.
+ *
+ * A {@link CatchEthContractLogs} outputs such logs when asked to with
+ * {@link CatchEthContractLogs#setCompactLogs(boolean)}.
+ */
+public class CompactLog extends Log
+{
+    /**
+     * The maximum number of distinct addresses and topics shared
+     */
+    public static final int POOL_CAPACITY = 4096;
+
+    /**
+     * The shared contract addresses
+     */
+    private static final BytePool ADDRESSES = new BytePool(POOL_CAPACITY);
+
+    /**
+     * The shared first topics (event signatures)
+     */
+    private static final BytePool TOPICS = new BytePool(POOL_CAPACITY);
+
+    /**
+     * The block hash of the last log made compact. Logs arrive grouped by block,
+     * so reusing it is enough to share the hash among the logs of a block.
+     */
+    private static volatile byte[] s_lastBlockHash = new byte[0];
+
+    private long m_blockNumber;
+
+    private long m_transactionIndex;
+
+    private long m_logIndex;
+
+    private byte[] m_blockHash;
+
+    private byte[] m_transactionHash;
+
+    private byte[] m_address;
+
+    private byte[] m_data;
+
+    private byte[][] m_topics;
+
+    /**
+     * Creates the compact version of a log
+     *
+     * @param log
+     *          The log
+     */
+    public CompactLog(Log log)
+    {
+        super();
+        super.setRemoved(log.isRemoved());
+        super.setType(log.getType());
+        m_blockNumber = EthLogCodec.parseQuantity(log.getBlockNumberRaw());
+        m_transactionIndex = EthLogCodec.parseQuantity(log.getTransactionIndexRaw());
+        m_logIndex = EthLogCodec.parseQuantity(log.getLogIndexRaw());
+        m_blockHash = internBlockHash(toBytes(log.getBlockHash()));
+        m_transactionHash = toBytes(log.getTransactionHash());
+        m_address = ADDRESSES.intern(toBytes(log.getAddress()));
+        m_data = toBytes(log.getData());
+        setTopics(log.getTopics());
+    }
+
+    /**
+     * Gets the compact version of a log
+     *
+     * @param log
+     *          The log
+     *
+     * @return The log itself if it is already compact, a new compact log otherwise
+     */
+    public static CompactLog of(Log log)
+    {
+        if (log instanceof CompactLog)
+        {
+            return (CompactLog) log;
+        }
+        return new CompactLog(log);
+    }
+
+    /**
+     * Checks if the first topic of this log is equal to some value, without
+     * converting it to a string
+     *
+     * @param topic
+     *          The value, as bytes
+     *
+     * @return true if the log has a first topic equal to the value, false otherwise
+     */
+    public boolean hasTopic0(byte[] topic)
+    {
+        return m_topics != null && m_topics.length > 0
+                && (m_topics[0] == topic || Arrays.equals(m_topics[0], topic));
+    }
+
+    /**
+     * Gets the number of topics of this log
+     *
+     * @return The number of topics
+     */
+    public int getTopicCount()
+    {
+        return m_topics == null ? 0 : m_topics.length;
+    }
+
+    /**
+     * Gets a topic of this log, without converting it to a string
+     *
+     * @param index
+     *          The index of the topic
+     *
+     * @return The topic as bytes. The array must not be modified.
+     */
+    public byte[] getTopicBytes(int index)
+    {
+        return m_topics[index];
+    }
+
+    /**
+     * Gets the number of the block holding this log
+     *
+     * @return The block number, or -1 if unknown
+     */
+    public long getBlockNumberValue()
+    {
+        return m_blockNumber;
+    }
+
+    /**
+     * Gets the index of this log in its block
+     *
+     * @return The log index, or -1 if unknown
+     */
+    public long getLogIndexValue()
+    {
+        return m_logIndex;
+    }
+
+    /**
+     * Gets the hash of the transaction of this log, without converting it to a string
+     *
+     * @return The hash as bytes, or null. The array must not be modified.
+     */
+    public byte[] getTransactionHashBytes()
+    {
+        return m_transactionHash;
+    }
+
+    /**
+     * Gets the hash of the block holding this log, without converting it to a string
+     *
+     * @return The hash as bytes, or null. The array must not be modified.
+     */
+    public byte[] getBlockHashBytes()
+    {
+        return m_blockHash;
+    }
+
+    /**
+     * Gets the data of this log
+     *
+     * @return The data as bytes, or null. The array must not be modified.
+     */
+    public byte[] getDataBytes()
+    {
+        return m_data;
+    }
+
+    @Override
+    public BigInteger getLogIndex()
+    {
+        return m_logIndex < 0 ? null : BigInteger.valueOf(m_logIndex);
+    }
+
+    @Override
+    public String getLogIndexRaw()
+    {
+        return EthLogCodec.formatQuantity(m_logIndex);
+    }
+
+    @Override
+    public void setLogIndex(String log_index)
+    {
+        m_logIndex = EthLogCodec.parseQuantity(log_index);
+    }
+
+    @Override
+    public BigInteger getTransactionIndex()
+    {
+        return m_transactionIndex < 0 ? null : BigInteger.valueOf(m_transactionIndex);
+    }
+
+    @Override
+    public String getTransactionIndexRaw()
+    {
+        return EthLogCodec.formatQuantity(m_transactionIndex);
+    }
+
+    @Override
+    public void setTransactionIndex(String transaction_index)
+    {
+        m_transactionIndex = EthLogCodec.parseQuantity(transaction_index);
+    }
+
+    @Override
+    public String getTransactionHash()
+    {
+        return toHex(m_transactionHash);
+    }
+
+    @Override
+    public void setTransactionHash(String transaction_hash)
+    {
+        m_transactionHash = toBytes(transaction_hash);
+    }
+
+    @Override
+    public String getBlockHash()
+    {
+        return toHex(m_blockHash);
+    }
+
+    @Override
+    public void setBlockHash(String block_hash)
+    {
+        m_blockHash = internBlockHash(toBytes(block_hash));
+    }
+
+    @Override
+    public BigInteger getBlockNumber()
+    {
+        return m_blockNumber < 0 ? null : BigInteger.valueOf(m_blockNumber);
+    }
+
+    @Override
+    public String getBlockNumberRaw()
+    {
+        return EthLogCodec.formatQuantity(m_blockNumber);
+    }
+
+    @Override
+    public void setBlockNumber(String block_number)
+    {
+        m_blockNumber = EthLogCodec.parseQuantity(block_number);
+    }
+
+    @Override
+    public String getAddress()
+    {
+        return toHex(m_address);
+    }
+
+    @Override
+    public void setAddress(String address)
+    {
+        m_address = ADDRESSES.intern(toBytes(address));
+    }
+
+    @Override
+    public String getData()
+    {
+        return toHex(m_data);
+    }
+
+    @Override
+    public void setData(String data)
+    {
+        m_data = toBytes(data);
+    }
+
+    @Override
+    public List<String> getTopics()
+    {
+        if (m_topics == null)
+        {
+            return null;
+        }
+        List<String> topics = new ArrayList<>(m_topics.length);
+        for (byte[] topic : m_topics)
+        {
+            topics.add(toHex(topic));
+        }
+        return Collections.unmodifiableList(topics);
+    }
+
+    @Override
+    public void setTopics(List<String> topics)
+    {
+        if (topics == null)
+        {
+            m_topics = null;
+            return;
+        }
+        m_topics = new byte[topics.size()][];
+        for (int i = 0; i < m_topics.length; i++)
+        {
+            m_topics[i] = toBytes(topics.get(i));
+        }
+        if (m_topics.length > 0)
+        {
+            m_topics[0] = TOPICS.intern(m_topics[0]);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (o instanceof CompactLog)
+        {
+            CompactLog log = (CompactLog) o;
+            return isRemoved() == log.isRemoved()
+                    && m_blockNumber == log.m_blockNumber
+                    && m_transactionIndex == log.m_transactionIndex
+                    && m_logIndex == log.m_logIndex
+                    && Arrays.equals(m_blockHash, log.m_blockHash)
+                    && Arrays.equals(m_transactionHash, log.m_transactionHash)
+                    && Arrays.equals(m_address, log.m_address)
+                    && Arrays.equals(m_data, log.m_data)
+                    && Arrays.deepEquals(m_topics, log.m_topics)
+                    && (getType() == null ? log.getType() == null : getType().equals(log.getType()));
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        // Computed from the getters, as for any other Log, so that a compact
+        // log and a regular log holding the same content have the same hash
+        return super.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CompactLog{"
+                + "removed=" + isRemoved()
+                + ", logIndex='" + getLogIndexRaw() + '\''
+                + ", transactionIndex='" + getTransactionIndexRaw() + '\''
+                + ", transactionHash='" + getTransactionHash() + '\''
+                + ", blockHash='" + getBlockHash() + '\''
+                + ", blockNumber='" + getBlockNumberRaw() + '\''
+                + ", address='" + getAddress() + '\''
+                + ", data='" + getData() + '\''
+                + ", type='" + getType() + '\''
+                + ", topics=" + getTopics()
+                + '}';
+    }
+
+    private static byte[] toBytes(String hex)
+    {
+        return hex == null ? null : HexUtils.fromHex(hex);
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        return bytes == null ? null : HexUtils.toHex(bytes);
+    }
+
+    private static byte[] internBlockHash(byte[] hash)
+    {
+        byte[] last = s_lastBlockHash;
+        if (hash == null || Arrays.equals(hash, last))
+        {
+            return hash == null ? null : last;
+        }
+        s_lastBlockHash = hash;
+        return hash;
+    }
+
+    /**
+     * A bounded pool of shared byte arrays. When full, the pool is emptied:
+     * arrays already shared stay valid, only the sharing of new logs with
+     * older ones is lost.
+     */
+    static class BytePool
+    {
+        private final Map<Key, byte[]> m_pool = new ConcurrentHashMap<>();
+
+        private final int m_capacity;
+
+        BytePool(int capacity)
+        {
+            m_capacity = capacity;
+        }
+
+        byte[] intern(byte[] bytes)
+        {
+            if (bytes == null)
+            {
+                return null;
+            }
+            byte[] shared = m_pool.putIfAbsent(new Key(bytes), bytes);
+            if (shared != null)
+            {
+                return shared;
+            }
+            if (m_pool.size() > m_capacity)
+            {
+                m_pool.clear();
+            }
+            return bytes;
+        }
+
+        /**
+         * Wraps an array so that it can be used as a key of a map
+         */
+        private static class Key
+        {
+            private final byte[] m_bytes;
+
+            private final int m_hash;
+
+            Key(byte[] bytes)
+            {
+                m_bytes = bytes;
+                m_hash = Arrays.hashCode(bytes);
+            }
+
+            @Override
+            public boolean equals(Object o)
+            {
+                return o instanceof Key && Arrays.equals(m_bytes, ((Key) o).m_bytes);
+            }
+
+            @Override
+            public int hashCode()
+            {
+                return m_hash;
+            }
+        }
+    }
+}
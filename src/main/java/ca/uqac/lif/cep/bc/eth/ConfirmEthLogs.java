@@ -0,0 +1,297 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.SynchronousProcessor;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+
+/**
+ * Holds the {@link Log}s it receives until the blocks holding them have enough
+ * confirmations, i.e. until enough blocks have been mined on top of them, so
+ * that the logs output are unlikely to be undone by a reorganization of the chain.
+ *
+ * A log of block <i>b</i> is output once a log of block <i>b</i> + <i>depth</i>
+ * or later, or a {@link BlockWatermark} at that block or later, has been
+ * received. A watermark at block <i>w</i> is forwarded as a watermark at block
+ * <i>w</i> - <i>depth</i>, since the logs of the blocks after it are still
+ * held. Any other event, such as an {@link EthLogRetraction}, is passed
+ * through unchanged. Logs are output block by block, in the order of
+ * their index within the block. Logs are kept in a ring of <i>depth</i> + 1
+ * blocks, so that the memory used is bounded by the depth times the number of
+ * logs of a block.
+ *
+ * Reorganizations are handled as follows:
+ * <ul>
+ *   <li>a log received with its <code>removed</code> flag set, for a block not
+ *   confirmed yet, is silently dropped from the buffer;</li>
+ *   <li>a log received with its <code>removed</code> flag set, for a block
+ *   already confirmed, is output as an {@link EthLogRetraction};</li>
+ *   <li>a log received for a block number already buffered but with another
+ *   block hash replaces that block, and drops the buffered blocks after it.</li>
+ * </ul>
+ * With a depth of 0, logs are output as soon as they are received, and the
+ * processor only turns removed logs into retractions.
+ *
+ * Logs still waiting for confirmations at the end of the trace are not output.
+ */
+public class ConfirmEthLogs extends SynchronousProcessor
+{
+    /**
+     * The number of blocks that must follow the block of a log before the log is output
+     */
+    private final int m_depth;
+
+    /**
+     * The buffered blocks, block <i>n</i> being at index <i>n</i> modulo the length
+     */
+    private final BlockSlot[] m_slots;
+
+    /**
+     * The highest block number received so far
+     */
+    private long m_head = -1;
+
+    /**
+     * The highest block number whose logs have been output
+     */
+    private long m_confirmed = -1;
+
+    /**
+     * The number of buffered logs dropped because of reorganizations
+     */
+    private long m_droppedCount = 0;
+
+    /**
+     * Initializes the processor
+     *
+     * @param depth
+     *          The number of confirmations a block needs before its logs are output
+     */
+    public ConfirmEthLogs(int depth)
+    {
+        super(1, 1);
+        if (depth < 0)
+        {
+            throw new IllegalArgumentException("The depth cannot be negative");
+        }
+        m_depth = depth;
+        m_slots = new BlockSlot[depth + 1];
+        for (int i = 0; i < m_slots.length; i++)
+        {
+            m_slots[i] = new BlockSlot();
+        }
+    }
+
+    @Override
+    protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+    {
+        Object o = inputs[0];
+        if (o instanceof BlockWatermark)
+        {
+            long confirmed = ((BlockWatermark) o).getBlockNumber() - m_depth;
+            if (confirmed > m_confirmed)
+            {
+                confirmUpTo(confirmed, outputs);
+                outputs.add(new Object[]{new BlockWatermark(confirmed)});
+            }
+            return true;
+        }
+        if (!(o instanceof Log))
+        {
+            outputs.add(new Object[]{o});
+            return true;
+        }
+        Log log = (Log) o;
+        long number = EthLogCodec.blockNumber(log);
+        if (number < 0)
+        {
+            // pending log: not part of a block yet
+            return true;
+        }
+        if (log.isRemoved())
+        {
+            if (number > m_confirmed)
+            {
+                BlockSlot slot = getSlot(number);
+                if (slot.m_number == number && slot.remove(log))
+                {
+                    m_droppedCount++;
+                }
+            }
+            else
+            {
+                outputs.add(new Object[]{new EthLogRetraction(log)});
+            }
+            return true;
+        }
+        if (number > m_head)
+        {
+            confirmUpTo(number - m_depth, outputs);
+            m_head = number;
+        }
+        if (number <= m_confirmed)
+        {
+            outputs.add(new Object[]{log});
+            return true;
+        }
+        BlockSlot slot = getSlot(number);
+        if (slot.m_number != number)
+        {
+            slot.reset(number, log.getBlockHash());
+        }
+        else if (!Objects.equals(slot.m_hash, log.getBlockHash()))
+        {
+            // The block has been replaced: the buffered blocks after it are on another fork
+            dropFrom(number);
+            m_head = number;
+            slot.reset(number, log.getBlockHash());
+        }
+        slot.m_logs.add(log);
+        return true;
+    }
+
+    /**
+     * Outputs the logs of the buffered blocks up to some block number
+     *
+     * @param number
+     *          The block number
+     *
+     * @param outputs
+     *          The queue of output fronts
+     */
+    private void confirmUpTo(long number, Queue<Object[]> outputs)
+    {
+        for (long n = m_confirmed + 1; n <= Math.min(number, m_head); n++)
+        {
+            BlockSlot slot = getSlot(n);
+            if (slot.m_number == n)
+            {
+                slot.m_logs.sort(EthLogArchive.CHAIN_ORDER);
+                for (Log log : slot.m_logs)
+                {
+                    outputs.add(new Object[]{log});
+                }
+                slot.reset(-1, null);
+            }
+        }
+        m_confirmed = Math.max(m_confirmed, number);
+    }
+
+    /**
+     * Drops the buffered blocks from some block number
+     *
+     * @param number
+     *          The block number
+     */
+    private void dropFrom(long number)
+    {
+        for (long n = number; n <= m_head; n++)
+        {
+            BlockSlot slot = getSlot(n);
+            if (slot.m_number == n)
+            {
+                m_droppedCount += slot.m_logs.size();
+                slot.reset(-1, null);
+            }
+        }
+    }
+
+    private BlockSlot getSlot(long number)
+    {
+        return m_slots[(int) (number % m_slots.length)];
+    }
+
+    /**
+     * Gets the number of logs waiting for confirmations
+     *
+     * @return The number of logs
+     */
+    public int getPendingLogCount()
+    {
+        int count = 0;
+        for (BlockSlot slot : m_slots)
+        {
+            count += slot.m_logs.size();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of logs dropped before having been output, because the
+     * blocks holding them were replaced
+     *
+     * @return The number of logs
+     */
+    public long getDroppedLogCount()
+    {
+        return m_droppedCount;
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        for (BlockSlot slot : m_slots)
+        {
+            slot.reset(-1, null);
+        }
+        m_head = -1;
+        m_confirmed = -1;
+        m_droppedCount = 0;
+    }
+
+    @Override
+    public Processor duplicate(boolean with_state)
+    {
+        return new ConfirmEthLogs(m_depth);
+    }
+
+    /**
+     * The logs of a block waiting for confirmations
+     */
+    private static class BlockSlot
+    {
+        private long m_number = -1;
+
+        private String m_hash;
+
+        private final List<Log> m_logs = new ArrayList<>();
+
+        void reset(long number, String hash)
+        {
+            m_number = number;
+            m_hash = hash;
+            m_logs.clear();
+        }
+
+        /**
+         * Removes the buffered log a removed log refers to
+         *
+         * @param removed
+         *          The removed log
+         *
+         * @return true if a log was removed, false otherwise
+         */
+        boolean remove(Log removed)
+        {
+            Iterator<Log> it = m_logs.iterator();
+            while (it.hasNext())
+            {
+                Log log = it.next();
+                if (Objects.equals(log.getTransactionHash(), removed.getTransactionHash())
+                        && Objects.equals(log.getLogIndexRaw(), removed.getLogIndexRaw())
+                        && Objects.equals(log.getBlockHash(), removed.getBlockHash()))
+                {
+                    it.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.crypto.Hash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Assigns keys, such as contract addresses, to a set of workers with
+ * consistent hashing: when a worker joins or leaves, only the keys it takes or
+ * gives back move, and the other keys keep their worker.
+ *
+ * Each worker is placed at several points of a ring of 64-bit hashes, and a key
+ * goes to the worker of the first point following its hash. Workers agreeing
+ * on the same set of workers thus agree on the assignment of every key without
+ * talking to each other.
+ */
+public class ConsistentHashRing
+{
+    /**
+     * The default number of points of each worker on the ring
+     */
+    public static final int DEFAULT_REPLICAS = 64;
+
+    /**
+     * The number of points of each worker on the ring
+     */
+    private final int m_replicas;
+
+    /**
+     * The workers, by position of their points on the ring
+     */
+    private final TreeMap<Long, String> m_ring = new TreeMap<>();
+
+    /**
+     * The workers on the ring
+     */
+    private final TreeSet<String> m_workers = new TreeSet<>();
+
+    /**
+     * Creates an empty ring with {@link #DEFAULT_REPLICAS} points per worker
+     */
+    public ConsistentHashRing()
+    {
+        this(DEFAULT_REPLICAS);
+    }
+
+    /**
+     * Creates an empty ring
+     *
+     * @param replicas
+     *          The number of points of each worker on the ring; more points
+     *          spread the keys more evenly
+     */
+    public ConsistentHashRing(int replicas)
+    {
+        m_replicas = replicas;
+    }
+
+    /**
+     * Adds a worker to the ring
+     *
+     * @param worker
+     *          The identifier of the worker
+     *
+     * @return This ring
+     */
+    public ConsistentHashRing add(String worker)
+    {
+        if (m_workers.add(worker))
+        {
+            for (int i = 0; i < m_replicas; i++)
+            {
+                // On the unlikely collision, the smallest identifier wins on every worker
+                m_ring.merge(hash(worker + "#" + i), worker, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Removes a worker from the ring
+     *
+     * @param worker
+     *          The identifier of the worker
+     *
+     * @return This ring
+     */
+    public ConsistentHashRing remove(String worker)
+    {
+        if (m_workers.remove(worker))
+        {
+            m_ring.values().removeIf(worker::equals);
+            // Points the worker had lost to another worker on a collision
+            for (String w : m_workers)
+            {
+                for (int i = 0; i < m_replicas; i++)
+                {
+                    m_ring.putIfAbsent(hash(w + "#" + i), w);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Gets the workers on the ring
+     *
+     * @return The identifiers of the workers, in alphabetical order
+     */
+    public Collection<String> getWorkers()
+    {
+        return Collections.unmodifiableSet(m_workers);
+    }
+
+    /**
+     * Gets the worker a key is assigned to
+     *
+     * @param key
+     *          The key
+     *
+     * @return The identifier of the worker, or null if the ring is empty
+     */
+    public String get(String key)
+    {
+        if (m_ring.isEmpty())
+        {
+            return null;
+        }
+        SortedMap<Long, String> tail = m_ring.tailMap(hash(key));
+        return tail.isEmpty() ? m_ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    /**
+     * Assigns keys to the workers
+     *
+     * @param keys
+     *          The keys
+     *
+     * @return The keys assigned to each worker, for every worker on the ring
+     */
+    public Map<String, List<String>> assign(Collection<String> keys)
+    {
+        Map<String, List<String>> assignment = new TreeMap<>();
+        for (String worker : m_workers)
+        {
+            assignment.put(worker, new ArrayList<>());
+        }
+        for (String key : keys)
+        {
+            String worker = get(key);
+            if (worker != null)
+            {
+                assignment.get(worker).add(key);
+            }
+        }
+        return assignment;
+    }
+
+    /**
+     * Computes the position of a string on the ring
+     *
+     * @param s
+     *          The string
+     *
+     * @return The first 64 bits of the Keccak-256 hash of the string
+     */
+    private static long hash(String s)
+    {
+        return ByteBuffer.wrap(Hash.sha3(s.getBytes(StandardCharsets.UTF_8))).getLong();
+    }
+}
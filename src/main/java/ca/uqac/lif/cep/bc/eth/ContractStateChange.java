@@ -0,0 +1,102 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.abi.datatypes.Function;
+
+import java.util.Arrays;
+
+/**
+ * A new value returned by a view function of a contract, as output by
+ * {@link PollEthContractState}.
+ */
+public class ContractStateChange
+{
+    /**
+     * The address of the contract
+     */
+    private final String m_contractAddress;
+
+    /**
+     * The function called
+     */
+    private final Function m_function;
+
+    /**
+     * The number of the block at which the function was called
+     */
+    private final long m_blockNumber;
+
+    /**
+     * The values returned by the function
+     */
+    private final Object[] m_values;
+
+    /**
+     * Creates a state change
+     *
+     * @param contract_address
+     *          The address of the contract
+     *
+     * @param function
+     *          The function called
+     *
+     * @param block_number
+     *          The number of the block at which the function was called
+     *
+     * @param values
+     *          The values returned by the function, in the order of its outputs
+     */
+    public ContractStateChange(String contract_address, Function function, long block_number, Object[] values)
+    {
+        m_contractAddress = contract_address;
+        m_function = function;
+        m_blockNumber = block_number;
+        m_values = values;
+    }
+
+    /**
+     * Gets the address of the contract
+     *
+     * @return The address
+     */
+    public String getContractAddress()
+    {
+        return m_contractAddress;
+    }
+
+    /**
+     * Gets the function called, as given to {@link PollEthContractState#watch(String, Function)}
+     *
+     * @return The function
+     */
+    public Function getFunction()
+    {
+        return m_function;
+    }
+
+    /**
+     * Gets the number of the block at which the function was called
+     *
+     * @return The block number
+     */
+    public long getBlockNumber()
+    {
+        return m_blockNumber;
+    }
+
+    /**
+     * Gets the values returned by the function
+     *
+     * @return The values, in the order of the outputs of the function
+     */
+    public Object[] getValues()
+    {
+        return m_values;
+    }
+
+    @Override
+    public String toString()
+    {
+        return m_contractAddress + "." + m_function.getName() + "() at block " + m_blockNumber
+                + ": " + Arrays.toString(m_values);
+    }
+}
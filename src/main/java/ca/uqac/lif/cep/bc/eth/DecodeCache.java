@@ -0,0 +1,498 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Keeps the parameters decoded from logs, so that a log decoded again with
+ * the same {@link org.web3j.abi.datatypes.Event}, e.g. by several monitors
+ * sharing the cache, or by a replay or an overlapping backfill, costs a lookup
+ * instead of a decoding. A cache is given to each
+ * {@link GetEthEventParameters} with
+ * {@link GetEthEventParameters#setCache(DecodeCache)}, and is meant to be
+ * shared by all of them.
+ *
+ * A log is identified by the hash of its transaction, its index and the hash
+ * of its block, so that the same transaction mined in another block after a
+ * reorganization is another log. Logs without a transaction hash or an index
+ * (e.g. pending logs) are not cached.
+ *
+ * The number of entries is bounded. Which entry is evicted is decided as with
+ * W-TinyLFU: new entries go to a small LRU window, and an entry leaving the
+ * window only enters the main space if it has been asked for more often than
+ * the entry it would evict, according to a sketch of the recent frequencies.
+ * The main space is a segmented LRU, where entries asked for again are
+ * protected from the entries asked for only once. Scans of logs seen only once,
+ * such as a backfill, then do not evict the logs that are decoded over and
+ * over.
+ *
+ * The methods are synchronized. The decoding of a missing entry is done out of
+ * the lock, so that threads decoding different logs do not wait for each other.
+ */
+public class DecodeCache
+{
+    /**
+     * The default maximum number of entries
+     */
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    /**
+     * The maximum number of entries
+     */
+    private final int m_maxSize;
+
+    /**
+     * The maximum number of entries in the window
+     */
+    private final int m_windowMax;
+
+    /**
+     * The maximum number of entries in the main space
+     */
+    private final int m_mainMax;
+
+    /**
+     * The maximum number of entries in the protected segment of the main space
+     */
+    private final int m_protectedMax;
+
+    /**
+     * The entries most recently added, the least recently used first
+     */
+    private final LinkedHashMap<Key, Object[]> m_window = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The entries of the main space asked for once since they entered it, the
+     * least recently used first
+     */
+    private final LinkedHashMap<Key, Object[]> m_probation = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The entries of the main space asked for again since they entered it, the
+     * least recently used first
+     */
+    private final LinkedHashMap<Key, Object[]> m_protected = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The recent frequencies of the keys
+     */
+    private final FrequencySketch m_sketch;
+
+    /**
+     * The number of lookups that found their entry
+     */
+    private long m_hitCount = 0;
+
+    /**
+     * The number of lookups that did not find their entry
+     */
+    private long m_missCount = 0;
+
+    /**
+     * The number of entries evicted, or refused by the main space
+     */
+    private long m_evictionCount = 0;
+
+    /**
+     * Creates a cache of {@link #DEFAULT_MAX_SIZE} entries
+     */
+    public DecodeCache()
+    {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a cache
+     *
+     * @param max_size
+     *          The maximum number of entries
+     */
+    public DecodeCache(int max_size)
+    {
+        super();
+        if (max_size < 1)
+        {
+            throw new IllegalArgumentException("The cache must hold at least one entry");
+        }
+        m_maxSize = max_size;
+        m_windowMax = Math.max(1, max_size / 100);
+        m_mainMax = max_size - m_windowMax;
+        m_protectedMax = m_mainMax * 4 / 5;
+        m_sketch = new FrequencySketch(max_size);
+    }
+
+    /**
+     * Gets the parameters decoded from a log, decoding them if they are not in
+     * the cache
+     *
+     * @param log
+     *          The log
+     *
+     * @param decoder
+     *          Identifies the way the log is decoded: logs decoded the same way
+     *          must give equal values, and logs decoded differently different ones
+     *
+     * @param decode
+     *          Decodes the log when it is not in the cache
+     *
+     * @return The parameters, in an array of its own that can be modified
+     */
+    public Object[] get(Log log, String decoder, Function<Log, Object[]> decode)
+    {
+        Key key = Key.of(log, decoder);
+        if (key == null)
+        {
+            return decode.apply(log);
+        }
+        Object[] values = lookup(key);
+        if (values != null)
+        {
+            return values.clone();
+        }
+        values = decode.apply(log);
+        add(key, values.clone());
+        return values;
+    }
+
+    /**
+     * Looks for an entry, counting the lookup and moving the entry ahead
+     *
+     * @param key
+     *          The key of the entry
+     *
+     * @return The values of the entry, or null if there is none
+     */
+    private synchronized Object[] lookup(Key key)
+    {
+        m_sketch.increment(key.hashCode());
+        Object[] values = m_window.get(key);
+        if (values == null)
+        {
+            values = m_protected.get(key);
+        }
+        if (values == null)
+        {
+            values = m_probation.remove(key);
+            if (values != null)
+            {
+                // Asked for again: the entry is protected, and the least
+                // recently used protected entry goes back to probation
+                m_protected.put(key, values);
+                if (m_protected.size() > m_protectedMax)
+                {
+                    Map.Entry<Key, Object[]> demoted = removeEldest(m_protected);
+                    m_probation.put(demoted.getKey(), demoted.getValue());
+                }
+            }
+        }
+        if (values == null)
+        {
+            m_missCount++;
+        }
+        else
+        {
+            m_hitCount++;
+        }
+        return values;
+    }
+
+    /**
+     * Adds an entry to the window, making room for it if needed
+     *
+     * @param key
+     *          The key of the entry
+     *
+     * @param values
+     *          The values of the entry
+     */
+    private synchronized void add(Key key, Object[] values)
+    {
+        if (m_window.containsKey(key) || m_probation.containsKey(key) || m_protected.containsKey(key))
+        {
+            // added by another thread in the meantime
+            return;
+        }
+        m_window.put(key, values);
+        if (m_window.size() <= m_windowMax)
+        {
+            return;
+        }
+        Map.Entry<Key, Object[]> candidate = removeEldest(m_window);
+        if (m_probation.size() + m_protected.size() < m_mainMax)
+        {
+            m_probation.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+        m_evictionCount++;
+        LinkedHashMap<Key, Object[]> victims = m_probation.isEmpty() ? m_protected : m_probation;
+        if (victims.isEmpty())
+        {
+            return;
+        }
+        Key victim = victims.keySet().iterator().next();
+        if (m_sketch.frequency(candidate.getKey().hashCode()) > m_sketch.frequency(victim.hashCode()))
+        {
+            victims.remove(victim);
+            m_probation.put(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    private static Map.Entry<Key, Object[]> removeEldest(LinkedHashMap<Key, Object[]> map)
+    {
+        Iterator<Map.Entry<Key, Object[]>> it = map.entrySet().iterator();
+        Map.Entry<Key, Object[]> eldest = it.next();
+        Map.Entry<Key, Object[]> copy = new AbstractMap.SimpleImmutableEntry<>(eldest);
+        it.remove();
+        return copy;
+    }
+
+    /**
+     * Gets the number of entries in the cache
+     *
+     * @return The number of entries
+     */
+    public synchronized int size()
+    {
+        return m_window.size() + m_probation.size() + m_protected.size();
+    }
+
+    /**
+     * Gets the maximum number of entries in the cache
+     *
+     * @return The number of entries
+     */
+    public int getMaxSize()
+    {
+        return m_maxSize;
+    }
+
+    /**
+     * Gets the number of lookups that found their entry
+     *
+     * @return The number of lookups
+     */
+    public synchronized long getHitCount()
+    {
+        return m_hitCount;
+    }
+
+    /**
+     * Gets the number of lookups that did not find their entry
+     *
+     * @return The number of lookups
+     */
+    public synchronized long getMissCount()
+    {
+        return m_missCount;
+    }
+
+    /**
+     * Gets the fraction of the lookups that found their entry
+     *
+     * @return The ratio, between 0 and 1, or 0 if there was no lookup
+     */
+    public synchronized double getHitRatio()
+    {
+        long lookups = m_hitCount + m_missCount;
+        return lookups == 0 ? 0 : (double) m_hitCount / lookups;
+    }
+
+    /**
+     * Gets the number of entries evicted, or not kept, to make room for others
+     *
+     * @return The number of entries
+     */
+    public synchronized long getEvictionCount()
+    {
+        return m_evictionCount;
+    }
+
+    /**
+     * Empties the cache and forgets its statistics
+     */
+    public synchronized void clear()
+    {
+        m_window.clear();
+        m_probation.clear();
+        m_protected.clear();
+        m_sketch.clear();
+        m_hitCount = 0;
+        m_missCount = 0;
+        m_evictionCount = 0;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "size=" + size() + "/" + m_maxSize + ", hits=" + m_hitCount + ", misses=" + m_missCount
+                + ", evictions=" + m_evictionCount;
+    }
+
+    /**
+     * Identifies a log and the way it is decoded
+     */
+    private static class Key
+    {
+        private final byte[] m_transactionHash;
+
+        private final byte[] m_blockHash;
+
+        private final long m_logIndex;
+
+        private final String m_decoder;
+
+        private final int m_hashCode;
+
+        private Key(byte[] transaction_hash, byte[] block_hash, long log_index, String decoder)
+        {
+            m_transactionHash = transaction_hash;
+            m_blockHash = block_hash;
+            m_logIndex = log_index;
+            m_decoder = decoder;
+            int h = Arrays.hashCode(transaction_hash);
+            h = 31 * h + Arrays.hashCode(block_hash);
+            h = 31 * h + Long.hashCode(log_index);
+            m_hashCode = 31 * h + decoder.hashCode();
+        }
+
+        /**
+         * Gets the key of a log
+         *
+         * @return The key, or null if the log cannot be identified
+         */
+        static Key of(Log log, String decoder)
+        {
+            if (log instanceof CompactLog)
+            {
+                CompactLog compact = (CompactLog) log;
+                if (compact.getTransactionHashBytes() == null || compact.getLogIndexValue() < 0)
+                {
+                    return null;
+                }
+                return new Key(compact.getTransactionHashBytes(), compact.getBlockHashBytes(),
+                        compact.getLogIndexValue(), decoder);
+            }
+            if (log.getTransactionHash() == null || log.getLogIndexRaw() == null)
+            {
+                return null;
+            }
+            return new Key(HexUtils.fromHex(log.getTransactionHash()),
+                    log.getBlockHash() == null ? null : HexUtils.fromHex(log.getBlockHash()),
+                    EthLogCodec.parseQuantity(log.getLogIndexRaw()), decoder);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            Key k = (Key) o;
+            return m_hashCode == k.m_hashCode && m_logIndex == k.m_logIndex
+                    && Arrays.equals(m_transactionHash, k.m_transactionHash)
+                    && Arrays.equals(m_blockHash, k.m_blockHash) && m_decoder.equals(k.m_decoder);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return m_hashCode;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters, halved every time ten times as many
+     * increments as there are entries in the cache have been counted, so that
+     * it tells the recent frequency of a key
+     */
+    private static class FrequencySketch
+    {
+        /**
+         * The seeds of the hash of each row
+         */
+        private static final long[] SEEDS = {0x97cb3127L, 0xab3a8b1dL, 0xc2b2ae3dL, 0x27d4eb2fL};
+
+        /**
+         * The counters, a row per hash
+         */
+        private final byte[][] m_counters;
+
+        /**
+         * The mask giving a column from a hash
+         */
+        private final int m_mask;
+
+        /**
+         * The number of increments after which the counters are halved
+         */
+        private final int m_sampleSize;
+
+        /**
+         * The number of increments since the counters were last halved
+         */
+        private int m_samples = 0;
+
+        FrequencySketch(int max_size)
+        {
+            int width = Integer.highestOneBit(Math.max(16, max_size - 1) * 2);
+            m_counters = new byte[SEEDS.length][width];
+            m_mask = width - 1;
+            m_sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * max_size);
+        }
+
+        private int column(int hash, int row)
+        {
+            long h = (hash ^ SEEDS[row]) * 0x9e3779b97f4a7c15L;
+            return (int) (h ^ (h >>> 32)) & m_mask;
+        }
+
+        void increment(int hash)
+        {
+            for (int row = 0; row < m_counters.length; row++)
+            {
+                int column = column(hash, row);
+                if (m_counters[row][column] < 15)
+                {
+                    m_counters[row][column]++;
+                }
+            }
+            if (++m_samples >= m_sampleSize)
+            {
+                for (byte[] counters : m_counters)
+                {
+                    for (int i = 0; i < counters.length; i++)
+                    {
+                        counters[i] >>= 1;
+                    }
+                }
+                m_samples /= 2;
+            }
+        }
+
+        int frequency(int hash)
+        {
+            int frequency = 15;
+            for (int row = 0; row < m_counters.length; row++)
+            {
+                frequency = Math.min(frequency, m_counters[row][column(hash, row)]);
+            }
+            return frequency;
+        }
+
+        void clear()
+        {
+            for (byte[] counters : m_counters)
+            {
+                Arrays.fill(counters, (byte) 0);
+            }
+            m_samples = 0;
+        }
+    }
+}
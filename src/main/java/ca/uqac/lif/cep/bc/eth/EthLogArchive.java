@@ -0,0 +1,645 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * A local store of {@link Log}s, kept in memory-mapped segment files, that
+ * answers historical range queries without contacting an Ethereum node.
+ *
+ * Logs are appended to fixed-size segment files using the format of
+ * {@link EthLogCodec}. Three in-memory indexes point to their position: by block
+ * number, by contract address and by first topic (i.e. the event signature).
+ * They are rebuilt by scanning the segments when the archive is opened.
+ *
+ * The archive also remembers, for each contract address, which block ranges it
+ * holds all the logs of (its <em>coverage</em>). This tells a client such as
+ * {@link CatchEthContractLogs} which blocks it still has to ask the node for.
+ * A log is only appended once, so that clients sharing the archive can fill
+ * the same missing range at the same time without duplicating its logs.
+ */
+public class EthLogArchive
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger LOGGER = Logger.getLogger(EthLogArchive.class.getName());
+
+    /**
+     * The default size of a segment file, in bytes
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    /**
+     * The name of the file holding the coverage of the archive
+     */
+    private static final String COVERAGE_FILE = "coverage.txt";
+
+    /**
+     * Orders logs by their position in the chain
+     */
+    static final Comparator<Log> CHAIN_ORDER = Comparator
+            .comparingLong((Log l) -> EthLogCodec.blockNumber(l))
+            .thenComparingLong(l -> EthLogCodec.logIndex(l));
+
+    /**
+     * The directory holding the segment files
+     */
+    private final File m_directory;
+
+    /**
+     * The size of a segment file
+     */
+    private final int m_segmentSize;
+
+    /**
+     * The mapped segment files, in order
+     */
+    private final List<MappedByteBuffer> m_segments = new ArrayList<>();
+
+    /**
+     * The position at which the next record is written in the last segment
+     */
+    private int m_writePosition;
+
+    /**
+     * The index of the first segment written since the segments were last
+     * forced to disk, or the number of segments if none was. Only the last
+     * segment is written to, so the segments before this one are on disk.
+     */
+    private int m_firstDirtySegment;
+
+    /**
+     * The positions of the logs of each block
+     */
+    private final NavigableMap<Long, LongList> m_blockIndex = new TreeMap<>();
+
+    /**
+     * The positions of the logs of each contract address
+     */
+    private final Map<String, LongList> m_addressIndex = new HashMap<>();
+
+    /**
+     * The positions of the logs for each first topic
+     */
+    private final Map<String, LongList> m_topicIndex = new HashMap<>();
+
+    /**
+     * For each contract address, the covered block ranges (first block mapped to last block)
+     */
+    private final Map<String, NavigableMap<Long, Long>> m_coverage = new HashMap<>();
+
+    /**
+     * Buffer in which each record is encoded
+     */
+    private ByteBuffer m_recordBuffer = ByteBuffer.allocate(EthLogCodec.DEFAULT_BUFFER_SIZE);
+
+    /**
+     * Opens an archive, creating it if the directory is empty
+     *
+     * @param directory
+     *          The directory holding the files of the archive
+     *
+     * @throws IOException if the archive cannot be read or created
+     */
+    public EthLogArchive(File directory) throws IOException
+    {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens an archive, creating it if the directory is empty
+     *
+     * @param directory
+     *          The directory holding the files of the archive
+     *
+     * @param segment_size
+     *          The size of new segment files, in bytes
+     *
+     * @throws IOException if the archive cannot be read or created
+     */
+    public EthLogArchive(File directory, int segment_size) throws IOException
+    {
+        super();
+        m_directory = directory;
+        m_segmentSize = segment_size;
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Cannot create directory " + directory.getAbsolutePath());
+        }
+        int segmentNb = 0;
+        while (segmentFile(segmentNb).exists())
+        {
+            segmentNb++;
+        }
+        for (int i = 0; i < segmentNb; i++)
+        {
+            m_segments.add(map(segmentFile(i)));
+            m_writePosition = scan(i);
+        }
+        m_firstDirtySegment = segmentNb;
+        readCoverage();
+        LOGGER.info("Opened archive " + directory.getAbsolutePath() + " with "
+                + m_blockIndex.size() + " blocks in " + segmentNb + " segments");
+    }
+
+    /**
+     * Appends a log to the archive, unless it already holds it: several
+     * catchers sharing the archive may ask the node for the same blocks at the
+     * same time. A log is identified by the hash of its block and its index.
+     *
+     * @param log
+     *          The log to append
+     *
+     * @return true if the log was appended, false if the archive already held it
+     *
+     * @throws IOException if a new segment file cannot be created
+     */
+    public synchronized boolean append(Log log) throws IOException
+    {
+        if (contains(log))
+        {
+            return false;
+        }
+        m_recordBuffer = EthLogCodec.encodeRecord(log, System.currentTimeMillis(), m_recordBuffer);
+        int length = m_recordBuffer.remaining();
+        if (length > m_segmentSize - EthLogCodec.MAGIC.length)
+        {
+            throw new IOException("Log too large for a segment of " + m_segmentSize + " bytes");
+        }
+        if (m_segments.isEmpty() || m_writePosition + length > m_segmentSize)
+        {
+            MappedByteBuffer segment = map(segmentFile(m_segments.size()));
+            segment.duplicate().put(EthLogCodec.MAGIC);
+            m_segments.add(segment);
+            m_writePosition = EthLogCodec.MAGIC.length;
+        }
+        int segmentIndex = m_segments.size() - 1;
+        ByteBuffer segment = m_segments.get(segmentIndex).duplicate();
+        segment.position(m_writePosition);
+        segment.put(m_recordBuffer);
+        m_firstDirtySegment = Math.min(m_firstDirtySegment, segmentIndex);
+        index(log, position(segmentIndex, m_writePosition));
+        m_writePosition += length;
+        return true;
+    }
+
+    /**
+     * Checks if the archive holds a log
+     *
+     * @param log
+     *          The log
+     *
+     * @return true if a log of the same block with the same index is archived
+     */
+    private boolean contains(Log log)
+    {
+        LongList positions = m_blockIndex.get(EthLogCodec.blockNumber(log));
+        if (positions == null)
+        {
+            return false;
+        }
+        byte[] blockHash = log.getBlockHash() == null ? null : HexUtils.fromHex(log.getBlockHash());
+        long logIndex = EthLogCodec.logIndex(log);
+        for (int i = 0; i < positions.size(); i++)
+        {
+            long position = positions.get(i);
+            ByteBuffer segment = m_segments.get((int) (position >>> 32)).duplicate();
+            segment.position((int) position);
+            if (EthLogCodec.hasIdentity(segment, blockHash, logIndex))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records that the archive holds all the logs of a contract in a range of blocks
+     *
+     * @param address
+     *          The address of the contract
+     *
+     * @param from
+     *          The first block of the range
+     *
+     * @param to
+     *          The last block of the range
+     *
+     * @throws IOException if the coverage cannot be saved
+     */
+    public synchronized void markCovered(String address, long from, long to) throws IOException
+    {
+        if (from > to)
+        {
+            return;
+        }
+        cover(address, from, to);
+        writeCoverage();
+    }
+
+    /**
+     * Records that the archive holds all the logs of contracts in ranges of
+     * blocks, saving the coverage once for all of them
+     *
+     * @param ranges
+     *          For each contract address, the ranges, each as an array
+     *          {first block, last block}
+     *
+     * @throws IOException if the coverage cannot be saved
+     */
+    public synchronized void markCovered(Map<String, List<long[]>> ranges) throws IOException
+    {
+        boolean changed = false;
+        for (Map.Entry<String, List<long[]>> entry : ranges.entrySet())
+        {
+            for (long[] range : entry.getValue())
+            {
+                if (range[0] <= range[1])
+                {
+                    cover(entry.getKey(), range[0], range[1]);
+                    changed = true;
+                }
+            }
+        }
+        if (changed)
+        {
+            writeCoverage();
+        }
+    }
+
+    /**
+     * Adds a range of blocks to the coverage of a contract, merging it with
+     * the ranges it overlaps or touches
+     *
+     * @param address
+     *          The address of the contract
+     *
+     * @param from
+     *          The first block of the range
+     *
+     * @param to
+     *          The last block of the range
+     */
+    private void cover(String address, long from, long to)
+    {
+        NavigableMap<Long, Long> ranges = m_coverage.computeIfAbsent(address.toLowerCase(), k -> new TreeMap<>());
+        Map.Entry<Long, Long> previous = ranges.floorEntry(from);
+        if (previous != null && previous.getValue() >= from - 1)
+        {
+            from = previous.getKey();
+            to = Math.max(to, previous.getValue());
+        }
+        Map.Entry<Long, Long> next = ranges.higherEntry(from);
+        while (next != null && next.getKey() <= to + 1)
+        {
+            to = Math.max(to, next.getValue());
+            ranges.remove(next.getKey());
+            next = ranges.higherEntry(from);
+        }
+        ranges.put(from, to);
+    }
+
+    /**
+     * Gets the block ranges whose logs for a contract are not in the archive
+     *
+     * @param address
+     *          The address of the contract
+     *
+     * @param from
+     *          The first block of the queried range
+     *
+     * @param to
+     *          The last block of the queried range
+     *
+     * @return The missing ranges, in order, each as an array {first block, last block}
+     */
+    public synchronized List<long[]> getMissingRanges(String address, long from, long to)
+    {
+        List<long[]> missing = new ArrayList<>();
+        NavigableMap<Long, Long> ranges = m_coverage.get(address.toLowerCase());
+        long next = from;
+        if (ranges != null)
+        {
+            Map.Entry<Long, Long> first = ranges.floorEntry(from);
+            Long start = first == null ? ranges.ceilingKey(from) : first.getKey();
+            if (start != null)
+            {
+                for (Map.Entry<Long, Long> range : ranges.tailMap(start, true).entrySet())
+                {
+                    if (range.getKey() > to)
+                    {
+                        break;
+                    }
+                    if (range.getKey() > next)
+                    {
+                        missing.add(new long[]{next, range.getKey() - 1});
+                    }
+                    next = Math.max(next, range.getValue() + 1);
+                }
+            }
+        }
+        if (next <= to)
+        {
+            missing.add(new long[]{next, to});
+        }
+        return missing;
+    }
+
+    /**
+     * Retrieves the archived logs matching some criteria, in chain order
+     *
+     * @param address
+     *          The address of the contract, or null for any contract
+     *
+     * @param topic0
+     *          The first topic of the logs, or null for any topic
+     *
+     * @param from
+     *          The first block of the queried range
+     *
+     * @param to
+     *          The last block of the queried range
+     *
+     * @param consumer
+     *          Receives each matching log
+     */
+    public void query(String address, String topic0, long from, long to, Consumer<Log> consumer)
+    {
+        if (from > to)
+        {
+            return;
+        }
+        List<Log> logs = new ArrayList<>();
+        synchronized (this)
+        {
+            LongList candidates = null;
+            if (address != null)
+            {
+                candidates = m_addressIndex.getOrDefault(address.toLowerCase(), LongList.EMPTY);
+            }
+            if (topic0 != null)
+            {
+                LongList byTopic = m_topicIndex.getOrDefault(topic0.toLowerCase(), LongList.EMPTY);
+                if (candidates == null || byTopic.size() < candidates.size())
+                {
+                    candidates = byTopic;
+                }
+            }
+            NavigableMap<Long, LongList> blocks = m_blockIndex.subMap(from, true, to, true);
+            long blockCandidates = 0;
+            for (LongList positions : blocks.values())
+            {
+                blockCandidates += positions.size();
+                if (candidates != null && blockCandidates > candidates.size())
+                {
+                    break;
+                }
+            }
+            if (candidates == null || blockCandidates <= candidates.size())
+            {
+                for (LongList positions : blocks.values())
+                {
+                    for (int i = 0; i < positions.size(); i++)
+                    {
+                        addIfMatches(read(positions.get(i)), address, topic0, from, to, logs);
+                    }
+                }
+            }
+            else
+            {
+                for (int i = 0; i < candidates.size(); i++)
+                {
+                    addIfMatches(read(candidates.get(i)), address, topic0, from, to, logs);
+                }
+            }
+        }
+        logs.sort(CHAIN_ORDER);
+        Log previous = null;
+        for (Log log : logs)
+        {
+            // Archives written before logs were deduplicated on append may hold some twice
+            if (previous == null || CHAIN_ORDER.compare(previous, log) != 0
+                    || !Objects.equals(previous.getBlockHash(), log.getBlockHash()))
+            {
+                consumer.accept(log);
+            }
+            previous = log;
+        }
+    }
+
+    /**
+     * Gets the number of blocks having at least one log in the archive
+     *
+     * @return The number of blocks
+     */
+    public synchronized int getBlockCount()
+    {
+        return m_blockIndex.size();
+    }
+
+    /**
+     * Writes the content of the segments to disk. Only the segments written
+     * since the last call are forced.
+     */
+    public synchronized void flush()
+    {
+        for (int i = m_firstDirtySegment; i < m_segments.size(); i++)
+        {
+            m_segments.get(i).force();
+        }
+        m_firstDirtySegment = m_segments.size();
+    }
+
+    /**
+     * Writes the content of the segments to disk and releases them. The archive
+     * cannot be used afterwards.
+     */
+    public synchronized void close()
+    {
+        flush();
+        m_segments.clear();
+    }
+
+    private static void addIfMatches(Log log, String address, String topic0, long from, long to, List<Log> logs)
+    {
+        long block = EthLogCodec.blockNumber(log);
+        if (block < from || block > to)
+        {
+            return;
+        }
+        if (address != null && !address.equalsIgnoreCase(log.getAddress()))
+        {
+            return;
+        }
+        if (topic0 != null && (log.getTopics() == null || log.getTopics().isEmpty()
+                || !topic0.equalsIgnoreCase(log.getTopics().get(0))))
+        {
+            return;
+        }
+        logs.add(log);
+    }
+
+    private Log read(long position)
+    {
+        ByteBuffer segment = m_segments.get((int) (position >>> 32)).duplicate();
+        segment.position((int) position);
+        return EthLogCodec.decodeRecord(segment);
+    }
+
+    private void index(Log log, long position)
+    {
+        long block = EthLogCodec.blockNumber(log);
+        m_blockIndex.computeIfAbsent(block, k -> new LongList()).add(position);
+        if (log.getAddress() != null)
+        {
+            m_addressIndex.computeIfAbsent(log.getAddress().toLowerCase(), k -> new LongList()).add(position);
+        }
+        if (log.getTopics() != null && !log.getTopics().isEmpty())
+        {
+            m_topicIndex.computeIfAbsent(log.getTopics().get(0).toLowerCase(), k -> new LongList()).add(position);
+        }
+    }
+
+    /**
+     * Indexes the records of a segment
+     *
+     * @param segment_index
+     *          The index of the segment
+     *
+     * @return The position following the last record of the segment
+     *
+     * @throws IOException if the segment is not a log file
+     */
+    private int scan(int segment_index) throws IOException
+    {
+        ByteBuffer segment = m_segments.get(segment_index).duplicate();
+        byte[] magic = new byte[EthLogCodec.MAGIC.length];
+        segment.get(magic);
+        if (!Arrays.equals(magic, EthLogCodec.MAGIC))
+        {
+            throw new IOException(segmentFile(segment_index).getAbsolutePath() + " is not a log file");
+        }
+        // A record always has a non-empty body: a zero length marks the end of the segment
+        while (EthLogCodec.hasRecord(segment) && segment.getInt(segment.position()) > 0)
+        {
+            int position = segment.position();
+            index(EthLogCodec.decodeRecord(segment), position(segment_index, position));
+        }
+        return segment.position();
+    }
+
+    private MappedByteBuffer map(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), m_segmentSize));
+        }
+    }
+
+    private File segmentFile(int index)
+    {
+        return new File(m_directory, String.format("segment-%06d.log", index));
+    }
+
+    private static long position(int segment_index, int offset)
+    {
+        return ((long) segment_index << 32) | offset;
+    }
+
+    private void readCoverage() throws IOException
+    {
+        File file = new File(m_directory, COVERAGE_FILE);
+        if (!file.exists())
+        {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                String[] parts = line.trim().split(" ");
+                if (parts.length == 3)
+                {
+                    m_coverage.computeIfAbsent(parts[0], k -> new TreeMap<>())
+                            .put(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                }
+            }
+        }
+    }
+
+    private void writeCoverage() throws IOException
+    {
+        File temp = new File(m_directory, COVERAGE_FILE + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8))
+        {
+            for (Map.Entry<String, NavigableMap<Long, Long>> address : m_coverage.entrySet())
+            {
+                for (Map.Entry<Long, Long> range : address.getValue().entrySet())
+                {
+                    writer.write(address.getKey() + " " + range.getKey() + " " + range.getValue());
+                    writer.newLine();
+                }
+            }
+        }
+        // The logs must be on disk before the coverage says they are
+        flush();
+        Files.move(temp.toPath(), new File(m_directory, COVERAGE_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * A growable list of primitive longs
+     */
+    static class LongList
+    {
+        static final LongList EMPTY = new LongList();
+
+        private long[] m_values = new long[4];
+
+        private int m_size;
+
+        void add(long value)
+        {
+            if (m_size == m_values.length)
+            {
+                m_values = Arrays.copyOf(m_values, m_size * 2);
+            }
+            m_values[m_size++] = value;
+        }
+
+        long get(int index)
+        {
+            return m_values[index];
+        }
+
+        int size()
+        {
+            return m_size;
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact binary encoding of {@link Log}s, used to store them in files.
+ *
+ * A file starts with the 8 bytes of {@link #MAGIC}, followed by records. Each
+ * record is made of the length of its body (an int), a timestamp in milliseconds
+ * (a long) and the body itself. In the body, hexadecimal fields (hashes, address,
+ * data and topics) are stored as raw bytes preceded by their length, and
+ * quantities (block number, transaction and log indices) as variable-length
+ * integers.
+ */
+public abstract class EthLogCodec
+{
+    /**
+     * The bytes every log file starts with
+     */
+    public static final byte[] MAGIC = "BBETHLG1".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The size of the header of a record: the length of its body and its timestamp
+     */
+    public static final int RECORD_HEADER_SIZE = 12;
+
+    /**
+     * The initial size of the buffers used to encode records
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    /**
+     * Flag set when the log was removed due to a chain reorganization
+     */
+    private static final int FLAG_REMOVED = 1;
+
+    /**
+     * Encodes a record holding a log. The buffer is replaced by a larger one
+     * if the record does not fit.
+     *
+     * @param log
+     *          The log to encode
+     *
+     * @param timestamp
+     *          The timestamp of the record, in milliseconds
+     *
+     * @param buffer
+     *          The buffer to encode the record in, its content is discarded
+     *
+     * @return The buffer holding the record, ready to be read (i.e. flipped).
+     *          This is either the given buffer or a larger one.
+     */
+    public static ByteBuffer encodeRecord(Log log, long timestamp, ByteBuffer buffer)
+    {
+        while (true)
+        {
+            try
+            {
+                buffer.clear();
+                buffer.position(RECORD_HEADER_SIZE);
+                encode(log, buffer);
+                buffer.putInt(0, buffer.position() - RECORD_HEADER_SIZE);
+                buffer.putLong(4, timestamp);
+                buffer.flip();
+                return buffer;
+            }
+            catch (BufferOverflowException e)
+            {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+    }
+
+    /**
+     * Checks if a buffer holds a complete record at its current position
+     *
+     * @param buffer
+     *          The buffer
+     *
+     * @return true if a complete record can be read, false otherwise
+     */
+    public static boolean hasRecord(ByteBuffer buffer)
+    {
+        return buffer.remaining() >= RECORD_HEADER_SIZE
+                && buffer.remaining() >= RECORD_HEADER_SIZE + buffer.getInt(buffer.position());
+    }
+
+    /**
+     * Gets the timestamp of the record at the current position of a buffer,
+     * without moving the position
+     *
+     * @param buffer
+     *          The buffer
+     *
+     * @return The timestamp, in milliseconds
+     */
+    public static long peekTimestamp(ByteBuffer buffer)
+    {
+        return buffer.getLong(buffer.position() + 4);
+    }
+
+    /**
+     * Decodes the record at the current position of a buffer, and moves the
+     * position after it
+     *
+     * @param buffer
+     *          The buffer, holding a complete record
+     *
+     * @return The decoded log
+     */
+    public static Log decodeRecord(ByteBuffer buffer)
+    {
+        buffer.position(buffer.position() + RECORD_HEADER_SIZE);
+        return decode(buffer);
+    }
+
+    /**
+     * Encodes the body of a record holding a log
+     *
+     * @param log
+     *          The log to encode
+     *
+     * @param buffer
+     *          The buffer to write to
+     *
+     * @throws BufferOverflowException if the buffer is too small
+     */
+    public static void encode(Log log, ByteBuffer buffer)
+    {
+        buffer.put((byte) (log.isRemoved() ? FLAG_REMOVED : 0));
+        putQuantity(buffer, log.getBlockNumberRaw());
+        putQuantity(buffer, log.getTransactionIndexRaw());
+        putQuantity(buffer, log.getLogIndexRaw());
+        putHex(buffer, log.getBlockHash());
+        putHex(buffer, log.getTransactionHash());
+        putHex(buffer, log.getAddress());
+        putHex(buffer, log.getData());
+        putBytes(buffer, log.getType() == null ? null : log.getType().getBytes(StandardCharsets.UTF_8));
+        List<String> topics = log.getTopics();
+        if (topics == null)
+        {
+            putVarLong(buffer, 0);
+        }
+        else
+        {
+            putVarLong(buffer, topics.size() + 1L);
+            for (String topic : topics)
+            {
+                putHex(buffer, topic);
+            }
+        }
+    }
+
+    /**
+     * Decodes the body of a record holding a log
+     *
+     * @param buffer
+     *          The buffer to read from
+     *
+     * @return The decoded log
+     */
+    public static Log decode(ByteBuffer buffer)
+    {
+        int flags = buffer.get();
+        String blockNumber = getQuantity(buffer);
+        String transactionIndex = getQuantity(buffer);
+        String logIndex = getQuantity(buffer);
+        String blockHash = getHex(buffer);
+        String transactionHash = getHex(buffer);
+        String address = getHex(buffer);
+        String data = getHex(buffer);
+        byte[] type = getBytes(buffer);
+        List<String> topics = null;
+        int topicNb = (int) getVarLong(buffer) - 1;
+        if (topicNb >= 0)
+        {
+            String[] array = new String[topicNb];
+            for (int i = 0; i < topicNb; i++)
+            {
+                array[i] = getHex(buffer);
+            }
+            topics = Arrays.asList(array);
+        }
+        return new Log((flags & FLAG_REMOVED) != 0, logIndex, transactionIndex, transactionHash,
+                blockHash, blockNumber, address, data,
+                type == null ? null : new String(type, StandardCharsets.UTF_8),
+                topics == null ? null : Collections.unmodifiableList(topics));
+    }
+
+    /**
+     * Checks if a record holds a given log, comparing only what identifies a
+     * log: the hash of its block and its index in the block. The rest of the
+     * record is not decoded.
+     *
+     * @param buffer
+     *          The buffer, positioned at the start of the record. Its position
+     *          is changed.
+     *
+     * @param block_hash
+     *          The hash of the block of the log, as bytes
+     *
+     * @param log_index
+     *          The index of the log
+     *
+     * @return true if the record holds the log, false otherwise
+     */
+    static boolean hasIdentity(ByteBuffer buffer, byte[] block_hash, long log_index)
+    {
+        buffer.position(buffer.position() + RECORD_HEADER_SIZE + 1);
+        getVarLong(buffer);
+        getVarLong(buffer);
+        if (getVarLong(buffer) - 1 != log_index)
+        {
+            return false;
+        }
+        int length = (int) getVarLong(buffer) - 1;
+        if (length != (block_hash == null ? -1 : block_hash.length))
+        {
+            return false;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            if (buffer.get() != block_hash[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a hexadecimal quantity, such as a block number
+     *
+     * @param quantity
+     *          The quantity as a "0x"-prefixed hexadecimal string
+     *
+     * @return Its value, or -1 if the quantity is null
+     */
+    public static long parseQuantity(String quantity)
+    {
+        if (quantity == null)
+        {
+            return -1;
+        }
+        return Long.parseUnsignedLong(quantity.startsWith("0x") ? quantity.substring(2) : quantity, 16);
+    }
+
+    /**
+     * Gets the number of the block holding a log, without parsing it again if
+     * the log is a {@link CompactLog}
+     *
+     * @param log
+     *          The log
+     *
+     * @return The block number, or -1 if the log has none (i.e. is pending)
+     */
+    public static long blockNumber(Log log)
+    {
+        return log instanceof CompactLog ? ((CompactLog) log).getBlockNumberValue()
+                : parseQuantity(log.getBlockNumberRaw());
+    }
+
+    /**
+     * Gets the index of a log in its block, without parsing it again if the
+     * log is a {@link CompactLog}
+     *
+     * @param log
+     *          The log
+     *
+     * @return The log index, or -1 if the log has none (i.e. is pending)
+     */
+    public static long logIndex(Log log)
+    {
+        return log instanceof CompactLog ? ((CompactLog) log).getLogIndexValue()
+                : parseQuantity(log.getLogIndexRaw());
+    }
+
+    /**
+     * Formats a hexadecimal quantity, such as a block number
+     *
+     * @param value
+     *          The value, or -1 for no quantity
+     *
+     * @return The quantity as a "0x"-prefixed hexadecimal string, or null
+     */
+    public static String formatQuantity(long value)
+    {
+        return value < 0 ? null : "0x" + Long.toHexString(value);
+    }
+
+    private static void putQuantity(ByteBuffer buffer, String quantity)
+    {
+        putVarLong(buffer, parseQuantity(quantity) + 1);
+    }
+
+    private static String getQuantity(ByteBuffer buffer)
+    {
+        return formatQuantity(getVarLong(buffer) - 1);
+    }
+
+    private static void putHex(ByteBuffer buffer, String hex)
+    {
+        putBytes(buffer, hex == null ? null : HexUtils.fromHex(hex));
+    }
+
+    private static String getHex(ByteBuffer buffer)
+    {
+        int length = (int) getVarLong(buffer) - 1;
+        if (length < 0)
+        {
+            return null;
+        }
+        String hex;
+        if (buffer.hasArray())
+        {
+            hex = HexUtils.toHex(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            buffer.position(buffer.position() + length);
+        }
+        else
+        {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            hex = HexUtils.toHex(bytes);
+        }
+        return hex;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes)
+    {
+        if (bytes == null)
+        {
+            putVarLong(buffer, 0);
+        }
+        else
+        {
+            putVarLong(buffer, bytes.length + 1L);
+            buffer.put(bytes);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer)
+    {
+        int length = (int) getVarLong(buffer) - 1;
+        if (length < 0)
+        {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes a non-negative long using 7 bits per byte
+     *
+     * @param buffer
+     *          The buffer to write to
+     *
+     * @param value
+     *          The value to write
+     */
+    static void putVarLong(ByteBuffer buffer, long value)
+    {
+        while ((value & ~0x7fL) != 0)
+        {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads a long written by {@link #putVarLong(ByteBuffer, long)}
+     *
+     * @param buffer
+     *          The buffer to read from
+     *
+     * @return The value read
+     */
+    static long getVarLong(ByteBuffer buffer)
+    {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do
+        {
+            b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        }
+        while ((b & 0x80) != 0);
+        return value;
+    }
+}
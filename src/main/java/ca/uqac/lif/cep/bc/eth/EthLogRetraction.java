@@ -0,0 +1,58 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.protocol.core.methods.response.Log;
+
+/**
+ * Signals that a {@link Log} output earlier is no longer part of the chain,
+ * because the block holding it has been replaced by a reorganization.
+ *
+ * Processors keeping a state built from the logs they received can undo the
+ * effect of the retracted log, instead of computing their state again.
+ */
+public class EthLogRetraction
+{
+    /**
+     * The retracted log
+     */
+    private final Log m_log;
+
+    /**
+     * Creates a retraction
+     *
+     * @param log
+     *          The retracted log, as sent again by the node with its
+     *          <code>removed</code> flag set
+     */
+    public EthLogRetraction(Log log)
+    {
+        m_log = log;
+    }
+
+    /**
+     * Gets the retracted log
+     *
+     * @return The log
+     */
+    public Log getLog()
+    {
+        return m_log;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return o instanceof EthLogRetraction && m_log.equals(((EthLogRetraction) o).m_log);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return m_log.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Retraction of " + m_log;
+    }
+}
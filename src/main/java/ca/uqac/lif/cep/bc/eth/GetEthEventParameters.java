@@ -1,11 +1,12 @@
 package ca.uqac.lif.cep.bc.eth;
 
 import ca.uqac.lif.cep.functions.UnaryFunction;
-import org.web3j.abi.EventValues;
+import org.web3j.abi.EventEncoder;
+import org.web3j.abi.FunctionReturnDecoder;
+import org.web3j.abi.TypeReference;
 import org.web3j.abi.datatypes.Event;
 import org.web3j.abi.datatypes.Type;
 import org.web3j.protocol.core.methods.response.Log;
-import org.web3j.tx.Contract;
 
 import java.util.List;
 
@@ -38,6 +39,8 @@ import java.util.List;
  *
  * This {@link Event} can then be used to instantiate the {@link GetEthEventParameters} function.
  *
+ * The function also accepts {@link CompactLog}s, whose first topic is compared
+ * to the signature of the event without being converted to a string.
  */
 public class GetEthEventParameters extends UnaryFunction<Log, Object[]>
 {
@@ -46,6 +49,27 @@ public class GetEthEventParameters extends UnaryFunction<Log, Object[]>
      */
     private Event m_event;
 
+    /**
+     * The signature of the {@link Event}, i.e. the first topic of its logs
+     */
+    private final String m_signature;
+
+    /**
+     * The signature of the {@link Event}, as bytes
+     */
+    private final byte[] m_signatureBytes;
+
+    /**
+     * Identifies the way this function decodes logs in a {@link DecodeCache}:
+     * events with the same signature may differ by which parameters are indexed
+     */
+    private final String m_decoder;
+
+    /**
+     * The cache of the parameters decoded, or null
+     */
+    private DecodeCache m_cache;
+
     /**
      * Initializes a {@link GetEthEventParameters} function.
      *
@@ -56,6 +80,37 @@ public class GetEthEventParameters extends UnaryFunction<Log, Object[]>
     {
         super(Log.class, Object[].class);
         m_event = event;
+        m_signature = EventEncoder.encode(event);
+        m_signatureBytes = HexUtils.fromHex(m_signature);
+        StringBuilder decoder = new StringBuilder(m_signature);
+        for (TypeReference<Type> t : event.getIndexedParameters())
+        {
+            decoder.append(',').append(t.getType().getTypeName());
+        }
+        decoder.append(';');
+        for (TypeReference<Type> t : event.getNonIndexedParameters())
+        {
+            decoder.append(',').append(t.getType().getTypeName());
+        }
+        m_decoder = decoder.toString();
+    }
+
+    /**
+     * Makes the function look for the parameters of each log in a cache before
+     * decoding them, and add them to it otherwise. The same cache is meant to
+     * be given to all the functions decoding the same logs, such as the
+     * functions of several monitors or of a replay, so that a log is decoded
+     * only once.
+     *
+     * @param cache
+     *          The cache, or null to decode every log
+     *
+     * @return This function
+     */
+    public GetEthEventParameters setCache(DecodeCache cache)
+    {
+        m_cache = cache;
+        return this;
     }
 
     /**
@@ -72,14 +127,54 @@ public class GetEthEventParameters extends UnaryFunction<Log, Object[]>
     @Override
     public Object[] getValue(Log log)
     {
-        EventValues eventValues = Contract.staticExtractEventParameters(m_event, log);
-        if(eventValues == null)
+        int topicCount;
+        if (log instanceof CompactLog)
+        {
+            if (!((CompactLog) log).hasTopic0(m_signatureBytes))
+            {
+                return new Object[0];
+            }
+            // The topics are only converted to strings if the log is decoded
+            topicCount = ((CompactLog) log).getTopicCount();
+        }
+        else
+        {
+            List<String> topics = log.getTopics();
+            if (topics == null || topics.isEmpty() || !m_signature.equals(topics.get(0)))
+            {
+                return new Object[0];
+            }
+            topicCount = topics.size();
+        }
+
+        if (topicCount <= m_event.getIndexedParameters().size())
         {
             return new Object[0];
         }
+        Object[] paramValues = m_cache == null ? decode(log) : m_cache.get(log, m_decoder, this::decode);
+        if (log instanceof TracedLog)
+        {
+            LatencyTrace.carry(log, paramValues, LatencyTrace.DECODED);
+        }
+        return paramValues;
+    }
 
-        List<Type> indexedParameters = eventValues.getIndexedValues();
-        List<Type> nonIndexedParameters = eventValues.getNonIndexedValues();
+    /**
+     * Decodes the parameters of the {@link Event} in a {@link Log} whose first
+     * topic is its signature
+     *
+     * @param log
+     *          The {@link Log}
+     *
+     * @return The array containing the values of the parameters, the indexed
+     *          ones first
+     */
+    private Object[] decode(Log log)
+    {
+        List<String> topics = log.getTopics();
+        List<TypeReference<Type>> indexedParameters = m_event.getIndexedParameters();
+        List<Type> nonIndexedParameters = FunctionReturnDecoder.decode(
+                log.getData(), m_event.getNonIndexedParameters());
 
         int paramNb = indexedParameters.size() + nonIndexedParameters.size();
         Object[] paramValues = new Object[paramNb];
@@ -87,7 +182,8 @@ public class GetEthEventParameters extends UnaryFunction<Log, Object[]>
         // Filling output array with parameter values
         for(int i = 0; i < indexedParameters.size(); i++)
         {
-            paramValues[i] = indexedParameters.get(i).getValue();
+            paramValues[i] = FunctionReturnDecoder.decodeIndexedValue(
+                    topics.get(i + 1), indexedParameters.get(i)).getValue();
         }
         for(int i = indexedParameters.size(); i < paramNb; i++)
         {
@@ -0,0 +1,133 @@
+package ca.uqac.lif.cep.bc.eth;
+
+/**
+ * Conversions between hexadecimal strings, as found in the JSON-RPC responses
+ * of an Ethereum node, and bytes.
+ *
+ * These are much faster than their counterparts in web3j's
+ * {@link org.web3j.utils.Numeric}, which formats each byte separately.
+ */
+public abstract class HexUtils
+{
+    /**
+     * The hexadecimal digits, in lower case
+     */
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Converts bytes into a hexadecimal string starting with "0x"
+     *
+     * @param bytes
+     *          The bytes to convert
+     *
+     * @param offset
+     *          The index of the first byte to convert
+     *
+     * @param length
+     *          The number of bytes to convert
+     *
+     * @return The hexadecimal string, in lower case
+     */
+    public static String toHex(byte[] bytes, int offset, int length)
+    {
+        char[] chars = new char[2 + 2 * length];
+        chars[0] = '0';
+        chars[1] = 'x';
+        for (int i = 0; i < length; i++)
+        {
+            int b = bytes[offset + i] & 0xff;
+            chars[2 + 2 * i] = DIGITS[b >>> 4];
+            chars[3 + 2 * i] = DIGITS[b & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Converts bytes into a hexadecimal string starting with "0x"
+     *
+     * @param bytes
+     *          The bytes to convert
+     *
+     * @return The hexadecimal string, in lower case
+     */
+    public static String toHex(byte[] bytes)
+    {
+        return toHex(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Converts a hexadecimal string into bytes. An odd number of digits is
+     * handled as if the string was left-padded with a zero.
+     *
+     * @param hex
+     *          The hexadecimal string, with or without the "0x" prefix
+     *
+     * @return The bytes
+     *
+     * @throws IllegalArgumentException if the string contains a non-hexadecimal character
+     */
+    public static byte[] fromHex(String hex)
+    {
+        int start = hex.startsWith("0x") || hex.startsWith("0X") ? 2 : 0;
+        int digits = hex.length() - start;
+        byte[] bytes = new byte[(digits + 1) / 2];
+        int pos = hex.length() - 1;
+        for (int i = bytes.length - 1; i >= 0; i--)
+        {
+            int low = digit(hex.charAt(pos--));
+            int high = pos >= start ? digit(hex.charAt(pos--)) : 0;
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * Converts a hexadecimal string into bytes written at the end of an
+     * existing array, the bytes before them being set to zero. Digits that do
+     * not fit in the array are ignored.
+     *
+     * @param hex
+     *          The hexadecimal string, with or without the "0x" prefix
+     *
+     * @param dest
+     *          The array receiving the bytes
+     *
+     * @throws IllegalArgumentException if the string contains a non-hexadecimal character
+     */
+    public static void fromHex(String hex, byte[] dest)
+    {
+        int start = hex.startsWith("0x") || hex.startsWith("0X") ? 2 : 0;
+        int pos = hex.length() - 1;
+        for (int i = dest.length - 1; i >= 0; i--)
+        {
+            int low = pos >= start ? digit(hex.charAt(pos--)) : 0;
+            int high = pos >= start ? digit(hex.charAt(pos--)) : 0;
+            dest[i] = (byte) ((high << 4) | low);
+        }
+    }
+
+    /**
+     * Gets the value of a hexadecimal digit
+     *
+     * @param c
+     *          The digit
+     *
+     * @return Its value, between 0 and 15
+     */
+    private static int digit(char c)
+    {
+        if (c >= '0' && c <= '9')
+        {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f')
+        {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F')
+        {
+            return c - 'A' + 10;
+        }
+        throw new IllegalArgumentException("Not an hexadecimal digit: " + c);
+    }
+}
@@ -0,0 +1,204 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.UniformProcessor;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.List;
+
+/**
+ * Applies the <code>Transfer</code> events of an ERC-20 or ERC-721 contract to
+ * a {@link TokenIndex}, and outputs every event it receives unchanged.
+ *
+ * Transfers are read directly from the topics and the data of the logs, without
+ * going through the decoding of {@link GetEthEventParameters}: a log with three
+ * topics is an ERC-20 transfer, whose amount is in the data, and a log with four
+ * topics is an ERC-721 transfer, whose token identifier is the last topic. Other
+ * logs are ignored.
+ *
+ * A log with its <code>removed</code> flag set, or an {@link EthLogRetraction},
+ * undoes the transfer it refers to, so that the index follows reorganizations
+ * of the chain.
+ */
+public class IndexTokenTransfers extends UniformProcessor
+{
+    /**
+     * The first topic of the transfers, as bytes
+     */
+    private static final byte[] TRANSFER_TOPIC = HexUtils.fromHex(StandardEvents.TRANSFER_TOPIC);
+
+    /**
+     * The index the transfers are applied to
+     */
+    private TokenIndex m_index;
+
+    /**
+     * The number of transfers applied so far
+     */
+    private long m_transferCount = 0;
+
+    private final byte[] m_from = new byte[TokenIndex.ADDRESS_SIZE];
+
+    private final byte[] m_to = new byte[TokenIndex.ADDRESS_SIZE];
+
+    private final byte[] m_word = new byte[TokenIndex.WORD_SIZE];
+
+    /**
+     * Initializes the processor with an empty index
+     */
+    public IndexTokenTransfers()
+    {
+        this(new TokenIndex());
+    }
+
+    /**
+     * Initializes the processor
+     *
+     * @param index
+     *          The index the transfers are applied to, e.g. one loaded with
+     *          {@link TokenIndex#load(java.io.File)}
+     */
+    public IndexTokenTransfers(TokenIndex index)
+    {
+        super(1, 1);
+        m_index = index;
+    }
+
+    @Override
+    protected synchronized boolean compute(Object[] inputs, Object[] outputs)
+    {
+        Object o = inputs[0];
+        if (o instanceof EthLogRetraction)
+        {
+            apply(((EthLogRetraction) o).getLog(), true);
+        }
+        else if (o instanceof Log)
+        {
+            apply((Log) o, ((Log) o).isRemoved());
+        }
+        outputs[0] = o;
+        return true;
+    }
+
+    /**
+     * Applies the transfer of a log to the index
+     *
+     * @param log
+     *          The log
+     *
+     * @param undo
+     *          Whether the transfer is undone rather than applied
+     */
+    private void apply(Log log, boolean undo)
+    {
+        int topicCount;
+        if (log instanceof CompactLog)
+        {
+            CompactLog compact = (CompactLog) log;
+            topicCount = compact.getTopicCount();
+            if (!compact.hasTopic0(TRANSFER_TOPIC) || topicCount < 3 || topicCount > 4)
+            {
+                return;
+            }
+            System.arraycopy(compact.getTopicBytes(1), 12, m_from, 0, TokenIndex.ADDRESS_SIZE);
+            System.arraycopy(compact.getTopicBytes(2), 12, m_to, 0, TokenIndex.ADDRESS_SIZE);
+            if (topicCount == 4)
+            {
+                System.arraycopy(compact.getTopicBytes(3), 0, m_word, 0, TokenIndex.WORD_SIZE);
+            }
+            else
+            {
+                byte[] data = compact.getDataBytes();
+                if (data == null || data.length < TokenIndex.WORD_SIZE)
+                {
+                    return;
+                }
+                System.arraycopy(data, 0, m_word, 0, TokenIndex.WORD_SIZE);
+            }
+        }
+        else
+        {
+            List<String> topics = log.getTopics();
+            topicCount = topics == null ? 0 : topics.size();
+            if (topicCount < 3 || topicCount > 4 || !StandardEvents.TRANSFER_TOPIC.equalsIgnoreCase(topics.get(0)))
+            {
+                return;
+            }
+            HexUtils.fromHex(topics.get(1), m_from);
+            HexUtils.fromHex(topics.get(2), m_to);
+            if (topicCount == 4)
+            {
+                HexUtils.fromHex(topics.get(3), m_word);
+            }
+            else
+            {
+                String data = log.getData();
+                if (data == null || data.length() < 2 + 2 * TokenIndex.WORD_SIZE)
+                {
+                    return;
+                }
+                // the amount is the first word of the data
+                HexUtils.fromHex(data.substring(0, 2 + 2 * TokenIndex.WORD_SIZE), m_word);
+            }
+        }
+        byte[] from = undo ? m_to : m_from;
+        byte[] to = undo ? m_from : m_to;
+        if (topicCount == 4)
+        {
+            m_index.transferToken(from, to, m_word);
+        }
+        else
+        {
+            m_index.transfer(from, to, m_word);
+        }
+        long number = EthLogCodec.blockNumber(log);
+        m_index.setBlockNumber(Math.max(m_index.getBlockNumber(), number));
+        m_transferCount++;
+    }
+
+    /**
+     * Gets the index the transfers are applied to. It must not be queried from
+     * another thread while events are pushed: use {@link #snapshot()} instead.
+     *
+     * @return The index
+     */
+    public TokenIndex getIndex()
+    {
+        return m_index;
+    }
+
+    /**
+     * Gets a copy of the index as it is between two events, which later
+     * transfers do not change
+     *
+     * @return The copy
+     */
+    public synchronized TokenIndex snapshot()
+    {
+        return m_index.snapshot();
+    }
+
+    /**
+     * Gets the number of transfers applied to the index, including undone ones
+     *
+     * @return The number of transfers
+     */
+    public synchronized long getTransferCount()
+    {
+        return m_transferCount;
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        super.reset();
+        m_index = new TokenIndex();
+        m_transferCount = 0;
+    }
+
+    @Override
+    public Processor duplicate(boolean with_state)
+    {
+        return new IndexTokenTransfers(with_state ? m_index.snapshot() : new TokenIndex());
+    }
+}
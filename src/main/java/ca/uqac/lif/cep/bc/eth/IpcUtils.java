@@ -1,6 +1,7 @@
 package ca.uqac.lif.cep.bc.eth;
 
 import org.apache.commons.lang3.SystemUtils;
+import org.web3j.protocol.Web3jService;
 import org.web3j.protocol.ipc.IpcService;
 import org.web3j.protocol.ipc.UnixIpcService;
 import org.web3j.protocol.ipc.WindowsIpcService;
@@ -34,4 +35,23 @@ public abstract class IpcUtils
 
         return ipcService;
     }
+
+    /**
+     * Constructs a service towards an IPC path able to have many requests in flight
+     * at once. On UNIX, this is a {@link PipelinedUnixIpcService}; on other systems,
+     * the service returned by {@link #newIpcService(String)}.
+     *
+     * @param ipc_path
+     *          The IPC path of the Ethereum node
+     *
+     * @return the correspondent new service
+     */
+    public static Web3jService newPipelinedIpcService(String ipc_path) throws UnsupportedOperationException
+    {
+        if(SystemUtils.IS_OS_UNIX)
+        {
+            return new PipelinedUnixIpcService(ipc_path);
+        }
+        return newIpcService(ipc_path);
+    }
 }
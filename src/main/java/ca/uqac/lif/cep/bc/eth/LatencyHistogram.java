@@ -0,0 +1,239 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import java.util.Arrays;
+
+/**
+ * Counts latencies in buckets whose width grows with the value, as an
+ * HDR histogram does: values below 128 have a bucket of their own, and above,
+ * each power of two is split into 64 buckets. Any percentile is then known to
+ * within 1.6% of its value, from a fixed amount of memory whatever the number
+ * and the range of the values recorded.
+ *
+ * The methods are synchronized, so that a histogram can be read while another
+ * thread records into it.
+ */
+public class LatencyHistogram
+{
+    /**
+     * The number of bits of the values counted exactly
+     */
+    private static final int SUB_BUCKET_BITS = 7;
+
+    /**
+     * The number of values counted exactly
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of buckets of each power of two above {@link #SUB_BUCKETS}
+     */
+    private static final int HALF = SUB_BUCKETS / 2;
+
+    /**
+     * The number of values in each bucket
+     */
+    private final long[] m_counts = new long[SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF];
+
+    /**
+     * The number of values recorded
+     */
+    private long m_count = 0;
+
+    /**
+     * The sum of the values recorded
+     */
+    private long m_sum = 0;
+
+    /**
+     * The smallest value recorded
+     */
+    private long m_min = Long.MAX_VALUE;
+
+    /**
+     * The largest value recorded
+     */
+    private long m_max = 0;
+
+    /**
+     * Records a value
+     *
+     * @param value
+     *          The value, negative values being counted as 0
+     */
+    public synchronized void record(long value)
+    {
+        value = Math.max(0, value);
+        m_counts[index(value)]++;
+        m_count++;
+        m_sum += value;
+        m_min = Math.min(m_min, value);
+        m_max = Math.max(m_max, value);
+    }
+
+    /**
+     * Gets the number of values recorded
+     *
+     * @return The number of values
+     */
+    public synchronized long getCount()
+    {
+        return m_count;
+    }
+
+    /**
+     * Gets the smallest value recorded
+     *
+     * @return The value, or 0 if none was recorded
+     */
+    public synchronized long getMin()
+    {
+        return m_count == 0 ? 0 : m_min;
+    }
+
+    /**
+     * Gets the largest value recorded
+     *
+     * @return The value, or 0 if none was recorded
+     */
+    public synchronized long getMax()
+    {
+        return m_max;
+    }
+
+    /**
+     * Gets the mean of the values recorded
+     *
+     * @return The mean, or 0 if no value was recorded
+     */
+    public synchronized double getMean()
+    {
+        return m_count == 0 ? 0 : (double) m_sum / m_count;
+    }
+
+    /**
+     * Gets the value below which a given percentage of the values recorded fall
+     *
+     * @param percentile
+     *          The percentage, between 0 and 100
+     *
+     * @return The highest value of the bucket holding the percentile, bounded
+     *          by the largest value recorded, or 0 if no value was recorded
+     */
+    public synchronized long getValueAtPercentile(double percentile)
+    {
+        if (m_count == 0)
+        {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * m_count));
+        long seen = 0;
+        for (int i = 0; i < m_counts.length; i++)
+        {
+            seen += m_counts[i];
+            if (seen >= rank)
+            {
+                return Math.max(m_min, Math.min(m_max, highestValue(i)));
+            }
+        }
+        return m_max;
+    }
+
+    /**
+     * Adds the values of another histogram to this one
+     *
+     * @param h
+     *          The other histogram
+     */
+    public void add(LatencyHistogram h)
+    {
+        LatencyHistogram copy = h.copy();
+        synchronized (this)
+        {
+            for (int i = 0; i < m_counts.length; i++)
+            {
+                m_counts[i] += copy.m_counts[i];
+            }
+            m_count += copy.m_count;
+            m_sum += copy.m_sum;
+            m_min = Math.min(m_min, copy.m_min);
+            m_max = Math.max(m_max, copy.m_max);
+        }
+    }
+
+    /**
+     * Creates a copy of this histogram
+     *
+     * @return The copy
+     */
+    public synchronized LatencyHistogram copy()
+    {
+        LatencyHistogram copy = new LatencyHistogram();
+        System.arraycopy(m_counts, 0, copy.m_counts, 0, m_counts.length);
+        copy.m_count = m_count;
+        copy.m_sum = m_sum;
+        copy.m_min = m_min;
+        copy.m_max = m_max;
+        return copy;
+    }
+
+    /**
+     * Forgets the values recorded
+     */
+    public synchronized void reset()
+    {
+        Arrays.fill(m_counts, 0);
+        m_count = 0;
+        m_sum = 0;
+        m_min = Long.MAX_VALUE;
+        m_max = 0;
+    }
+
+    /**
+     * Gets the bucket of a value
+     *
+     * @param value
+     *          The value, positive or zero
+     *
+     * @return The index of the bucket
+     */
+    private static int index(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    /**
+     * Gets the highest value counted in a bucket
+     *
+     * @param index
+     *          The index of the bucket
+     *
+     * @return The value
+     */
+    private static long highestValue(int index)
+    {
+        if (index < SUB_BUCKETS)
+        {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long sub = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "count=" + m_count
+                + ", mean=" + Math.round(getMean())
+                + ", p50=" + getValueAtPercentile(50)
+                + ", p90=" + getValueAtPercentile(90)
+                + ", p99=" + getValueAtPercentile(99)
+                + ", p99.9=" + getValueAtPercentile(99.9)
+                + ", max=" + m_max;
+    }
+}
@@ -0,0 +1,316 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The times at which an event went through the stages of a pipeline, from the
+ * block holding its log to its delivery. The time between two consecutive
+ * stamps is the latency of the later stage, which a {@link RecordLatency}
+ * adds to its histograms.
+ *
+ * A {@link CatchEthContractLogs} with tracing enabled (see
+ * {@link CatchEthContractLogs#setTracing(boolean)}) pushes {@link TracedLog}s
+ * stamped with the {@link #BLOCK}, {@link #RECEIVED} and {@link #PUSHED}
+ * stages. The processors passing logs through keep the stamps with the log.
+ * The functions turning a log into an array of values, such as
+ * {@link GetEthEventParameters}, carry the stamps over to the array with
+ * {@link #carry(Object, Object[], String)}.
+ *
+ * Times are in microseconds since the epoch. They come from a monotonic clock
+ * aligned with the wall clock when the class is loaded, so that stamps taken
+ * in the same JVM can be compared with the time of a block.
+ */
+public class LatencyTrace
+{
+    /**
+     * The stage of the block holding the log, stamped with the time of the block
+     */
+    public static final String BLOCK = "block";
+
+    /**
+     * The stage of the reception of the log by the catcher
+     */
+    public static final String RECEIVED = "received";
+
+    /**
+     * The stage of the push of the log by the catcher
+     */
+    public static final String PUSHED = "pushed";
+
+    /**
+     * The stage of the decoding of the parameters of the log
+     */
+    public static final String DECODED = "decoded";
+
+    /**
+     * The stage of the delivery of the event to a {@link RecordLatency}
+     */
+    public static final String DELIVERED = "delivered";
+
+    /**
+     * The wall clock time at which the class was loaded, in microseconds
+     */
+    private static final long START_MICROS = System.currentTimeMillis() * 1000;
+
+    /**
+     * The monotonic clock time at which the class was loaded, in nanoseconds
+     */
+    private static final long START_NANOS = System.nanoTime();
+
+    /**
+     * The traces carried over to arrays of values, which are compared by
+     * identity and dropped with their array. The map is concurrent, as the
+     * lanes of a {@link RouteEthLogs} carry and look up traces in parallel.
+     */
+    private static final Map<ArrayKey, LatencyTrace> CARRIED = new ConcurrentHashMap<>();
+
+    /**
+     * The keys of {@link #CARRIED} whose array has been collected
+     */
+    private static final ReferenceQueue<Object[]> COLLECTED = new ReferenceQueue<>();
+
+    /**
+     * The names of the stages stamped
+     */
+    private String[] m_stages;
+
+    /**
+     * The times of the stamps, in microseconds since the epoch
+     */
+    private long[] m_times;
+
+    /**
+     * The number of stamps
+     */
+    private int m_size = 0;
+
+    /**
+     * Creates an empty trace
+     */
+    public LatencyTrace()
+    {
+        m_stages = new String[6];
+        m_times = new long[6];
+    }
+
+    /**
+     * Gets the current time
+     *
+     * @return The time in microseconds since the epoch
+     */
+    public static long now()
+    {
+        return START_MICROS + (System.nanoTime() - START_NANOS) / 1000;
+    }
+
+    /**
+     * Stamps a stage at the current time
+     *
+     * @param stage
+     *          The name of the stage
+     *
+     * @return This trace
+     */
+    public LatencyTrace stamp(String stage)
+    {
+        return stamp(stage, now());
+    }
+
+    /**
+     * Stamps a stage at a given time
+     *
+     * @param stage
+     *          The name of the stage
+     *
+     * @param micros
+     *          The time in microseconds since the epoch
+     *
+     * @return This trace
+     */
+    public LatencyTrace stamp(String stage, long micros)
+    {
+        if (m_size == m_stages.length)
+        {
+            m_stages = Arrays.copyOf(m_stages, m_size * 2);
+            m_times = Arrays.copyOf(m_times, m_size * 2);
+        }
+        m_stages[m_size] = stage;
+        m_times[m_size] = micros;
+        m_size++;
+        return this;
+    }
+
+    /**
+     * Gets the number of stamps
+     *
+     * @return The number of stamps
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Gets the stage of a stamp
+     *
+     * @param index
+     *          The index of the stamp, the first one at 0
+     *
+     * @return The name of the stage
+     */
+    public String getStage(int index)
+    {
+        return m_stages[index];
+    }
+
+    /**
+     * Gets the time of a stamp
+     *
+     * @param index
+     *          The index of the stamp, the first one at 0
+     *
+     * @return The time in microseconds since the epoch
+     */
+    public long getTime(int index)
+    {
+        return m_times[index];
+    }
+
+    /**
+     * Gets the time of the stamp of a stage
+     *
+     * @param stage
+     *          The name of the stage
+     *
+     * @return The time in microseconds since the epoch, or -1 if the stage
+     *          was not stamped
+     */
+    public long getTime(String stage)
+    {
+        for (int i = m_size - 1; i >= 0; i--)
+        {
+            if (m_stages[i].equals(stage))
+            {
+                return m_times[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Creates a copy of this trace, which can be stamped without changing this one
+     *
+     * @return The copy
+     */
+    public LatencyTrace copy()
+    {
+        LatencyTrace copy = new LatencyTrace();
+        copy.m_stages = Arrays.copyOf(m_stages, m_stages.length);
+        copy.m_times = Arrays.copyOf(m_times, m_times.length);
+        copy.m_size = m_size;
+        return copy;
+    }
+
+    /**
+     * Gets the trace of an event
+     *
+     * @param o
+     *          The event, e.g. a {@link TracedLog} or an array of values a trace
+     *          was carried over to
+     *
+     * @return The trace, or null if the event has none
+     */
+    public static LatencyTrace of(Object o)
+    {
+        if (o instanceof TracedLog)
+        {
+            return ((TracedLog) o).getTrace();
+        }
+        if (o instanceof Object[] && !CARRIED.isEmpty())
+        {
+            return CARRIED.get(new ArrayKey((Object[]) o, null));
+        }
+        return null;
+    }
+
+    /**
+     * Carries the trace of an event over to the array of values computed from
+     * it, and stamps a stage on the trace of the array. Nothing is done if the
+     * event has no trace.
+     *
+     * @param from
+     *          The event
+     *
+     * @param to
+     *          The array of values
+     *
+     * @param stage
+     *          The name of the stage that computed the array
+     */
+    public static void carry(Object from, Object[] to, String stage)
+    {
+        LatencyTrace trace = of(from);
+        if (trace != null)
+        {
+            Object collected;
+            while ((collected = COLLECTED.poll()) != null)
+            {
+                CARRIED.remove(collected);
+            }
+            CARRIED.put(new ArrayKey(to, COLLECTED), trace.copy().stamp(stage));
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < m_size; i++)
+        {
+            out.append(i == 0 ? "" : ", ").append(m_stages[i]).append('@').append(m_times[i]);
+        }
+        return out.toString();
+    }
+
+    /**
+     * A weak reference to an array, used as a key compared by identity
+     */
+    private static class ArrayKey extends WeakReference<Object[]>
+    {
+        /**
+         * The identity hash code of the array, kept once it is collected
+         */
+        private final int m_hash;
+
+        ArrayKey(Object[] array, ReferenceQueue<Object[]> queue)
+        {
+            super(array, queue);
+            m_hash = System.identityHashCode(array);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return m_hash;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (o == this)
+            {
+                return true;
+            }
+            if (!(o instanceof ArrayKey))
+            {
+                return false;
+            }
+            Object[] array = get();
+            return array != null && array == ((ArrayKey) o).get();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * A connection to an Ethereum node able to hand out the logs of an
+ * <code>eth_getLogs</code> call one by one, while the response is still
+ * being received, instead of once the whole response has been read.
+ */
+public interface LogStreamingService
+{
+    /**
+     * Asks the node for the logs matching a filter, and gives each of them to a
+     * consumer as soon as it has been read
+     *
+     * @param filter
+     *          The filter
+     *
+     * @param consumer
+     *          The consumer of the logs, called in the order of the response
+     *
+     * @return The number of logs read
+     *
+     * @throws IOException if the node cannot be reached or answers with an error
+     */
+    long streamLogs(EthFilter filter, Consumer<Log> consumer) throws IOException;
+}
@@ -0,0 +1,127 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.Collection;
+
+/**
+ * Operations on the <code>logsBloom</code> field of Ethereum block headers.
+ *
+ * The bloom is a 2048-bit filter to which the address and the topics of every
+ * log of the block are added. Testing a bloom tells, without asking the node
+ * for the logs of the block, that the block certainly holds no log of some
+ * contract, or that it may hold one.
+ *
+ * Each value sets three bits, given by the first three pairs of bytes of its
+ * Keccak-256 hash, modulo 2048. Bit 0 is the last bit of the last byte.
+ */
+public abstract class LogsBloom
+{
+    /**
+     * The size of a bloom, in bytes
+     */
+    public static final int SIZE = 256;
+
+    /**
+     * Adds a value to a bloom
+     *
+     * @param bloom
+     *          The bloom, modified in place
+     *
+     * @param value
+     *          The value (an address or a topic)
+     */
+    public static void add(byte[] bloom, byte[] value)
+    {
+        byte[] hash = Hash.sha3(value);
+        for (int i = 0; i < 6; i += 2)
+        {
+            int bit = bitOf(hash, i);
+            bloom[SIZE - 1 - bit / 8] |= (byte) (1 << (bit % 8));
+        }
+    }
+
+    /**
+     * Adds the address and the topics of a log to a bloom
+     *
+     * @param bloom
+     *          The bloom, modified in place
+     *
+     * @param log
+     *          The log
+     */
+    public static void add(byte[] bloom, Log log)
+    {
+        add(bloom, HexUtils.fromHex(log.getAddress()));
+        for (String topic : log.getTopics())
+        {
+            add(bloom, HexUtils.fromHex(topic));
+        }
+    }
+
+    /**
+     * Checks if a value may have been added to a bloom
+     *
+     * @param bloom
+     *          The bloom
+     *
+     * @param value
+     *          The value (an address or a topic)
+     *
+     * @return false if the value was certainly not added, true otherwise
+     */
+    public static boolean mightContain(byte[] bloom, byte[] value)
+    {
+        byte[] hash = Hash.sha3(value);
+        for (int i = 0; i < 6; i += 2)
+        {
+            int bit = bitOf(hash, i);
+            if ((bloom[SIZE - 1 - bit / 8] & (1 << (bit % 8))) == 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a block may hold logs of a contract, having one of some first topics
+     *
+     * @param bloom
+     *          The bloom of the block
+     *
+     * @param address
+     *          The address of the contract, as bytes
+     *
+     * @param topics
+     *          The accepted first topics, as bytes, or an empty collection to
+     *          accept any topic
+     *
+     * @return false if the block certainly holds no such log, true otherwise
+     */
+    public static boolean mightContainLogsOf(byte[] bloom, byte[] address, Collection<byte[]> topics)
+    {
+        if (!mightContain(bloom, address))
+        {
+            return false;
+        }
+        if (topics.isEmpty())
+        {
+            return true;
+        }
+        for (byte[] topic : topics)
+        {
+            if (mightContain(bloom, topic))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int bitOf(byte[] hash, int i)
+    {
+        return ((hash[i] & 0xff) << 8 | (hash[i + 1] & 0xff)) & 2047;
+    }
+}
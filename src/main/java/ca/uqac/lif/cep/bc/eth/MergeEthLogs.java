@@ -0,0 +1,444 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.Pushable;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+
+/**
+ * Merges the {@link Log}s of several streams into a single stream ordered by
+ * position in the chain: block number, then transaction index, then log index.
+ *
+ * Each input is typically a {@link CatchEthContractLogs} pushing from its own
+ * thread, with watermarks enabled (see
+ * {@link CatchEthContractLogs#setWatermarks(boolean)}). Logs are kept in a heap
+ * until every input has sent a {@link BlockWatermark} for their block: at that
+ * point, no input can send a log that should come before them, and they are
+ * output. The order of the output then depends only on the logs received, and
+ * not on the way the threads of the catchers were scheduled. Logs at the same
+ * position in several inputs are output in the order of the inputs.
+ *
+ * The number of buffered logs is bounded: when an input lags too far behind,
+ * the logs of the lowest buffered block are output without waiting for its
+ * watermark, and logs received later for that block or an earlier one are
+ * output as soon as they are received. Both cases are counted (see
+ * {@link #getForcedLogCount()} and {@link #getLateLogCount()}), as they are the
+ * only cases where the output may be out of order.
+ *
+ * Logs with their <code>removed</code> flag set and {@link EthLogRetraction}s
+ * are corrections of earlier logs. When the log they correct is still
+ * buffered, both are dropped; otherwise the log has already been output, and
+ * the correction is output as soon as it is received.
+ *
+ * The processor works in push mode only. It notifies the end of its trace once
+ * all its inputs have done so.
+ */
+public class MergeEthLogs extends Processor
+{
+    /**
+     * The default maximum number of buffered logs
+     */
+    public static final int DEFAULT_MAX_BUFFERED = 100000;
+
+    /**
+     * The maximum number of buffered logs
+     */
+    private final int m_maxBuffered;
+
+    /**
+     * The last watermark received on each input
+     */
+    private final long[] m_watermarks;
+
+    /**
+     * Whether each input has notified the end of its trace
+     */
+    private final boolean[] m_ended;
+
+    /**
+     * The pushables of the inputs
+     */
+    private final MergePushable[] m_pushables;
+
+    /**
+     * The buffered logs, the first in the chain at the top
+     */
+    private final PriorityQueue<Entry> m_heap = new PriorityQueue<>();
+
+    /**
+     * The highest block whose logs have all been output
+     */
+    private long m_outputWatermark = -1;
+
+    /**
+     * Whether watermarks are output after the logs
+     */
+    private boolean m_forwardWatermarks = false;
+
+    /**
+     * The number of logs output without waiting for their watermark
+     */
+    private long m_forcedCount = 0;
+
+    /**
+     * The number of logs received after their block was output
+     */
+    private long m_lateCount = 0;
+
+    /**
+     * The number of logs received so far, used to order logs at the same position
+     */
+    private long m_sequence = 0;
+
+    /**
+     * Initializes the processor
+     *
+     * @param in_arity
+     *          The number of streams to merge
+     */
+    public MergeEthLogs(int in_arity)
+    {
+        this(in_arity, DEFAULT_MAX_BUFFERED);
+    }
+
+    /**
+     * Initializes the processor
+     *
+     * @param in_arity
+     *          The number of streams to merge
+     *
+     * @param max_buffered
+     *          The maximum number of logs buffered while waiting for watermarks
+     */
+    public MergeEthLogs(int in_arity, int max_buffered)
+    {
+        super(in_arity, 1);
+        if (max_buffered < 1)
+        {
+            throw new IllegalArgumentException("At least one log must be buffered");
+        }
+        m_maxBuffered = max_buffered;
+        m_watermarks = new long[in_arity];
+        m_ended = new boolean[in_arity];
+        m_pushables = new MergePushable[in_arity];
+        for (int i = 0; i < in_arity; i++)
+        {
+            m_pushables[i] = new MergePushable(i);
+        }
+        Arrays.fill(m_watermarks, -1);
+    }
+
+    /**
+     * Makes the processor output a {@link BlockWatermark} each time the logs
+     * of more blocks have been output, so that merges can be chained
+     *
+     * @param forward
+     *          Specifies if watermarks are output (true) or not (false)
+     *
+     * @return This processor
+     */
+    public MergeEthLogs setForwardWatermarks(boolean forward)
+    {
+        m_forwardWatermarks = forward;
+        return this;
+    }
+
+    /**
+     * Handles an event received on an input
+     *
+     * @param index
+     *          The index of the input
+     *
+     * @param o
+     *          The event
+     */
+    private synchronized void receive(int index, Object o)
+    {
+        if (o instanceof BlockWatermark)
+        {
+            m_watermarks[index] = Math.max(m_watermarks[index], ((BlockWatermark) o).getBlockNumber());
+            release();
+            return;
+        }
+        if (o instanceof EthLogRetraction || ((Log) o).isRemoved())
+        {
+            Log removed = o instanceof EthLogRetraction ? ((EthLogRetraction) o).getLog() : (Log) o;
+            if (!cancel(removed))
+            {
+                output(o);
+            }
+            return;
+        }
+        Log log = (Log) o;
+        Entry entry = new Entry(log, index, m_sequence++);
+        if (entry.m_blockNumber <= m_outputWatermark)
+        {
+            m_lateCount++;
+            output(log);
+            return;
+        }
+        m_heap.add(entry);
+        if (m_heap.size() > m_maxBuffered)
+        {
+            // Not waiting for the lagging inputs anymore
+            long block = m_heap.peek().m_blockNumber;
+            while (!m_heap.isEmpty() && m_heap.peek().m_blockNumber == block)
+            {
+                m_forcedCount++;
+                output(m_heap.poll().m_log);
+            }
+            m_outputWatermark = block;
+            if (m_forwardWatermarks)
+            {
+                output(new BlockWatermark(block));
+            }
+        }
+    }
+
+    /**
+     * Drops the buffered log a removed log refers to
+     *
+     * @param removed
+     *          The removed log
+     *
+     * @return true if a buffered log was dropped, false if the log is not
+     * buffered, i.e. it has already been output
+     */
+    private boolean cancel(Log removed)
+    {
+        Iterator<Entry> it = m_heap.iterator();
+        while (it.hasNext())
+        {
+            Log log = it.next().m_log;
+            if (Objects.equals(log.getTransactionHash(), removed.getTransactionHash())
+                    && Objects.equals(log.getLogIndexRaw(), removed.getLogIndexRaw())
+                    && Objects.equals(log.getBlockHash(), removed.getBlockHash()))
+            {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Handles the end of the trace of an input
+     *
+     * @param index
+     *          The index of the input
+     */
+    private synchronized void end(int index)
+    {
+        m_ended[index] = true;
+        release();
+        for (boolean ended : m_ended)
+        {
+            if (!ended)
+            {
+                return;
+            }
+        }
+        getPushableOutput(0).notifyEndOfTrace();
+    }
+
+    /**
+     * Outputs the buffered logs of the blocks every input has sent a watermark for
+     */
+    private void release()
+    {
+        long watermark = Long.MAX_VALUE;
+        for (int i = 0; i < m_watermarks.length; i++)
+        {
+            if (!m_ended[i])
+            {
+                watermark = Math.min(watermark, m_watermarks[i]);
+            }
+        }
+        if (watermark <= m_outputWatermark)
+        {
+            return;
+        }
+        while (!m_heap.isEmpty() && m_heap.peek().m_blockNumber <= watermark)
+        {
+            output(m_heap.poll().m_log);
+        }
+        if (watermark == Long.MAX_VALUE)
+        {
+            return;
+        }
+        m_outputWatermark = watermark;
+        if (m_forwardWatermarks)
+        {
+            output(new BlockWatermark(watermark));
+        }
+    }
+
+    private void output(Object o)
+    {
+        getPushableOutput(0).push(o);
+    }
+
+    /**
+     * Gets the number of logs waiting for watermarks
+     *
+     * @return The number of logs
+     */
+    public synchronized int getBufferedLogCount()
+    {
+        return m_heap.size();
+    }
+
+    /**
+     * Gets the number of logs output without waiting for their watermark,
+     * because too many logs were buffered
+     *
+     * @return The number of logs
+     */
+    public synchronized long getForcedLogCount()
+    {
+        return m_forcedCount;
+    }
+
+    /**
+     * Gets the number of logs received after the logs of their block had been output
+     *
+     * @return The number of logs
+     */
+    public synchronized long getLateLogCount()
+    {
+        return m_lateCount;
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        super.reset();
+        Arrays.fill(m_watermarks, -1);
+        Arrays.fill(m_ended, false);
+        m_heap.clear();
+        m_outputWatermark = -1;
+        m_forcedCount = 0;
+        m_lateCount = 0;
+        m_sequence = 0;
+    }
+
+    @Override
+    public Pushable getPushableInput(int i)
+    {
+        return m_pushables[i];
+    }
+
+    @Override
+    public Pullable getPullableOutput(int i)
+    {
+        throw new UnsupportedOperationException();
+        // this processor forces push mode!
+    }
+
+    @Override
+    public Processor duplicate(boolean with_state)
+    {
+        return new MergeEthLogs(m_watermarks.length, m_maxBuffered).setForwardWatermarks(m_forwardWatermarks);
+    }
+
+    /**
+     * A buffered log, with its position in the chain
+     */
+    private static class Entry implements Comparable<Entry>
+    {
+        private final Log m_log;
+
+        private final long m_blockNumber;
+
+        private final long m_transactionIndex;
+
+        private final long m_logIndex;
+
+        private final int m_input;
+
+        private final long m_sequence;
+
+        Entry(Log log, int input, long sequence)
+        {
+            m_log = log;
+            m_blockNumber = EthLogCodec.blockNumber(log);
+            m_logIndex = EthLogCodec.logIndex(log);
+            m_transactionIndex = EthLogCodec.parseQuantity(log.getTransactionIndexRaw());
+            m_input = input;
+            m_sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry e)
+        {
+            int c = Long.compare(m_blockNumber, e.m_blockNumber);
+            if (c == 0)
+            {
+                c = Long.compare(m_transactionIndex, e.m_transactionIndex);
+            }
+            if (c == 0)
+            {
+                c = Long.compare(m_logIndex, e.m_logIndex);
+            }
+            if (c == 0)
+            {
+                c = Integer.compare(m_input, e.m_input);
+            }
+            return c != 0 ? c : Long.compare(m_sequence, e.m_sequence);
+        }
+    }
+
+    /**
+     * The pushable of an input of the merge
+     */
+    private class MergePushable implements Pushable
+    {
+        /**
+         * The index of the input
+         */
+        private final int m_index;
+
+        MergePushable(int index)
+        {
+            m_index = index;
+        }
+
+        @Override
+        public Pushable push(Object o)
+        {
+            receive(m_index, o);
+            return this;
+        }
+
+        @Override
+        public Future<Pushable> pushFast(Object o)
+        {
+            push(o);
+            return Pushable.NULL_FUTURE;
+        }
+
+        @Override
+        public void notifyEndOfTrace()
+        {
+            end(m_index);
+        }
+
+        @Override
+        public Processor getProcessor()
+        {
+            return MergeEthLogs.this;
+        }
+
+        @Override
+        public int getPosition()
+        {
+            return m_index;
+        }
+    }
+}
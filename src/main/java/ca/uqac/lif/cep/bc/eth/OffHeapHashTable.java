@@ -0,0 +1,420 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A hash table with fixed-size byte keys and values, stored outside of the
+ * Java heap.
+ *
+ * Entries live in slots of a direct buffer, found by linear probing. No object
+ * is allocated per entry, so that tables of millions of entries neither add to
+ * the work of the garbage collector nor pay the overhead of boxed keys and values.
+ * Removals shift the following entries back, so that no tombstone is left.
+ *
+ * Each slot holds a byte telling if it is used, then the key, then the value,
+ * padded to a multiple of 8 bytes. The table is not thread-safe.
+ */
+final class OffHeapHashTable
+{
+    /**
+     * The maximum ratio of used slots before the table grows
+     */
+    private static final double LOAD_FACTOR = 0.6;
+
+    /**
+     * The size of a key, in bytes
+     */
+    private final int m_keySize;
+
+    /**
+     * The size of a value, in bytes
+     */
+    private final int m_valueSize;
+
+    /**
+     * The size of a slot, in bytes
+     */
+    private final int m_slotSize;
+
+    /**
+     * The slots
+     */
+    private ByteBuffer m_buffer;
+
+    /**
+     * The number of slots, a power of 2
+     */
+    private int m_capacity;
+
+    /**
+     * The number of used slots
+     */
+    private int m_size = 0;
+
+    /**
+     * An array receiving the keys read while moving entries
+     */
+    private final byte[] m_key;
+
+    /**
+     * Creates an empty table
+     *
+     * @param key_size
+     *          The size of a key, in bytes
+     *
+     * @param value_size
+     *          The size of a value, in bytes
+     *
+     * @param capacity
+     *          The initial number of slots, rounded up to a power of 2
+     */
+    OffHeapHashTable(int key_size, int value_size, int capacity)
+    {
+        m_keySize = key_size;
+        m_valueSize = value_size;
+        m_slotSize = (1 + key_size + value_size + 7) & ~7;
+        m_key = new byte[key_size];
+        m_capacity = Integer.highestOneBit(Math.max(16, capacity - 1) << 1);
+        m_buffer = allocate(m_capacity);
+    }
+
+    private OffHeapHashTable(OffHeapHashTable table)
+    {
+        m_keySize = table.m_keySize;
+        m_valueSize = table.m_valueSize;
+        m_slotSize = table.m_slotSize;
+        m_key = new byte[m_keySize];
+        m_capacity = table.m_capacity;
+        m_size = table.m_size;
+        m_buffer = allocate(m_capacity);
+        ByteBuffer source = table.m_buffer.duplicate();
+        source.clear();
+        m_buffer.put(source);
+    }
+
+    /**
+     * Gets the number of entries
+     *
+     * @return The number of entries
+     */
+    int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Gets the number of slots
+     *
+     * @return The number of slots
+     */
+    int capacity()
+    {
+        return m_capacity;
+    }
+
+    /**
+     * Gets the buffer holding the slots, to read or write values at the
+     * positions given by {@link #valuePosition(int)}
+     *
+     * @return The buffer
+     */
+    ByteBuffer buffer()
+    {
+        return m_buffer;
+    }
+
+    /**
+     * Gets the position of the value of a slot in the buffer
+     *
+     * @param slot
+     *          The slot
+     *
+     * @return The position
+     */
+    int valuePosition(int slot)
+    {
+        return slot * m_slotSize + 1 + m_keySize;
+    }
+
+    /**
+     * Checks if a slot holds an entry
+     *
+     * @param slot
+     *          The slot
+     *
+     * @return true if the slot is used, false otherwise
+     */
+    boolean isUsed(int slot)
+    {
+        return m_buffer.get(slot * m_slotSize) != 0;
+    }
+
+    /**
+     * Copies the key of a slot
+     *
+     * @param slot
+     *          The slot
+     *
+     * @param key
+     *          The array receiving the key
+     */
+    void getKey(int slot, byte[] key)
+    {
+        int pos = slot * m_slotSize + 1;
+        for (int i = 0; i < m_keySize; i++)
+        {
+            key[i] = m_buffer.get(pos + i);
+        }
+    }
+
+    /**
+     * Finds the slot of a key
+     *
+     * @param key
+     *          The key
+     *
+     * @return The slot, or -1 if the table has no entry for the key
+     */
+    int find(byte[] key)
+    {
+        int mask = m_capacity - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask)
+        {
+            if (!isUsed(slot))
+            {
+                return -1;
+            }
+            if (keyEquals(slot, key))
+            {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Finds the slot of a key, adding an entry with a value of zero if the
+     * table has none for the key
+     *
+     * @param key
+     *          The key
+     *
+     * @return The slot
+     */
+    int findOrInsert(byte[] key)
+    {
+        if (m_size + 1 > m_capacity * LOAD_FACTOR)
+        {
+            grow();
+        }
+        int mask = m_capacity - 1;
+        int slot = hash(key) & mask;
+        while (isUsed(slot))
+        {
+            if (keyEquals(slot, key))
+            {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int pos = slot * m_slotSize;
+        m_buffer.put(pos, (byte) 1);
+        for (int i = 0; i < m_keySize; i++)
+        {
+            m_buffer.put(pos + 1 + i, key[i]);
+        }
+        for (int i = 0; i < m_valueSize; i++)
+        {
+            m_buffer.put(pos + 1 + m_keySize + i, (byte) 0);
+        }
+        m_size++;
+        return slot;
+    }
+
+    /**
+     * Removes the entry of a slot, shifting back the entries that follow it
+     *
+     * @param slot
+     *          The slot
+     */
+    void remove(int slot)
+    {
+        int mask = m_capacity - 1;
+        int hole = slot;
+        byte[] key = m_key;
+        for (int next = (hole + 1) & mask; isUsed(next); next = (next + 1) & mask)
+        {
+            getKey(next, key);
+            int home = hash(key) & mask;
+            // The entry can move to the hole if its home is not between the hole and itself
+            if (((next - home) & mask) >= ((next - hole) & mask))
+            {
+                copySlot(next, hole);
+                hole = next;
+            }
+        }
+        m_buffer.put(hole * m_slotSize, (byte) 0);
+        m_size--;
+    }
+
+    /**
+     * Creates a copy of this table, independent of it
+     *
+     * @return The copy
+     */
+    OffHeapHashTable copy()
+    {
+        return new OffHeapHashTable(this);
+    }
+
+    /**
+     * Writes the table to a channel
+     *
+     * @param channel
+     *          The channel
+     *
+     * @throws IOException if the table could not be written
+     */
+    void writeTo(WritableByteChannel channel) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.putInt(m_keySize).putInt(m_valueSize).putInt(m_capacity).putInt(m_size).flip();
+        writeFully(channel, header);
+        ByteBuffer slots = m_buffer.duplicate();
+        slots.clear();
+        writeFully(channel, slots);
+    }
+
+    /**
+     * Reads a table written by {@link #writeTo(WritableByteChannel)}
+     *
+     * @param channel
+     *          The channel
+     *
+     * @return The table
+     *
+     * @throws IOException if the table could not be read
+     */
+    static OffHeapHashTable readFrom(ReadableByteChannel channel) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        readFully(channel, header);
+        header.flip();
+        OffHeapHashTable table = new OffHeapHashTable(header.getInt(), header.getInt(), 16);
+        int capacity = header.getInt();
+        if (Integer.bitCount(capacity) != 1)
+        {
+            throw new IOException("Corrupted table: capacity " + capacity);
+        }
+        table.m_capacity = capacity;
+        table.m_size = header.getInt();
+        table.m_buffer = table.allocate(capacity);
+        readFully(channel, table.m_buffer);
+        table.m_buffer.clear();
+        return table;
+    }
+
+    private void grow()
+    {
+        ByteBuffer old = m_buffer;
+        int oldCapacity = m_capacity;
+        if ((long) oldCapacity * 2 * m_slotSize > Integer.MAX_VALUE)
+        {
+            throw new IllegalStateException("Too many entries: " + m_size);
+        }
+        m_capacity = oldCapacity * 2;
+        m_buffer = allocate(m_capacity);
+        int mask = m_capacity - 1;
+        byte[] key = m_key;
+        for (int i = 0; i < oldCapacity; i++)
+        {
+            int pos = i * m_slotSize;
+            if (old.get(pos) == 0)
+            {
+                continue;
+            }
+            for (int j = 0; j < m_keySize; j++)
+            {
+                key[j] = old.get(pos + 1 + j);
+            }
+            int slot = hash(key) & mask;
+            while (isUsed(slot))
+            {
+                slot = (slot + 1) & mask;
+            }
+            for (int j = 0; j < m_slotSize; j++)
+            {
+                m_buffer.put(slot * m_slotSize + j, old.get(pos + j));
+            }
+        }
+    }
+
+    private ByteBuffer allocate(int capacity)
+    {
+        return ByteBuffer.allocateDirect(capacity * m_slotSize);
+    }
+
+    private boolean keyEquals(int slot, byte[] key)
+    {
+        int pos = slot * m_slotSize + 1;
+        for (int i = 0; i < m_keySize; i++)
+        {
+            if (m_buffer.get(pos + i) != key[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void copySlot(int from, int to)
+    {
+        for (int i = 0; i < m_slotSize; i++)
+        {
+            m_buffer.put(to * m_slotSize + i, m_buffer.get(from * m_slotSize + i));
+        }
+    }
+
+    /**
+     * Hashes a key. Keys such as token identifiers are mostly zeros, so that
+     * every byte is mixed in.
+     *
+     * @param key
+     *          The key
+     *
+     * @return The hash
+     */
+    private static int hash(byte[] key)
+    {
+        long h = 0;
+        for (byte b : key)
+        {
+            h = h * 31 + (b & 0xff);
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer) < 0)
+            {
+                throw new IOException("Unexpected end of table");
+            }
+        }
+    }
+}
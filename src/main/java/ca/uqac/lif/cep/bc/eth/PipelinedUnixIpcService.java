@@ -0,0 +1,606 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import jnr.unixsocket.UnixSocketAddress;
+import jnr.unixsocket.UnixSocketChannel;
+import org.web3j.protocol.Service;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * An IPC service to an Ethereum node listening on a Unix socket, able to have
+ * many requests in flight at once.
+ *
+ * web3j's {@link org.web3j.protocol.ipc.UnixIpcService} opens a new connection
+ * for each request and blocks until its response has been read. Here a single
+ * connection is kept open: requests are written as soon as they are sent, and a
+ * reader thread hands each response to the request having the same id. The
+ * buffers used to read and write the socket are allocated once.
+ *
+ * A batch of requests is sent as separate requests written one after the other,
+ * without waiting for the responses in between.
+ *
+ * The connection is opened on the first request, and opened again after having
+ * been lost; the requests in flight when it is lost fail with an
+ * {@link IOException}.
+ */
+public class PipelinedUnixIpcService extends Service implements BatchingService
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger LOGGER = Logger.getLogger(PipelinedUnixIpcService.class.getName());
+
+    /**
+     * The size of the buffers used to read and write the socket
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The path of the socket
+     */
+    private final String m_ipcPath;
+
+    /**
+     * The buffer requests are encoded into before being written
+     */
+    private final ByteBuffer m_writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * The encoder of the requests
+     */
+    private final CharsetEncoder m_encoder = StandardCharsets.UTF_8.newEncoder();
+
+    /**
+     * The connection to the node, if open
+     */
+    private Connection m_connection;
+
+    /**
+     * Whether the service has been closed
+     */
+    private volatile boolean m_closed = false;
+
+    /**
+     * Initializes the service. No connection is opened until the first request.
+     *
+     * @param ipc_path
+     *          The path of the IPC socket of the node
+     */
+    public PipelinedUnixIpcService(String ipc_path)
+    {
+        super(false);
+        m_ipcPath = ipc_path;
+    }
+
+    @Override
+    public <T extends Response> T send(Request request, Class<T> response_type) throws IOException
+    {
+        CompletableFuture<byte[]> future = submit(request.getId(), objectMapper.writeValueAsString(request));
+        return objectMapper.readValue(await(future), response_type);
+    }
+
+    @Override
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> response_type)
+    {
+        CompletableFuture<byte[]> future;
+        try
+        {
+            future = submit(request.getId(), objectMapper.writeValueAsString(request));
+        }
+        catch (IOException e)
+        {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return future.thenApply(bytes -> {
+            try
+            {
+                return objectMapper.readValue(bytes, response_type);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @Override
+    public <T extends Response> List<T> sendBatch(List<? extends Request<?, T>> requests, Class<T> response_type)
+            throws IOException
+    {
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>(requests.size());
+        for (Request<?, T> request : requests)
+        {
+            futures.add(submit(request.getId(), objectMapper.writeValueAsString(request)));
+        }
+        List<T> results = new ArrayList<>(requests.size());
+        for (CompletableFuture<byte[]> future : futures)
+        {
+            results.add(objectMapper.readValue(await(future), response_type));
+        }
+        return results;
+    }
+
+    @Override
+    protected InputStream performIO(String payload) throws IOException
+    {
+        long id;
+        try (JsonParser parser = objectMapper.getFactory().createParser(payload))
+        {
+            id = findId(parser);
+        }
+        return new ByteArrayInputStream(await(submit(id, payload)));
+    }
+
+    /**
+     * Registers a request and writes it to the socket
+     *
+     * @param id
+     *          The id of the request
+     *
+     * @param payload
+     *          The request
+     *
+     * @return The future response, as bytes
+     *
+     * @throws IOException if the request cannot be written
+     */
+    private synchronized CompletableFuture<byte[]> submit(long id, String payload) throws IOException
+    {
+        if (m_closed)
+        {
+            throw new IOException("The service is closed");
+        }
+        Connection connection = m_connection;
+        if (connection == null || !connection.m_channel.isConnected())
+        {
+            connection = connect();
+        }
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        if (connection.m_pending.putIfAbsent(id, future) != null)
+        {
+            throw new IOException("A request with id " + id + " is already in flight");
+        }
+        try
+        {
+            write(connection.m_channel, payload);
+        }
+        catch (IOException e)
+        {
+            connection.m_pending.remove(id);
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * Waits for a response
+     *
+     * @param future
+     *          The future response
+     *
+     * @return The response
+     *
+     * @throws IOException if the request failed or the wait was interrupted
+     */
+    private static byte[] await(CompletableFuture<byte[]> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the node");
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Writes a request to the socket
+     *
+     * @param channel
+     *          The socket
+     *
+     * @param payload
+     *          The request
+     *
+     * @throws IOException if the request cannot be written
+     */
+    private void write(UnixSocketChannel channel, String payload) throws IOException
+    {
+        CharBuffer chars = CharBuffer.wrap(payload);
+        m_writeBuffer.clear();
+        m_encoder.reset();
+        while (true)
+        {
+            CoderResult result = m_encoder.encode(chars, m_writeBuffer, true);
+            if (result.isOverflow())
+            {
+                flush(channel);
+                continue;
+            }
+            if (result.isError())
+            {
+                result.throwException();
+            }
+            break;
+        }
+        while (m_encoder.flush(m_writeBuffer).isOverflow())
+        {
+            flush(channel);
+        }
+        if (!m_writeBuffer.hasRemaining())
+        {
+            flush(channel);
+        }
+        m_writeBuffer.put((byte) '\n');
+        flush(channel);
+    }
+
+    /**
+     * Writes the content of the write buffer to the socket and clears it
+     *
+     * @param channel
+     *          The socket
+     *
+     * @throws IOException if the socket cannot be written
+     */
+    private void flush(UnixSocketChannel channel) throws IOException
+    {
+        m_writeBuffer.flip();
+        while (m_writeBuffer.hasRemaining())
+        {
+            channel.write(m_writeBuffer);
+        }
+        m_writeBuffer.clear();
+    }
+
+    /**
+     * Opens a connection to the node and starts the thread reading its responses
+     *
+     * @return The connection
+     *
+     * @throws IOException if the socket cannot be reached
+     */
+    private Connection connect() throws IOException
+    {
+        Connection connection = new Connection(UnixSocketChannel.open(new UnixSocketAddress(m_ipcPath)));
+        m_connection = connection;
+        connection.m_reader = new Thread(() -> read(connection), "ipc-reader-" + m_ipcPath);
+        connection.m_reader.setDaemon(true);
+        connection.m_reader.start();
+        return connection;
+    }
+
+    /**
+     * Reads the responses of a connection until it is closed, and completes the
+     * corresponding requests
+     *
+     * @param connection
+     *          The connection
+     */
+    private void read(Connection connection)
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        MessageSplitter splitter = new MessageSplitter();
+        IOException failure = new IOException("Connection to " + m_ipcPath + " closed");
+        try
+        {
+            while (connection.m_channel.read(buffer) >= 0)
+            {
+                buffer.flip();
+                for (byte[] message : splitter.split(buffer))
+                {
+                    try
+                    {
+                        complete(connection, message);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // A bad message must not leave the other requests without response
+                        LOGGER.warning("Ignored response that could not be handled: " + e);
+                    }
+                }
+                buffer.clear();
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                if (m_connection == connection)
+                {
+                    m_connection = null;
+                }
+            }
+            connection.close();
+            // The requests in flight on this connection will never get their response
+            for (Long id : new ArrayList<>(connection.m_pending.keySet()))
+            {
+                CompletableFuture<byte[]> future = connection.m_pending.remove(id);
+                if (future != null)
+                {
+                    future.completeExceptionally(failure);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands a response to the request having the same id
+     *
+     * @param connection
+     *          The connection the response was read from
+     *
+     * @param message
+     *          The response
+     */
+    private void complete(Connection connection, byte[] message)
+    {
+        long id;
+        try (JsonParser parser = objectMapper.getFactory().createParser(message))
+        {
+            id = findId(parser);
+        }
+        catch (IOException e)
+        {
+            LOGGER.warning("Ignored malformed response: " + e.getMessage());
+            return;
+        }
+        CompletableFuture<byte[]> future = connection.m_pending.remove(id);
+        if (future == null)
+        {
+            LOGGER.fine("Ignored response to unknown request " + id);
+            return;
+        }
+        future.complete(message);
+    }
+
+    /**
+     * Reads the id of a JSON-RPC message, without reading the rest of the message
+     *
+     * @param parser
+     *          A parser at the beginning of the message
+     *
+     * @return The id, or -1 if the message has none
+     *
+     * @throws IOException if the message is malformed
+     */
+    static long findId(JsonParser parser) throws IOException
+    {
+        if (parser.nextToken() != JsonToken.START_OBJECT)
+        {
+            return -1;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("id".equals(field))
+            {
+                if (token == JsonToken.VALUE_NUMBER_INT)
+                {
+                    return parser.getLongValue();
+                }
+                if (token == JsonToken.VALUE_STRING)
+                {
+                    try
+                    {
+                        return Long.parseLong(parser.getText());
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        throw new IOException("Not a request id: " + parser.getText());
+                    }
+                }
+                return -1;
+            }
+            parser.skipChildren();
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        Connection connection;
+        synchronized (this)
+        {
+            m_closed = true;
+            connection = m_connection;
+            m_connection = null;
+        }
+        if (connection != null)
+        {
+            connection.close();
+            try
+            {
+                connection.m_reader.join(1000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PipelinedUnixIpcService{" + m_ipcPath + "}";
+    }
+
+    /**
+     * A connection to the node, with the requests waiting for a response on it
+     */
+    private static class Connection
+    {
+        private final UnixSocketChannel m_channel;
+
+        /**
+         * The requests waiting for their response, by id
+         */
+        private final Map<Long, CompletableFuture<byte[]>> m_pending = new ConcurrentHashMap<>();
+
+        private Thread m_reader;
+
+        Connection(UnixSocketChannel channel)
+        {
+            m_channel = channel;
+        }
+
+        void close()
+        {
+            try
+            {
+                // Closing alone does not wake up a reader blocked on the socket
+                m_channel.shutdownInput();
+            }
+            catch (IOException e)
+            {
+                // already closed
+            }
+            try
+            {
+                m_channel.close();
+            }
+            catch (IOException e)
+            {
+                // nothing more to do with this connection
+            }
+        }
+    }
+
+    /**
+     * Finds the boundaries of the JSON messages in a stream of bytes. The node
+     * may send several messages in one read, or a message over several reads.
+     */
+    static class MessageSplitter
+    {
+        /**
+         * The bytes of the message being read
+         */
+        private byte[] m_message = new byte[BUFFER_SIZE];
+
+        private int m_length = 0;
+
+        /**
+         * The nesting depth of objects and arrays at the current position
+         */
+        private int m_depth = 0;
+
+        private boolean m_inString = false;
+
+        private boolean m_escaped = false;
+
+        /**
+         * Reads the bytes of a buffer
+         *
+         * @param buffer
+         *          The buffer, ready to be read
+         *
+         * @return The messages completed by these bytes
+         */
+        List<byte[]> split(ByteBuffer buffer)
+        {
+            List<byte[]> messages = new ArrayList<>(1);
+            while (buffer.hasRemaining())
+            {
+                byte b = buffer.get();
+                if (m_depth == 0 && b != '{' && b != '[')
+                {
+                    // whitespace between messages
+                    continue;
+                }
+                if (m_length == m_message.length)
+                {
+                    byte[] larger = new byte[m_message.length * 2];
+                    System.arraycopy(m_message, 0, larger, 0, m_length);
+                    m_message = larger;
+                }
+                m_message[m_length++] = b;
+                if (m_inString)
+                {
+                    if (m_escaped)
+                    {
+                        m_escaped = false;
+                    }
+                    else if (b == '\\')
+                    {
+                        m_escaped = true;
+                    }
+                    else if (b == '"')
+                    {
+                        m_inString = false;
+                    }
+                    continue;
+                }
+                if (b == '"')
+                {
+                    m_inString = true;
+                }
+                else if (b == '{' || b == '[')
+                {
+                    m_depth++;
+                }
+                else if ((b == '}' || b == ']') && --m_depth == 0)
+                {
+                    byte[] message = new byte[m_length];
+                    System.arraycopy(m_message, 0, message, 0, m_length);
+                    messages.add(message);
+                    m_length = 0;
+                    if (m_message.length > BUFFER_SIZE)
+                    {
+                        // Not keeping the memory of an unusually large message
+                        m_message = new byte[BUFFER_SIZE];
+                    }
+                }
+            }
+            return messages;
+        }
+
+        /**
+         * Gets the number of bytes of a message that can be held without
+         * allocating more memory
+         *
+         * @return The number of bytes
+         */
+        int getCapacity()
+        {
+            return m_message.length;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.Pushable;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.FunctionReturnDecoder;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.Web3jService;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthBlockNumber;
+import org.web3j.protocol.core.methods.response.EthCall;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * Watches the values returned by view functions of contracts, and pushes a
+ * {@link ContractStateChange} each time one of them changes.
+ *
+ * At each new block, every watched function is called with
+ * <code>eth_call</code> at that block. The calls are sent as a single
+ * JSON-RPC batch when the service supports it (see {@link BatchingService}),
+ * so that watching many functions costs a single round trip per block. The
+ * raw result of each call is compared to the previous one, and only the
+ * results that changed are decoded and pushed. The first result of each call
+ * is always pushed.
+ *
+ * When several blocks are mined between two polls, the functions are only
+ * called at the most recent one. A call that fails (e.g. reverts) is retried
+ * at the next block, and its last value is kept.
+ *
+ * THIS PROCESSOR MUST BE INSTANTIATED VIA {@link #buildWithIPC(String)}
+ * or {@link #buildWithRPC(String)}
+ *
+ * THIS PROCESSOR FORCES PUSH MODE
+ */
+public class PollEthContractState extends Processor implements Runnable
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger LOGGER = Logger.getLogger(PollEthContractState.class.getName());
+
+    /**
+     * The interval (in milliseconds) between two polls of the node
+     */
+    public static final long POLLING_INTERVAL = 500;
+
+    /**
+     * The service used for the connection to the node
+     */
+    private final Web3jService m_service;
+
+    /**
+     * The connection to the node
+     */
+    private final Web3j m_web3j;
+
+    /**
+     * The watched calls
+     */
+    private final List<WatchedCall> m_calls = new CopyOnWriteArrayList<>();
+
+    /**
+     * Whether the processor keeps polling the node
+     */
+    private volatile boolean m_run = false;
+
+    /**
+     * The number of the last block at which the functions were called
+     */
+    private volatile long m_lastBlock = -1;
+
+    /**
+     * The number of <code>eth_call</code>s sent so far
+     */
+    private volatile long m_callCount = 0;
+
+    /**
+     * Initializes the processor
+     *
+     * @param web3j_service
+     *          The service used for the connection (either IPC or RPC)
+     */
+    private PollEthContractState(Web3jService web3j_service)
+    {
+        super(0, 1);
+        m_service = web3j_service;
+        m_web3j = Web3j.build(web3j_service, POLLING_INTERVAL, CatchEthContractLogs.newExecutor());
+    }
+
+    /**
+     * Constructs a {@link PollEthContractState} which will call functions via RPC
+     *
+     * @param eth_node_url
+     *          The node RPC url
+     *
+     * @return The processor
+     */
+    public static PollEthContractState buildWithRPC(String eth_node_url)
+    {
+        return new PollEthContractState(new StreamingHttpService(eth_node_url));
+    }
+
+    /**
+     * Constructs a {@link PollEthContractState} which will call functions via IPC
+     *
+     * @param eth_node_ipc
+     *          The path to the IPC endpoint of the node
+     *
+     * @return The processor
+     */
+    public static PollEthContractState buildWithIPC(String eth_node_ipc)
+    {
+        return new PollEthContractState(IpcUtils.newPipelinedIpcService(eth_node_ipc));
+    }
+
+    /**
+     * Adds a view function to call at each new block
+     *
+     * @param contract_address
+     *          The address of the contract (must start with "0x")
+     *
+     * @param function
+     *          The function, with its arguments and the types of its outputs,
+     *          e.g. as built by a contract wrapper generated by web3j
+     *
+     * @return This processor
+     */
+    public PollEthContractState watch(String contract_address, Function function)
+    {
+        m_calls.add(new WatchedCall(contract_address, function));
+        return this;
+    }
+
+    @Override
+    public void run()
+    {
+        m_run = true;
+        while (m_run)
+        {
+            try
+            {
+                EthBlockNumber blockNumber = m_web3j.ethBlockNumber().send();
+                if (blockNumber.hasError())
+                {
+                    throw new IOException(blockNumber.getError().getMessage());
+                }
+                long head = blockNumber.getBlockNumber().longValue();
+                if (head > m_lastBlock)
+                {
+                    callAt(head);
+                    m_lastBlock = head;
+                }
+            }
+            catch (IOException e)
+            {
+                LOGGER.warning("Could not poll the contracts: " + e.getMessage());
+            }
+            catch (RuntimeException e)
+            {
+                if (m_run)
+                {
+                    LOGGER.severe("Stopped polling the contracts: " + e);
+                    m_run = false;
+                }
+                break;
+            }
+            try
+            {
+                Thread.sleep(POLLING_INTERVAL);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                m_run = false;
+            }
+        }
+    }
+
+    /**
+     * Calls every watched function at some block, and pushes the results that changed
+     *
+     * @param block_number
+     *          The block number
+     *
+     * @throws IOException if the node cannot be reached
+     */
+    private void callAt(long block_number) throws IOException
+    {
+        List<WatchedCall> calls = new ArrayList<>(m_calls);
+        DefaultBlockParameter block = DefaultBlockParameter.valueOf(BigInteger.valueOf(block_number));
+        List<Request<?, EthCall>> requests = new ArrayList<>(calls.size());
+        for (WatchedCall call : calls)
+        {
+            requests.add(m_web3j.ethCall(call.m_transaction, block));
+        }
+        List<EthCall> results = BatchingService.sendAll(m_service, requests, EthCall.class);
+        m_callCount += requests.size();
+        for (int i = 0; i < calls.size(); i++)
+        {
+            WatchedCall call = calls.get(i);
+            EthCall result = results.get(i);
+            if (result.hasError())
+            {
+                LOGGER.fine("Call to " + call.m_address + " failed: " + result.getError().getMessage());
+                continue;
+            }
+            String value = result.getValue();
+            if (Objects.equals(value, call.m_lastResult))
+            {
+                continue;
+            }
+            call.m_lastResult = value;
+            List<Type> decoded = FunctionReturnDecoder.decode(value, call.m_function.getOutputParameters());
+            Object[] values = new Object[decoded.size()];
+            for (int j = 0; j < values.length; j++)
+            {
+                values[j] = decoded.get(j).getValue();
+            }
+            getPushableOutput(0).push(new ContractStateChange(call.m_address, call.m_function, block_number, values));
+        }
+    }
+
+    @Override
+    public void start()
+    {
+        if (!m_run)
+        {
+            m_run = true;
+            new Thread(this).start();
+        }
+    }
+
+    @Override
+    public synchronized void stop()
+    {
+        m_run = false;
+        m_web3j.shutdown();
+    }
+
+    /**
+     * Gets the number of the last block at which the functions were called
+     *
+     * @return The block number, or -1 if the functions were not called yet
+     */
+    public long getLastBlock()
+    {
+        return m_lastBlock;
+    }
+
+    /**
+     * Gets the number of <code>eth_call</code>s sent to the node so far
+     *
+     * @return The number of calls
+     */
+    public long getCallCount()
+    {
+        return m_callCount;
+    }
+
+    @Override
+    public Pushable getPushableInput(int i)
+    {
+        throw new UnsupportedOperationException();
+        // there is no input for this processor
+    }
+
+    @Override
+    public synchronized Pullable getPullableInput(int i)
+    {
+        throw new UnsupportedOperationException();
+        // there is no input for this processor
+    }
+
+    @Override
+    public Pullable getPullableOutput(int i)
+    {
+        throw new UnsupportedOperationException();
+        // this processor forces push mode!
+    }
+
+    @Override
+    public Processor duplicate(boolean b)
+    {
+        throw new UnsupportedOperationException();
+        // makes no sense to duplicate this processor
+    }
+
+    /**
+     * A function called at each new block
+     */
+    private static class WatchedCall
+    {
+        /**
+         * The address of the contract
+         */
+        private final String m_address;
+
+        /**
+         * The function
+         */
+        private final Function m_function;
+
+        /**
+         * The call, with the encoded function
+         */
+        private final Transaction m_transaction;
+
+        /**
+         * The raw result of the last successful call
+         */
+        private String m_lastResult;
+
+        WatchedCall(String address, Function function)
+        {
+            m_address = address;
+            m_function = function;
+            m_transaction = Transaction.createEthCallTransaction(null, address, FunctionEncoder.encode(function));
+        }
+    }
+}
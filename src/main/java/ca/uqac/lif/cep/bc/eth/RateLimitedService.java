@@ -0,0 +1,280 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import io.reactivex.Flowable;
+import org.web3j.protocol.Web3jService;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.protocol.exceptions.ClientConnectionException;
+import org.web3j.protocol.websocket.events.Notification;
+import org.web3j.utils.Async;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * A connection to an Ethereum node that sends its requests within a
+ * {@link RequestBudget}, shared with the other services reaching the same
+ * endpoint.
+ *
+ * The requests are sent through another service, whose abilities (batches,
+ * streamed logs) are kept. Requests throttled by the node (HTTP status 429 or
+ * 503, or a JSON-RPC error telling the rate limit was exceeded) are sent again,
+ * up to {@link #MAX_ATTEMPTS} times, once the budget allows it; when they are
+ * still throttled, an {@link IOException} is thrown, which the processors of
+ * this library handle as a temporary loss of the node. Subscriptions are not
+ * limited.
+ */
+public class RateLimitedService implements Web3jService, LogStreamingService, BatchingService
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger LOGGER = Logger.getLogger(RateLimitedService.class.getName());
+
+    /**
+     * The maximum number of times a throttled request is sent
+     */
+    public static final int MAX_ATTEMPTS = 4;
+
+    /**
+     * The JSON-RPC error code used by nodes and hosted endpoints when the
+     * request rate is exceeded
+     */
+    private static final int LIMIT_EXCEEDED = -32005;
+
+    /**
+     * The service the requests are sent through
+     */
+    private final Web3jService m_service;
+
+    /**
+     * The budget the requests are sent within
+     */
+    private final RequestBudget m_budget;
+
+    /**
+     * Creates a service
+     *
+     * @param service
+     *          The service the requests are sent through
+     *
+     * @param budget
+     *          The budget the requests are sent within
+     */
+    public RateLimitedService(Web3jService service, RequestBudget budget)
+    {
+        super();
+        m_service = service;
+        m_budget = budget;
+    }
+
+    /**
+     * Gets the budget the requests are sent within
+     *
+     * @return The budget
+     */
+    public RequestBudget getBudget()
+    {
+        return m_budget;
+    }
+
+    @Override
+    public <T extends Response> T send(Request request, Class<T> response_type) throws IOException
+    {
+        for (int attempt = 1; ; attempt++)
+        {
+            m_budget.acquire(1);
+            long start = System.nanoTime();
+            boolean overloaded = true;
+            try
+            {
+                T response = m_service.send(request, response_type);
+                overloaded = isThrottled(response);
+                if (!overloaded || attempt == MAX_ATTEMPTS)
+                {
+                    return response;
+                }
+            }
+            catch (ClientConnectionException e)
+            {
+                if (!isThrottled(e))
+                {
+                    throw e;
+                }
+                if (attempt == MAX_ATTEMPTS)
+                {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+            finally
+            {
+                m_budget.release(System.nanoTime() - start, overloaded);
+            }
+            LOGGER.fine("Request " + request.getMethod() + " throttled, attempt " + attempt);
+        }
+    }
+
+    @Override
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> response_type)
+    {
+        return Async.run(() -> send(request, response_type));
+    }
+
+    @Override
+    public <T extends Response> List<T> sendBatch(List<? extends Request<?, T>> requests, Class<T> response_type)
+            throws IOException
+    {
+        if (!(m_service instanceof BatchingService))
+        {
+            // The requests go one by one through this service
+            List<T> responses = new ArrayList<>(requests.size());
+            for (Request<?, T> request : requests)
+            {
+                responses.add(send(request, response_type));
+            }
+            return responses;
+        }
+        if (requests.isEmpty())
+        {
+            return new ArrayList<>();
+        }
+        for (int attempt = 1; ; attempt++)
+        {
+            m_budget.acquire(requests.size());
+            long start = System.nanoTime();
+            boolean overloaded = true;
+            try
+            {
+                List<T> responses = ((BatchingService) m_service).sendBatch(requests, response_type);
+                overloaded = false;
+                for (T response : responses)
+                {
+                    overloaded |= isThrottled(response);
+                }
+                if (!overloaded || attempt == MAX_ATTEMPTS)
+                {
+                    return responses;
+                }
+            }
+            catch (ClientConnectionException e)
+            {
+                if (!isThrottled(e))
+                {
+                    throw e;
+                }
+                if (attempt == MAX_ATTEMPTS)
+                {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+            finally
+            {
+                m_budget.release(System.nanoTime() - start, requests.size(), overloaded);
+            }
+            LOGGER.fine("Batch of " + requests.size() + " requests throttled, attempt " + attempt);
+        }
+    }
+
+    @Override
+    public long streamLogs(EthFilter filter, Consumer<Log> consumer) throws IOException
+    {
+        if (!(m_service instanceof LogStreamingService))
+        {
+            EthLog ethLog = send(new Request<>("eth_getLogs", Collections.singletonList(filter),
+                    this, EthLog.class), EthLog.class);
+            if (ethLog.hasError())
+            {
+                throw new IOException(ethLog.getError().getMessage());
+            }
+            for (EthLog.LogResult result : ethLog.getLogs())
+            {
+                consumer.accept((Log) result.get());
+            }
+            return ethLog.getLogs().size();
+        }
+        // A streamed response is not sent again, since its logs may already have
+        // been handed out; its duration depends on its size rather than on the load
+        m_budget.acquire(1);
+        boolean overloaded = true;
+        try
+        {
+            long count = ((LogStreamingService) m_service).streamLogs(filter, consumer);
+            overloaded = false;
+            return count;
+        }
+        catch (ClientConnectionException e)
+        {
+            if (isThrottled(e))
+            {
+                throw new IOException(e.getMessage(), e);
+            }
+            throw e;
+        }
+        finally
+        {
+            m_budget.release(-1, overloaded);
+        }
+    }
+
+    @Override
+    public <T extends Notification<?>> Flowable<T> subscribe(Request request, String unsubscribe_method,
+                                                             Class<T> response_type)
+    {
+        return m_service.subscribe(request, unsubscribe_method, response_type);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        m_service.close();
+    }
+
+    @Override
+    public String toString()
+    {
+        return m_service.toString();
+    }
+
+    /**
+     * Checks if a response tells that the node throttled the request
+     *
+     * @param response
+     *          The response
+     *
+     * @return true if the request was throttled, false otherwise
+     */
+    static boolean isThrottled(Response<?> response)
+    {
+        if (response == null || !response.hasError())
+        {
+            return false;
+        }
+        Response.Error error = response.getError();
+        String message = error.getMessage() == null ? "" : error.getMessage().toLowerCase();
+        return error.getCode() == LIMIT_EXCEEDED || error.getCode() == 429
+                || message.contains("rate limit") || message.contains("too many requests");
+    }
+
+    /**
+     * Checks if an HTTP error tells that the node throttled the request
+     *
+     * @param e
+     *          The error, as thrown by web3j
+     *
+     * @return true if the request was throttled, false otherwise
+     */
+    static boolean isThrottled(ClientConnectionException e)
+    {
+        String message = e.getMessage();
+        return message != null && (message.startsWith("Invalid response received: 429")
+                || message.startsWith("Invalid response received: 503"));
+    }
+}
@@ -0,0 +1,228 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.ProcessorException;
+import ca.uqac.lif.cep.UniformProcessor;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * Writes every {@link Log} it receives to an append-only binary file, and
+ * outputs it unchanged. The file can later be replayed with {@link ReplayEthLogs},
+ * without contacting an Ethereum node.
+ *
+ * Each log is stored along with the time at which it was received, so that a
+ * replay can follow the original pace. See {@link EthLogCodec} for the format
+ * of the file.
+ *
+ * Writes are buffered: call {@link #flush()} or {@link #stop()} to make sure
+ * every received log has reached the file.
+ */
+public class RecordEthLogs extends UniformProcessor
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger LOGGER = Logger.getLogger(RecordEthLogs.class.getName());
+
+    /**
+     * The size of the write buffer, in bytes
+     */
+    public static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * The channel to the file logs are appended to
+     */
+    private FileChannel m_channel;
+
+    /**
+     * Buffer holding records not yet written to the file
+     */
+    private final ByteBuffer m_writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+
+    /**
+     * Buffer in which each record is encoded
+     */
+    private ByteBuffer m_recordBuffer = ByteBuffer.allocate(EthLogCodec.DEFAULT_BUFFER_SIZE);
+
+    /**
+     * The number of logs recorded so far
+     */
+    private long m_recordCount;
+
+    /**
+     * Initializes a recorder. If the file already exists, new logs are appended
+     * to it, after its last complete record: a partial record left by a crash
+     * is removed.
+     *
+     * @param file
+     *          The file logs are written to
+     *
+     * @throws IOException if the file cannot be opened, or exists and is not a log file
+     */
+    public RecordEthLogs(File file) throws IOException
+    {
+        super(1, 1);
+        boolean exists = file.exists() && file.length() > 0;
+        m_channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        if (exists)
+        {
+            ReplayEthLogs.checkMagic(m_channel, file);
+            long end = endOfRecords(m_channel);
+            if (end < m_channel.size())
+            {
+                // A crash left a partial record, which new records must not follow
+                LOGGER.warning("Truncated " + (m_channel.size() - end) + " bytes of a partial record at the end of "
+                        + file.getAbsolutePath());
+                m_channel.truncate(end);
+            }
+            m_channel.position(end);
+        }
+        else
+        {
+            m_channel.write(ByteBuffer.wrap(EthLogCodec.MAGIC));
+        }
+        LOGGER.info("Recording logs to " + file.getAbsolutePath());
+    }
+
+    /**
+     * Initializes a recorder. If the file already exists, new logs are appended
+     * to it.
+     *
+     * @param path
+     *          The path of the file logs are written to
+     *
+     * @throws IOException if the file cannot be opened, or exists and is not a log file
+     */
+    public RecordEthLogs(String path) throws IOException
+    {
+        this(new File(path));
+    }
+
+    /**
+     * Finds the end of the last complete record of a log file
+     *
+     * @param channel
+     *          The channel to the file, whose magic has been checked
+     *
+     * @return The position following the last complete record
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private static long endOfRecords(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        long position = EthLogCodec.MAGIC.length;
+        ByteBuffer header = ByteBuffer.allocate(EthLogCodec.RECORD_HEADER_SIZE);
+        while (size - position >= EthLogCodec.RECORD_HEADER_SIZE)
+        {
+            header.clear();
+            while (header.hasRemaining() && channel.read(header, position + header.position()) > 0)
+            {
+                // reading the header of the record
+            }
+            int length = header.getInt(0);
+            if (length < 0 || size - position - EthLogCodec.RECORD_HEADER_SIZE < length)
+            {
+                break;
+            }
+            position += EthLogCodec.RECORD_HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    @Override
+    protected synchronized boolean compute(Object[] inputs, Object[] outputs)
+    {
+        Log log = (Log) inputs[0];
+        m_recordBuffer = EthLogCodec.encodeRecord(log, System.currentTimeMillis(), m_recordBuffer);
+        try
+        {
+            if (m_writeBuffer.remaining() < m_recordBuffer.remaining())
+            {
+                flush();
+            }
+            if (m_recordBuffer.remaining() > m_writeBuffer.capacity())
+            {
+                writeFully(m_recordBuffer);
+            }
+            else
+            {
+                m_writeBuffer.put(m_recordBuffer);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new ProcessorException(e);
+        }
+        m_recordCount++;
+        outputs[0] = log;
+        return true;
+    }
+
+    /**
+     * Writes all the buffered records to the file
+     *
+     * @throws IOException if the records cannot be written
+     */
+    public synchronized void flush() throws IOException
+    {
+        m_writeBuffer.flip();
+        writeFully(m_writeBuffer);
+        m_writeBuffer.clear();
+    }
+
+    /**
+     * Gets the number of logs recorded so far
+     *
+     * @return The number of logs
+     */
+    public synchronized long getRecordCount()
+    {
+        return m_recordCount;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            m_channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes the buffered records and closes the file. No log can be
+     * recorded afterwards.
+     */
+    @Override
+    public synchronized void stop()
+    {
+        if (m_channel == null || !m_channel.isOpen())
+        {
+            return;
+        }
+        try
+        {
+            flush();
+            m_channel.close();
+        }
+        catch (IOException e)
+        {
+            throw new ProcessorException(e);
+        }
+    }
+
+    @Override
+    public Processor duplicate(boolean b)
+    {
+        throw new UnsupportedOperationException();
+        // two recorders cannot append to the same file
+    }
+}
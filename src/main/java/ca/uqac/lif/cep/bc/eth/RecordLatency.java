@@ -0,0 +1,176 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.tmf.Sink;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.logging.Logger;
+
+/**
+ * Records the latency of each stage of the events it receives in a
+ * {@link LatencyHistogram}, to tell which stage of the pipeline (waiting for
+ * the node, polling, decoding, downstream processing...) takes the most of
+ * the time between a block and the delivery of its events.
+ *
+ * Each event with a {@link LatencyTrace} (see {@link LatencyTrace#of(Object)})
+ * is stamped as {@link LatencyTrace#DELIVERED} when received. The time between
+ * each stamp and the previous one is recorded in the histogram of the later
+ * stage, and the time from the first stamp to the delivery in the histogram
+ * named {@link #TOTAL}. Events without trace are ignored.
+ *
+ * Latencies are in microseconds. The time of a block has a precision of one
+ * second, which shows in the latency of the {@link LatencyTrace#RECEIVED} stage.
+ */
+public class RecordLatency extends Sink
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger LOGGER = Logger.getLogger(RecordLatency.class.getName());
+
+    /**
+     * The name of the histogram of the latencies from the first stamp to the delivery
+     */
+    public static final String TOTAL = "total";
+
+    /**
+     * The histograms, by stage, in the order the stages were first seen
+     */
+    private final Map<String, LatencyHistogram> m_histograms = new LinkedHashMap<>();
+
+    /**
+     * The number of events received without trace
+     */
+    private long m_untracedCount = 0;
+
+    /**
+     * Creates the processor
+     */
+    public RecordLatency()
+    {
+        super(1);
+    }
+
+    @Override
+    protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+    {
+        LatencyTrace trace = LatencyTrace.of(inputs[0]);
+        if (trace == null || trace.size() == 0)
+        {
+            m_untracedCount++;
+            return true;
+        }
+        long delivered = LatencyTrace.now();
+        synchronized (m_histograms)
+        {
+            for (int i = 1; i < trace.size(); i++)
+            {
+                histogram(trace.getStage(i)).record(trace.getTime(i) - trace.getTime(i - 1));
+            }
+            histogram(LatencyTrace.DELIVERED).record(delivered - trace.getTime(trace.size() - 1));
+            histogram(TOTAL).record(delivered - trace.getTime(0));
+        }
+        return true;
+    }
+
+    private LatencyHistogram histogram(String stage)
+    {
+        return m_histograms.computeIfAbsent(stage, s -> new LatencyHistogram());
+    }
+
+    /**
+     * Gets the histograms of the latencies recorded so far
+     *
+     * @return Copies of the histograms, by stage, in the order the stages go
+     *          through, with {@link #TOTAL} last
+     */
+    public Map<String, LatencyHistogram> getHistograms()
+    {
+        Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+        synchronized (m_histograms)
+        {
+            for (Map.Entry<String, LatencyHistogram> e : m_histograms.entrySet())
+            {
+                if (!e.getKey().equals(TOTAL))
+                {
+                    histograms.put(e.getKey(), e.getValue().copy());
+                }
+            }
+            LatencyHistogram total = m_histograms.get(TOTAL);
+            if (total != null)
+            {
+                histograms.put(TOTAL, total.copy());
+            }
+        }
+        return histograms;
+    }
+
+    /**
+     * Gets the histogram of the latencies of a stage
+     *
+     * @param stage
+     *          The name of the stage, or {@link #TOTAL}
+     *
+     * @return A copy of the histogram, empty if the stage was never seen
+     */
+    public LatencyHistogram getHistogram(String stage)
+    {
+        synchronized (m_histograms)
+        {
+            LatencyHistogram h = m_histograms.get(stage);
+            return h == null ? new LatencyHistogram() : h.copy();
+        }
+    }
+
+    /**
+     * Gets the number of events received without a trace
+     *
+     * @return The number of events
+     */
+    public long getUntracedCount()
+    {
+        return m_untracedCount;
+    }
+
+    /**
+     * Describes the latencies recorded so far, one line per stage
+     *
+     * @return The report
+     */
+    public String getReport()
+    {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> e : getHistograms().entrySet())
+        {
+            report.append(e.getKey()).append(" (us): ").append(e.getValue()).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * Logs the report of the latencies recorded so far
+     */
+    public void log()
+    {
+        LOGGER.info("Latencies by stage:\n" + getReport());
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        synchronized (m_histograms)
+        {
+            m_histograms.clear();
+        }
+        m_untracedCount = 0;
+    }
+
+    @Override
+    public Processor duplicate(boolean with_state)
+    {
+        return new RecordLatency();
+    }
+}
@@ -0,0 +1,280 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.Pushable;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Reads the {@link Log}s stored in a file by {@link RecordEthLogs} and pushes
+ * them to its output, as if they were coming from a {@link CatchEthContractLogs}.
+ *
+ * THIS PROCESSOR FORCES PUSH MODE.
+ *
+ * By default logs are pushed as fast as possible. They can also be pushed at
+ * the pace at which they were originally recorded.
+ * The file is memory-mapped, so that no system call is needed to read a log.
+ * Once the end of the file is reached, the end of the trace is notified to the
+ * downstream processors.
+ */
+public class ReplayEthLogs extends Processor implements Runnable
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger LOGGER = Logger.getLogger(ReplayEthLogs.class.getName());
+
+    /**
+     * The maximum size of the part of the file mapped in memory at once
+     */
+    public static final long MAPPING_SIZE = 1L << 30;
+
+    /**
+     * The file to replay
+     */
+    private final File m_file;
+
+    /**
+     * Whether logs are pushed at the pace they were recorded
+     */
+    private final boolean m_originalPace;
+
+    /**
+     * Semaphore used to stop the replay
+     */
+    private volatile boolean m_run;
+
+    /**
+     * The thread pushing the logs
+     */
+    private Thread m_thread;
+
+    /**
+     * The number of logs pushed so far
+     */
+    private volatile long m_replayCount;
+
+    /**
+     * Initializes a replay
+     *
+     * @param file
+     *          The file written by a {@link RecordEthLogs}
+     *
+     * @param original_pace
+     *          Specifies if logs should be pushed at the pace they were recorded (true)
+     *          or as fast as possible (false)
+     */
+    public ReplayEthLogs(File file, boolean original_pace)
+    {
+        super(0, 1);
+        m_file = file;
+        m_originalPace = original_pace;
+    }
+
+    /**
+     * Initializes a replay pushing logs as fast as possible
+     *
+     * @param path
+     *          The path of the file written by a {@link RecordEthLogs}
+     */
+    public ReplayEthLogs(String path)
+    {
+        this(new File(path), false);
+    }
+
+    @Override
+    public void run()
+    {
+        LOGGER.info("Replaying logs from " + m_file.getAbsolutePath());
+        Pushable pushable = getPushableOutput(0);
+        try (FileChannel channel = FileChannel.open(m_file.toPath(), StandardOpenOption.READ))
+        {
+            checkMagic(channel, m_file);
+            long position = EthLogCodec.MAGIC.length;
+            long size = channel.size();
+            long firstTimestamp = -1;
+            long replayStart = System.currentTimeMillis();
+            while (m_run && position < size)
+            {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position, Math.min(MAPPING_SIZE, size - position));
+                if (!EthLogCodec.hasRecord(buffer))
+                {
+                    LOGGER.warning("Ignored truncated record at the end of " + m_file.getAbsolutePath());
+                    break;
+                }
+                while (m_run && EthLogCodec.hasRecord(buffer))
+                {
+                    if (m_originalPace)
+                    {
+                        long timestamp = EthLogCodec.peekTimestamp(buffer);
+                        if (firstTimestamp < 0)
+                        {
+                            firstTimestamp = timestamp;
+                        }
+                        long wait = replayStart + timestamp - firstTimestamp - System.currentTimeMillis();
+                        if (wait > 0)
+                        {
+                            Thread.sleep(wait);
+                        }
+                    }
+                    pushable.push(EthLogCodec.decodeRecord(buffer));
+                    m_replayCount++;
+                }
+                position += buffer.position();
+            }
+            if (m_run)
+            {
+                notifyEndOfTrace(pushable);
+            }
+        }
+        catch (IOException e)
+        {
+            LOGGER.severe("Could not replay " + m_file.getAbsolutePath() + ": " + e.getMessage());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            m_run = false;
+        }
+    }
+
+    /**
+     * Notifies the downstream processors that no more logs will be pushed
+     *
+     * @param pushable
+     *          The output pushable
+     */
+    static void notifyEndOfTrace(Pushable pushable)
+    {
+        try
+        {
+            pushable.notifyEndOfTrace();
+        }
+        catch (RuntimeException e)
+        {
+            // Some processors, such as a Tank with nothing connected to its
+            // output, cannot forward the notification: this does not matter
+            LOGGER.fine("End of trace not forwarded: " + e);
+        }
+    }
+
+    @Override
+    public synchronized void start()
+    {
+        if (!m_run)
+        {
+            m_run = true;
+            m_thread = new Thread(this);
+            m_thread.start();
+        }
+    }
+
+    @Override
+    public synchronized void stop()
+    {
+        m_run = false;
+    }
+
+    /**
+     * Blocks until all the logs of the file have been pushed, or until the
+     * replay is stopped
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void waitUntilDone() throws InterruptedException
+    {
+        Thread t;
+        synchronized (this)
+        {
+            t = m_thread;
+        }
+        if (t != null)
+        {
+            t.join();
+        }
+    }
+
+    /**
+     * Indicates if the {@link ReplayEthLogs} is currently pushing logs
+     *
+     * @return true if logs are being pushed, false otherwise
+     */
+    public boolean isReplaying()
+    {
+        return m_run;
+    }
+
+    /**
+     * Gets the number of logs pushed so far
+     *
+     * @return The number of logs
+     */
+    public long getReplayCount()
+    {
+        return m_replayCount;
+    }
+
+    /**
+     * Checks that a file starts with {@link EthLogCodec#MAGIC}
+     *
+     * @param channel
+     *          A channel to the file
+     *
+     * @param file
+     *          The file, used in error messages
+     *
+     * @throws IOException if the file is not a log file
+     */
+    static void checkMagic(FileChannel channel, File file) throws IOException
+    {
+        ByteBuffer magic = ByteBuffer.allocate(EthLogCodec.MAGIC.length);
+        while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0)
+        {
+            // reading the beginning of the file
+        }
+        if (!Arrays.equals(magic.array(), EthLogCodec.MAGIC))
+        {
+            throw new IOException(file.getAbsolutePath() + " is not a log file");
+        }
+    }
+
+    @Override
+    public Pushable getPushableInput(int i)
+    {
+        throw new UnsupportedOperationException();
+        // there is no input for this processor
+    }
+
+    @Override
+    public synchronized Pullable getPullableInput(int i)
+    {
+        throw new UnsupportedOperationException();
+        // there is no input for this processor
+    }
+
+    @Override
+    public Pullable getPullableOutput(int i)
+    {
+        throw new UnsupportedOperationException();
+        // this processor forces push mode!
+    }
+
+    @Override
+    public Processor duplicate(boolean b)
+    {
+        return new ReplayEthLogs(m_file, m_originalPace);
+    }
+}
@@ -0,0 +1,328 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+/**
+ * Limits the requests sent to an Ethereum node, both in rate and in number of
+ * requests waiting for a response at the same time.
+ *
+ * The rate is limited by a token bucket: each request takes a token (a batch
+ * takes one per request it holds), and tokens come back at a fixed rate, up to
+ * a maximum that bounds bursts. This is the budget granted by a hosted
+ * endpoint, and does not change.
+ *
+ * The number of concurrent requests is limited by a bound that adapts to the
+ * node (additive increase, multiplicative decrease): it grows by one each time
+ * as many requests as the bound succeed, and shrinks when the node shows signs
+ * of overload. An error or a throttled request halves it; a response much
+ * slower than the fastest ones seen recently reduces it by a fifth. A batch
+ * takes longer than a single request without the node being any more loaded,
+ * so the fastest responses are kept apart for batches of different sizes
+ * (1, 2 to 3, 4 to 7, and so on), and a response is only compared to those of
+ * batches of about the same size. The bound thus settles around the highest
+ * concurrency the node sustains without its latency going up.
+ *
+ * A single budget is meant to be shared by all the services reaching the same
+ * endpoint (see {@link RateLimitedService}), so that several catchers together
+ * stay within it. The budget is thread-safe.
+ */
+public class RequestBudget
+{
+    /**
+     * The ratio to the baseline latency above which a response is deemed slow
+     */
+    public static final double LATENCY_TOLERANCE = 2;
+
+    /**
+     * The factor applied to the concurrency bound after an error
+     */
+    private static final double ERROR_BACKOFF = 0.5;
+
+    /**
+     * The factor applied to the concurrency bound after a slow response
+     */
+    private static final double LATENCY_BACKOFF = 0.8;
+
+    /**
+     * The rate at which the baseline latency drifts up towards the latencies
+     * observed, so that it follows a node that became slower for good
+     */
+    private static final double BASELINE_DRIFT = 0.01;
+
+    /**
+     * The number of tokens given back per nanosecond
+     */
+    private final double m_tokensPerNano;
+
+    /**
+     * The maximum number of tokens in the bucket
+     */
+    private final int m_burst;
+
+    /**
+     * The maximum value of the concurrency bound
+     */
+    private final int m_maxConcurrency;
+
+    /**
+     * The number of tokens in the bucket, negative after a batch larger than the bucket
+     */
+    private double m_tokens;
+
+    /**
+     * The time at which tokens were last given back, in nanoseconds
+     */
+    private long m_lastRefill;
+
+    /**
+     * The current bound on the number of concurrent requests
+     */
+    private double m_limit = 1;
+
+    /**
+     * The number of requests waiting for a response
+     */
+    private int m_inFlight = 0;
+
+    /**
+     * The latency of the fastest responses seen recently, in nanoseconds, for
+     * each class of batch size (see {@link #sizeClass(int)}), or -1 if no
+     * response was received yet for that class
+     */
+    private final double[] m_baselines = new double[Integer.SIZE];
+
+    /**
+     * The time of the last decrease of the bound, in nanoseconds
+     */
+    private long m_lastDecrease;
+
+    /**
+     * The number of requests that had to wait for a token or a slot
+     */
+    private long m_delayedCount = 0;
+
+    /**
+     * The number of decreases of the concurrency bound
+     */
+    private long m_backoffCount = 0;
+
+    /**
+     * Creates a budget
+     *
+     * @param requests_per_second
+     *          The maximum sustained rate of requests
+     *
+     * @param burst
+     *          The maximum number of requests sent at once after a pause
+     *
+     * @param max_concurrency
+     *          The maximum number of requests waiting for a response at the
+     *          same time
+     */
+    public RequestBudget(double requests_per_second, int burst, int max_concurrency)
+    {
+        super();
+        if (requests_per_second <= 0 || burst < 1 || max_concurrency < 1)
+        {
+            throw new IllegalArgumentException("A budget must allow at least one request");
+        }
+        m_tokensPerNano = requests_per_second / 1e9;
+        m_burst = burst;
+        m_maxConcurrency = max_concurrency;
+        m_tokens = burst;
+        m_lastRefill = System.nanoTime();
+        Arrays.fill(m_baselines, -1);
+    }
+
+    /**
+     * Waits until requests can be sent, and takes their tokens and a slot. Each
+     * call must be followed by a call to {@link #release(long, int, boolean)}
+     * with the same number of requests.
+     *
+     * @param requests
+     *          The number of requests sent together
+     *
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public synchronized void acquire(int requests) throws InterruptedIOException
+    {
+        boolean delayed = false;
+        try
+        {
+            while (true)
+            {
+                refill();
+                // A batch larger than the bucket is let through once the bucket is full
+                boolean tokens = m_tokens >= Math.min(requests, m_burst);
+                if (tokens && m_inFlight < (int) m_limit)
+                {
+                    break;
+                }
+                delayed = true;
+                if (tokens)
+                {
+                    wait();
+                }
+                else
+                {
+                    long nanos = (long) Math.ceil((Math.min(requests, m_burst) - m_tokens) / m_tokensPerNano);
+                    wait(Math.max(1, nanos / 1000000));
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the request budget");
+        }
+        if (delayed)
+        {
+            m_delayedCount++;
+        }
+        m_tokens -= requests;
+        m_inFlight++;
+    }
+
+    /**
+     * Gives back the slot taken by {@link #acquire(int)} for a single request,
+     * and adapts the concurrency bound to its outcome
+     *
+     * @param latency
+     *          The time the node took to respond, in nanoseconds, or -1 if it
+     *          does not tell how loaded the node is (e.g. a streamed response)
+     *
+     * @param overloaded
+     *          Whether the request failed or was throttled by the node
+     */
+    public void release(long latency, boolean overloaded)
+    {
+        release(latency, 1, overloaded);
+    }
+
+    /**
+     * Gives back the slot taken by {@link #acquire(int)}, and adapts the
+     * concurrency bound to the outcome of the requests
+     *
+     * @param latency
+     *          The time the node took to respond, in nanoseconds, or -1 if it
+     *          does not tell how loaded the node is (e.g. a streamed response)
+     *
+     * @param requests
+     *          The number of requests sent together
+     *
+     * @param overloaded
+     *          Whether the request failed or was throttled by the node
+     */
+    public synchronized void release(long latency, int requests, boolean overloaded)
+    {
+        m_inFlight--;
+        long now = System.nanoTime();
+        int size_class = sizeClass(requests);
+        if (overloaded)
+        {
+            decrease(now, ERROR_BACKOFF, m_baselines[size_class]);
+            // No burst right after being throttled
+            m_tokens = Math.min(m_tokens, 0);
+        }
+        else if (latency >= 0)
+        {
+            double baseline = m_baselines[size_class];
+            if (baseline < 0 || latency < baseline)
+            {
+                baseline = latency;
+            }
+            else
+            {
+                baseline += (latency - baseline) * BASELINE_DRIFT;
+            }
+            m_baselines[size_class] = baseline;
+            if (latency > baseline * LATENCY_TOLERANCE)
+            {
+                decrease(now, LATENCY_BACKOFF, baseline);
+            }
+            else
+            {
+                m_limit = Math.min(m_maxConcurrency, m_limit + 1 / m_limit);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Gets the class of a batch size, batches of the same class having
+     * comparable latencies: the class of <i>n</i> requests is the floor of
+     * log<sub>2</sub>(<i>n</i>)
+     *
+     * @param requests
+     *          The number of requests sent together
+     *
+     * @return The class
+     */
+    private static int sizeClass(int requests)
+    {
+        return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(Math.max(1, requests));
+    }
+
+    /**
+     * Reduces the concurrency bound, at most once per round trip: the responses
+     * to requests sent before a decrease do not decrease it again
+     */
+    private void decrease(long now, double factor, double round_trip)
+    {
+        if (m_backoffCount > 0 && now - m_lastDecrease < round_trip)
+        {
+            return;
+        }
+        m_lastDecrease = now;
+        m_limit = Math.max(1, m_limit * factor);
+        m_backoffCount++;
+    }
+
+    private void refill()
+    {
+        long now = System.nanoTime();
+        m_tokens = Math.min(m_burst, m_tokens + (now - m_lastRefill) * m_tokensPerNano);
+        m_lastRefill = now;
+    }
+
+    /**
+     * Gets the current bound on the number of concurrent requests
+     *
+     * @return The bound
+     */
+    public synchronized int getConcurrencyLimit()
+    {
+        return (int) m_limit;
+    }
+
+    /**
+     * Gets the number of requests waiting for a response
+     *
+     * @return The number of requests
+     */
+    public synchronized int getInFlightCount()
+    {
+        return m_inFlight;
+    }
+
+    /**
+     * Gets the number of times requests had to wait before being sent
+     *
+     * @return The number of delayed sends
+     */
+    public synchronized long getDelayedCount()
+    {
+        return m_delayedCount;
+    }
+
+    /**
+     * Gets the number of times the concurrency bound was reduced
+     *
+     * @return The number of decreases
+     */
+    public synchronized long getBackoffCount()
+    {
+        return m_backoffCount;
+    }
+}
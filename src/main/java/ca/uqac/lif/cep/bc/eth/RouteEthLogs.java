@@ -0,0 +1,623 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.Pushable;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Spreads the {@link Log}s it receives over several outputs, called lanes,
+ * each pushed to by a thread of its own. Each output can be connected to its
+ * own chain of processors (decoding, windows, properties...), so that the
+ * chains run in parallel without sharing any state, instead of a single chain
+ * seeing every log from the thread of the {@link CatchEthContractLogs}.
+ *
+ * The lane of a log is given by a hash of one of its topics: by default, the
+ * first one, i.e. the signature of its event, so that each chain sees all the
+ * logs of some events. Another topic, i.e. an indexed argument such as the
+ * holder of a token, can be used instead with {@link #setKeyTopic(int)}; logs
+ * with fewer topics are then routed by their event. Logs with the same key
+ * always go to the same lane, and are pushed in the order they were received.
+ *
+ * A {@link BlockWatermark} is pushed to every lane, after the logs received
+ * before it. An {@link EthLogRetraction} goes to the lane of its log, and any
+ * other event to the first lane.
+ *
+ * Each lane holds a bounded queue: when the chain of a lane falls behind and
+ * its queue is full, the upstream thread waits for it, which slows the other
+ * lanes down as well. The threads are started by {@link #start()} and stopped
+ * by {@link #stop()}, once the logs already queued have been pushed.
+ *
+ * When the chain of a lane throws an exception, the lane dies: its thread
+ * ends, the exception is kept (see {@link #getFailure(int)}), and the events
+ * queued or routed to the lane afterwards are dropped and counted (see
+ * {@link #getDroppedCount(int)}), so that the other lanes keep going. A
+ * {@link #reset()} brings the lane back, with a new thread if the processor
+ * is running.
+ *
+ * THIS PROCESSOR FORCES PUSH MODE
+ */
+public class RouteEthLogs extends Processor
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger LOGGER = Logger.getLogger(RouteEthLogs.class.getName());
+
+    /**
+     * The default number of events queued for each lane
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * The event queued to notify the end of the trace to a lane
+     */
+    private static final Object END_OF_TRACE = new Object();
+
+    /**
+     * The lanes
+     */
+    private final Lane[] m_lanes;
+
+    /**
+     * The maximum number of events queued for each lane
+     */
+    private final int m_capacity;
+
+    /**
+     * The position of the topic the lane of a log is computed from
+     */
+    private int m_keyTopic = 0;
+
+    /**
+     * Whether the threads of the lanes are running
+     */
+    private volatile boolean m_run = false;
+
+    /**
+     * The pushable of the input
+     */
+    private final RoutePushable m_pushable = new RoutePushable();
+
+    /**
+     * Initializes the processor
+     *
+     * @param lanes
+     *          The number of lanes, i.e. of outputs
+     */
+    public RouteEthLogs(int lanes)
+    {
+        this(lanes, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Initializes the processor
+     *
+     * @param lanes
+     *          The number of lanes, i.e. of outputs
+     *
+     * @param capacity
+     *          The maximum number of events queued for each lane
+     */
+    public RouteEthLogs(int lanes, int capacity)
+    {
+        super(1, lanes);
+        if (lanes < 1 || capacity < 1)
+        {
+            throw new IllegalArgumentException("There must be at least one lane, of at least one event");
+        }
+        m_capacity = capacity;
+        m_lanes = new Lane[lanes];
+        for (int i = 0; i < lanes; i++)
+        {
+            m_lanes[i] = new Lane(i);
+        }
+    }
+
+    /**
+     * Sets the topic the lane of a log is computed from
+     *
+     * Must be called before {@link #start()}.
+     *
+     * @param position
+     *          The position of the topic: 0 for the signature of the event
+     *          (the default), 1 to 3 for an indexed argument
+     *
+     * @return This processor
+     */
+    public RouteEthLogs setKeyTopic(int position)
+    {
+        if (position < 0 || position > CatchEthContractLogs.MAX_TOPICS - 1)
+        {
+            throw new IllegalArgumentException("No topic at position " + position);
+        }
+        m_keyTopic = position;
+        return this;
+    }
+
+    /**
+     * Gets the lane a log is routed to
+     *
+     * @param log
+     *          The log
+     *
+     * @return The index of the lane
+     */
+    public int getLane(Log log)
+    {
+        int count = log instanceof CompactLog ? ((CompactLog) log).getTopicCount()
+                : log.getTopics() == null ? 0 : log.getTopics().size();
+        int position = m_keyTopic < count ? m_keyTopic : 0;
+        if (position >= count)
+        {
+            return 0;
+        }
+        long key = log instanceof CompactLog ? key(((CompactLog) log).getTopicBytes(position))
+                : key(log.getTopics().get(position));
+        // Spreads the bits of the key, which are not all random for an address
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) ((key >>> 1) % m_lanes.length);
+    }
+
+    /**
+     * Gets the key of a topic: its last 8 bytes, where an indexed address or
+     * number keeps its value
+     *
+     * @param topic
+     *          The topic as bytes
+     *
+     * @return The key
+     */
+    private static long key(byte[] topic)
+    {
+        long key = 0;
+        for (int i = Math.max(0, topic.length - 8); i < topic.length; i++)
+        {
+            key = (key << 8) | (topic[i] & 0xff);
+        }
+        return key;
+    }
+
+    /**
+     * Gets the key of a topic: its last 8 bytes, where an indexed address or
+     * number keeps its value
+     *
+     * @param topic
+     *          The topic as a hexadecimal string
+     *
+     * @return The key, the same as for the topic as bytes
+     */
+    private static long key(String topic)
+    {
+        int start = topic.startsWith("0x") || topic.startsWith("0X") ? 2 : 0;
+        start = Math.max(start, topic.length() - 16);
+        return start >= topic.length() ? 0 : Long.parseUnsignedLong(topic.substring(start), 16);
+    }
+
+    /**
+     * Routes an event received on the input
+     *
+     * @param o
+     *          The event
+     */
+    private void route(Object o)
+    {
+        if (o instanceof BlockWatermark || o == END_OF_TRACE)
+        {
+            for (Lane lane : m_lanes)
+            {
+                lane.offer(o);
+            }
+        }
+        else if (o instanceof Log)
+        {
+            m_lanes[getLane((Log) o)].offer(o);
+        }
+        else if (o instanceof EthLogRetraction)
+        {
+            m_lanes[getLane(((EthLogRetraction) o).getLog())].offer(o);
+        }
+        else
+        {
+            m_lanes[0].offer(o);
+        }
+    }
+
+    /**
+     * Gets the number of events routed to a lane so far
+     *
+     * @param lane
+     *          The index of the lane
+     *
+     * @return The number of events
+     */
+    public long getRoutedCount(int lane)
+    {
+        return m_lanes[lane].m_routedCount;
+    }
+
+    /**
+     * Gets the number of events waiting in the queue of a lane
+     *
+     * @param lane
+     *          The index of the lane
+     *
+     * @return The number of events
+     */
+    public int getQueuedCount(int lane)
+    {
+        Lane l = m_lanes[lane];
+        synchronized (l)
+        {
+            return l.m_queue.size();
+        }
+    }
+
+    /**
+     * Gets the number of times the input waited for the queue of a lane to
+     * have room, which tells that the chain of that lane is too slow
+     *
+     * @param lane
+     *          The index of the lane
+     *
+     * @return The number of times
+     */
+    public long getFullCount(int lane)
+    {
+        return m_lanes[lane].m_fullCount;
+    }
+
+    /**
+     * Gets the number of events dropped because the chain of a lane had failed
+     *
+     * @param lane
+     *          The index of the lane
+     *
+     * @return The number of events
+     */
+    public long getDroppedCount(int lane)
+    {
+        return m_lanes[lane].m_droppedCount;
+    }
+
+    /**
+     * Gets the exception that made a lane die
+     *
+     * @param lane
+     *          The index of the lane
+     *
+     * @return The exception, or null if the lane is alive
+     */
+    public Throwable getFailure(int lane)
+    {
+        return m_lanes[lane].m_failure;
+    }
+
+    /**
+     * Starts the threads of the lanes
+     */
+    @Override
+    public synchronized void start()
+    {
+        if (!m_run)
+        {
+            m_run = true;
+            for (Lane lane : m_lanes)
+            {
+                synchronized (lane)
+                {
+                    lane.startThread();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the threads of the lanes, once they have pushed the events already
+     * queued. Events received afterwards are queued, without bound, until the
+     * threads are started again.
+     */
+    @Override
+    public void stop()
+    {
+        synchronized (this)
+        {
+            m_run = false;
+        }
+        for (Lane lane : m_lanes)
+        {
+            Thread t;
+            synchronized (lane)
+            {
+                lane.notifyAll();
+                t = lane.m_thread;
+                lane.m_thread = null;
+            }
+            if (t != null && t != Thread.currentThread())
+            {
+                try
+                {
+                    t.join();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Indicates if the threads of the lanes are running
+     *
+     * @return true if they are running, false otherwise
+     */
+    public boolean isRunning()
+    {
+        return m_run;
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        super.reset();
+        for (Lane lane : m_lanes)
+        {
+            synchronized (lane)
+            {
+                lane.m_queue.clear();
+                lane.m_routedCount = 0;
+                lane.m_fullCount = 0;
+                lane.m_droppedCount = 0;
+                if (lane.m_failure != null)
+                {
+                    lane.m_failure = null;
+                    if (m_run)
+                    {
+                        // the thread of the lane has ended
+                        lane.startThread();
+                    }
+                }
+                lane.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public Pushable getPushableInput(int i)
+    {
+        return m_pushable;
+    }
+
+    @Override
+    public Pullable getPullableOutput(int i)
+    {
+        throw new UnsupportedOperationException();
+        // this processor forces push mode!
+    }
+
+    @Override
+    public Processor duplicate(boolean with_state)
+    {
+        return new RouteEthLogs(m_lanes.length, m_capacity).setKeyTopic(m_keyTopic);
+    }
+
+    /**
+     * A lane: the queue of the events routed to an output, and the thread
+     * pushing them
+     */
+    private class Lane implements Runnable
+    {
+        /**
+         * The index of the lane, which is also the index of its output
+         */
+        private final int m_index;
+
+        /**
+         * The events waiting to be pushed
+         */
+        private final ArrayDeque<Object> m_queue = new ArrayDeque<>();
+
+        /**
+         * The thread pushing the events, or null
+         */
+        private Thread m_thread;
+
+        /**
+         * The number of events routed to the lane
+         */
+        private volatile long m_routedCount = 0;
+
+        /**
+         * The number of times the input waited for the queue to have room
+         */
+        private volatile long m_fullCount = 0;
+
+        /**
+         * The number of events dropped because the lane had failed
+         */
+        private volatile long m_droppedCount = 0;
+
+        /**
+         * The exception thrown by the chain of the lane, or null
+         */
+        private volatile Throwable m_failure;
+
+        Lane(int index)
+        {
+            m_index = index;
+        }
+
+        /**
+         * Starts a thread pushing the events of the lane
+         */
+        void startThread()
+        {
+            m_thread = new Thread(this, "RouteEthLogs-" + getId() + "-" + m_index);
+            m_thread.start();
+        }
+
+        /**
+         * Queues an event, waiting for room in the queue while the thread of the
+         * lane is running. The event is dropped if the lane has failed.
+         *
+         * @param o
+         *          The event
+         */
+        synchronized void offer(Object o)
+        {
+            if (m_failure != null)
+            {
+                if (o != END_OF_TRACE)
+                {
+                    m_droppedCount++;
+                }
+                return;
+            }
+            if (m_queue.size() >= m_capacity && m_run)
+            {
+                m_fullCount++;
+                while (m_queue.size() >= m_capacity && m_run && m_failure == null)
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            if (m_failure != null)
+            {
+                // the lane failed while the input was waiting
+                m_droppedCount++;
+                return;
+            }
+            m_queue.add(o);
+            if (o != END_OF_TRACE)
+            {
+                m_routedCount++;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public void run()
+        {
+            Pushable pushable = getPushableOutput(m_index);
+            while (true)
+            {
+                Object o;
+                synchronized (this)
+                {
+                    while (m_queue.isEmpty() && m_run)
+                    {
+                        try
+                        {
+                            wait();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    if (m_queue.isEmpty())
+                    {
+                        // stopped, and everything queued has been pushed
+                        return;
+                    }
+                    o = m_queue.poll();
+                    notifyAll();
+                }
+                try
+                {
+                    if (o == END_OF_TRACE)
+                    {
+                        ReplayEthLogs.notifyEndOfTrace(pushable);
+                    }
+                    else
+                    {
+                        pushable.push(o);
+                    }
+                }
+                catch (Throwable e)
+                {
+                    // An error must not leave the input waiting for the dead lane
+                    fail(e);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Makes the lane die after its chain threw an exception or an error:
+         * the events still queued are dropped, and the input stops waiting for room
+         *
+         * @param e
+         *          The exception or error
+         */
+        private synchronized void fail(Throwable e)
+        {
+            LOGGER.severe("Lane " + m_index + " of router " + getId() + " stopped, its events are dropped: " + e);
+            m_failure = e;
+            for (Object o : m_queue)
+            {
+                if (o != END_OF_TRACE)
+                {
+                    m_droppedCount++;
+                }
+            }
+            m_queue.clear();
+            notifyAll();
+        }
+    }
+
+    /**
+     * The pushable of the input of the router
+     */
+    private class RoutePushable implements Pushable
+    {
+        @Override
+        public Pushable push(Object o)
+        {
+            route(o);
+            return this;
+        }
+
+        @Override
+        public Future<Pushable> pushFast(Object o)
+        {
+            push(o);
+            return Pushable.NULL_FUTURE;
+        }
+
+        @Override
+        public void notifyEndOfTrace()
+        {
+            route(END_OF_TRACE);
+        }
+
+        @Override
+        public Processor getProcessor()
+        {
+            return RouteEthLogs.this;
+        }
+
+        @Override
+        public int getPosition()
+        {
+            return 0;
+        }
+    }
+}
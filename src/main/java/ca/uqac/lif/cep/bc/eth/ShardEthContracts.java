@@ -0,0 +1,574 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.Pushable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Splits the contracts to watch among several workers, each running in its own
+ * JVM or in the same one, so that no single process has to catch the logs of
+ * all of them. Each worker runs a {@link CatchEthContractLogs} for each contract
+ * it is assigned, and pushes the logs of all of them to its output.
+ *
+ * The workers only share a directory. Each of them writes the time of its
+ * last heartbeat to a file of the <code>members</code> subdirectory, and the
+ * workers whose heartbeat is recent enough form the group. The contracts are
+ * assigned to the workers of the group with a {@link ConsistentHashRing}:
+ * when a worker joins or leaves (or stops beating), each worker sees the new
+ * group at its next heartbeat, stops the catchers of the contracts it lost and
+ * starts catchers for the contracts it gained. Only the contracts of the worker
+ * joining or leaving move.
+ *
+ * Each contract has its own checkpoint, a file of the <code>checkpoints</code>
+ * subdirectory holding the last block covered by its catcher. A worker taking
+ * over a contract starts from the block following the checkpoint, so that no
+ * log is missed; logs caught by the previous worker since its last heartbeat
+ * are pushed again.
+ *
+ * THIS PROCESSOR FORCES PUSH MODE
+ */
+public class ShardEthContracts extends Processor implements Runnable
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger LOGGER = Logger.getLogger(ShardEthContracts.class.getName());
+
+    /**
+     * The default interval (in milliseconds) between two heartbeats
+     */
+    public static final long DEFAULT_HEARTBEAT_INTERVAL = 1000;
+
+    /**
+     * The default time (in milliseconds) after which a worker without
+     * heartbeat leaves the group
+     */
+    public static final long DEFAULT_MEMBER_TIMEOUT = 5000;
+
+    /**
+     * The subdirectory holding the heartbeats of the workers
+     */
+    private static final String MEMBERS = "members";
+
+    /**
+     * The subdirectory holding the checkpoints of the contracts
+     */
+    private static final String CHECKPOINTS = "checkpoints";
+
+    /**
+     * The identifier of this worker
+     */
+    private final String m_workerId;
+
+    /**
+     * The directory holding the heartbeats of the workers
+     */
+    private final File m_members;
+
+    /**
+     * The directory holding the checkpoints of the contracts
+     */
+    private final File m_checkpoints;
+
+    /**
+     * The addresses of all the contracts, in lower case
+     */
+    private final Set<String> m_contracts = new TreeSet<>();
+
+    /**
+     * Builds the catcher of a contract from its address
+     */
+    private final Function<String, CatchEthContractLogs> m_factory;
+
+    /**
+     * The catchers of the contracts assigned to this worker, by address
+     */
+    private final Map<String, CatchEthContractLogs> m_catchers = new TreeMap<>();
+
+    /**
+     * The pushable receiving the logs of all the catchers
+     */
+    private final ShardPushable m_pushable = new ShardPushable();
+
+    /**
+     * The interval (in milliseconds) between two heartbeats
+     */
+    private long m_heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
+
+    /**
+     * The time (in milliseconds) after which a worker without heartbeat leaves the group
+     */
+    private long m_memberTimeout = DEFAULT_MEMBER_TIMEOUT;
+
+    /**
+     * The workers of the group at the last heartbeat
+     */
+    private volatile Collection<String> m_group = Collections.emptySet();
+
+    /**
+     * Semaphore used to stop the worker
+     */
+    private volatile boolean m_run = false;
+
+    /**
+     * The thread beating the heart of the worker
+     */
+    private Thread m_thread;
+
+    /**
+     * The number of times the contracts of this worker changed
+     */
+    private volatile long m_rebalanceCount = 0;
+
+    /**
+     * Creates a worker
+     *
+     * @param directory
+     *          The directory shared by the workers, created if needed
+     *
+     * @param worker_id
+     *          The identifier of this worker, unique in the group
+     *
+     * @param contracts
+     *          The addresses of all the contracts to watch, the same for every
+     *          worker of the group
+     *
+     * @param factory
+     *          Builds the catcher of a contract from its address, e.g.
+     *          <code>a -&gt; CatchEthContractLogs.buildWithRPC(url, a, true)</code>.
+     *          The catcher is made to start after the checkpoint of the
+     *          contract, if any.
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    public ShardEthContracts(File directory, String worker_id, Collection<String> contracts,
+                             Function<String, CatchEthContractLogs> factory) throws IOException
+    {
+        super(0, 1);
+        m_workerId = worker_id;
+        m_members = new File(directory, MEMBERS);
+        m_checkpoints = new File(directory, CHECKPOINTS);
+        for (File dir : new File[]{m_members, m_checkpoints})
+        {
+            if (!dir.isDirectory() && !dir.mkdirs())
+            {
+                throw new IOException("Cannot create directory " + dir.getAbsolutePath());
+            }
+        }
+        for (String contract : contracts)
+        {
+            m_contracts.add(contract.toLowerCase());
+        }
+        m_factory = factory;
+    }
+
+    /**
+     * Sets how often the workers beat and how long they wait for each other
+     *
+     * @param interval
+     *          The interval (in milliseconds) between two heartbeats of this
+     *          worker, which is also the longest time it takes to see a change
+     *          of the group
+     *
+     * @param timeout
+     *          The time (in milliseconds) after which a worker without
+     *          heartbeat leaves the group; it should be several intervals long
+     *
+     * @return This worker
+     */
+    public ShardEthContracts setHeartbeat(long interval, long timeout)
+    {
+        m_heartbeatInterval = interval;
+        m_memberTimeout = timeout;
+        return this;
+    }
+
+    @Override
+    public void run()
+    {
+        while (m_run)
+        {
+            try
+            {
+                beat();
+                rebalance();
+                saveCheckpoints();
+            }
+            catch (IOException e)
+            {
+                LOGGER.warning("Heartbeat of worker " + m_workerId + " failed: " + e.getMessage());
+            }
+            try
+            {
+                synchronized (this)
+                {
+                    if (m_run)
+                    {
+                        wait(m_heartbeatInterval);
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                m_run = false;
+            }
+        }
+    }
+
+    /**
+     * Writes the time of the heartbeat of this worker, and reads the group
+     *
+     * @throws IOException if the heartbeat cannot be written
+     */
+    private void beat() throws IOException
+    {
+        long now = System.currentTimeMillis();
+        writeAtomically(new File(m_members, m_workerId), Long.toString(now));
+        Set<String> group = new TreeSet<>();
+        String[] names = m_members.list((dir, name) -> !name.endsWith(".tmp"));
+        for (String name : names == null ? new String[0] : names)
+        {
+            String beat = read(new File(m_members, name));
+            try
+            {
+                if (beat != null && now - Long.parseLong(beat) <= m_memberTimeout)
+                {
+                    group.add(name);
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                // e.g. written by another program; the member is left out until it beats again
+                LOGGER.warning("Ignored the corrupt heartbeat of worker " + name + ": " + beat);
+            }
+        }
+        m_group = group;
+    }
+
+    /**
+     * Starts and stops catchers according to the contracts assigned to this
+     * worker in the current group
+     */
+    private synchronized void rebalance()
+    {
+        if (!m_run)
+        {
+            return;
+        }
+        ConsistentHashRing ring = new ConsistentHashRing();
+        m_group.forEach(ring::add);
+        List<String> assigned = ring.assign(m_contracts).getOrDefault(m_workerId, Collections.emptyList());
+        List<String> lost = new ArrayList<>(m_catchers.keySet());
+        lost.removeAll(assigned);
+        List<String> gained = new ArrayList<>(assigned);
+        gained.removeAll(m_catchers.keySet());
+        if (lost.isEmpty() && gained.isEmpty())
+        {
+            return;
+        }
+        LOGGER.info("Worker " + m_workerId + " in group " + m_group + ": giving up " + lost + ", taking " + gained);
+        for (String contract : lost)
+        {
+            stopCatcher(contract);
+        }
+        for (String contract : gained)
+        {
+            long checkpoint = getCheckpoint(contract);
+            CatchEthContractLogs catcher = m_factory.apply(contract);
+            if (checkpoint >= 0)
+            {
+                catcher.setFromBlock(checkpoint + 1);
+            }
+            catcher.setPushableOutput(0, m_pushable);
+            m_catchers.put(contract, catcher);
+            catcher.start();
+        }
+        m_rebalanceCount++;
+    }
+
+    /**
+     * Stops the catcher of a contract and saves its checkpoint
+     *
+     * @param contract
+     *          The address of the contract
+     */
+    private void stopCatcher(String contract)
+    {
+        CatchEthContractLogs catcher = m_catchers.remove(contract);
+        catcher.stop();
+        try
+        {
+            saveCheckpoint(contract, catcher.getCoveredBlock());
+        }
+        catch (IOException e)
+        {
+            LOGGER.warning("Could not save the checkpoint of " + contract + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Saves the checkpoints of the contracts assigned to this worker
+     *
+     * @throws IOException if a checkpoint cannot be written
+     */
+    private synchronized void saveCheckpoints() throws IOException
+    {
+        for (Map.Entry<String, CatchEthContractLogs> e : m_catchers.entrySet())
+        {
+            saveCheckpoint(e.getKey(), e.getValue().getCoveredBlock());
+        }
+    }
+
+    /**
+     * Saves the checkpoint of a contract, unless it is behind the one saved
+     *
+     * @param contract
+     *          The address of the contract
+     *
+     * @param block
+     *          The last block covered for the contract
+     *
+     * @throws IOException if the checkpoint cannot be written
+     */
+    private void saveCheckpoint(String contract, long block) throws IOException
+    {
+        if (block > getCheckpoint(contract))
+        {
+            writeAtomically(new File(m_checkpoints, contract), Long.toString(block));
+        }
+    }
+
+    /**
+     * Gets the checkpoint of a contract
+     *
+     * @param contract
+     *          The address of the contract
+     *
+     * @return The last block covered for the contract, or -1 if none
+     */
+    public long getCheckpoint(String contract)
+    {
+        try
+        {
+            String block = read(new File(m_checkpoints, contract.toLowerCase()));
+            return block == null ? -1 : Long.parseLong(block);
+        }
+        catch (IOException | NumberFormatException e)
+        {
+            LOGGER.warning("Could not read the checkpoint of " + contract + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the workers of the group, as seen at the last heartbeat
+     *
+     * @return The identifiers of the workers
+     */
+    public Collection<String> getGroup()
+    {
+        return Collections.unmodifiableCollection(m_group);
+    }
+
+    /**
+     * Gets the contracts assigned to this worker
+     *
+     * @return The addresses of the contracts, in lower case
+     */
+    public synchronized Set<String> getContracts()
+    {
+        return new TreeSet<>(m_catchers.keySet());
+    }
+
+    /**
+     * Gets the number of times the contracts of this worker changed
+     *
+     * @return The number of rebalances
+     */
+    public long getRebalanceCount()
+    {
+        return m_rebalanceCount;
+    }
+
+    @Override
+    public synchronized void start()
+    {
+        if (!m_run)
+        {
+            m_run = true;
+            m_thread = new Thread(this);
+            m_thread.start();
+        }
+    }
+
+    /**
+     * Stops the catchers of this worker, saves their checkpoints and leaves the
+     * group, so that the other workers take over its contracts at their next
+     * heartbeat
+     */
+    @Override
+    public void stop()
+    {
+        Thread t;
+        synchronized (this)
+        {
+            m_run = false;
+            notifyAll();
+            t = m_thread;
+        }
+        if (t != null)
+        {
+            try
+            {
+                t.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this)
+        {
+            for (String contract : new ArrayList<>(m_catchers.keySet()))
+            {
+                stopCatcher(contract);
+            }
+        }
+        File member = new File(m_members, m_workerId);
+        if (!member.delete() && member.exists())
+        {
+            LOGGER.warning("Could not delete " + member.getAbsolutePath());
+        }
+        m_group = Collections.emptySet();
+    }
+
+    /**
+     * Replaces the content of a file, so that readers see either the old
+     * content or the new one
+     *
+     * @param file
+     *          The file
+     *
+     * @param content
+     *          The new content
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeAtomically(File file, String content) throws IOException
+    {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.write(tmp.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the content of a file
+     *
+     * @param file
+     *          The file
+     *
+     * @return The content, or null if the file does not exist
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private static String read(File file) throws IOException
+    {
+        try
+        {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+        }
+        catch (NoSuchFileException e)
+        {
+            return null;
+        }
+    }
+
+    @Override
+    public Pushable getPushableInput(int i)
+    {
+        throw new UnsupportedOperationException();
+        // there is no input for this processor
+    }
+
+    @Override
+    public synchronized Pullable getPullableInput(int i)
+    {
+        throw new UnsupportedOperationException();
+        // there is no input for this processor
+    }
+
+    @Override
+    public Pullable getPullableOutput(int i)
+    {
+        throw new UnsupportedOperationException();
+        // this processor forces push mode!
+    }
+
+    @Override
+    public Processor duplicate(boolean b)
+    {
+        throw new UnsupportedOperationException();
+        // two workers cannot share the same identifier
+    }
+
+    /**
+     * The pushable forwarding the logs of the catchers to the output, one at a time
+     */
+    private class ShardPushable implements Pushable
+    {
+        @Override
+        public Pushable push(Object o)
+        {
+            synchronized (this)
+            {
+                getPushableOutput(0).push(o);
+            }
+            return this;
+        }
+
+        @Override
+        public Future<Pushable> pushFast(Object o)
+        {
+            push(o);
+            return Pushable.NULL_FUTURE;
+        }
+
+        @Override
+        public void notifyEndOfTrace()
+        {
+            // the catchers of the other contracts may still push
+        }
+
+        @Override
+        public Processor getProcessor()
+        {
+            return ShardEthContracts.this;
+        }
+
+        @Override
+        public int getPosition()
+        {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.SynchronousProcessor;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Lets the {@link Log}s it receives through while the pipeline keeps up, and
+ * sheds some of them according to a {@link ShedPolicy} when it does not, so
+ * that the pipeline degrades predictably instead of falling further behind.
+ *
+ * Two measures tell if the pipeline is overloaded:
+ * <ul>
+ * <li>the <em>block lag</em>: how many blocks the log being processed is behind
+ * the most recent block known upstream, e.g. the block covered by the
+ * {@link CatchEthContractLogs} (see {@link #setBlockLag(LongSupplier, long)});</li>
+ * <li>the <em>queue depth</em>: how much is waiting to be processed, e.g. the
+ * backlog of a {@link SpillEthLogs} (see {@link #setQueueDepth(LongSupplier, long)}).</li>
+ * </ul>
+ * Shedding starts as soon as one of them goes past its threshold, and stops
+ * once both are back under half their threshold, so that the processor does
+ * not switch back and forth around a threshold.
+ *
+ * For each block some logs were shed from, a {@link ShedReport} counting them
+ * by event is output once the logs of the block have gone through, i.e. when
+ * a log of another block or a {@link BlockWatermark} at that block or later is
+ * received. Watermarks, retractions and logs with their <code>removed</code>
+ * flag set are never shed, except the retractions and removed logs of logs
+ * this processor has shed itself: downstream never saw these logs, so they are
+ * dropped (see {@link #getShedCorrectionCount()}). The shed logs of the last
+ * {@value #REMEMBERED_BLOCKS} blocks are remembered for this.
+ */
+public class ShedEthLogs extends SynchronousProcessor
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger LOGGER = Logger.getLogger(ShedEthLogs.class.getName());
+
+    /**
+     * The number of blocks whose shed logs are remembered, deeper reorganizations
+     * of the chain not being expected
+     */
+    public static final int REMEMBERED_BLOCKS = 128;
+
+    /**
+     * The policy deciding which logs are kept while shedding
+     */
+    private final ShedPolicy m_policy;
+
+    /**
+     * Gives the most recent block known upstream, or null
+     */
+    private LongSupplier m_head;
+
+    /**
+     * The block lag past which logs are shed
+     */
+    private long m_maxLag = Long.MAX_VALUE;
+
+    /**
+     * Gives the number of items waiting upstream, or null
+     */
+    private LongSupplier m_depth;
+
+    /**
+     * The queue depth past which logs are shed
+     */
+    private long m_maxDepth = Long.MAX_VALUE;
+
+    /**
+     * Whether logs are currently shed
+     */
+    private volatile boolean m_shedding = false;
+
+    /**
+     * The number of logs shed from the current block, by first topic
+     */
+    private final Map<String, Long> m_shed = new HashMap<>();
+
+    /**
+     * The block the logs counted in {@link #m_shed} belong to
+     */
+    private long m_shedBlock = -1;
+
+    /**
+     * The identities of the logs shed from the last blocks, by block number
+     */
+    private final TreeMap<Long, Set<String>> m_shedLogs = new TreeMap<>();
+
+    /**
+     * The number of corrections dropped because their log was shed
+     */
+    private volatile long m_correctionCount = 0;
+
+    /**
+     * The number of logs shed so far
+     */
+    private volatile long m_shedCount = 0;
+
+    /**
+     * The number of times shedding started
+     */
+    private volatile long m_overloadCount = 0;
+
+    /**
+     * Initializes the processor
+     *
+     * @param policy
+     *          The policy deciding which logs are kept while the pipeline is
+     *          overloaded
+     */
+    public ShedEthLogs(ShedPolicy policy)
+    {
+        super(1, 1);
+        m_policy = policy;
+    }
+
+    /**
+     * Makes the processor shed logs when they are too far behind the most recent
+     * block known upstream
+     *
+     * @param head
+     *          Gives the most recent block known upstream, e.g.
+     *          <code>catcher::getCoveredBlock</code>
+     *
+     * @param max_lag
+     *          The number of blocks past which logs are shed
+     *
+     * @return This processor
+     */
+    public ShedEthLogs setBlockLag(LongSupplier head, long max_lag)
+    {
+        m_head = head;
+        m_maxLag = max_lag;
+        return this;
+    }
+
+    /**
+     * Makes the processor shed logs when too much is waiting upstream
+     *
+     * @param depth
+     *          Gives the amount waiting upstream, e.g.
+     *          <code>spill::getBacklogSize</code>
+     *
+     * @param max_depth
+     *          The amount past which logs are shed
+     *
+     * @return This processor
+     */
+    public ShedEthLogs setQueueDepth(LongSupplier depth, long max_depth)
+    {
+        m_depth = depth;
+        m_maxDepth = max_depth;
+        return this;
+    }
+
+    @Override
+    protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+    {
+        Object o = inputs[0];
+        if (o instanceof BlockWatermark)
+        {
+            if (((BlockWatermark) o).getBlockNumber() >= m_shedBlock)
+            {
+                report(outputs);
+            }
+            outputs.add(new Object[]{o});
+            return true;
+        }
+        if (o instanceof EthLogRetraction || (o instanceof Log && ((Log) o).isRemoved()))
+        {
+            Log removed = o instanceof EthLogRetraction ? ((EthLogRetraction) o).getLog() : (Log) o;
+            Set<String> shed = m_shedLogs.get(EthLogCodec.blockNumber(removed));
+            if (shed != null && shed.remove(identify(removed)))
+            {
+                // downstream never saw the log
+                m_correctionCount++;
+                return true;
+            }
+            outputs.add(new Object[]{o});
+            return true;
+        }
+        if (!(o instanceof Log))
+        {
+            outputs.add(new Object[]{o});
+            return true;
+        }
+        Log log = (Log) o;
+        long number = EthLogCodec.blockNumber(log);
+        if (number != m_shedBlock)
+        {
+            report(outputs);
+        }
+        updateState(number);
+        if (m_shedding)
+        {
+            List<String> topics = log.getTopics();
+            String topic0 = topics == null || topics.isEmpty() ? null : topics.get(0).toLowerCase();
+            if (!m_policy.keep(log, topic0))
+            {
+                m_shed.merge(topic0, 1L, Long::sum);
+                m_shedBlock = number;
+                m_shedCount++;
+                remember(number, log);
+                return true;
+            }
+        }
+        outputs.add(new Object[]{log});
+        return true;
+    }
+
+    /**
+     * Starts or stops shedding according to the lag and depth of the pipeline
+     *
+     * @param block_number
+     *          The number of the block of the log being processed
+     */
+    private void updateState(long block_number)
+    {
+        long lag = m_head == null ? 0 : m_head.getAsLong() - block_number;
+        long depth = m_depth == null ? 0 : m_depth.getAsLong();
+        if (!m_shedding && (lag > m_maxLag || depth > m_maxDepth))
+        {
+            LOGGER.warning("Pipeline overloaded (" + lag + " blocks behind, queue depth " + depth
+                    + "), shedding logs");
+            m_shedding = true;
+            m_overloadCount++;
+            m_policy.reset();
+        }
+        else if (m_shedding && lag <= m_maxLag / 2 && depth <= m_maxDepth / 2)
+        {
+            LOGGER.info("Pipeline caught up, no more logs shed");
+            m_shedding = false;
+        }
+    }
+
+    /**
+     * Remembers a shed log, so that its corrections can be dropped
+     *
+     * @param block_number
+     *          The number of the block of the log
+     *
+     * @param log
+     *          The log
+     */
+    private void remember(long block_number, Log log)
+    {
+        m_shedLogs.computeIfAbsent(block_number, n -> new HashSet<>()).add(identify(log));
+        while (m_shedLogs.size() > REMEMBERED_BLOCKS)
+        {
+            m_shedLogs.pollFirstEntry();
+        }
+    }
+
+    /**
+     * Identifies a log by its transaction, its index and its block
+     *
+     * @param log
+     *          The log
+     *
+     * @return The identity of the log
+     */
+    private static String identify(Log log)
+    {
+        return log.getTransactionHash() + ":" + log.getLogIndexRaw() + ":" + log.getBlockHash();
+    }
+
+    /**
+     * Outputs the report of the logs shed from the current block, if any
+     *
+     * @param outputs
+     *          The queue of output fronts
+     */
+    private void report(Queue<Object[]> outputs)
+    {
+        if (!m_shed.isEmpty())
+        {
+            outputs.add(new Object[]{new ShedReport(m_shedBlock, new HashMap<>(m_shed))});
+            m_shed.clear();
+        }
+    }
+
+    /**
+     * Indicates if logs are currently shed
+     *
+     * @return true if the pipeline is overloaded, false otherwise
+     */
+    public boolean isShedding()
+    {
+        return m_shedding;
+    }
+
+    /**
+     * Gets the number of logs shed so far
+     *
+     * @return The number of logs
+     */
+    public long getShedCount()
+    {
+        return m_shedCount;
+    }
+
+    /**
+     * Gets the number of retractions and removed logs dropped because the log
+     * they correct had been shed
+     *
+     * @return The number of corrections
+     */
+    public long getShedCorrectionCount()
+    {
+        return m_correctionCount;
+    }
+
+    /**
+     * Gets the number of times the pipeline was found overloaded
+     *
+     * @return The number of times shedding started
+     */
+    public long getOverloadCount()
+    {
+        return m_overloadCount;
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        m_policy.reset();
+        m_shedding = false;
+        m_shed.clear();
+        m_shedBlock = -1;
+        m_shedLogs.clear();
+        m_correctionCount = 0;
+        m_shedCount = 0;
+        m_overloadCount = 0;
+    }
+
+    @Override
+    public Processor duplicate(boolean with_state)
+    {
+        ShedEthLogs copy = new ShedEthLogs(m_policy.duplicate());
+        copy.m_head = m_head;
+        copy.m_maxLag = m_maxLag;
+        copy.m_depth = m_depth;
+        copy.m_maxDepth = m_maxDepth;
+        return copy;
+    }
+}
@@ -0,0 +1,170 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Common {@link ShedPolicy}s.
+ */
+public abstract class ShedPolicies
+{
+    /**
+     * Keeps one log out of every <i>n</i> of each event. The rate can be set
+     * for each event, e.g. to keep all the logs of a rare event and few of a
+     * frequent one.
+     */
+    public static class Sample implements ShedPolicy
+    {
+        /**
+         * The rate of the events without a rate of their own
+         */
+        private final int m_defaultRate;
+
+        /**
+         * The rate of some events, by first topic
+         */
+        private final Map<String, Integer> m_rates = new HashMap<>();
+
+        /**
+         * The number of logs seen for each event, by first topic
+         */
+        private final Map<String, Long> m_counts = new HashMap<>();
+
+        /**
+         * Creates the policy
+         *
+         * @param rate
+         *          The number of logs of an event for one log kept
+         */
+        public Sample(int rate)
+        {
+            if (rate < 1)
+            {
+                throw new IllegalArgumentException("The rate must be at least 1");
+            }
+            m_defaultRate = rate;
+        }
+
+        /**
+         * Sets the rate of an event
+         *
+         * @param topic0
+         *          The first topic of the logs of the event (see
+         *          {@link org.web3j.abi.EventEncoder#encode(org.web3j.abi.datatypes.Event)})
+         *
+         * @param rate
+         *          The number of logs of the event for one log kept, 1 to keep them all
+         *
+         * @return This policy
+         */
+        public Sample setRate(String topic0, int rate)
+        {
+            if (rate < 1)
+            {
+                throw new IllegalArgumentException("The rate must be at least 1");
+            }
+            m_rates.put(topic0.toLowerCase(), rate);
+            return this;
+        }
+
+        @Override
+        public boolean keep(Log log, String topic0)
+        {
+            long count = m_counts.merge(topic0, 1L, Long::sum);
+            return (count - 1) % m_rates.getOrDefault(topic0, m_defaultRate) == 0;
+        }
+
+        @Override
+        public void reset()
+        {
+            m_counts.clear();
+        }
+
+        @Override
+        public Sample duplicate()
+        {
+            Sample sample = new Sample(m_defaultRate);
+            sample.m_rates.putAll(m_rates);
+            return sample;
+        }
+    }
+
+    /**
+     * Keeps only the logs of some events.
+     */
+    public static class KeepTopics implements ShedPolicy
+    {
+        /**
+         * The first topics of the kept events
+         */
+        private final Set<String> m_topics = new HashSet<>();
+
+        /**
+         * Creates the policy
+         *
+         * @param topics
+         *          The first topics of the logs of the kept events
+         */
+        public KeepTopics(String... topics)
+        {
+            for (String topic : topics)
+            {
+                m_topics.add(topic.toLowerCase());
+            }
+        }
+
+        @Override
+        public boolean keep(Log log, String topic0)
+        {
+            return topic0 != null && m_topics.contains(topic0);
+        }
+
+        @Override
+        public void reset()
+        {
+            // nothing to do
+        }
+
+        @Override
+        public KeepTopics duplicate()
+        {
+            return new KeepTopics(m_topics.toArray(new String[0]));
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Keep " + Arrays.toString(m_topics.toArray());
+        }
+    }
+
+    /**
+     * Keeps no log: the {@link ShedReport} of each block, which counts its logs
+     * by event, stands for them.
+     */
+    public static class SummarizeBlocks implements ShedPolicy
+    {
+        @Override
+        public boolean keep(Log log, String topic0)
+        {
+            return false;
+        }
+
+        @Override
+        public void reset()
+        {
+            // nothing to do
+        }
+
+        @Override
+        public SummarizeBlocks duplicate()
+        {
+            return new SummarizeBlocks();
+        }
+    }
+}
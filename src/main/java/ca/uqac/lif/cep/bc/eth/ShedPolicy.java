@@ -0,0 +1,38 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.protocol.core.methods.response.Log;
+
+/**
+ * Decides which {@link Log}s are kept while a {@link ShedEthLogs} sheds load.
+ * The logs not kept are counted in a {@link ShedReport}.
+ *
+ * Ready-made policies are found in {@link ShedPolicies}.
+ */
+public interface ShedPolicy
+{
+    /**
+     * Decides if a log is kept
+     *
+     * @param log
+     *          The log
+     *
+     * @param topic0
+     *          The first topic of the log (i.e. the signature of its event) in
+     *          lower case, or null if the log has no topic
+     *
+     * @return true if the log is output, false if it is shed
+     */
+    boolean keep(Log log, String topic0);
+
+    /**
+     * Brings the policy back to its initial state
+     */
+    void reset();
+
+    /**
+     * Creates a new policy of the same kind, in its initial state
+     *
+     * @return The policy
+     */
+    ShedPolicy duplicate();
+}
@@ -0,0 +1,112 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Tells which {@link org.web3j.protocol.core.methods.response.Log}s of a
+ * block a {@link ShedEthLogs} did not output. A processor receiving it knows
+ * that its view of the block is incomplete, and can qualify what it concludes
+ * about the block accordingly.
+ */
+public class ShedReport
+{
+    /**
+     * The block number
+     */
+    private final long m_blockNumber;
+
+    /**
+     * The number of logs shed, by first topic (null for the logs without topic)
+     */
+    private final Map<String, Long> m_counts;
+
+    /**
+     * Creates a report
+     *
+     * @param block_number
+     *          The block number
+     *
+     * @param counts
+     *          The number of logs shed, by first topic (null for the logs
+     *          without topic)
+     */
+    public ShedReport(long block_number, Map<String, Long> counts)
+    {
+        m_blockNumber = block_number;
+        m_counts = Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * Gets the block number
+     *
+     * @return The block number
+     */
+    public long getBlockNumber()
+    {
+        return m_blockNumber;
+    }
+
+    /**
+     * Gets the number of logs shed for each event
+     *
+     * @return The numbers of logs, by first topic in lower case (null for the
+     *          logs without topic)
+     */
+    public Map<String, Long> getCounts()
+    {
+        return m_counts;
+    }
+
+    /**
+     * Gets the number of logs shed for an event
+     *
+     * @param topic0
+     *          The first topic of the logs of the event
+     *
+     * @return The number of logs
+     */
+    public long getCount(String topic0)
+    {
+        return m_counts.getOrDefault(topic0 == null ? null : topic0.toLowerCase(), 0L);
+    }
+
+    /**
+     * Gets the number of logs shed
+     *
+     * @return The number of logs
+     */
+    public long getTotal()
+    {
+        long total = 0;
+        for (long count : m_counts.values())
+        {
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof ShedReport))
+        {
+            return false;
+        }
+        ShedReport r = (ShedReport) o;
+        return m_blockNumber == r.m_blockNumber && m_counts.equals(r.m_counts);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(m_blockNumber, m_counts);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Shed in block " + m_blockNumber + ": " + m_counts;
+    }
+}
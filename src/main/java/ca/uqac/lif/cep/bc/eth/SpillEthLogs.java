@@ -0,0 +1,646 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.ProcessorException;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.Pushable;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * A durable queue between a {@link CatchEthContractLogs} and slower downstream
+ * processors. Every {@link Log} pushed to its input is appended to a
+ * memory-mapped segment file, and a thread of its own pushes the logs to its
+ * output as fast as the downstream processors accept them.
+ *
+ * The upstream processor is thus never slowed down by the downstream ones, and
+ * a backlog of any size does not grow the heap: only the segment being written
+ * and the segment being read are mapped, and a segment file is deleted as soon
+ * as all its logs have been pushed. The position of the next log to push is
+ * kept in a checkpoint file, so that a queue opened again on the same directory
+ * resumes where it stopped, after the last log pushed. A log whose push was
+ * interrupted by a crash is pushed again.
+ *
+ * Segments use the record format of {@link EthLogCodec}. A {@link BlockWatermark}
+ * is stored as a record with a negative length, and an {@link EthLogRetraction}
+ * as its log, which has its <code>removed</code> flag set: it comes out of the
+ * queue as that log.
+ *
+ * THIS PROCESSOR FORCES PUSH MODE
+ */
+public class SpillEthLogs extends Processor implements Runnable
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger LOGGER = Logger.getLogger(SpillEthLogs.class.getName());
+
+    /**
+     * The default size of a segment file, in bytes
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    /**
+     * The name of the file holding the position of the next log to push
+     */
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    /**
+     * The length of the record of a {@link BlockWatermark}, whose block number
+     * is stored in place of the timestamp
+     */
+    private static final int WATERMARK = -1;
+
+    /**
+     * The length marking the end of a segment, when the next record is in the next one
+     */
+    private static final int END_OF_SEGMENT = -2;
+
+    /**
+     * The maximum time (in milliseconds) the drain thread waits for a log before
+     * checking if it must stop
+     */
+    private static final long WAIT_INTERVAL = 100;
+
+    /**
+     * The directory holding the segment files
+     */
+    private final File m_directory;
+
+    /**
+     * The size of a segment file
+     */
+    private final int m_segmentSize;
+
+    /**
+     * The pushable receiving the logs to spill
+     */
+    private final SpillPushable m_pushable = new SpillPushable();
+
+    /**
+     * The mapped checkpoint file
+     */
+    private final MappedByteBuffer m_checkpoint;
+
+    /**
+     * The segment being written
+     */
+    private MappedByteBuffer m_writeSegment;
+
+    /**
+     * The index of the segment being written
+     */
+    private int m_writeIndex;
+
+    /**
+     * The position at which the next record is written in its segment
+     */
+    private int m_writeOffset;
+
+    /**
+     * The position following the last complete record written, which the drain
+     * thread does not read past
+     */
+    private volatile long m_written;
+
+    /**
+     * The segment being read
+     */
+    private MappedByteBuffer m_readSegment;
+
+    /**
+     * The index of the segment being read
+     */
+    private int m_readIndex;
+
+    /**
+     * The position of the next record to read in its segment
+     */
+    private int m_readOffset;
+
+    /**
+     * The position of the next record to push, as stored in the checkpoint
+     */
+    private volatile long m_read;
+
+    /**
+     * Buffer in which each record is encoded
+     */
+    private ByteBuffer m_recordBuffer = ByteBuffer.allocate(EthLogCodec.DEFAULT_BUFFER_SIZE);
+
+    /**
+     * Semaphore used to stop the drain thread
+     */
+    private volatile boolean m_run = false;
+
+    /**
+     * Whether the end of the trace was notified on the input
+     */
+    private volatile boolean m_ended = false;
+
+    /**
+     * The thread pushing the logs
+     */
+    private Thread m_thread;
+
+    /**
+     * The number of records written since the queue was opened
+     */
+    private volatile long m_spillCount = 0;
+
+    /**
+     * The number of records pushed since the queue was opened
+     */
+    private volatile long m_drainCount = 0;
+
+    /**
+     * Opens a queue, creating it if the directory is empty
+     *
+     * @param directory
+     *          The directory holding the files of the queue
+     *
+     * @throws IOException if the queue cannot be read or created
+     */
+    public SpillEthLogs(File directory) throws IOException
+    {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a queue, creating it if the directory is empty
+     *
+     * @param directory
+     *          The directory holding the files of the queue
+     *
+     * @param segment_size
+     *          The size of new segment files, in bytes
+     *
+     * @throws IOException if the queue cannot be read or created
+     */
+    public SpillEthLogs(File directory, int segment_size) throws IOException
+    {
+        super(1, 1);
+        m_directory = directory;
+        m_segmentSize = segment_size;
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Cannot create directory " + directory.getAbsolutePath());
+        }
+        m_checkpoint = map(new File(directory, CHECKPOINT_FILE), 8);
+        int[] segments = listSegments();
+        if (segments.length == 0)
+        {
+            newWriteSegment(0);
+        }
+        else
+        {
+            m_writeIndex = segments[segments.length - 1];
+            m_writeSegment = openSegment(m_writeIndex);
+            if (scan())
+            {
+                newWriteSegment(m_writeIndex + 1);
+            }
+        }
+        m_written = position(m_writeIndex, m_writeOffset);
+        long checkpoint = m_checkpoint.getLong(0);
+        int first = segments.length == 0 ? 0 : segments[0];
+        if (checkpoint == 0 || segment(checkpoint) < first || checkpoint > m_written)
+        {
+            checkpoint = position(first, EthLogCodec.MAGIC.length);
+        }
+        for (int index : segments)
+        {
+            // Segments left behind by a crash before they could be deleted
+            if (index < segment(checkpoint))
+            {
+                deleteSegment(index);
+            }
+        }
+        m_readIndex = segment(checkpoint);
+        m_readOffset = (int) checkpoint;
+        m_readSegment = m_readIndex == m_writeIndex ? m_writeSegment : openSegment(m_readIndex);
+        m_read = checkpoint;
+        m_checkpoint.putLong(0, checkpoint);
+        LOGGER.info("Opened spill queue in " + directory.getAbsolutePath() + " with "
+                + getBacklogSize() + " bytes to drain");
+    }
+
+    /**
+     * Appends a log or a watermark to the queue
+     *
+     * @param o
+     *          The log, watermark or retraction
+     */
+    private synchronized void append(Object o)
+    {
+        try
+        {
+            if (o instanceof BlockWatermark)
+            {
+                ensureSpace(EthLogCodec.RECORD_HEADER_SIZE);
+                m_writeSegment.putLong(m_writeOffset + 4, ((BlockWatermark) o).getBlockNumber());
+                m_writeSegment.putInt(m_writeOffset, WATERMARK);
+                m_writeOffset += EthLogCodec.RECORD_HEADER_SIZE;
+            }
+            else
+            {
+                Log log = o instanceof EthLogRetraction ? ((EthLogRetraction) o).getLog() : (Log) o;
+                m_recordBuffer = EthLogCodec.encodeRecord(log, System.currentTimeMillis(), m_recordBuffer);
+                int length = m_recordBuffer.remaining();
+                ensureSpace(length);
+                // The length is written last, so that a record cut by a crash is not read
+                ByteBuffer segment = m_writeSegment.duplicate();
+                segment.position(m_writeOffset + 4);
+                m_recordBuffer.position(4);
+                segment.put(m_recordBuffer);
+                m_writeSegment.putInt(m_writeOffset, length - EthLogCodec.RECORD_HEADER_SIZE);
+                m_writeOffset += length;
+            }
+        }
+        catch (IOException e)
+        {
+            throw new ProcessorException(e);
+        }
+        m_spillCount++;
+        m_written = position(m_writeIndex, m_writeOffset);
+        notifyAll();
+    }
+
+    /**
+     * Makes sure a record fits in the segment being written, moving to a new
+     * segment if it does not
+     *
+     * @param length
+     *          The length of the record, header included
+     *
+     * @throws IOException if a new segment file cannot be created
+     */
+    private void ensureSpace(int length) throws IOException
+    {
+        if (length > m_segmentSize - EthLogCodec.MAGIC.length)
+        {
+            throw new IOException("Log too large for a segment of " + m_segmentSize + " bytes");
+        }
+        if (m_writeOffset + length <= m_segmentSize)
+        {
+            return;
+        }
+        if (m_writeOffset + 4 <= m_segmentSize)
+        {
+            m_writeSegment.putInt(m_writeOffset, END_OF_SEGMENT);
+        }
+        m_writeSegment.force();
+        newWriteSegment(m_writeIndex + 1);
+    }
+
+    @Override
+    public void run()
+    {
+        Pushable pushable = getPushableOutput(0);
+        try
+        {
+            while (m_run)
+            {
+                if (m_read >= m_written)
+                {
+                    if (m_ended)
+                    {
+                        ReplayEthLogs.notifyEndOfTrace(pushable);
+                        break;
+                    }
+                    synchronized (this)
+                    {
+                        if (m_read >= m_written && m_run)
+                        {
+                            wait(WAIT_INTERVAL);
+                        }
+                    }
+                    continue;
+                }
+                Object o = read();
+                if (o != null)
+                {
+                    pushable.push(o);
+                    m_drainCount++;
+                }
+                // The checkpoint only moves once the record has been pushed
+                m_read = position(m_readIndex, m_readOffset);
+                m_checkpoint.putLong(0, m_read);
+            }
+        }
+        catch (IOException e)
+        {
+            LOGGER.severe("Stopped draining the spill queue: " + e.getMessage());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            m_run = false;
+        }
+    }
+
+    /**
+     * Reads the next record of the queue, moving to the next segment if the
+     * current one has no more records
+     *
+     * @return The log or the watermark, or null if the next record is in the
+     *          next segment
+     *
+     * @throws IOException if the next segment cannot be opened
+     */
+    private Object read() throws IOException
+    {
+        int length = m_readOffset + 4 <= m_segmentSize ? m_readSegment.getInt(m_readOffset) : END_OF_SEGMENT;
+        if (length == END_OF_SEGMENT)
+        {
+            int done = m_readIndex;
+            m_readIndex++;
+            m_readOffset = EthLogCodec.MAGIC.length;
+            synchronized (this)
+            {
+                m_readSegment = m_readIndex == m_writeIndex ? m_writeSegment : openSegment(m_readIndex);
+            }
+            m_checkpoint.putLong(0, position(m_readIndex, m_readOffset));
+            deleteSegment(done);
+            return null;
+        }
+        if (length == WATERMARK)
+        {
+            long block = m_readSegment.getLong(m_readOffset + 4);
+            m_readOffset += EthLogCodec.RECORD_HEADER_SIZE;
+            return new BlockWatermark(block);
+        }
+        ByteBuffer segment = m_readSegment.duplicate();
+        segment.position(m_readOffset);
+        Log log = EthLogCodec.decodeRecord(segment);
+        m_readOffset += EthLogCodec.RECORD_HEADER_SIZE + length;
+        return log;
+    }
+
+    /**
+     * Finds the end of the records of the segment being written
+     *
+     * @return true if the segment is full, false otherwise
+     */
+    private boolean scan()
+    {
+        ByteBuffer segment = m_writeSegment.duplicate();
+        int offset = EthLogCodec.MAGIC.length;
+        while (offset + EthLogCodec.RECORD_HEADER_SIZE <= m_segmentSize)
+        {
+            int length = segment.getInt(offset);
+            if (length == END_OF_SEGMENT)
+            {
+                m_writeOffset = offset;
+                return true;
+            }
+            if (length == WATERMARK)
+            {
+                offset += EthLogCodec.RECORD_HEADER_SIZE;
+                continue;
+            }
+            // A record always has a non-empty body: a zero length marks the end of the records
+            if (length <= 0 || offset + EthLogCodec.RECORD_HEADER_SIZE + length > m_segmentSize)
+            {
+                break;
+            }
+            offset += EthLogCodec.RECORD_HEADER_SIZE + length;
+        }
+        m_writeOffset = offset;
+        return offset + EthLogCodec.RECORD_HEADER_SIZE > m_segmentSize;
+    }
+
+    @Override
+    public synchronized void start()
+    {
+        if (!m_run)
+        {
+            m_run = true;
+            m_thread = new Thread(this);
+            m_thread.start();
+        }
+    }
+
+    /**
+     * Stops the thread pushing the logs, and writes the queue to disk. Logs
+     * pushed to the input afterwards are still added to the queue.
+     */
+    @Override
+    public void stop()
+    {
+        Thread t;
+        synchronized (this)
+        {
+            m_run = false;
+            notifyAll();
+            t = m_thread;
+        }
+        if (t != null)
+        {
+            try
+            {
+                t.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this)
+        {
+            m_writeSegment.force();
+            m_checkpoint.force();
+        }
+    }
+
+    /**
+     * Indicates if the thread pushing the logs is running
+     *
+     * @return true if it is running, false otherwise
+     */
+    public boolean isDraining()
+    {
+        return m_run;
+    }
+
+    /**
+     * Gets an estimate of the amount of data written to the queue and not pushed yet
+     *
+     * @return The size of the backlog, in bytes
+     */
+    public long getBacklogSize()
+    {
+        long read = m_read;
+        long written = m_written;
+        return (long) (segment(written) - segment(read)) * (m_segmentSize - EthLogCodec.MAGIC.length)
+                + (int) written - (int) read;
+    }
+
+    /**
+     * Gets the number of logs and watermarks added to the queue since it was opened
+     *
+     * @return The number of records
+     */
+    public long getSpillCount()
+    {
+        return m_spillCount;
+    }
+
+    /**
+     * Gets the number of logs and watermarks pushed since the queue was opened
+     *
+     * @return The number of records
+     */
+    public long getDrainCount()
+    {
+        return m_drainCount;
+    }
+
+    private void newWriteSegment(int index) throws IOException
+    {
+        m_writeSegment = map(segmentFile(index), m_segmentSize);
+        m_writeSegment.duplicate().put(EthLogCodec.MAGIC);
+        m_writeIndex = index;
+        m_writeOffset = EthLogCodec.MAGIC.length;
+    }
+
+    private MappedByteBuffer openSegment(int index) throws IOException
+    {
+        File file = segmentFile(index);
+        MappedByteBuffer segment = map(file, m_segmentSize);
+        byte[] magic = new byte[EthLogCodec.MAGIC.length];
+        segment.duplicate().get(magic);
+        if (!Arrays.equals(magic, EthLogCodec.MAGIC))
+        {
+            throw new IOException(file.getAbsolutePath() + " is not a log file");
+        }
+        return segment;
+    }
+
+    private void deleteSegment(int index)
+    {
+        File file = segmentFile(index);
+        if (!file.delete())
+        {
+            LOGGER.warning("Could not delete " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Gets the indices of the segment files of the directory
+     *
+     * @return The indices, in increasing order
+     */
+    private int[] listSegments()
+    {
+        String[] names = m_directory.list((dir, name) -> name.matches("segment-\\d+\\.log"));
+        int[] indices = new int[names == null ? 0 : names.length];
+        for (int i = 0; i < indices.length; i++)
+        {
+            indices[i] = Integer.parseInt(names[i].substring(8, names[i].length() - 4));
+        }
+        Arrays.sort(indices);
+        return indices;
+    }
+
+    private File segmentFile(int index)
+    {
+        return new File(m_directory, String.format("segment-%06d.log", index));
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), size));
+        }
+    }
+
+    private static long position(int segment_index, int offset)
+    {
+        return ((long) segment_index << 32) | offset;
+    }
+
+    private static int segment(long position)
+    {
+        return (int) (position >>> 32);
+    }
+
+    @Override
+    public Pushable getPushableInput(int i)
+    {
+        return m_pushable;
+    }
+
+    @Override
+    public synchronized Pullable getPullableInput(int i)
+    {
+        throw new UnsupportedOperationException();
+        // this processor forces push mode!
+    }
+
+    @Override
+    public Pullable getPullableOutput(int i)
+    {
+        throw new UnsupportedOperationException();
+        // this processor forces push mode!
+    }
+
+    @Override
+    public Processor duplicate(boolean b)
+    {
+        throw new UnsupportedOperationException();
+        // two queues cannot share the same directory
+    }
+
+    /**
+     * The pushable appending the logs it receives to the queue
+     */
+    private class SpillPushable implements Pushable
+    {
+        @Override
+        public Pushable push(Object o)
+        {
+            append(o);
+            return this;
+        }
+
+        @Override
+        public Future<Pushable> pushFast(Object o)
+        {
+            push(o);
+            return Pushable.NULL_FUTURE;
+        }
+
+        @Override
+        public void notifyEndOfTrace()
+        {
+            m_ended = true;
+        }
+
+        @Override
+        public Processor getProcessor()
+        {
+            return SpillEthLogs.this;
+        }
+
+        @Override
+        public int getPosition()
+        {
+            return 0;
+        }
+    }
+}
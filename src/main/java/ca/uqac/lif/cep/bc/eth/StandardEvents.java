@@ -0,0 +1,77 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.abi.EventEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Bool;
+import org.web3j.abi.datatypes.Event;
+import org.web3j.abi.datatypes.generated.Uint256;
+
+import java.util.Arrays;
+
+/**
+ * The events of the ERC-20 and ERC-721 token standards, ready to be given to
+ * {@link GetEthEventParameters}, along with their first topics.
+ *
+ * The <code>Transfer</code> and <code>Approval</code> events of both standards
+ * have the same signature, hence the same first topic: they only differ by the
+ * last parameter being indexed in ERC-721, which gives their logs four topics
+ * instead of three.
+ */
+public abstract class StandardEvents
+{
+    /**
+     * ERC-20 <code>Transfer(address indexed from, address indexed to, uint256 value)</code>
+     */
+    public static final Event ERC20_TRANSFER = new Event("Transfer", Arrays.asList(
+            new TypeReference<Address>(true) {},
+            new TypeReference<Address>(true) {},
+            new TypeReference<Uint256>() {}));
+
+    /**
+     * ERC-20 <code>Approval(address indexed owner, address indexed spender, uint256 value)</code>
+     */
+    public static final Event ERC20_APPROVAL = new Event("Approval", Arrays.asList(
+            new TypeReference<Address>(true) {},
+            new TypeReference<Address>(true) {},
+            new TypeReference<Uint256>() {}));
+
+    /**
+     * ERC-721 <code>Transfer(address indexed from, address indexed to, uint256 indexed tokenId)</code>
+     */
+    public static final Event ERC721_TRANSFER = new Event("Transfer", Arrays.asList(
+            new TypeReference<Address>(true) {},
+            new TypeReference<Address>(true) {},
+            new TypeReference<Uint256>(true) {}));
+
+    /**
+     * ERC-721 <code>Approval(address indexed owner, address indexed approved, uint256 indexed tokenId)</code>
+     */
+    public static final Event ERC721_APPROVAL = new Event("Approval", Arrays.asList(
+            new TypeReference<Address>(true) {},
+            new TypeReference<Address>(true) {},
+            new TypeReference<Uint256>(true) {}));
+
+    /**
+     * ERC-721 <code>ApprovalForAll(address indexed owner, address indexed operator, bool approved)</code>
+     */
+    public static final Event APPROVAL_FOR_ALL = new Event("ApprovalForAll", Arrays.asList(
+            new TypeReference<Address>(true) {},
+            new TypeReference<Address>(true) {},
+            new TypeReference<Bool>() {}));
+
+    /**
+     * The first topic of the <code>Transfer</code> events of both standards
+     */
+    public static final String TRANSFER_TOPIC = EventEncoder.encode(ERC20_TRANSFER);
+
+    /**
+     * The first topic of the <code>Approval</code> events of both standards
+     */
+    public static final String APPROVAL_TOPIC = EventEncoder.encode(ERC20_APPROVAL);
+
+    /**
+     * The first topic of the <code>ApprovalForAll</code> event
+     */
+    public static final String APPROVAL_FOR_ALL_TOPIC = EventEncoder.encode(APPROVAL_FOR_ALL);
+}
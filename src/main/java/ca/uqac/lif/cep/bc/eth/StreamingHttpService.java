@@ -0,0 +1,130 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import okhttp3.OkHttpClient;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.protocol.http.HttpService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * An {@link HttpService} reading the responses of <code>eth_getLogs</code>
+ * as a stream of tokens.
+ *
+ * web3j maps a whole response to a list of logs before returning it: the memory
+ * used grows with the number of logs, and nothing can be done with the first log
+ * before the last one has been received. Here, each log is built and handed out
+ * as soon as its JSON object has been read from the connection, so that the
+ * memory used does not depend on the size of the response.
+ *
+ * Batches of requests are sent in a single HTTP request, as a JSON-RPC batch.
+ * Every other call is handled as by an {@link HttpService}.
+ */
+public class StreamingHttpService extends HttpService implements LogStreamingService, BatchingService
+{
+    /**
+     * The client shared by all the services. A client of its own would keep
+     * its connections and their cleaning thread for minutes after the service
+     * is closed, which adds up when catchers are started and stopped often.
+     */
+    private static final OkHttpClient CLIENT = new OkHttpClient.Builder().build();
+
+    /**
+     * Initializes the service
+     *
+     * @param url
+     *          The RPC url of the node
+     */
+    public StreamingHttpService(String url)
+    {
+        super(url, CLIENT);
+    }
+
+    @Override
+    public long streamLogs(EthFilter filter, Consumer<Log> consumer) throws IOException
+    {
+        Request<?, EthLog> request = new Request<>(
+                "eth_getLogs", Collections.singletonList(filter), this, EthLog.class);
+        String payload = objectMapper.writeValueAsString(request);
+        try (InputStream in = performIO(payload);
+             JsonParser parser = objectMapper.getFactory().createParser(in))
+        {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+            {
+                throw new IOException("Unexpected response to eth_getLogs");
+            }
+            long count = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("result".equals(field) && token == JsonToken.START_ARRAY)
+                {
+                    while (parser.nextToken() == JsonToken.START_OBJECT)
+                    {
+                        consumer.accept(objectMapper.readValue(parser, Log.class));
+                        count++;
+                    }
+                }
+                else if ("error".equals(field) && token == JsonToken.START_OBJECT)
+                {
+                    Response.Error error = objectMapper.readValue(parser, Response.Error.class);
+                    throw new IOException("eth_getLogs failed: " + error.getMessage());
+                }
+                else
+                {
+                    parser.skipChildren();
+                }
+            }
+            return count;
+        }
+    }
+
+    @Override
+    public <T extends Response> List<T> sendBatch(List<? extends Request<?, T>> requests, Class<T> response_type)
+            throws IOException
+    {
+        if (requests.isEmpty())
+        {
+            return new ArrayList<>();
+        }
+        JsonNode responses;
+        try (InputStream in = performIO(objectMapper.writeValueAsString(requests)))
+        {
+            responses = objectMapper.readTree(in);
+        }
+        if (!responses.isArray())
+        {
+            throw new IOException("Batch failed: " + responses.path("error").path("message").asText());
+        }
+        Map<Long, JsonNode> byId = new HashMap<>();
+        for (JsonNode response : responses)
+        {
+            byId.put(response.path("id").asLong(-1), response);
+        }
+        List<T> results = new ArrayList<>(requests.size());
+        for (Request<?, T> request : requests)
+        {
+            JsonNode response = byId.get(request.getId());
+            if (response == null)
+            {
+                throw new IOException("No response to request " + request.getId() + " in batch");
+            }
+            results.add(objectMapper.treeToValue(response, response_type));
+        }
+        return results;
+    }
+}
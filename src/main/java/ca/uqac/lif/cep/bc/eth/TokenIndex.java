@@ -0,0 +1,454 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiConsumer;
+
+/**
+ * The state of a token contract, built from its <code>Transfer</code> events:
+ * the balance of each holder, the total supply and, for ERC-721 tokens, the
+ * owner of each token.
+ *
+ * Balances are kept as 256-bit two's complement integers in an
+ * {@link OffHeapHashTable} keyed by address, and owners in a table keyed by
+ * token identifier, so that the index holds millions of holders without
+ * putting millions of objects on the heap. Holders whose balance goes back to
+ * zero are removed. Transfers from the zero address are mints, and transfers
+ * to the zero address are burns: the zero address itself has no balance.
+ *
+ * A balance can go below zero if the index did not see the transfers from the
+ * creation of the contract; it is then reported as a negative number.
+ *
+ * The index is not thread-safe: query a {@link #snapshot()} from other threads
+ * while it is being updated.
+ */
+public class TokenIndex
+{
+    /**
+     * The size of an address, in bytes
+     */
+    static final int ADDRESS_SIZE = 20;
+
+    /**
+     * The size of a 256-bit word, in bytes
+     */
+    static final int WORD_SIZE = 32;
+
+    /**
+     * The first bytes of a file holding an index
+     */
+    private static final int MAGIC = 0x544b4931;
+
+    /**
+     * The value 1, as a 256-bit word
+     */
+    private static final byte[] ONE = toWord(BigInteger.ONE);
+
+    /**
+     * The balances, by address
+     */
+    private final OffHeapHashTable m_balances;
+
+    /**
+     * The owners, by token identifier
+     */
+    private final OffHeapHashTable m_owners;
+
+    /**
+     * The total supply, as a 256-bit word
+     */
+    private final ByteBuffer m_totalSupply = ByteBuffer.allocate(WORD_SIZE);
+
+    /**
+     * The number of the block of the last transfer applied
+     */
+    private long m_blockNumber = -1;
+
+    /**
+     * Creates an empty index
+     */
+    public TokenIndex()
+    {
+        this(1024);
+    }
+
+    /**
+     * Creates an empty index
+     *
+     * @param expected_holders
+     *          The number of holders expected, to avoid growing the tables
+     */
+    public TokenIndex(int expected_holders)
+    {
+        this(new OffHeapHashTable(ADDRESS_SIZE, WORD_SIZE, expected_holders * 2),
+                new OffHeapHashTable(WORD_SIZE, ADDRESS_SIZE, 16));
+    }
+
+    private TokenIndex(OffHeapHashTable balances, OffHeapHashTable owners)
+    {
+        m_balances = balances;
+        m_owners = owners;
+    }
+
+    /**
+     * Applies an ERC-20 transfer
+     *
+     * @param from
+     *          The address of the sender, as 20 bytes
+     *
+     * @param to
+     *          The address of the recipient, as 20 bytes
+     *
+     * @param value
+     *          The amount, as a 256-bit big-endian word
+     */
+    public void transfer(byte[] from, byte[] to, byte[] value)
+    {
+        if (isZero(from))
+        {
+            add(m_totalSupply, 0, value);
+        }
+        else
+        {
+            addToBalance(from, value, true);
+        }
+        if (isZero(to))
+        {
+            subtract(m_totalSupply, 0, value);
+        }
+        else
+        {
+            addToBalance(to, value, false);
+        }
+    }
+
+    /**
+     * Applies an ERC-721 transfer
+     *
+     * @param from
+     *          The address of the previous owner, as 20 bytes
+     *
+     * @param to
+     *          The address of the new owner, as 20 bytes
+     *
+     * @param token_id
+     *          The identifier of the token, as a 256-bit big-endian word
+     */
+    public void transferToken(byte[] from, byte[] to, byte[] token_id)
+    {
+        transfer(from, to, ONE);
+        if (isZero(to))
+        {
+            int slot = m_owners.find(token_id);
+            if (slot >= 0)
+            {
+                m_owners.remove(slot);
+            }
+            return;
+        }
+        int slot = m_owners.findOrInsert(token_id);
+        ByteBuffer buffer = m_owners.buffer();
+        int pos = m_owners.valuePosition(slot);
+        for (int i = 0; i < ADDRESS_SIZE; i++)
+        {
+            buffer.put(pos + i, to[i]);
+        }
+    }
+
+    /**
+     * Records the block of the last transfer applied
+     *
+     * @param block_number
+     *          The block number
+     */
+    public void setBlockNumber(long block_number)
+    {
+        m_blockNumber = block_number;
+    }
+
+    /**
+     * Gets the number of the block of the last transfer applied
+     *
+     * @return The block number, or -1 if no transfer was applied
+     */
+    public long getBlockNumber()
+    {
+        return m_blockNumber;
+    }
+
+    /**
+     * Gets the balance of an address: an amount of tokens for an ERC-20
+     * contract, a number of tokens for an ERC-721 contract
+     *
+     * @param address
+     *          The address
+     *
+     * @return The balance
+     */
+    public BigInteger getBalance(String address)
+    {
+        byte[] key = new byte[ADDRESS_SIZE];
+        HexUtils.fromHex(address, key);
+        int slot = m_balances.find(key);
+        if (slot < 0)
+        {
+            return BigInteger.ZERO;
+        }
+        return new BigInteger(readWord(m_balances, slot));
+    }
+
+    /**
+     * Gets the owner of an ERC-721 token
+     *
+     * @param token_id
+     *          The identifier of the token
+     *
+     * @return The address of the owner, or null if the token does not exist
+     */
+    public String getOwner(BigInteger token_id)
+    {
+        int slot = m_owners.find(toWord(token_id));
+        if (slot < 0)
+        {
+            return null;
+        }
+        byte[] owner = new byte[ADDRESS_SIZE];
+        ByteBuffer buffer = m_owners.buffer();
+        int pos = m_owners.valuePosition(slot);
+        for (int i = 0; i < ADDRESS_SIZE; i++)
+        {
+            owner[i] = buffer.get(pos + i);
+        }
+        return HexUtils.toHex(owner);
+    }
+
+    /**
+     * Gets the total supply, i.e. the amount minted minus the amount burnt
+     *
+     * @return The total supply
+     */
+    public BigInteger getTotalSupply()
+    {
+        return new BigInteger(m_totalSupply.array());
+    }
+
+    /**
+     * Gets the number of addresses with a non-zero balance
+     *
+     * @return The number of holders
+     */
+    public int getHolderCount()
+    {
+        return m_balances.size();
+    }
+
+    /**
+     * Gets the number of existing ERC-721 tokens
+     *
+     * @return The number of tokens
+     */
+    public int getTokenCount()
+    {
+        return m_owners.size();
+    }
+
+    /**
+     * Goes through the holders and their balances, in no particular order
+     *
+     * @param consumer
+     *          The consumer of each address and balance
+     */
+    public void forEachHolder(BiConsumer<String, BigInteger> consumer)
+    {
+        byte[] key = new byte[ADDRESS_SIZE];
+        for (int slot = 0; slot < m_balances.capacity(); slot++)
+        {
+            if (m_balances.isUsed(slot))
+            {
+                m_balances.getKey(slot, key);
+                consumer.accept(HexUtils.toHex(key), new BigInteger(readWord(m_balances, slot)));
+            }
+        }
+    }
+
+    /**
+     * Creates a copy of the index as it is now, which later transfers do not change
+     *
+     * @return The copy
+     */
+    public TokenIndex snapshot()
+    {
+        TokenIndex copy = new TokenIndex(m_balances.copy(), m_owners.copy());
+        System.arraycopy(m_totalSupply.array(), 0, copy.m_totalSupply.array(), 0, WORD_SIZE);
+        copy.m_blockNumber = m_blockNumber;
+        return copy;
+    }
+
+    /**
+     * Writes the index to a file, replacing its content
+     *
+     * @param file
+     *          The file
+     *
+     * @throws IOException if the file could not be written
+     */
+    public void save(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer header = ByteBuffer.allocate(4 + 8 + WORD_SIZE);
+            header.putInt(MAGIC).putLong(m_blockNumber).put(m_totalSupply.array()).flip();
+            while (header.hasRemaining())
+            {
+                channel.write(header);
+            }
+            m_balances.writeTo(channel);
+            m_owners.writeTo(channel);
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #save(File)}
+     *
+     * @param file
+     *          The file
+     *
+     * @return The index
+     *
+     * @throws IOException if the file could not be read, or does not hold an index
+     */
+    public static TokenIndex load(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer header = ByteBuffer.allocate(4 + 8 + WORD_SIZE);
+            while (header.hasRemaining())
+            {
+                if (channel.read(header) < 0)
+                {
+                    throw new IOException(file + " is not a token index");
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC)
+            {
+                throw new IOException(file + " is not a token index");
+            }
+            long blockNumber = header.getLong();
+            OffHeapHashTable balances = OffHeapHashTable.readFrom(channel);
+            OffHeapHashTable owners = OffHeapHashTable.readFrom(channel);
+            TokenIndex index = new TokenIndex(balances, owners);
+            index.m_blockNumber = blockNumber;
+            header.get(index.m_totalSupply.array());
+            return index;
+        }
+    }
+
+    /**
+     * Adds a value to the balance of an address, or subtracts it, removing the
+     * address if its balance becomes zero
+     */
+    private void addToBalance(byte[] address, byte[] value, boolean subtract)
+    {
+        int slot = m_balances.findOrInsert(address);
+        ByteBuffer buffer = m_balances.buffer();
+        int pos = m_balances.valuePosition(slot);
+        boolean zero = subtract ? subtract(buffer, pos, value) : add(buffer, pos, value);
+        if (zero)
+        {
+            m_balances.remove(slot);
+        }
+    }
+
+    /**
+     * Converts a number into a 256-bit two's complement big-endian word
+     *
+     * @param value
+     *          The number
+     *
+     * @return The word
+     */
+    static byte[] toWord(BigInteger value)
+    {
+        byte[] bytes = value.toByteArray();
+        byte[] word = new byte[WORD_SIZE];
+        int length = Math.min(bytes.length, WORD_SIZE);
+        System.arraycopy(bytes, bytes.length - length, word, WORD_SIZE - length, length);
+        if (value.signum() < 0)
+        {
+            for (int i = 0; i < WORD_SIZE - length; i++)
+            {
+                word[i] = (byte) 0xff;
+            }
+        }
+        return word;
+    }
+
+    private static byte[] readWord(OffHeapHashTable table, int slot)
+    {
+        byte[] word = new byte[WORD_SIZE];
+        ByteBuffer buffer = table.buffer();
+        int pos = table.valuePosition(slot);
+        for (int i = 0; i < WORD_SIZE; i++)
+        {
+            word[i] = buffer.get(pos + i);
+        }
+        return word;
+    }
+
+    /**
+     * Adds a word to a word in a buffer
+     *
+     * @return true if the result is zero, false otherwise
+     */
+    private static boolean add(ByteBuffer buffer, int pos, byte[] value)
+    {
+        int carry = 0;
+        boolean zero = true;
+        for (int i = WORD_SIZE - 1; i >= 0; i--)
+        {
+            int sum = (buffer.get(pos + i) & 0xff) + (value[i] & 0xff) + carry;
+            buffer.put(pos + i, (byte) sum);
+            carry = sum >>> 8;
+            zero &= (sum & 0xff) == 0;
+        }
+        return zero;
+    }
+
+    /**
+     * Subtracts a word from a word in a buffer
+     *
+     * @return true if the result is zero, false otherwise
+     */
+    private static boolean subtract(ByteBuffer buffer, int pos, byte[] value)
+    {
+        int borrow = 0;
+        boolean zero = true;
+        for (int i = WORD_SIZE - 1; i >= 0; i--)
+        {
+            int diff = (buffer.get(pos + i) & 0xff) - (value[i] & 0xff) - borrow;
+            buffer.put(pos + i, (byte) diff);
+            borrow = diff < 0 ? 1 : 0;
+            zero &= (diff & 0xff) == 0;
+        }
+        return zero;
+    }
+
+    private static boolean isZero(byte[] bytes)
+    {
+        for (int i = 0; i < bytes.length; i++)
+        {
+            if (bytes[i] != 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
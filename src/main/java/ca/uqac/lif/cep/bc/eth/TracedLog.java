@@ -0,0 +1,44 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.protocol.core.methods.response.Log;
+
+/**
+ * A {@link CompactLog} carrying the {@link LatencyTrace} of its way through
+ * the pipeline. A {@link CatchEthContractLogs} outputs such logs when asked to
+ * with {@link CatchEthContractLogs#setTracing(boolean)}.
+ *
+ * The trace does not take part in the comparison of logs: a traced log is
+ * equal to the same log without trace.
+ */
+public class TracedLog extends CompactLog
+{
+    /**
+     * The trace of the log
+     */
+    private final LatencyTrace m_trace;
+
+    /**
+     * Creates a traced log
+     *
+     * @param log
+     *          The log
+     *
+     * @param trace
+     *          The trace of the log
+     */
+    public TracedLog(Log log, LatencyTrace trace)
+    {
+        super(log);
+        m_trace = trace;
+    }
+
+    /**
+     * Gets the trace of the log
+     *
+     * @return The trace
+     */
+    public LatencyTrace getTrace()
+    {
+        return m_trace;
+    }
+}
@@ -0,0 +1,235 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.SynchronousProcessor;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Computes a value over the {@link Log}s of a sliding window of blocks.
+ *
+ * The window ending at block <i>b</i> holds the logs of the <i>width</i> blocks
+ * up to <i>b</i>; a width of 1 gives one window per block. The window ending at
+ * block <i>b</i> is closed, and its value output as a {@link BlockWindowValue},
+ * as soon as no more log of block <i>b</i> can come: when a log of a later block
+ * is received, or a {@link BlockWatermark} at block <i>b</i> or later (see
+ * {@link CatchEthContractLogs#setWatermarks(boolean)}). Watermarks let a window
+ * be closed even when no log follows it.
+ *
+ * The value is computed by a {@link BlockAggregator}, which is told about the
+ * logs entering and leaving the window as it slides; the logs of a window are
+ * never gone through again. A window is output if it holds at least one log, or
+ * if the window before it did, so that ranges of blocks without any log produce
+ * a single empty window.
+ *
+ * Logs received for a block already closed are dropped and counted (see
+ * {@link #getLateLogCount()}). A log with its <code>removed</code> flag set, or
+ * an {@link EthLogRetraction}, removes the log it refers to from the windows
+ * not output yet.
+ */
+public class WindowEthLogs extends SynchronousProcessor
+{
+    /**
+     * The number of blocks of a window
+     */
+    private final int m_width;
+
+    /**
+     * The aggregator computing the value of the window
+     */
+    private final BlockAggregator m_aggregator;
+
+    /**
+     * The logs of the blocks in the current window or not closed yet, by block number
+     */
+    private final TreeMap<Long, List<Log>> m_blocks = new TreeMap<>();
+
+    /**
+     * The highest block closed so far
+     */
+    private long m_closed = -1;
+
+    /**
+     * The number of logs given to the aggregator and not removed yet
+     */
+    private long m_windowLogCount = 0;
+
+    /**
+     * Whether the last window output held at least one log
+     */
+    private boolean m_lastNonEmpty = false;
+
+    /**
+     * The number of logs received for blocks already closed
+     */
+    private long m_lateCount = 0;
+
+    /**
+     * Initializes the processor
+     *
+     * @param aggregator
+     *          The aggregator computing the value of a window
+     *
+     * @param width
+     *          The number of blocks of a window
+     */
+    public WindowEthLogs(BlockAggregator aggregator, int width)
+    {
+        super(1, 1);
+        if (width < 1)
+        {
+            throw new IllegalArgumentException("A window holds at least one block");
+        }
+        m_aggregator = aggregator;
+        m_width = width;
+    }
+
+    @Override
+    protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+    {
+        Object o = inputs[0];
+        if (o instanceof BlockWatermark)
+        {
+            closeUpTo(((BlockWatermark) o).getBlockNumber(), outputs);
+            return true;
+        }
+        if (o instanceof EthLogRetraction)
+        {
+            retract(((EthLogRetraction) o).getLog());
+            return true;
+        }
+        Log log = (Log) o;
+        if (log.isRemoved())
+        {
+            retract(log);
+            return true;
+        }
+        long number = EthLogCodec.blockNumber(log);
+        if (number <= m_closed)
+        {
+            m_lateCount++;
+            return true;
+        }
+        closeUpTo(number - 1, outputs);
+        m_blocks.computeIfAbsent(number, n -> new ArrayList<>()).add(log);
+        return true;
+    }
+
+    /**
+     * Closes the windows ending at the blocks up to some block number
+     *
+     * @param block
+     *          The block number
+     *
+     * @param outputs
+     *          The queue of output fronts
+     */
+    private void closeUpTo(long block, Queue<Object[]> outputs)
+    {
+        long n = m_closed + 1;
+        while (n <= block)
+        {
+            if (m_windowLogCount == 0 && !m_lastNonEmpty)
+            {
+                // Skipping the empty windows up to the next block with logs
+                Long next = m_blocks.ceilingKey(n);
+                if (next == null || next > block)
+                {
+                    break;
+                }
+                n = next;
+                m_blocks.headMap(n - m_width, true).clear();
+            }
+            List<Log> entering = m_blocks.get(n);
+            if (entering != null)
+            {
+                for (Log log : entering)
+                {
+                    m_aggregator.add(log);
+                }
+                m_windowLogCount += entering.size();
+            }
+            List<Log> leaving = m_blocks.remove(n - m_width);
+            if (leaving != null)
+            {
+                for (Log log : leaving)
+                {
+                    m_aggregator.remove(log);
+                }
+                m_windowLogCount -= leaving.size();
+            }
+            long first = Math.max(0, n - m_width + 1);
+            outputs.add(new Object[]{new BlockWindowValue(first, n, m_aggregator.getValue())});
+            m_lastNonEmpty = m_windowLogCount > 0;
+            n++;
+        }
+        m_closed = Math.max(m_closed, block);
+    }
+
+    /**
+     * Removes a log from the windows not output yet
+     *
+     * @param removed
+     *          The log, as sent again by the node with its <code>removed</code> flag set
+     */
+    private void retract(Log removed)
+    {
+        long number = EthLogCodec.blockNumber(removed);
+        List<Log> logs = m_blocks.get(number);
+        if (logs == null)
+        {
+            return;
+        }
+        Iterator<Log> it = logs.iterator();
+        while (it.hasNext())
+        {
+            Log log = it.next();
+            if (Objects.equals(log.getTransactionHash(), removed.getTransactionHash())
+                    && Objects.equals(log.getLogIndexRaw(), removed.getLogIndexRaw())
+                    && Objects.equals(log.getBlockHash(), removed.getBlockHash()))
+            {
+                it.remove();
+                if (number <= m_closed)
+                {
+                    m_aggregator.remove(log);
+                    m_windowLogCount--;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of logs dropped because their block was already closed
+     *
+     * @return The number of logs
+     */
+    public long getLateLogCount()
+    {
+        return m_lateCount;
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        m_aggregator.reset();
+        m_blocks.clear();
+        m_closed = -1;
+        m_windowLogCount = 0;
+        m_lastNonEmpty = false;
+        m_lateCount = 0;
+    }
+
+    @Override
+    public Processor duplicate(boolean with_state)
+    {
+        return new WindowEthLogs(m_aggregator.duplicate(), m_width);
+    }
+}
@@ -0,0 +1,744 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.ProcessorException;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.Pushable;
+import org.web3j.abi.datatypes.Type;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archives the events it receives, such as the output of
+ * {@link GetEthEventParameters}, to gzip-compressed CSV files. Each array of
+ * parameter values is written as a line, each other object as a line of one
+ * value.
+ *
+ * The push thread only turns the event into a line and appends it to a batch
+ * in memory; a thread of its own writes the batches to disk. A batch is
+ * written and flushed at once (group commit) when it reaches
+ * {@link #setGroupCommit(int, long) a given size}, or once its first line has
+ * waited long enough. The push thread only waits if the batches pile up past
+ * {@link #setMaxPending(int) a given size} because the disk cannot keep up.
+ *
+ * A new file is started when the current one holds a given amount of data or
+ * is old enough (see {@link #setRotation(long, long)}). Files are named
+ * <code><i>prefix</i>-<i>n</i>.csv.gz</code>, numbered after the files of
+ * the same prefix already in the directory. Each file is a complete gzip
+ * stream once the next one is started or the processor is stopped; the file
+ * being written can be read up to its last commit.
+ *
+ * Values are written as follows: numbers and strings as is, byte arrays in
+ * hexadecimal with a <code>0x</code> prefix, lists as their elements
+ * separated by semicolons between square brackets, and null as nothing.
+ * Values holding a comma, a semicolon, a quote or a line break are quoted.
+ *
+ * THIS PROCESSOR FORCES PUSH MODE
+ */
+public class WriteEthEvents extends Processor implements Runnable
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger LOGGER = Logger.getLogger(WriteEthEvents.class.getName());
+
+    /**
+     * The default size of the data of a file, before compression, in bytes
+     */
+    public static final long DEFAULT_FILE_SIZE = 256L << 20;
+
+    /**
+     * The default size of a batch, in bytes
+     */
+    public static final int DEFAULT_GROUP_SIZE = 1 << 20;
+
+    /**
+     * The default time (in milliseconds) a line waits before its batch is written
+     */
+    public static final long DEFAULT_GROUP_DELAY = 200;
+
+    /**
+     * The default amount of data waiting to be written past which the push
+     * thread waits, in bytes
+     */
+    public static final int DEFAULT_MAX_PENDING = 64 << 20;
+
+    /**
+     * The size of the buffer between the compressor and the file
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * The directory holding the files
+     */
+    private final File m_directory;
+
+    /**
+     * The prefix of the names of the files
+     */
+    private final String m_prefix;
+
+    /**
+     * The pushable receiving the events to write
+     */
+    private final WritePushable m_pushable = new WritePushable();
+
+    /**
+     * The line written at the start of each file, or null
+     */
+    private byte[] m_header = null;
+
+    /**
+     * The size of the data of a file past which a new file is started
+     */
+    private long m_maxFileSize = DEFAULT_FILE_SIZE;
+
+    /**
+     * The age (in milliseconds) of a file past which a new file is started
+     */
+    private long m_maxFileAge = Long.MAX_VALUE;
+
+    /**
+     * The size of a batch past which it is written
+     */
+    private int m_groupSize = DEFAULT_GROUP_SIZE;
+
+    /**
+     * The time (in milliseconds) after which a batch is written
+     */
+    private long m_groupDelay = DEFAULT_GROUP_DELAY;
+
+    /**
+     * The size of the batch past which the push thread waits
+     */
+    private int m_maxPending = DEFAULT_MAX_PENDING;
+
+    /**
+     * The batch the lines are appended to
+     */
+    private ByteArrayOutputStream m_pending = new ByteArrayOutputStream(DEFAULT_GROUP_SIZE);
+
+    /**
+     * The batch last written, emptied and ready to take the place of the
+     * pending one, or null while it is being written
+     */
+    private ByteArrayOutputStream m_spare = new ByteArrayOutputStream(DEFAULT_GROUP_SIZE);
+
+    /**
+     * The number of lines in the pending batch
+     */
+    private int m_pendingCount = 0;
+
+    /**
+     * The time (in milliseconds) the first line of the pending batch was appended
+     */
+    private long m_pendingSince;
+
+    /**
+     * Builder in which each line is formatted
+     */
+    private final StringBuilder m_line = new StringBuilder();
+
+    /**
+     * The file being written, or null
+     */
+    private OutputStream m_out = null;
+
+    /**
+     * The number of the file being written
+     */
+    private int m_fileIndex;
+
+    /**
+     * The amount of data written to the current file, before compression
+     */
+    private long m_fileSize;
+
+    /**
+     * The time (in milliseconds) the current file was started
+     */
+    private long m_fileStart;
+
+    /**
+     * The error that stopped the writer thread, or null
+     */
+    private volatile IOException m_error = null;
+
+    /**
+     * Semaphore used to stop the writer thread
+     */
+    private volatile boolean m_run = false;
+
+    /**
+     * The thread writing the batches
+     */
+    private Thread m_thread;
+
+    /**
+     * The number of events received
+     */
+    private volatile long m_receivedCount = 0;
+
+    /**
+     * The number of events written to disk
+     */
+    private volatile long m_writtenCount = 0;
+
+    /**
+     * The number of batches written to disk
+     */
+    private volatile long m_commitCount = 0;
+
+    /**
+     * The number of files started
+     */
+    private volatile int m_fileCount = 0;
+
+    /**
+     * Creates the processor
+     *
+     * @param directory
+     *          The directory holding the files, created if needed
+     *
+     * @param prefix
+     *          The prefix of the names of the files
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    public WriteEthEvents(File directory, String prefix) throws IOException
+    {
+        super(1, 0);
+        m_directory = directory;
+        m_prefix = prefix;
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Cannot create directory " + directory.getAbsolutePath());
+        }
+        m_fileIndex = nextFileIndex();
+    }
+
+    /**
+     * Sets the names of the columns, written as the first line of each file
+     *
+     * @param columns
+     *          The names of the columns
+     *
+     * @return This processor
+     */
+    public synchronized WriteEthEvents setHeader(String... columns)
+    {
+        m_line.setLength(0);
+        appendLine(columns);
+        m_header = m_line.toString().getBytes(StandardCharsets.UTF_8);
+        return this;
+    }
+
+    /**
+     * Sets when a new file is started
+     *
+     * @param max_size
+     *          The amount of data of a file, before compression, past which
+     *          a new file is started
+     *
+     * @param max_age
+     *          The age of a file (in milliseconds) past which a new file is
+     *          started, 0 for no limit
+     *
+     * @return This processor
+     */
+    public synchronized WriteEthEvents setRotation(long max_size, long max_age)
+    {
+        m_maxFileSize = max_size;
+        m_maxFileAge = max_age <= 0 ? Long.MAX_VALUE : max_age;
+        return this;
+    }
+
+    /**
+     * Sets when the lines appended are written to disk
+     *
+     * @param group_size
+     *          The size of a batch (in bytes) past which it is written
+     *
+     * @param group_delay
+     *          The time (in milliseconds) after which a line is written, even if
+     *          its batch is not full; must be positive
+     *
+     * @return This processor
+     */
+    public synchronized WriteEthEvents setGroupCommit(int group_size, long group_delay)
+    {
+        if (group_delay <= 0)
+        {
+            throw new IllegalArgumentException("The group commit delay must be positive");
+        }
+        m_groupSize = group_size;
+        m_groupDelay = group_delay;
+        return this;
+    }
+
+    /**
+     * Sets the amount of data waiting to be written past which the push thread
+     * waits for the writer thread
+     *
+     * @param max_pending
+     *          The size, in bytes
+     *
+     * @return This processor
+     */
+    public synchronized WriteEthEvents setMaxPending(int max_pending)
+    {
+        m_maxPending = max_pending;
+        return this;
+    }
+
+    /**
+     * Appends the line of an event to the pending batch
+     *
+     * @param o
+     *          The event
+     */
+    private synchronized void append(Object o)
+    {
+        if (m_error != null)
+        {
+            throw new ProcessorException(m_error);
+        }
+        m_line.setLength(0);
+        appendLine(o instanceof Object[] ? (Object[]) o : new Object[]{o});
+        byte[] line = m_line.toString().getBytes(StandardCharsets.UTF_8);
+        try
+        {
+            while (m_run && m_pending.size() >= m_maxPending)
+            {
+                wait();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (m_pendingCount == 0)
+        {
+            m_pendingSince = System.currentTimeMillis();
+        }
+        m_pending.write(line, 0, line.length);
+        m_pendingCount++;
+        m_receivedCount++;
+        if (m_pending.size() >= m_groupSize)
+        {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                ByteArrayOutputStream batch;
+                int count;
+                synchronized (this)
+                {
+                    long wait;
+                    while (m_run && (wait = waitTime()) > 0)
+                    {
+                        wait(wait);
+                    }
+                    if (m_pendingCount == 0)
+                    {
+                        if (!m_run)
+                        {
+                            break;
+                        }
+                        continue;
+                    }
+                    batch = m_pending;
+                    count = m_pendingCount;
+                    m_pending = m_spare;
+                    m_spare = null;
+                    m_pendingCount = 0;
+                    notifyAll();
+                }
+                commit(batch);
+                m_writtenCount += count;
+                m_commitCount++;
+                batch.reset();
+                synchronized (this)
+                {
+                    m_spare = batch;
+                }
+            }
+            close();
+        }
+        catch (IOException e)
+        {
+            LOGGER.severe("Stopped writing events: " + e.getMessage());
+            m_error = e;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                m_run = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Computes how long the writer thread can wait before writing the pending batch
+     *
+     * @return The time to wait in milliseconds, 0 or less if the batch must be
+     *          written now
+     */
+    private long waitTime()
+    {
+        if (m_pendingCount == 0)
+        {
+            return m_groupDelay;
+        }
+        if (m_pending.size() >= m_groupSize)
+        {
+            return 0;
+        }
+        return m_pendingSince + m_groupDelay - System.currentTimeMillis();
+    }
+
+    /**
+     * Writes a batch to the current file and flushes it, starting a new file
+     * first if needed
+     *
+     * @param batch
+     *          The batch
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private void commit(ByteArrayOutputStream batch) throws IOException
+    {
+        if (m_out != null && (m_fileSize >= m_maxFileSize
+                || System.currentTimeMillis() - m_fileStart >= m_maxFileAge))
+        {
+            close();
+        }
+        if (m_out == null)
+        {
+            File file = new File(m_directory, String.format("%s-%06d.csv.gz", m_prefix, m_fileIndex));
+            // Flushing the compressor makes each commit readable
+            m_out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE),
+                    BUFFER_SIZE, true);
+            m_fileIndex++;
+            m_fileCount++;
+            m_fileSize = 0;
+            m_fileStart = System.currentTimeMillis();
+            byte[] header;
+            synchronized (this)
+            {
+                header = m_header;
+            }
+            if (header != null)
+            {
+                m_out.write(header);
+                m_fileSize += header.length;
+            }
+        }
+        batch.writeTo(m_out);
+        m_out.flush();
+        m_fileSize += batch.size();
+    }
+
+    /**
+     * Finishes the file being written, if any
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private void close() throws IOException
+    {
+        if (m_out != null)
+        {
+            OutputStream out = m_out;
+            m_out = null;
+            out.close();
+        }
+    }
+
+    /**
+     * Formats values as a CSV line in {@link #m_line}
+     *
+     * @param values
+     *          The values
+     */
+    private void appendLine(Object[] values)
+    {
+        for (int i = 0; i < values.length; i++)
+        {
+            if (i > 0)
+            {
+                m_line.append(',');
+            }
+            int start = m_line.length();
+            appendValue(values[i]);
+            quote(start);
+        }
+        m_line.append('\n');
+    }
+
+    /**
+     * Formats a value in {@link #m_line}
+     *
+     * @param o
+     *          The value
+     */
+    private void appendValue(Object o)
+    {
+        if (o instanceof Type)
+        {
+            appendValue(((Type<?>) o).getValue());
+        }
+        else if (o instanceof byte[])
+        {
+            m_line.append(HexUtils.toHex((byte[]) o));
+        }
+        else if (o instanceof List)
+        {
+            m_line.append('[');
+            boolean first = true;
+            for (Object e : (List<?>) o)
+            {
+                if (!first)
+                {
+                    m_line.append(';');
+                }
+                first = false;
+                appendValue(e);
+            }
+            m_line.append(']');
+        }
+        else if (o instanceof Object[])
+        {
+            appendValue(Arrays.asList((Object[]) o));
+        }
+        else if (o != null)
+        {
+            m_line.append(o);
+        }
+    }
+
+    /**
+     * Quotes the value at the end of {@link #m_line} if it holds a separator
+     *
+     * @param start
+     *          The position of the value in the line
+     */
+    private void quote(int start)
+    {
+        boolean quote = false;
+        for (int i = start; i < m_line.length() && !quote; i++)
+        {
+            char c = m_line.charAt(i);
+            quote = c == ',' || c == ';' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote)
+        {
+            return;
+        }
+        for (int i = m_line.length() - 1; i >= start; i--)
+        {
+            if (m_line.charAt(i) == '"')
+            {
+                m_line.insert(i, '"');
+            }
+        }
+        m_line.insert(start, '"');
+        m_line.append('"');
+    }
+
+    /**
+     * Finds the number following the files of the same prefix in the directory
+     *
+     * @return The number of the next file
+     */
+    private int nextFileIndex()
+    {
+        String[] names = m_directory.list((dir, name) -> name.startsWith(m_prefix + "-")
+                && name.substring(m_prefix.length() + 1).matches("\\d+\\.csv\\.gz"));
+        int next = 0;
+        for (String name : names == null ? new String[0] : names)
+        {
+            String number = name.substring(m_prefix.length() + 1, name.length() - 7);
+            next = Math.max(next, Integer.parseInt(number) + 1);
+        }
+        return next;
+    }
+
+    @Override
+    public synchronized void start()
+    {
+        if (!m_run)
+        {
+            m_error = null;
+            m_run = true;
+            m_thread = new Thread(this);
+            m_thread.start();
+        }
+    }
+
+    /**
+     * Stops the writer thread once it has written the events received so far,
+     * and finishes the current file. Events pushed afterwards are written to a
+     * new file if the processor is started again.
+     */
+    @Override
+    public void stop()
+    {
+        Thread t;
+        synchronized (this)
+        {
+            m_run = false;
+            notifyAll();
+            t = m_thread;
+        }
+        if (t != null)
+        {
+            try
+            {
+                t.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Indicates if the writer thread is running
+     *
+     * @return true if it is running, false otherwise
+     */
+    public boolean isWriting()
+    {
+        return m_run;
+    }
+
+    /**
+     * Gets the number of events received
+     *
+     * @return The number of events
+     */
+    public long getReceivedCount()
+    {
+        return m_receivedCount;
+    }
+
+    /**
+     * Gets the number of events written to disk
+     *
+     * @return The number of events
+     */
+    public long getWrittenCount()
+    {
+        return m_writtenCount;
+    }
+
+    /**
+     * Gets the number of batches written to disk
+     *
+     * @return The number of batches
+     */
+    public long getCommitCount()
+    {
+        return m_commitCount;
+    }
+
+    /**
+     * Gets the number of files started
+     *
+     * @return The number of files
+     */
+    public int getFileCount()
+    {
+        return m_fileCount;
+    }
+
+    @Override
+    public Pushable getPushableInput(int i)
+    {
+        return m_pushable;
+    }
+
+    @Override
+    public synchronized Pullable getPullableInput(int i)
+    {
+        throw new UnsupportedOperationException();
+        // this processor forces push mode!
+    }
+
+    @Override
+    public Pullable getPullableOutput(int i)
+    {
+        throw new UnsupportedOperationException();
+        // this processor has no output
+    }
+
+    @Override
+    public Processor duplicate(boolean b)
+    {
+        throw new UnsupportedOperationException();
+        // two writers cannot share the same files
+    }
+
+    /**
+     * The pushable appending the events it receives to the pending batch
+     */
+    private class WritePushable implements Pushable
+    {
+        @Override
+        public Pushable push(Object o)
+        {
+            append(o);
+            return this;
+        }
+
+        @Override
+        public Future<Pushable> pushFast(Object o)
+        {
+            push(o);
+            return Pushable.NULL_FUTURE;
+        }
+
+        @Override
+        public void notifyEndOfTrace()
+        {
+            // nothing to do: the events are written when the processor is stopped
+        }
+
+        @Override
+        public Processor getProcessor()
+        {
+            return WriteEthEvents.this;
+        }
+
+        @Override
+        public int getPosition()
+        {
+            return 0;
+        }
+    }
+}
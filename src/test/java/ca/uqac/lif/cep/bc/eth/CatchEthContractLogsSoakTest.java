@@ -0,0 +1,265 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.tmf.BlackHole;
+import org.apache.commons.lang3.SystemUtils;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Starts and stops {@link CatchEthContractLogs} over and over against a
+ * {@link MockEthereumNode} producing events at a steady rate, to find leaks
+ * that only show after many cycles. After each cycle, the heap used after a
+ * garbage collection, the number of live threads and the number of open file
+ * descriptors are sampled; the test fails if the heap or the descriptors keep
+ * growing, if there are ever more threads than after the warm-up, or if a
+ * shutdown hook is left registered.
+ *
+ * The test is skipped unless the <code>soak.duration</code> system property
+ * gives its duration in seconds, e.g. <code>gradle soak -Dsoak.duration=3600</code>.
+ * The other properties are:
+ * <ul>
+ * <li><code>soak.rate</code>: the number of events per second (default 100)</li>
+ * <li><code>soak.catchers</code>: the number of catchers running at once (default 4)</li>
+ * <li><code>soak.cycle</code>: the time (in milliseconds) the catchers run
+ * before being stopped (default 2000)</li>
+ * </ul>
+ * The node forgets the logs of old blocks as it goes, so that its chain does
+ * not pass for a leak of the catchers.
+ *
+ * Counting the shutdown hooks needs <code>java.lang</code> to be open to the
+ * tests, which the build does on Java 9 and later.
+ */
+public class CatchEthContractLogsSoakTest
+{
+    private static final Logger LOGGER = Logger.getLogger(CatchEthContractLogsSoakTest.class.getName());
+
+    /**
+     * The fraction of the samples ignored at the start of the run, while the
+     * JVM warms up
+     */
+    private static final double WARM_UP = 0.25;
+
+    @Test
+    public void testChurn() throws Exception
+    {
+        long duration = Long.getLong("soak.duration", -1);
+        Assume.assumeTrue(duration > 0);
+        int rate = Integer.getInteger("soak.rate", 100);
+        int catchers = Integer.getInteger("soak.catchers", 4);
+        long cycle = Long.getLong("soak.cycle", 2000);
+
+        MockEthereumNode node = new MockEthereumNode();
+        node.startHttp();
+        if (SystemUtils.IS_OS_UNIX)
+        {
+            node.startIpc();
+        }
+        SyntheticLogGenerator generator = new SyntheticLogGenerator(node, SyntheticLogs.Shape.LONG_STRING,
+                SyntheticLogs.CONTRACT_ADDRESS, rate, 1000);
+        generator.start();
+        List<Long> heap = new ArrayList<>();
+        List<Long> threads = new ArrayList<>();
+        List<Long> descriptors = new ArrayList<>();
+        int hooks = countShutdownHooks();
+        long deadline = System.currentTimeMillis() + duration * 1000;
+        try
+        {
+            for (int n = 0; System.currentTimeMillis() < deadline; n++)
+            {
+                List<CatchEthContractLogs> running = new ArrayList<>();
+                for (int i = 0; i < catchers; i++)
+                {
+                    boolean ipc = SystemUtils.IS_OS_UNIX && i % 2 == 1;
+                    CatchEthContractLogs catcher = ipc ?
+                            CatchEthContractLogs.buildWithIPC(node.getIpcPath(), SyntheticLogs.CONTRACT_ADDRESS, false) :
+                            CatchEthContractLogs.buildWithRPC(node.getRpcUrl(), SyntheticLogs.CONTRACT_ADDRESS, false);
+                    Connector.connect(catcher, new BlackHole());
+                    catcher.start();
+                    running.add(catcher);
+                }
+                Thread.sleep(cycle);
+                for (CatchEthContractLogs catcher : running)
+                {
+                    catcher.stop();
+                }
+                Assert.assertEquals("Catcher threads left after cycle " + n, 0, countCatcherThreads());
+                Assert.assertEquals("Shutdown hooks left after cycle " + n, hooks, countShutdownHooks());
+                node.pruneLogs(node.getBlockNumber() - 10);
+                sample(heap, threads, descriptors);
+                LOGGER.info("Cycle " + n + ": " + heap.get(n) / 1024 + " KiB of heap, " + threads.get(n)
+                        + " threads, " + descriptors.get(n) + " file descriptors");
+            }
+        }
+        finally
+        {
+            generator.stop();
+            node.stop();
+        }
+        assertNoGrowth("heap", heap, 4 << 20, 0.05);
+        assertNoGrowth("file descriptors", descriptors, 8, 0);
+        assertFlat("threads", threads);
+    }
+
+    @Test
+    public void testNoShutdownHookLeft()
+    {
+        int hooks = countShutdownHooks();
+        Assume.assumeTrue(hooks >= 0);
+        for (int i = 0; i < 10; i++)
+        {
+            CatchEthContractLogs catcher = CatchEthContractLogs.buildWithRPC(
+                    "http://localhost:1", SyntheticLogs.CONTRACT_ADDRESS, false);
+            catcher.stop();
+            PollEthContractState.buildWithRPC("http://localhost:1").stop();
+        }
+        Assert.assertEquals(hooks, countShutdownHooks());
+    }
+
+    /**
+     * Counts the shutdown hooks registered with the runtime
+     *
+     * @return The number of hooks, or -1 if they cannot be counted
+     */
+    static int countShutdownHooks()
+    {
+        try
+        {
+            Field field = Class.forName("java.lang.ApplicationShutdownHooks").getDeclaredField("hooks");
+            field.setAccessible(true);
+            Class<?> hooks = field.getDeclaringClass();
+            synchronized (hooks)
+            {
+                Map<?, ?> map = (Map<?, ?>) field.get(null);
+                return map == null ? -1 : map.size();
+            }
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            // java.lang is not open to the tests
+            return -1;
+        }
+    }
+
+    /**
+     * Counts the live threads of the catchers
+     *
+     * @return The number of threads
+     */
+    static int countCatcherThreads()
+    {
+        int count = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet())
+        {
+            if (t.isAlive() && t.getName().startsWith("CatchEthContractLogs-"))
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Samples the heap used after a garbage collection, the number of live
+     * threads and the number of open file descriptors
+     */
+    private static void sample(List<Long> heap, List<Long> threads, List<Long> descriptors)
+    {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+        }
+        heap.add(memory.getHeapMemoryUsage().getUsed());
+        threads.add((long) ManagementFactory.getThreadMXBean().getThreadCount());
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean)
+        {
+            descriptors.add(((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount());
+        }
+        else
+        {
+            String[] fds = new File("/proc/self/fd").list();
+            descriptors.add(fds == null ? -1L : fds.length);
+        }
+    }
+
+    /**
+     * Fails if a measure is ever higher after the warm-up than during it
+     *
+     * @param name
+     *          The name of the measure
+     *
+     * @param samples
+     *          The samples, one per cycle
+     */
+    private static void assertFlat(String name, List<Long> samples)
+    {
+        int warmUp = Math.max(1, (int) (samples.size() * WARM_UP));
+        if (samples.size() <= warmUp)
+        {
+            return;
+        }
+        long max = Collections.max(samples.subList(0, warmUp));
+        for (int i = warmUp; i < samples.size(); i++)
+        {
+            Assert.assertTrue("The " + name + " rose to " + samples.get(i) + " at cycle " + i
+                    + ", above the " + max + " of the warm-up", samples.get(i) <= max);
+        }
+    }
+
+    /**
+     * Fails if a measure grows over the run. The growth is the slope of the
+     * least-squares line through the samples after the warm-up, times the
+     * number of these samples.
+     *
+     * @param name
+     *          The name of the measure
+     *
+     * @param samples
+     *          The samples, one per cycle
+     *
+     * @param min_tolerance
+     *          The growth always tolerated
+     *
+     * @param tolerance
+     *          The growth tolerated, as a fraction of the mean of the samples
+     */
+    private static void assertNoGrowth(String name, List<Long> samples, long min_tolerance, double tolerance)
+    {
+        List<Long> kept = samples.subList((int) (samples.size() * WARM_UP), samples.size());
+        if (kept.size() < 2 || kept.get(0) < 0)
+        {
+            return;
+        }
+        double meanX = (kept.size() - 1) / 2d;
+        double meanY = 0;
+        for (long y : kept)
+        {
+            meanY += (double) y / kept.size();
+        }
+        double covariance = 0;
+        double variance = 0;
+        for (int x = 0; x < kept.size(); x++)
+        {
+            covariance += (x - meanX) * (kept.get(x) - meanY);
+            variance += (x - meanX) * (x - meanX);
+        }
+        double growth = covariance / variance * kept.size();
+        double allowed = Math.max(min_tolerance, tolerance * meanY);
+        Assert.assertTrue("The " + name + " grew by " + (long) growth + " over " + kept.size()
+                + " cycles, more than " + (long) allowed, growth <= allowed);
+    }
+}
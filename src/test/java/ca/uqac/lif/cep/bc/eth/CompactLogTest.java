@@ -0,0 +1,67 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.protocol.core.methods.response.Log;
+
+/**
+ * Tests the {@link CompactLog}.
+ */
+public class CompactLogTest
+{
+    @Test
+    public void testSameContent()
+    {
+        for (SyntheticLogs.Shape shape : SyntheticLogs.Shape.values())
+        {
+            Log log = SyntheticLogs.newLog(shape, 7);
+            CompactLog compact = CompactLog.of(log);
+            Assert.assertEquals(log, compact);
+            Assert.assertEquals(compact, log);
+            Assert.assertEquals(log.hashCode(), compact.hashCode());
+            Assert.assertEquals(log.getBlockNumber(), compact.getBlockNumber());
+            Assert.assertEquals(log.getLogIndexRaw(), compact.getLogIndexRaw());
+            Assert.assertEquals(log.getTopics(), compact.getTopics());
+            Assert.assertEquals(log.getData(), compact.getData());
+            Assert.assertSame(compact, CompactLog.of(compact));
+        }
+    }
+
+    @Test
+    public void testMissingFields()
+    {
+        Log log = new Log();
+        log.setData("0x");
+        CompactLog compact = CompactLog.of(log);
+        Assert.assertNull(compact.getBlockNumber());
+        Assert.assertNull(compact.getTopics());
+        Assert.assertEquals(log, compact);
+    }
+
+    @Test
+    public void testSharedArrays()
+    {
+        CompactLog first = CompactLog.of(SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 1));
+        CompactLog second = CompactLog.of(SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 2));
+        Assert.assertNotEquals(first, second);
+        byte[] topic0 = HexUtils.fromHex(first.getTopics().get(0));
+        Assert.assertTrue(second.hasTopic0(topic0));
+        Assert.assertFalse(second.hasTopic0(new byte[32]));
+    }
+
+    @Test
+    public void testDecode()
+    {
+        for (SyntheticLogs.Shape shape : SyntheticLogs.Shape.values())
+        {
+            GetEthEventParameters getter = new GetEthEventParameters(SyntheticLogs.getEvent(shape));
+            Log log = SyntheticLogs.newLog(shape, 3);
+            Object[] expected = getter.getValue(log);
+            Assert.assertTrue(expected.length > 0);
+            Assert.assertArrayEquals(expected, getter.getValue(CompactLog.of(log)));
+        }
+        GetEthEventParameters getter = new GetEthEventParameters(SyntheticLogs.getEvent(SyntheticLogs.Shape.STATIC));
+        CompactLog other = CompactLog.of(SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, 3));
+        Assert.assertArrayEquals(new Object[0], getter.getValue(other));
+    }
+}
@@ -0,0 +1,197 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.tmf.QueueSink;
+import ca.uqac.lif.cep.tmf.Tank;
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Tests the {@link ConfirmEthLogs} processor.
+ */
+public class ConfirmEthLogsTest
+{
+    @Test
+    public void testConfirmation()
+    {
+        ConfirmEthLogs confirm = new ConfirmEthLogs(2);
+        QueueSink sink = new QueueSink();
+        Connector.connect(confirm, sink);
+        Queue<Object> queue = sink.getQueue();
+        Pushable pushable = confirm.getPushableInput(0);
+
+        Log first = SyntheticLogs.newLog(10, 1);
+        Log second = SyntheticLogs.newLog(10, 0);
+        pushable.push(first);
+        pushable.push(second);
+        pushable.push(SyntheticLogs.newLog(11, 0));
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(3, confirm.getPendingLogCount());
+
+        // Block 10 has two confirmations: its logs are output in chain order
+        pushable.push(SyntheticLogs.newLog(12, 0));
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(second, queue.remove());
+        Assert.assertEquals(first, queue.remove());
+
+        // A jump far ahead confirms every buffered block
+        pushable.push(SyntheticLogs.newLog(1000, 0));
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(1, confirm.getPendingLogCount());
+
+        // A late log for a confirmed block is output at once
+        queue.clear();
+        Log late = SyntheticLogs.newLog(20, 0);
+        pushable.push(late);
+        Assert.assertEquals(late, queue.remove());
+    }
+
+    @Test
+    public void testRemovedBeforeConfirmation()
+    {
+        ConfirmEthLogs confirm = new ConfirmEthLogs(3);
+        QueueSink sink = new QueueSink();
+        Connector.connect(confirm, sink);
+        Queue<Object> queue = sink.getQueue();
+        Pushable pushable = confirm.getPushableInput(0);
+
+        Log log = SyntheticLogs.newLog(5, 0);
+        pushable.push(log);
+        pushable.push(SyntheticLogs.newLog(5, 1));
+        pushable.push(SyntheticLogs.removed(log));
+        Assert.assertEquals(1, confirm.getDroppedLogCount());
+        pushable.push(SyntheticLogs.newLog(8, 0));
+        Assert.assertEquals(1, queue.size());
+        Assert.assertEquals(SyntheticLogs.newLog(5, 1), queue.remove());
+    }
+
+    @Test
+    public void testRetraction()
+    {
+        ConfirmEthLogs confirm = new ConfirmEthLogs(0);
+        QueueSink sink = new QueueSink();
+        Connector.connect(confirm, sink);
+        Queue<Object> queue = sink.getQueue();
+        Pushable pushable = confirm.getPushableInput(0);
+
+        Log log = SyntheticLogs.newLog(5, 0);
+        pushable.push(log);
+        Assert.assertEquals(log, queue.remove());
+        pushable.push(SyntheticLogs.removed(log));
+        Object o = queue.remove();
+        Assert.assertTrue(o instanceof EthLogRetraction);
+        Assert.assertEquals(SyntheticLogs.removed(log), ((EthLogRetraction) o).getLog());
+    }
+
+    @Test
+    public void testReplacedBlock()
+    {
+        ConfirmEthLogs confirm = new ConfirmEthLogs(3);
+        QueueSink sink = new QueueSink();
+        Connector.connect(confirm, sink);
+        Queue<Object> queue = sink.getQueue();
+        Pushable pushable = confirm.getPushableInput(0);
+
+        pushable.push(SyntheticLogs.newLog(5, 0));
+        pushable.push(SyntheticLogs.newLog(6, 0));
+        pushable.push(SyntheticLogs.newLog(7, 0));
+        // Block 6 is replaced: the logs of blocks 6 and 7 are dropped
+        Log replacement = SyntheticLogs.newLog(6, 0);
+        replacement.setBlockHash(SyntheticLogs.hash("block", 6, 1));
+        pushable.push(replacement);
+        Assert.assertEquals(2, confirm.getDroppedLogCount());
+        Assert.assertEquals(2, confirm.getPendingLogCount());
+
+        pushable.push(SyntheticLogs.newLog(9, 0));
+        pushable.push(SyntheticLogs.newLog(10, 0));
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(SyntheticLogs.newLog(5, 0), queue.remove());
+        Assert.assertEquals(replacement, queue.remove());
+    }
+
+    @Test
+    public void testWatermark()
+    {
+        ConfirmEthLogs confirm = new ConfirmEthLogs(2);
+        QueueSink sink = new QueueSink();
+        Connector.connect(confirm, sink);
+        Queue<Object> queue = sink.getQueue();
+        Pushable pushable = confirm.getPushableInput(0);
+
+        Log first = SyntheticLogs.newLog(10, 0);
+        Log second = SyntheticLogs.newLog(11, 0);
+        pushable.push(first);
+        pushable.push(second);
+        Assert.assertTrue(queue.isEmpty());
+
+        // No later log comes: the watermark alone confirms block 10
+        pushable.push(new BlockWatermark(12));
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(first, queue.remove());
+        Assert.assertEquals(new BlockWatermark(10), queue.remove());
+        Assert.assertEquals(1, confirm.getPendingLogCount());
+
+        pushable.push(new BlockWatermark(13));
+        Assert.assertEquals(second, queue.remove());
+        Assert.assertEquals(new BlockWatermark(11), queue.remove());
+        Assert.assertEquals(0, confirm.getPendingLogCount());
+
+        // A retraction is passed through as is
+        EthLogRetraction retraction = new EthLogRetraction(first);
+        pushable.push(retraction);
+        Assert.assertSame(retraction, queue.remove());
+    }
+
+    @Test
+    public void testReorgFromNode() throws Exception
+    {
+        MockEthereumNode node = new MockEthereumNode();
+        node.startHttp();
+        SyntheticLogGenerator generator = new SyntheticLogGenerator(node, SyntheticLogs.Shape.STATIC,
+                SyntheticLogs.CONTRACT_ADDRESS, 1, 1000);
+        generator.mineBlock(1);
+
+        CatchEthContractLogs catcher = CatchEthContractLogs.buildWithRPC(
+                node.getRpcUrl(), SyntheticLogs.CONTRACT_ADDRESS, true);
+        ConfirmEthLogs confirm = new ConfirmEthLogs(0);
+        Tank tank = new Tank();
+        Connector.connect(catcher, confirm, tank);
+        catcher.start();
+        Pullable pullable = tank.getPullableOutput(0);
+        List<Object> received = new ArrayList<>();
+        SyntheticLogs.waitFor(pullable, received, 1);
+        // Mining once the catcher polls its filter, so that no log is caught twice
+        while (node.getCallCount("eth_getFilterChanges") == 0)
+        {
+            Thread.sleep(10);
+        }
+
+        generator.mineBlock(1);
+        generator.mineBlock(1);
+        SyntheticLogs.waitFor(pullable, received, 3);
+
+        node.reorg(2);
+        generator.mineBlock(1);
+        SyntheticLogs.waitFor(pullable, received, 6);
+        catcher.stop();
+        node.stop();
+
+        Assert.assertTrue(received.get(3) instanceof EthLogRetraction);
+        Assert.assertTrue(received.get(4) instanceof EthLogRetraction);
+        List<String> retracted = new ArrayList<>();
+        retracted.add(((EthLogRetraction) received.get(3)).getLog().getTransactionHash());
+        retracted.add(((EthLogRetraction) received.get(4)).getLog().getTransactionHash());
+        Assert.assertTrue(retracted.contains(((Log) received.get(1)).getTransactionHash()));
+        Assert.assertTrue(retracted.contains(((Log) received.get(2)).getTransactionHash()));
+        Log replacement = (Log) received.get(5);
+        Assert.assertEquals(((Log) received.get(1)).getBlockNumber(), replacement.getBlockNumber());
+        Assert.assertNotEquals(((Log) received.get(1)).getBlockHash(), replacement.getBlockHash());
+    }
+}
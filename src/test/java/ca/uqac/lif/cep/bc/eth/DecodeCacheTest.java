@@ -0,0 +1,102 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests the {@link DecodeCache}, alone and given to {@link GetEthEventParameters}.
+ */
+public class DecodeCacheTest
+{
+    @Test
+    public void testSharedByFunctions()
+    {
+        DecodeCache cache = new DecodeCache(100);
+        GetEthEventParameters first = new GetEthEventParameters(
+                SyntheticLogs.getEvent(SyntheticLogs.Shape.INDEXED)).setCache(cache);
+        GetEthEventParameters second = new GetEthEventParameters(
+                SyntheticLogs.getEvent(SyntheticLogs.Shape.INDEXED)).setCache(cache);
+        GetEthEventParameters uncached = new GetEthEventParameters(
+                SyntheticLogs.getEvent(SyntheticLogs.Shape.INDEXED));
+        Log log = SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, 3);
+
+        Object[] expected = uncached.getValue(log);
+        Object[] decoded = first.getValue(log);
+        Assert.assertArrayEquals(expected, decoded);
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+
+        Object[] cached = second.getValue(log);
+        Assert.assertArrayEquals(expected, cached);
+        Assert.assertNotSame(decoded, cached);
+        Assert.assertArrayEquals(expected, first.getValue(CompactLog.of(log)));
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(2d / 3, cache.getHitRatio(), 1e-9);
+
+        // The same transaction in another block is another log
+        Log reorged = SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, 3);
+        reorged.setBlockHash(SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, 4).getBlockHash());
+        first.getValue(reorged);
+        Assert.assertEquals(2, cache.getMissCount());
+
+        // Logs of other events are not looked for
+        first.getValue(SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 3));
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(2, cache.size());
+
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getHitRatio(), 0);
+    }
+
+    @Test
+    public void testScanResistance()
+    {
+        DecodeCache cache = new DecodeCache(200);
+        AtomicLong decodings = new AtomicLong();
+        List<Log> hot = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+        {
+            hot.add(SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, i));
+        }
+        for (int round = 0; round < 5; round++)
+        {
+            for (Log log : hot)
+            {
+                get(cache, log, decodings);
+            }
+        }
+        Assert.assertEquals(100, decodings.get());
+
+        // A backfill of logs seen once, while the hot logs are still asked for
+        for (int i = 0; i < 5000; i++)
+        {
+            get(cache, SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 1000 + i), decodings);
+            if (i % 25 == 0)
+            {
+                get(cache, hot.get(i / 25 % hot.size()), decodings);
+            }
+            Assert.assertTrue(cache.size() <= cache.getMaxSize());
+        }
+        decodings.set(0);
+        for (Log log : hot)
+        {
+            get(cache, log, decodings);
+        }
+        Assert.assertTrue("Hot logs decoded again: " + decodings.get(), decodings.get() <= 5);
+        Assert.assertTrue(cache.getEvictionCount() > 0);
+    }
+
+    private static void get(DecodeCache cache, Log log, AtomicLong decodings)
+    {
+        cache.get(log, "decoder", l -> {
+            decodings.incrementAndGet();
+            return new Object[] {l.getTransactionHash()};
+        });
+    }
+}
@@ -0,0 +1,320 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.tmf.Tank;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.web3j.abi.EventEncoder;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests the {@link EthLogArchive}, alone and as used by {@link CatchEthContractLogs}.
+ */
+public class EthLogArchiveTest
+{
+    private static final String OTHER_ADDRESS = "0x00000000000000000000000000000000000000aa";
+
+    /**
+     * The number of blocks a block must be followed by to be archived
+     */
+    private static final int CONFIRMATIONS = 2;
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    @Test
+    public void testQuery() throws IOException
+    {
+        File dir = m_folder.newFolder();
+        // Small segments, so that several of them are used
+        EthLogArchive archive = new EthLogArchive(dir, 4096);
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < 60; i++)
+        {
+            SyntheticLogs.Shape shape = SyntheticLogs.Shape.values()[i % 3];
+            Log log = SyntheticLogs.newLog(SyntheticLogs.getEvent(shape), SyntheticLogs.getValues(shape, i),
+                    i % 2 == 0 ? SyntheticLogs.CONTRACT_ADDRESS : OTHER_ADDRESS, i / 4, i, i % 4);
+            logs.add(log);
+        }
+        // Appending out of order: queries must still return logs in chain order
+        for (int i = logs.size() - 1; i >= 0; i--)
+        {
+            archive.append(logs.get(i));
+        }
+        Assert.assertEquals(15, archive.getBlockCount());
+        assertQuery(archive, logs);
+        archive.close();
+
+        // The indexes are rebuilt when the archive is opened again
+        archive = new EthLogArchive(dir, 4096);
+        Assert.assertEquals(15, archive.getBlockCount());
+        assertQuery(archive, logs);
+        archive.close();
+    }
+
+    private static void assertQuery(EthLogArchive archive, List<Log> logs)
+    {
+        List<Log> all = new ArrayList<>();
+        archive.query(null, null, 0, 100, all::add);
+        Assert.assertEquals(logs, all);
+
+        List<Log> range = new ArrayList<>();
+        archive.query(null, null, 2, 3, range::add);
+        Assert.assertEquals(logs.subList(8, 16), range);
+
+        List<Log> byAddress = new ArrayList<>();
+        archive.query(OTHER_ADDRESS, null, 0, 100, byAddress::add);
+        Assert.assertEquals(30, byAddress.size());
+
+        String topic0 = EventEncoder.encode(SyntheticLogs.getEvent(SyntheticLogs.Shape.STATIC));
+        List<Log> byTopic = new ArrayList<>();
+        archive.query(SyntheticLogs.CONTRACT_ADDRESS, topic0, 0, 100, byTopic::add);
+        // Logs 0, 6, 12, ... are static and emitted by the contract
+        Assert.assertEquals(10, byTopic.size());
+        Assert.assertEquals(logs.get(6), byTopic.get(1));
+    }
+
+    @Test
+    public void testCoverage() throws IOException
+    {
+        File dir = m_folder.newFolder();
+        EthLogArchive archive = new EthLogArchive(dir);
+        archive.markCovered(SyntheticLogs.CONTRACT_ADDRESS, 10, 19);
+        archive.markCovered(SyntheticLogs.CONTRACT_ADDRESS, 30, 39);
+        archive.markCovered(SyntheticLogs.CONTRACT_ADDRESS, 20, 25);
+
+        List<long[]> missing = archive.getMissingRanges(SyntheticLogs.CONTRACT_ADDRESS, 0, 50);
+        Assert.assertEquals(3, missing.size());
+        Assert.assertArrayEquals(new long[]{0, 9}, missing.get(0));
+        Assert.assertArrayEquals(new long[]{26, 29}, missing.get(1));
+        Assert.assertArrayEquals(new long[]{40, 50}, missing.get(2));
+        Assert.assertTrue(archive.getMissingRanges(SyntheticLogs.CONTRACT_ADDRESS, 12, 25).isEmpty());
+        Assert.assertEquals(1, archive.getMissingRanges(OTHER_ADDRESS, 12, 25).size());
+        archive.close();
+
+        archive = new EthLogArchive(dir);
+        Assert.assertTrue(archive.getMissingRanges(SyntheticLogs.CONTRACT_ADDRESS, 10, 25).isEmpty());
+        // The ranges of several contracts, saved at once
+        Map<String, List<long[]>> ranges = new HashMap<>();
+        ranges.put(SyntheticLogs.CONTRACT_ADDRESS, Arrays.asList(new long[]{26, 29}, new long[]{40, 45}));
+        ranges.put(OTHER_ADDRESS, Collections.singletonList(new long[]{12, 25}));
+        archive.markCovered(ranges);
+        archive.close();
+
+        archive = new EthLogArchive(dir);
+        missing = archive.getMissingRanges(SyntheticLogs.CONTRACT_ADDRESS, 0, 50);
+        Assert.assertEquals(2, missing.size());
+        Assert.assertArrayEquals(new long[]{46, 50}, missing.get(1));
+        Assert.assertTrue(archive.getMissingRanges(OTHER_ADDRESS, 12, 25).isEmpty());
+        archive.close();
+    }
+
+    @Test
+    public void testCatchFromArchive() throws Exception
+    {
+        MockEthereumNode node = new MockEthereumNode();
+        node.startHttp();
+        SyntheticLogGenerator generator = new SyntheticLogGenerator(node, SyntheticLogs.Shape.LONG_STRING,
+                SyntheticLogs.CONTRACT_ADDRESS, 1, 1000);
+        for (int i = 0; i < 10; i++)
+        {
+            generator.mineBlock(2);
+        }
+        EthLogArchive archive = new EthLogArchive(m_folder.newFolder());
+
+        Assert.assertEquals(20, catchPastLogs(node, archive, 20));
+        // One request for the confirmed blocks, one for the others
+        long getLogsCalls = node.getCallCount("eth_getLogs");
+        Assert.assertEquals(2, getLogsCalls);
+
+        // The second catcher only asks for the blocks it did not archive
+        generator.mineBlock(3);
+        Assert.assertEquals(23, catchPastLogs(node, archive, 23));
+        Assert.assertEquals(getLogsCalls + 2, node.getCallCount("eth_getLogs"));
+
+        // The blocks that may still be removed by a reorganization are not archived
+        long head = node.getBlockNumber();
+        List<long[]> missing = archive.getMissingRanges(SyntheticLogs.CONTRACT_ADDRESS, 0, head);
+        Assert.assertEquals(1, missing.size());
+        Assert.assertArrayEquals(new long[]{head - CONFIRMATIONS + 1, head}, missing.get(0));
+        List<Log> archived = new ArrayList<>();
+        archive.query(null, null, 0, head, archived::add);
+        // All but the 3 logs of the last block and the 2 of the one before
+        Assert.assertEquals(18, archived.size());
+
+        archive.close();
+        node.stop();
+    }
+
+    @Test
+    public void testCatchSeveralFromArchive() throws Exception
+    {
+        MockEthereumNode node = new MockEthereumNode();
+        node.startHttp();
+        SyntheticLogGenerator first = new SyntheticLogGenerator(node, SyntheticLogs.Shape.STATIC,
+                SyntheticLogs.CONTRACT_ADDRESS, 1, 1000);
+        SyntheticLogGenerator second = new SyntheticLogGenerator(node, SyntheticLogs.Shape.STATIC,
+                OTHER_ADDRESS, 1, 1000);
+        for (int i = 0; i < 5; i++)
+        {
+            first.mineBlock(2);
+        }
+        EthLogArchive archive = new EthLogArchive(m_folder.newFolder());
+        Assert.assertEquals(10, catchPastLogs(node, archive, 10));
+
+        for (int i = 0; i < 5; i++)
+        {
+            second.mineBlock(2);
+        }
+        first.mineBlock(2);
+        long getLogsCalls = node.getCallCount("eth_getLogs");
+        Assert.assertEquals(22, catchPastLogs(node, archive, 22, OTHER_ADDRESS));
+        // The blocks missing for either contract are asked for once, then the recent ones
+        Assert.assertEquals(getLogsCalls + 2, node.getCallCount("eth_getLogs"));
+
+        long head = node.getBlockNumber();
+        for (String address : Arrays.asList(SyntheticLogs.CONTRACT_ADDRESS, OTHER_ADDRESS))
+        {
+            List<long[]> missing = archive.getMissingRanges(address, 0, head);
+            Assert.assertEquals(1, missing.size());
+            Assert.assertArrayEquals(new long[]{head - CONFIRMATIONS + 1, head}, missing.get(0));
+        }
+        List<Log> archived = new ArrayList<>();
+        archive.query(null, null, 0, head, archived::add);
+        // All but the 2 logs of each of the last blocks
+        Assert.assertEquals(22 - 2 * CONFIRMATIONS, archived.size());
+        archive.close();
+        node.stop();
+    }
+
+    @Test
+    public void testDeduplicate() throws IOException
+    {
+        File dir = m_folder.newFolder();
+        EthLogArchive archive = new EthLogArchive(dir);
+        Log log = SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, 1);
+        Assert.assertTrue(archive.append(log));
+        Assert.assertFalse(archive.append(SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, 1)));
+        // The same index in another block is another log
+        Log other = SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, 1);
+        other.setBlockHash(SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, 2).getBlockHash());
+        Assert.assertTrue(archive.append(other));
+        archive.close();
+
+        archive = new EthLogArchive(dir);
+        Assert.assertFalse(archive.append(log));
+        List<Log> logs = new ArrayList<>();
+        archive.query(null, null, 0, 10, logs::add);
+        Assert.assertEquals(2, logs.size());
+        archive.close();
+    }
+
+    @Test
+    public void testSharedArchive() throws Exception
+    {
+        MockEthereumNode node = new MockEthereumNode();
+        node.startHttp();
+        SyntheticLogGenerator generator = new SyntheticLogGenerator(node, SyntheticLogs.Shape.STATIC,
+                SyntheticLogs.CONTRACT_ADDRESS, 1, 1000);
+        for (int i = 0; i < 50; i++)
+        {
+            generator.mineBlock(2);
+        }
+        EthLogArchive archive = new EthLogArchive(m_folder.newFolder());
+        List<Integer> counts = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 2; i++)
+        {
+            Thread t = new Thread(() -> {
+                try
+                {
+                    int count = catchPastLogs(node, archive, 100);
+                    synchronized (counts)
+                    {
+                        counts.add(count);
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads)
+        {
+            t.join();
+        }
+        Assert.assertEquals(2, counts.size());
+        for (int count : counts)
+        {
+            Assert.assertEquals(100, count);
+        }
+        // Both catchers may have asked for the same blocks, which are archived once
+        List<Log> archived = new ArrayList<>();
+        archive.query(null, null, 0, node.getBlockNumber(), archived::add);
+        // All but the 2 logs of each block not confirmed
+        Assert.assertEquals(100 - 2 * CONFIRMATIONS, archived.size());
+        archive.close();
+        node.stop();
+    }
+
+    /**
+     * Catches the past logs of the contract, and of the other addresses given,
+     * through an archive. Logs are counted until the expected number has been
+     * received and no other log came for two polling intervals, so that logs
+     * pushed more than once are counted too.
+     *
+     * @return The number of logs received
+     */
+    private static int catchPastLogs(MockEthereumNode node, EthLogArchive archive, int expected,
+                                     String... addresses) throws InterruptedException
+    {
+        CatchEthContractLogs catcher = CatchEthContractLogs.buildWithRPC(
+                node.getRpcUrl(), SyntheticLogs.CONTRACT_ADDRESS, true).setArchive(archive, CONFIRMATIONS);
+        for (String address : addresses)
+        {
+            catcher.addAddress(address);
+        }
+        Tank tank = new Tank();
+        Connector.connect(catcher, tank);
+        catcher.start();
+        Pullable pullable = tank.getPullableOutput(0);
+        Set<Log> seen = new HashSet<>();
+        int count = 0;
+        long previous = -1;
+        long deadline = System.currentTimeMillis() + 10000;
+        long quietUntil = 0;
+        while (System.currentTimeMillis() < deadline && (count < expected || System.currentTimeMillis() < quietUntil))
+        {
+            Log log = (Log) pullable.pullSoft();
+            if (log == null)
+            {
+                Thread.sleep(10);
+                continue;
+            }
+            Assert.assertTrue("Log received twice: " + log, seen.add(log));
+            Assert.assertTrue(log.getBlockNumber().longValue() >= previous);
+            previous = log.getBlockNumber().longValue();
+            count++;
+            quietUntil = System.currentTimeMillis() + 2 * CatchEthContractLogs.POLLING_INTERVAL;
+        }
+        catcher.stop();
+        return count;
+    }
+}
@@ -145,7 +145,7 @@ public class EthereumTest
         Connector.connect(catcher, getEventParameters, tank);
         catcher.start();
 
-        while (!catcher.isCatching())
+        while (catcher.isBackfilling())
         {
             Thread.sleep(100);
         }
@@ -32,6 +32,13 @@ public class IpcUtilsTest
         Assert.assertTrue(IpcUtils.newIpcService(EthereumNodeIPC.DEFAULT_IPC_PATH_UNIX) instanceof UnixIpcService);
     }
 
+    @Test
+    public void testNewPipelinedIPCServiceUnix()
+    {
+        Assume.assumeTrue(SystemUtils.IS_OS_UNIX);
+        Assert.assertTrue(IpcUtils.newPipelinedIpcService(EthereumNodeIPC.DEFAULT_IPC_PATH_UNIX) instanceof PipelinedUnixIpcService);
+    }
+
     @Test(expected = UnsupportedOperationException.class)
     public void testNewIPCServiceException()
     {
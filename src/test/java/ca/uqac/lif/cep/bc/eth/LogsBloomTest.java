@@ -0,0 +1,147 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.tmf.Tank;
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the {@link LogsBloom} operations, and the scanning of blocks by
+ * {@link CatchEthContractLogs}.
+ */
+public class LogsBloomTest
+{
+    /**
+     * The address of a contract other than the one the logs are caught for
+     */
+    private static final String OTHER_ADDRESS = "0x1111111111111111111111111111111111111111";
+
+    @Test
+    public void testSingleValue()
+    {
+        // A value sets at most three bits
+        byte[] bloom = new byte[LogsBloom.SIZE];
+        byte[] address = HexUtils.fromHex("0x0000000000000000000000000000000000000001");
+        LogsBloom.add(bloom, address);
+        int bits = 0;
+        for (byte b : bloom)
+        {
+            bits += Integer.bitCount(b & 0xff);
+        }
+        Assert.assertTrue(bits > 0 && bits <= 3);
+        Assert.assertTrue(LogsBloom.mightContain(bloom, address));
+        Assert.assertFalse(LogsBloom.mightContain(new byte[LogsBloom.SIZE], address));
+    }
+
+    @Test
+    public void testLogs()
+    {
+        SyntheticLogs.Shape shape = SyntheticLogs.Shape.INDEXED;
+        byte[] bloom = new byte[LogsBloom.SIZE];
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+        {
+            Log log = SyntheticLogs.newLog(SyntheticLogs.getEvent(shape), SyntheticLogs.getValues(shape, i),
+                    SyntheticLogs.CONTRACT_ADDRESS, 1, i, i);
+            LogsBloom.add(bloom, log);
+            logs.add(log);
+        }
+        byte[] address = HexUtils.fromHex(SyntheticLogs.CONTRACT_ADDRESS);
+        byte[] topic0 = HexUtils.fromHex(logs.get(0).getTopics().get(0));
+        for (Log log : logs)
+        {
+            for (String topic : log.getTopics())
+            {
+                Assert.assertTrue(LogsBloom.mightContain(bloom, HexUtils.fromHex(topic)));
+            }
+        }
+        Assert.assertTrue(LogsBloom.mightContainLogsOf(bloom, address, Collections.emptyList()));
+        Assert.assertTrue(LogsBloom.mightContainLogsOf(bloom, address, Collections.singletonList(topic0)));
+        Assert.assertFalse(LogsBloom.mightContainLogsOf(bloom, HexUtils.fromHex(OTHER_ADDRESS),
+                Collections.emptyList()));
+    }
+
+    @Test
+    public void testFalsePositiveRate()
+    {
+        // A bloom holding the address and three topics of five logs
+        byte[] bloom = new byte[LogsBloom.SIZE];
+        for (int i = 0; i < 20; i++)
+        {
+            LogsBloom.add(bloom, HexUtils.fromHex(SyntheticLogs.hash("value", i, 0)));
+        }
+        int positives = 0;
+        for (int i = 0; i < 10000; i++)
+        {
+            if (LogsBloom.mightContain(bloom, HexUtils.fromHex(SyntheticLogs.hash("other", i, 0))))
+            {
+                positives++;
+            }
+        }
+        // about (60 / 2048)^3, i.e. 0.0025%
+        Assert.assertTrue(positives < 10);
+    }
+
+    @Test
+    public void testBloomScan() throws IOException, InterruptedException
+    {
+        MockEthereumNode node = new MockEthereumNode();
+        node.startHttp();
+        SyntheticLogGenerator contract = new SyntheticLogGenerator(node, SyntheticLogs.Shape.STATIC,
+                SyntheticLogs.CONTRACT_ADDRESS, 1, 1000);
+        SyntheticLogGenerator other = new SyntheticLogGenerator(node, SyntheticLogs.Shape.STATIC,
+                OTHER_ADDRESS, 1, 1000);
+        for (int i = 1; i <= 250; i++)
+        {
+            if (i % 50 == 0)
+            {
+                contract.mineBlock(2);
+            }
+            else
+            {
+                other.mineBlock(3);
+            }
+        }
+
+        CatchEthContractLogs catcher = CatchEthContractLogs.buildWithRPC(
+                node.getRpcUrl(), SyntheticLogs.CONTRACT_ADDRESS, true).setBloomScan(true);
+        Tank tank = new Tank();
+        Connector.connect(catcher, tank);
+        catcher.start();
+        Pullable pullable = tank.getPullableOutput(0);
+        List<Log> received = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (received.size() < 10 && System.currentTimeMillis() < deadline)
+        {
+            Object o = pullable.pullSoft();
+            if (o == null)
+            {
+                Thread.sleep(10);
+                continue;
+            }
+            received.add((Log) o);
+        }
+        long requests = node.getHttpRequestCount();
+        catcher.stop();
+        node.stop();
+
+        Assert.assertEquals(10, received.size());
+        for (int i = 0; i < received.size(); i++)
+        {
+            Assert.assertEquals(SyntheticLogs.CONTRACT_ADDRESS, received.get(i).getAddress());
+            Assert.assertEquals(50 * (i / 2 + 1), received.get(i).getBlockNumber().longValue());
+        }
+        // Every header is read, but logs are only asked for the blocks of the contract
+        Assert.assertEquals(251, node.getCallCount("eth_getBlockByNumber"));
+        Assert.assertTrue(node.getCallCount("eth_getLogs") < 10);
+        // Three batches of headers and three of logs, plus the calls for the head and the filter
+        Assert.assertTrue(requests < 15);
+    }
+}
@@ -0,0 +1,193 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.tmf.QueueSink;
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Tests the {@link MergeEthLogs} processor.
+ */
+public class MergeEthLogsTest
+{
+    /**
+     * The address of a second contract
+     */
+    private static final String OTHER_ADDRESS = "0x1111111111111111111111111111111111111111";
+
+    @Test
+    public void testMerge()
+    {
+        MergeEthLogs merge = new MergeEthLogs(2);
+        QueueSink sink = new QueueSink();
+        Connector.connect(merge, sink);
+        Queue<Object> queue = sink.getQueue();
+        Pushable first = merge.getPushableInput(0);
+        Pushable second = merge.getPushableInput(1);
+
+        first.push(SyntheticLogs.newLog(SyntheticLogs.CONTRACT_ADDRESS, 1, 1));
+        first.push(SyntheticLogs.newLog(SyntheticLogs.CONTRACT_ADDRESS, 3, 0));
+        first.push(new BlockWatermark(3));
+        Assert.assertTrue(queue.isEmpty());
+        second.push(SyntheticLogs.newLog(OTHER_ADDRESS, 1, 0));
+        second.push(SyntheticLogs.newLog(OTHER_ADDRESS, 2, 0));
+        second.push(new BlockWatermark(2));
+        Assert.assertEquals(3, queue.size());
+        Assert.assertEquals(SyntheticLogs.newLog(OTHER_ADDRESS, 1, 0), queue.remove());
+        Assert.assertEquals(SyntheticLogs.newLog(SyntheticLogs.CONTRACT_ADDRESS, 1, 1), queue.remove());
+        Assert.assertEquals(SyntheticLogs.newLog(OTHER_ADDRESS, 2, 0), queue.remove());
+        Assert.assertEquals(1, merge.getBufferedLogCount());
+
+        second.push(new BlockWatermark(10));
+        Assert.assertEquals(SyntheticLogs.newLog(SyntheticLogs.CONTRACT_ADDRESS, 3, 0), queue.remove());
+        Assert.assertEquals(0, merge.getLateLogCount());
+        Assert.assertEquals(0, merge.getForcedLogCount());
+    }
+
+    @Test
+    public void testForwardWatermarks()
+    {
+        MergeEthLogs merge = new MergeEthLogs(2).setForwardWatermarks(true);
+        QueueSink sink = new QueueSink();
+        Connector.connect(merge, sink);
+        Queue<Object> queue = sink.getQueue();
+        merge.getPushableInput(0).push(new BlockWatermark(5));
+        Assert.assertTrue(queue.isEmpty());
+        merge.getPushableInput(1).push(new BlockWatermark(4));
+        Assert.assertEquals(new BlockWatermark(4), queue.remove());
+        // An input ending does not hold the others back anymore
+        merge.getPushableInput(1).notifyEndOfTrace();
+        Assert.assertEquals(new BlockWatermark(5), queue.remove());
+    }
+
+    @Test
+    public void testBoundedBuffer()
+    {
+        MergeEthLogs merge = new MergeEthLogs(2, 3);
+        QueueSink sink = new QueueSink();
+        Connector.connect(merge, sink);
+        Queue<Object> queue = sink.getQueue();
+        Pushable first = merge.getPushableInput(0);
+        first.push(SyntheticLogs.newLog(SyntheticLogs.CONTRACT_ADDRESS, 1, 0));
+        first.push(SyntheticLogs.newLog(SyntheticLogs.CONTRACT_ADDRESS, 1, 1));
+        first.push(SyntheticLogs.newLog(SyntheticLogs.CONTRACT_ADDRESS, 2, 0));
+        Assert.assertTrue(queue.isEmpty());
+        // The second input lags: block 1 is output without its watermark
+        first.push(SyntheticLogs.newLog(SyntheticLogs.CONTRACT_ADDRESS, 3, 0));
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(2, merge.getForcedLogCount());
+        Assert.assertEquals(2, merge.getBufferedLogCount());
+        merge.getPushableInput(1).push(SyntheticLogs.newLog(OTHER_ADDRESS, 1, 2));
+        Assert.assertEquals(1, merge.getLateLogCount());
+        Assert.assertEquals(3, queue.size());
+    }
+
+    @Test
+    public void testCorrectionsNotDelayed()
+    {
+        MergeEthLogs merge = new MergeEthLogs(2);
+        QueueSink sink = new QueueSink();
+        Connector.connect(merge, sink);
+        Queue<Object> queue = sink.getQueue();
+        Log log = SyntheticLogs.newLog(SyntheticLogs.CONTRACT_ADDRESS, 1, 0);
+        merge.getPushableInput(0).push(new EthLogRetraction(log));
+        Assert.assertEquals(new EthLogRetraction(log), queue.remove());
+    }
+
+    @Test
+    public void testCorrectionOfBufferedLog()
+    {
+        MergeEthLogs merge = new MergeEthLogs(2);
+        QueueSink sink = new QueueSink();
+        Connector.connect(merge, sink);
+        Queue<Object> queue = sink.getQueue();
+        Log first = SyntheticLogs.newLog(SyntheticLogs.CONTRACT_ADDRESS, 1, 0);
+        Log second = SyntheticLogs.newLog(SyntheticLogs.CONTRACT_ADDRESS, 1, 1);
+        merge.getPushableInput(0).push(first);
+        merge.getPushableInput(0).push(second);
+        // Both logs are still buffered: they are dropped with their corrections
+        merge.getPushableInput(0).push(SyntheticLogs.removed(first));
+        merge.getPushableInput(0).push(new EthLogRetraction(second));
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(0, merge.getBufferedLogCount());
+        merge.getPushableInput(0).push(new BlockWatermark(1));
+        merge.getPushableInput(1).push(new BlockWatermark(1));
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testForcedWatermark()
+    {
+        MergeEthLogs merge = new MergeEthLogs(2, 1).setForwardWatermarks(true);
+        QueueSink sink = new QueueSink();
+        Connector.connect(merge, sink);
+        Queue<Object> queue = sink.getQueue();
+        Log log = SyntheticLogs.newLog(SyntheticLogs.CONTRACT_ADDRESS, 1, 0);
+        merge.getPushableInput(0).push(log);
+        merge.getPushableInput(0).push(SyntheticLogs.newLog(SyntheticLogs.CONTRACT_ADDRESS, 2, 0));
+        Assert.assertEquals(log, queue.remove());
+        Assert.assertEquals(new BlockWatermark(1), queue.remove());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testMergeCatchers() throws Exception
+    {
+        MockEthereumNode node = new MockEthereumNode();
+        node.startHttp();
+        for (int i = 1; i <= 20; i++)
+        {
+            List<Log> logs = new ArrayList<>();
+            logs.add(SyntheticLogs.newLog(i % 2 == 0 ? SyntheticLogs.CONTRACT_ADDRESS : OTHER_ADDRESS, i, 0));
+            logs.add(SyntheticLogs.newLog(i % 3 == 0 ? SyntheticLogs.CONTRACT_ADDRESS : OTHER_ADDRESS, i, 1));
+            node.mineBlock(logs);
+        }
+
+        CatchEthContractLogs first = CatchEthContractLogs.buildWithRPC(
+                node.getRpcUrl(), SyntheticLogs.CONTRACT_ADDRESS, true).setWatermarks(true);
+        CatchEthContractLogs second = CatchEthContractLogs.buildWithRPC(
+                node.getRpcUrl(), OTHER_ADDRESS, true).setWatermarks(true);
+        MergeEthLogs merge = new MergeEthLogs(2);
+        QueueSink sink = new QueueSink();
+        Connector.connect(first, 0, merge, 0);
+        Connector.connect(second, 0, merge, 1);
+        Connector.connect(merge, sink);
+        Queue<Object> queue = sink.getQueue();
+        first.start();
+        second.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline)
+        {
+            synchronized (merge)
+            {
+                if (queue.size() >= 40)
+                {
+                    break;
+                }
+            }
+            Thread.sleep(10);
+        }
+        first.stop();
+        second.stop();
+        node.stop();
+
+        List<Object> received;
+        synchronized (merge)
+        {
+            received = new ArrayList<>(queue);
+        }
+        Assert.assertEquals(40, received.size());
+        for (int i = 0; i < received.size(); i++)
+        {
+            Log log = (Log) received.get(i);
+            Assert.assertEquals(i / 2 + 1, log.getBlockNumber().longValue());
+            Assert.assertEquals(i % 2, log.getLogIndex().longValue());
+        }
+    }
+}
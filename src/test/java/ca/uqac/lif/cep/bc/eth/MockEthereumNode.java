@@ -0,0 +1,923 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jnr.unixsocket.UnixServerSocketChannel;
+import jnr.unixsocket.UnixSocketAddress;
+import jnr.unixsocket.UnixSocketChannel;
+import org.web3j.protocol.Web3jService;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.protocol.http.HttpService;
+import org.web3j.protocol.ipc.UnixIpcService;
+import org.web3j.utils.Numeric;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in for an Ethereum node, used for testing without geth.
+ * It keeps a chain of blocks holding {@link Log}s in memory and answers the
+ * JSON-RPC calls the catcher relies on (filters, <code>eth_getLogs</code>,
+ * <code>eth_blockNumber</code> and block lookups), over HTTP and over a Unix
+ * domain socket.
+ *
+ * Blocks are only produced when asked for, either with {@link #mineBlock(List)}
+ * or by a {@link SyntheticLogGenerator}.
+ */
+public class MockEthereumNode
+{
+    /**
+     * JSON-RPC error code used by geth when a filter does not exist
+     */
+    public static final int FILTER_NOT_FOUND = -32000;
+
+    /**
+     * JSON-RPC error code for unknown methods
+     */
+    public static final int METHOD_NOT_FOUND = -32601;
+
+    /**
+     * JSON-RPC error code for queries exceeding a limit of the node
+     */
+    public static final int LIMIT_EXCEEDED = -32005;
+
+    /**
+     * JSON-RPC error code used by geth when an <code>eth_call</code> reverts
+     */
+    public static final int EXECUTION_REVERTED = 3;
+
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    private final ObjectMapper m_mapper = new ObjectMapper();
+
+    /**
+     * The blocks of the chain, the block at index i having number i
+     */
+    private final List<MockBlock> m_blocks = new ArrayList<>();
+
+    /**
+     * The blocks before this one have had their logs pruned
+     */
+    private long m_prunedBlock = 1;
+
+    /**
+     * The installed filters, by id
+     */
+    private final Map<BigInteger, MockFilter> m_filters = new ConcurrentHashMap<>();
+
+    /**
+     * The number of calls received for each JSON-RPC method
+     */
+    private final Map<String, AtomicLong> m_callCounts = new ConcurrentHashMap<>();
+
+    /**
+     * The number of HTTP requests received, a batch counting as one request
+     */
+    private final AtomicLong m_httpRequestCount = new AtomicLong();
+
+    /**
+     * The results of <code>eth_call</code>, by contract address and call data
+     */
+    private final Map<String, String> m_callResults = new ConcurrentHashMap<>();
+
+    /**
+     * The number of the next HTTP requests answered with status 429
+     */
+    private final AtomicLong m_throttledRequests = new AtomicLong();
+
+    /**
+     * The number of the next HTTP responses to <code>eth_getLogs</code> cut in the middle
+     */
+    private final AtomicLong m_cutLogResponses = new AtomicLong();
+
+    private long m_nextFilterId = 1;
+
+    /**
+     * The number of reorganizations of the chain so far, used to give the blocks
+     * mined after a reorganization a new hash
+     */
+    private long m_forkCount = 0;
+
+    /**
+     * The maximum number of logs returned by <code>eth_getLogs</code>, as
+     * enforced by public nodes
+     */
+    private int m_maxLogsPerQuery = Integer.MAX_VALUE;
+
+    private HttpServer m_httpServer;
+
+    private ExecutorService m_httpExecutor;
+
+    private UnixServerSocketChannel m_ipcServer;
+
+    private Thread m_ipcThread;
+
+    private final List<UnixSocketChannel> m_ipcClients = Collections.synchronizedList(new ArrayList<>());
+
+    private String m_ipcPath;
+
+    /**
+     * Initializes a node whose chain only contains the genesis block
+     */
+    public MockEthereumNode()
+    {
+        super();
+        m_blocks.add(new MockBlock(0, SyntheticLogs.hash("block", 0, 0),
+                Numeric.toHexString(new byte[32]), System.currentTimeMillis() / 1000,
+                Collections.emptyList()));
+    }
+
+    /**
+     * Starts serving JSON-RPC over HTTP, on an ephemeral port of the loopback interface
+     *
+     * @throws IOException if the server could not be started
+     */
+    public synchronized void startHttp() throws IOException
+    {
+        m_httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        m_httpExecutor = Executors.newFixedThreadPool(4, r -> {
+            Thread t = new Thread(r, "mock-node-http");
+            t.setDaemon(true);
+            return t;
+        });
+        m_httpServer.setExecutor(m_httpExecutor);
+        m_httpServer.createContext("/", this::handleHttp);
+        m_httpServer.start();
+    }
+
+    /**
+     * Starts serving JSON-RPC over a Unix domain socket created in a temporary directory
+     *
+     * @throws IOException if the socket could not be created
+     */
+    public synchronized void startIpc() throws IOException
+    {
+        File dir = Files.createTempDirectory("mock-eth-node").toFile();
+        dir.deleteOnExit();
+        File socket = new File(dir, "geth.ipc");
+        socket.deleteOnExit();
+        m_ipcPath = socket.getAbsolutePath();
+        m_ipcServer = UnixServerSocketChannel.open();
+        m_ipcServer.socket().bind(new UnixSocketAddress(socket));
+        m_ipcThread = new Thread(this::acceptIpcClients, "mock-node-ipc");
+        m_ipcThread.setDaemon(true);
+        m_ipcThread.start();
+    }
+
+    /**
+     * Stops all the servers that were started
+     *
+     * @throws UncheckedIOException if the IPC socket could not be closed, so
+     *          that the test stopping the node fails
+     */
+    public synchronized void stop()
+    {
+        if (m_httpServer != null)
+        {
+            m_httpServer.stop(0);
+            m_httpExecutor.shutdownNow();
+            m_httpServer = null;
+        }
+        if (m_ipcServer != null)
+        {
+            try
+            {
+                m_ipcServer.close();
+                synchronized (m_ipcClients)
+                {
+                    for (UnixSocketChannel client : m_ipcClients)
+                    {
+                        client.close();
+                    }
+                    m_ipcClients.clear();
+                }
+                m_ipcThread.join(1000);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException("Could not close the IPC socket", e);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                new File(m_ipcPath).delete();
+                m_ipcServer = null;
+            }
+        }
+    }
+
+    /**
+     * Gets the URL at which JSON-RPC is served over HTTP
+     *
+     * @return The URL
+     */
+    public String getRpcUrl()
+    {
+        return "http://127.0.0.1:" + m_httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Gets the path of the Unix domain socket at which JSON-RPC is served
+     *
+     * @return The path
+     */
+    public String getIpcPath()
+    {
+        return m_ipcPath;
+    }
+
+    /**
+     * Builds a web3j service connected to this node
+     *
+     * @param ipc
+     *          Whether the service should use IPC (true) or HTTP (false)
+     *
+     * @return The new service
+     */
+    public Web3jService buildWeb3jService(boolean ipc)
+    {
+        return ipc ? new UnixIpcService(getIpcPath()) : new HttpService(getRpcUrl());
+    }
+
+    /**
+     * Appends a new block to the chain. The block number, block hash and
+     * log index of the given logs are overwritten.
+     *
+     * @param logs
+     *          The logs the block holds
+     *
+     * @return The number of the new block
+     */
+    public synchronized long mineBlock(List<Log> logs)
+    {
+        MockBlock parent = m_blocks.get(m_blocks.size() - 1);
+        long number = parent.m_number + 1;
+        String hash = SyntheticLogs.hash("block", number, m_forkCount);
+        List<Log> blockLogs = new ArrayList<>(logs.size());
+        for (int i = 0; i < logs.size(); i++)
+        {
+            Log l = logs.get(i);
+            blockLogs.add(new Log(false,
+                    Numeric.toHexStringWithPrefix(BigInteger.valueOf(i)),
+                    l.getTransactionIndexRaw(),
+                    l.getTransactionHash(),
+                    hash,
+                    Numeric.toHexStringWithPrefix(BigInteger.valueOf(number)),
+                    l.getAddress(),
+                    l.getData(),
+                    l.getType(),
+                    l.getTopics()));
+        }
+        m_blocks.add(new MockBlock(number, hash, parent.m_hash,
+                System.currentTimeMillis() / 1000, Collections.unmodifiableList(blockLogs)));
+        return number;
+    }
+
+    /**
+     * Removes the most recent blocks of the chain, as when the node switches to
+     * another fork. The blocks mined afterwards get new hashes. The logs of the
+     * removed blocks are returned again by the next <code>eth_getFilterChanges</code>
+     * of the filters having already returned them, with <code>removed</code> set.
+     *
+     * @param depth
+     *          The number of blocks to remove
+     */
+    public synchronized void reorg(int depth)
+    {
+        long head = getBlockNumber() - depth;
+        for (MockFilter filter : m_filters.values())
+        {
+            List<Log> removed = new ArrayList<>();
+            for (Log log : getLogs(filter, Math.max(filter.m_fromBlock, head + 1),
+                    Math.min(filter.m_toBlock, filter.m_lastPolledBlock)))
+            {
+                removed.add(new Log(true, log.getLogIndexRaw(), log.getTransactionIndexRaw(),
+                        log.getTransactionHash(), log.getBlockHash(), log.getBlockNumberRaw(),
+                        log.getAddress(), log.getData(), log.getType(), log.getTopics()));
+            }
+            filter.m_removedLogs.addAll(removed);
+            filter.m_lastPolledBlock = Math.min(filter.m_lastPolledBlock, head);
+        }
+        for (int i = 0; i < depth; i++)
+        {
+            m_blocks.remove(m_blocks.size() - 1);
+        }
+        m_forkCount++;
+    }
+
+    /**
+     * Forgets the logs of the blocks before a given block, as a pruned node
+     * does, so that a long run does not fill the heap
+     *
+     * @param before
+     *          The number of the first block whose logs are kept
+     */
+    public synchronized void pruneLogs(long before)
+    {
+        for (; m_prunedBlock < Math.min(before, m_blocks.size()); m_prunedBlock++)
+        {
+            MockBlock b = m_blocks.get((int) m_prunedBlock);
+            m_blocks.set((int) m_prunedBlock, new MockBlock(b.m_number, b.m_hash, b.m_parentHash, b.m_timestamp,
+                    Collections.emptyList()));
+        }
+    }
+
+    /**
+     * Forgets every installed filter, as a restarted node does
+     */
+    public synchronized void dropFilters()
+    {
+        m_filters.clear();
+    }
+
+    /**
+     * Gets the number of the most recent block
+     *
+     * @return The block number
+     */
+    public synchronized long getBlockNumber()
+    {
+        return m_blocks.size() - 1;
+    }
+
+    /**
+     * Gets the number of calls received for a JSON-RPC method
+     *
+     * @param method
+     *          The name of the method, e.g. <code>eth_getLogs</code>
+     *
+     * @return The number of calls
+     */
+    public long getCallCount(String method)
+    {
+        AtomicLong count = m_callCounts.get(method);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Sets the result of the <code>eth_call</code>s to a contract with some
+     * data, at any block. Calls without a result set fail as if they reverted.
+     *
+     * @param contract_address
+     *          The address of the contract
+     *
+     * @param data
+     *          The call data, i.e. the encoded function and arguments
+     *
+     * @param result
+     *          The encoded result, or null to make the calls fail
+     */
+    public void setCallResult(String contract_address, String data, String result)
+    {
+        String key = contract_address.toLowerCase() + data.toLowerCase();
+        if (result == null)
+        {
+            m_callResults.remove(key);
+        }
+        else
+        {
+            m_callResults.put(key, result);
+        }
+    }
+
+    /**
+     * Gets the number of HTTP requests received, a batch of JSON-RPC requests
+     * counting as one request
+     *
+     * @return The number of requests
+     */
+    public long getHttpRequestCount()
+    {
+        return m_httpRequestCount.get();
+    }
+
+    /**
+     * Makes the node answer the next HTTP requests with status 429 (too many
+     * requests), as a hosted endpoint over its rate limit
+     *
+     * @param count
+     *          The number of requests to throttle
+     */
+    public void throttleHttpRequests(long count)
+    {
+        m_throttledRequests.set(count);
+    }
+
+    /**
+     * Makes the node cut the next HTTP responses to <code>eth_getLogs</code> in
+     * the middle, as a connection lost while a large response is sent
+     *
+     * @param count
+     *          The number of responses to cut
+     */
+    public void cutLogResponses(long count)
+    {
+        m_cutLogResponses.set(count);
+    }
+
+    /**
+     * Sets the maximum number of logs returned by <code>eth_getLogs</code>.
+     * Larger queries are answered with an error.
+     *
+     * @param max_logs
+     *          The maximum number of logs
+     */
+    public synchronized void setMaxLogsPerQuery(int max_logs)
+    {
+        m_maxLogsPerQuery = max_logs;
+    }
+
+    /**
+     * Answers a JSON-RPC payload, which is either a single request or a batch
+     *
+     * @param payload
+     *          The parsed payload
+     *
+     * @return The response, or the array of responses for a batch
+     */
+    JsonNode handle(JsonNode payload)
+    {
+        if (payload.isArray())
+        {
+            ArrayNode responses = NODES.arrayNode();
+            for (JsonNode request : payload)
+            {
+                responses.add(handleRequest(request));
+            }
+            return responses;
+        }
+        return handleRequest(payload);
+    }
+
+    private ObjectNode handleRequest(JsonNode request)
+    {
+        String method = request.path("method").asText();
+        JsonNode params = request.path("params");
+        m_callCounts.computeIfAbsent(method, k -> new AtomicLong()).incrementAndGet();
+
+        ObjectNode response = NODES.objectNode();
+        response.put("jsonrpc", "2.0");
+        response.set("id", request.get("id"));
+        try
+        {
+            response.set("result", dispatch(method, params));
+        }
+        catch (RpcException e)
+        {
+            ObjectNode error = response.putObject("error");
+            error.put("code", e.m_code);
+            error.put("message", e.getMessage());
+        }
+        return response;
+    }
+
+    /**
+     * Computes the result of a JSON-RPC call
+     *
+     * @param method
+     *          The name of the method
+     *
+     * @param params
+     *          The parameters of the call
+     *
+     * @return The result of the call
+     *
+     * @throws RpcException if the call fails
+     */
+    protected synchronized JsonNode dispatch(String method, JsonNode params) throws RpcException
+    {
+        switch (method)
+        {
+            case "web3_clientVersion":
+                return NODES.textNode("MockEthereumNode/v1.0");
+            case "net_version":
+                return NODES.textNode("1337");
+            case "eth_blockNumber":
+                return NODES.textNode(toQuantity(getBlockNumber()));
+            case "eth_getBlockByNumber":
+            {
+                long number = parseBlock(params.path(0).asText());
+                return number < m_blocks.size() ? toJson(m_blocks.get((int) number)) : NODES.nullNode();
+            }
+            case "eth_getBlockByHash":
+            {
+                String hash = params.path(0).asText();
+                for (MockBlock block : m_blocks)
+                {
+                    if (block.m_hash.equalsIgnoreCase(hash))
+                    {
+                        return toJson(block);
+                    }
+                }
+                return NODES.nullNode();
+            }
+            case "eth_getLogs":
+            {
+                List<Log> logs = getLogs(new MockFilter(params.path(0), this));
+                if (logs.size() > m_maxLogsPerQuery)
+                {
+                    throw new RpcException(LIMIT_EXCEEDED, "query returned more than " + m_maxLogsPerQuery + " results");
+                }
+                return toJson(logs);
+            }
+            case "eth_newFilter":
+            {
+                MockFilter filter = new MockFilter(params.path(0), this);
+                filter.m_lastPolledBlock = getBlockNumber();
+                BigInteger id = BigInteger.valueOf(m_nextFilterId++);
+                m_filters.put(id, filter);
+                return NODES.textNode(Numeric.toHexStringWithPrefix(id));
+            }
+            case "eth_getFilterLogs":
+                return toJson(getLogs(getFilter(params)));
+            case "eth_getFilterChanges":
+            {
+                MockFilter filter = getFilter(params);
+                long head = getBlockNumber();
+                List<Log> changes = new ArrayList<>(filter.m_removedLogs);
+                filter.m_removedLogs.clear();
+                changes.addAll(getLogs(filter,
+                        Math.max(filter.m_fromBlock, filter.m_lastPolledBlock + 1),
+                        Math.min(filter.m_toBlock, head)));
+                filter.m_lastPolledBlock = head;
+                return toJson(changes);
+            }
+            case "eth_call":
+            {
+                JsonNode call = params.path(0);
+                String result = m_callResults.get(call.path("to").asText().toLowerCase()
+                        + call.path("data").asText().toLowerCase());
+                if (result == null)
+                {
+                    throw new RpcException(EXECUTION_REVERTED, "execution reverted");
+                }
+                return NODES.textNode(result);
+            }
+            case "eth_uninstallFilter":
+                return NODES.booleanNode(m_filters.remove(Numeric.toBigInt(params.path(0).asText())) != null);
+            default:
+                throw new RpcException(METHOD_NOT_FOUND, "the method " + method + " does not exist/is not available");
+        }
+    }
+
+    private MockFilter getFilter(JsonNode params) throws RpcException
+    {
+        MockFilter filter = m_filters.get(Numeric.toBigInt(params.path(0).asText()));
+        if (filter == null)
+        {
+            throw new RpcException(FILTER_NOT_FOUND, "filter not found");
+        }
+        return filter;
+    }
+
+    private List<Log> getLogs(MockFilter filter)
+    {
+        return getLogs(filter, filter.m_fromBlock, Math.min(filter.m_toBlock, getBlockNumber()));
+    }
+
+    private List<Log> getLogs(MockFilter filter, long from, long to)
+    {
+        List<Log> logs = new ArrayList<>();
+        for (long n = from; n <= to; n++)
+        {
+            for (Log log : m_blocks.get((int) n).m_logs)
+            {
+                if (filter.matches(log))
+                {
+                    logs.add(log);
+                }
+            }
+        }
+        return logs;
+    }
+
+    /**
+     * Parses a block parameter (a tag or a hexadecimal block number)
+     *
+     * @param block
+     *          The block parameter
+     *
+     * @return The corresponding block number
+     */
+    long parseBlock(String block)
+    {
+        switch (block)
+        {
+            case "earliest":
+                return 0;
+            case "latest":
+            case "pending":
+            case "":
+                return getBlockNumber();
+            default:
+                return Numeric.toBigInt(block).longValue();
+        }
+    }
+
+    private static String toQuantity(long value)
+    {
+        return Numeric.toHexStringWithPrefix(BigInteger.valueOf(value));
+    }
+
+    private ArrayNode toJson(List<Log> logs)
+    {
+        ArrayNode array = NODES.arrayNode();
+        for (Log log : logs)
+        {
+            ObjectNode node = array.addObject();
+            node.put("removed", log.isRemoved());
+            node.put("logIndex", log.getLogIndexRaw());
+            node.put("transactionIndex", log.getTransactionIndexRaw());
+            node.put("transactionHash", log.getTransactionHash());
+            node.put("blockHash", log.getBlockHash());
+            node.put("blockNumber", log.getBlockNumberRaw());
+            node.put("address", log.getAddress());
+            node.put("data", log.getData());
+            ArrayNode topics = node.putArray("topics");
+            for (String topic : log.getTopics())
+            {
+                topics.add(topic);
+            }
+        }
+        return array;
+    }
+
+    private ObjectNode toJson(MockBlock block)
+    {
+        ObjectNode node = NODES.objectNode();
+        node.put("number", toQuantity(block.m_number));
+        node.put("hash", block.m_hash);
+        node.put("parentHash", block.m_parentHash);
+        node.put("nonce", "0x0000000000000000");
+        node.put("sha3Uncles", Numeric.toHexString(new byte[32]));
+        node.put("logsBloom", block.m_logsBloom);
+        node.put("transactionsRoot", Numeric.toHexString(new byte[32]));
+        node.put("stateRoot", Numeric.toHexString(new byte[32]));
+        node.put("receiptsRoot", Numeric.toHexString(new byte[32]));
+        node.put("miner", Numeric.toHexString(new byte[20]));
+        node.put("difficulty", "0x1");
+        node.put("totalDifficulty", toQuantity(block.m_number + 1));
+        node.put("extraData", "0x");
+        node.put("size", "0x200");
+        node.put("gasLimit", "0x7a1200");
+        node.put("gasUsed", toQuantity(block.m_logs.size() * 21000L));
+        node.put("timestamp", toQuantity(block.m_timestamp));
+        node.putArray("transactions");
+        node.putArray("uncles");
+        return node;
+    }
+
+    private void handleHttp(HttpExchange exchange) throws IOException
+    {
+        m_httpRequestCount.incrementAndGet();
+        byte[] response;
+        try (InputStream in = exchange.getRequestBody())
+        {
+            if (m_throttledRequests.getAndUpdate(n -> Math.max(0, n - 1)) > 0)
+            {
+                exchange.sendResponseHeaders(429, -1);
+                exchange.close();
+                return;
+            }
+            JsonNode payload = m_mapper.readTree(in);
+            response = m_mapper.writeValueAsBytes(handle(payload));
+            if ("eth_getLogs".equals(payload.path("method").asText())
+                    && m_cutLogResponses.getAndUpdate(n -> Math.max(0, n - 1)) > 0)
+            {
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream out = exchange.getResponseBody())
+                {
+                    out.write(response, 0, response.length / 2);
+                }
+                return;
+            }
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(response);
+        }
+    }
+
+    private void acceptIpcClients()
+    {
+        while (m_ipcServer != null && m_ipcServer.isOpen())
+        {
+            try
+            {
+                UnixSocketChannel client = m_ipcServer.accept();
+                if (client == null)
+                {
+                    continue;
+                }
+                m_ipcClients.add(client);
+                Thread t = new Thread(() -> serveIpcClient(client), "mock-node-ipc-client");
+                t.setDaemon(true);
+                t.start();
+            }
+            catch (IOException e)
+            {
+                // The server socket was closed
+                return;
+            }
+        }
+    }
+
+    private void serveIpcClient(UnixSocketChannel client)
+    {
+        try (InputStream in = Channels.newInputStream(client);
+             OutputStream out = Channels.newOutputStream(client))
+        {
+            MappingIterator<JsonNode> requests = m_mapper.readerFor(JsonNode.class).readValues(in);
+            while (requests.hasNextValue())
+            {
+                byte[] response = m_mapper.writeValueAsBytes(handle(requests.nextValue()));
+                synchronized (client)
+                {
+                    out.write(response);
+                    out.write('\n');
+                    out.flush();
+                }
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // The client disconnected
+        }
+        finally
+        {
+            m_ipcClients.remove(client);
+        }
+    }
+
+    /**
+     * A block of the mock chain
+     */
+    static class MockBlock
+    {
+        /**
+         * The bloom of the blocks without logs
+         */
+        private static final String EMPTY_BLOOM = HexUtils.toHex(new byte[LogsBloom.SIZE]);
+
+        final long m_number;
+
+        final String m_hash;
+
+        final String m_parentHash;
+
+        final long m_timestamp;
+
+        final List<Log> m_logs;
+
+        /**
+         * The bloom of the addresses and topics of the logs
+         */
+        final String m_logsBloom;
+
+        MockBlock(long number, String hash, String parent_hash, long timestamp, List<Log> logs)
+        {
+            m_number = number;
+            m_hash = hash;
+            m_parentHash = parent_hash;
+            m_timestamp = timestamp;
+            m_logs = logs;
+            byte[] bloom = new byte[LogsBloom.SIZE];
+            for (Log log : logs)
+            {
+                LogsBloom.add(bloom, log);
+            }
+            m_logsBloom = logs.isEmpty() ? EMPTY_BLOOM : HexUtils.toHex(bloom);
+        }
+    }
+
+    /**
+     * The criteria of a log filter, as sent with <code>eth_newFilter</code>
+     * or <code>eth_getLogs</code>
+     */
+    static class MockFilter
+    {
+        final long m_fromBlock;
+
+        final long m_toBlock;
+
+        /**
+         * The accepted addresses (lower case), empty to accept any address
+         */
+        final List<String> m_addresses = new ArrayList<>();
+
+        /**
+         * For each topic position, the accepted topics (lower case), or null to accept any topic
+         */
+        final List<List<String>> m_topics = new ArrayList<>();
+
+        long m_lastPolledBlock;
+
+        /**
+         * The logs removed by a reorganization, not returned yet
+         */
+        final List<Log> m_removedLogs = new ArrayList<>();
+
+        MockFilter(JsonNode filter, MockEthereumNode node)
+        {
+            String to = filter.path("toBlock").asText("latest");
+            m_fromBlock = node.parseBlock(filter.path("fromBlock").asText("latest"));
+            m_toBlock = "latest".equals(to) || "pending".equals(to) ? Long.MAX_VALUE : node.parseBlock(to);
+            JsonNode address = filter.path("address");
+            if (address.isArray())
+            {
+                for (JsonNode a : address)
+                {
+                    m_addresses.add(a.asText().toLowerCase());
+                }
+            }
+            else if (address.isTextual())
+            {
+                m_addresses.add(address.asText().toLowerCase());
+            }
+            for (JsonNode topic : filter.path("topics"))
+            {
+                if (topic.isNull())
+                {
+                    m_topics.add(null);
+                }
+                else if (topic.isArray())
+                {
+                    List<String> alternatives = new ArrayList<>();
+                    for (JsonNode t : topic)
+                    {
+                        alternatives.add(t.asText().toLowerCase());
+                    }
+                    m_topics.add(alternatives);
+                }
+                else
+                {
+                    m_topics.add(Collections.singletonList(topic.asText().toLowerCase()));
+                }
+            }
+        }
+
+        boolean matches(Log log)
+        {
+            if (!m_addresses.isEmpty() && !m_addresses.contains(log.getAddress().toLowerCase()))
+            {
+                return false;
+            }
+            List<String> topics = log.getTopics();
+            for (int i = 0; i < m_topics.size(); i++)
+            {
+                List<String> accepted = m_topics.get(i);
+                if (accepted == null)
+                {
+                    continue;
+                }
+                if (i >= topics.size() || !accepted.contains(topics.get(i).toLowerCase()))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Signals a JSON-RPC call that ends with an error
+     */
+    static class RpcException extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int m_code;
+
+        RpcException(int code, String message)
+        {
+            super(message);
+            m_code = code;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.functions.ApplyFunction;
+import ca.uqac.lif.cep.tmf.Tank;
+import org.apache.commons.lang3.SystemUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.abi.EventEncoder;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.DynamicArray;
+import org.web3j.abi.datatypes.DynamicBytes;
+import org.web3j.abi.datatypes.Utf8String;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Numeric;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the {@link CatchEthContractLogs} processor against a {@link MockEthereumNode},
+ * so that no geth installation is needed.
+ */
+public class MockEthereumNodeTest
+{
+    private MockEthereumNode m_node;
+
+    private SyntheticLogGenerator m_generator;
+
+    @Before
+    public void startNode() throws IOException
+    {
+        m_node = new MockEthereumNode();
+        m_node.startHttp();
+        if (SystemUtils.IS_OS_UNIX)
+        {
+            m_node.startIpc();
+        }
+        m_generator = new SyntheticLogGenerator(m_node, SyntheticLogs.Shape.LONG_STRING,
+                SyntheticLogs.CONTRACT_ADDRESS, 100, 100);
+    }
+
+    @After
+    public void stopNode() throws InterruptedException
+    {
+        m_generator.stop();
+        m_node.stop();
+    }
+
+    @Test
+    public void testGetLogs() throws IOException
+    {
+        m_generator.mineBlock(3);
+        m_node.mineBlock(Collections.singletonList(SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 0)));
+        m_generator.mineBlock(2);
+
+        Web3j web3j = Web3j.build(m_node.buildWeb3jService(false));
+        Assert.assertEquals(BigInteger.valueOf(3), web3j.ethBlockNumber().send().getBlockNumber());
+
+        EthFilter filter = new EthFilter(DefaultBlockParameterName.EARLIEST,
+                DefaultBlockParameterName.LATEST, SyntheticLogs.CONTRACT_ADDRESS);
+        filter.addSingleTopic(EventEncoder.encode(SyntheticLogs.INSTRUCTOR_EVENT));
+        EthLog ethLog = web3j.ethGetLogs(filter).send();
+        Assert.assertEquals(5, ethLog.getLogs().size());
+        web3j.shutdown();
+    }
+
+    @Test
+    public void testCatchViaRPC() throws Exception
+    {
+        testCatch(false);
+    }
+
+    @Test
+    public void testCatchViaIPC() throws Exception
+    {
+        Assume.assumeTrue(SystemUtils.IS_OS_UNIX);
+        testCatch(true);
+    }
+
+    @Test
+    public void testGapAfterFilterLoss() throws Exception
+    {
+        m_generator.mineBlock(2);
+        CatchEthContractLogs catcher =
+                CatchEthContractLogs.buildWithRPC(m_node.getRpcUrl(), SyntheticLogs.CONTRACT_ADDRESS, true);
+        Tank tank = new Tank();
+        Connector.connect(catcher, tank);
+        catcher.start();
+        Pullable pullable = tank.getPullableOutput(0);
+        List<Log> logs = new ArrayList<>();
+        SyntheticLogs.waitFor(pullable, logs, 2);
+        while (m_node.getCallCount("eth_getFilterChanges") == 0)
+        {
+            Thread.sleep(10);
+        }
+
+        // The node restarts and three blocks are mined before the next poll
+        synchronized (m_node)
+        {
+            m_node.dropFilters();
+            m_generator.mineBlock(1);
+            m_generator.mineBlock(1);
+            m_generator.mineBlock(1);
+        }
+        SyntheticLogs.waitFor(pullable, logs, 5);
+        m_generator.mineBlock(1);
+        SyntheticLogs.waitFor(pullable, logs, 6);
+        catcher.stop();
+
+        Assert.assertEquals(1, catcher.getGapCount());
+        Assert.assertEquals(3, catcher.getRefetchedBlockCount());
+        // The lost filter is uninstalled in case the node still had it, then the new one on stop
+        Assert.assertEquals(2, m_node.getCallCount("eth_uninstallFilter"));
+        Assert.assertEquals(m_node.getBlockNumber(), catcher.getCoveredBlock());
+        for (int i = 1; i < logs.size(); i++)
+        {
+            Assert.assertTrue(logs.get(i).getBlockNumber().compareTo(logs.get(i - 1).getBlockNumber()) >= 0);
+        }
+        Thread.sleep(2 * CatchEthContractLogs.POLLING_INTERVAL);
+        Assert.assertNull(pullable.pullSoft());
+    }
+
+    @Test
+    public void testRefetchCutPartway() throws Exception
+    {
+        m_generator.mineBlock(1);
+        CatchEthContractLogs catcher =
+                CatchEthContractLogs.buildWithRPC(m_node.getRpcUrl(), SyntheticLogs.CONTRACT_ADDRESS, true);
+        Tank tank = new Tank();
+        Connector.connect(catcher, tank);
+        catcher.start();
+        Pullable pullable = tank.getPullableOutput(0);
+        List<Log> logs = new ArrayList<>();
+        SyntheticLogs.waitFor(pullable, logs, 1);
+        while (m_node.getCallCount("eth_getFilterChanges") == 0)
+        {
+            Thread.sleep(10);
+        }
+
+        // The filter is lost, and the refetch of the gap is cut after a few logs
+        synchronized (m_node)
+        {
+            m_node.dropFilters();
+            m_node.cutLogResponses(1);
+            m_generator.mineBlock(3);
+            m_generator.mineBlock(3);
+            m_generator.mineBlock(3);
+        }
+        SyntheticLogs.waitFor(pullable, logs, 10);
+        Thread.sleep(2 * CatchEthContractLogs.POLLING_INTERVAL);
+        catcher.stop();
+
+        Assert.assertEquals(2, catcher.getGapCount());
+        Assert.assertNull(pullable.pullSoft());
+        List<String> pushed = new ArrayList<>();
+        for (Log log : logs)
+        {
+            String id = log.getTransactionHash() + log.getLogIndexRaw();
+            Assert.assertFalse(pushed.contains(id));
+            pushed.add(id);
+        }
+    }
+
+    @Test
+    public void testDynamicTopics()
+    {
+        // Indexed strings, byte arrays and arrays are hashed into their topic
+        Assert.assertEquals(Hash.sha3String("Alice"), CatchEthContractLogs.toTopic(new Utf8String("Alice")));
+        Assert.assertEquals(Hash.sha3("0x0102"), CatchEthContractLogs.toTopic(new DynamicBytes(new byte[] {1, 2})));
+        String one = Numeric.toHexStringNoPrefixZeroPadded(BigInteger.ONE, 64);
+        String two = Numeric.toHexStringNoPrefixZeroPadded(BigInteger.valueOf(2), 64);
+        Assert.assertEquals(Hash.sha3("0x" + one + two), CatchEthContractLogs.toTopic(
+                new DynamicArray<>(new Uint256(1), new Uint256(2))));
+        // The strings of an array are padded
+        Assert.assertEquals(Hash.sha3("0x61" + Numeric.toHexStringNoPrefixZeroPadded(BigInteger.ZERO, 62)),
+                CatchEthContractLogs.toTopic(new DynamicArray<>(new Utf8String("a"))));
+        Assert.assertEquals("0x" + two, CatchEthContractLogs.toTopic(new Uint256(2)));
+    }
+
+    @Test
+    public void testTopicFilters() throws Exception
+    {
+        mineMixedBlock(0);
+        mineMixedBlock(1);
+        CatchEthContractLogs byEvent = CatchEthContractLogs.buildWithRPC(
+                m_node.getRpcUrl(), SyntheticLogs.CONTRACT_ADDRESS, true)
+                .setEvents(SyntheticLogs.getEvent(SyntheticLogs.Shape.INDEXED));
+        CatchEthContractLogs byArgument = CatchEthContractLogs.buildWithRPC(
+                m_node.getRpcUrl(), SyntheticLogs.CONTRACT_ADDRESS, true)
+                .setTopics(2, CatchEthContractLogs.toTopic(new Address(BigInteger.valueOf(2))))
+                .setBloomScan(true);
+        Tank byEventTank = new Tank();
+        Tank byArgumentTank = new Tank();
+        Connector.connect(byEvent, byEventTank);
+        Connector.connect(byArgument, byArgumentTank);
+        byEvent.start();
+        byArgument.start();
+        List<Log> byEventLogs = new ArrayList<>();
+        List<Log> byArgumentLogs = new ArrayList<>();
+        SyntheticLogs.waitFor(byEventTank.getPullableOutput(0), byEventLogs, 2);
+        SyntheticLogs.waitFor(byArgumentTank.getPullableOutput(0), byArgumentLogs, 1);
+        while (m_node.getCallCount("eth_getFilterChanges") < 2)
+        {
+            Thread.sleep(10);
+        }
+        mineMixedBlock(2);
+        SyntheticLogs.waitFor(byEventTank.getPullableOutput(0), byEventLogs, 3);
+        Thread.sleep(2 * CatchEthContractLogs.POLLING_INTERVAL);
+        byEvent.stop();
+        byArgument.stop();
+
+        String topic0 = EventEncoder.encode(SyntheticLogs.getEvent(SyntheticLogs.Shape.INDEXED));
+        for (Log log : byEventLogs)
+        {
+            Assert.assertEquals(topic0, log.getTopics().get(0));
+        }
+        // Only the log of block 2 has the address 2 as its second indexed parameter
+        Assert.assertEquals(BigInteger.valueOf(2), byArgumentLogs.get(0).getBlockNumber());
+        Assert.assertNull(byEventTank.getPullableOutput(0).pullSoft());
+        Assert.assertNull(byArgumentTank.getPullableOutput(0).pullSoft());
+    }
+
+    @Test
+    public void testAddAndRemoveAddresses() throws Exception
+    {
+        String other = "0x00000000000000000000000000000000000000b2";
+        mineTwoContractBlock(other);
+        CatchEthContractLogs catcher = CatchEthContractLogs.buildWithRPC(
+                m_node.getRpcUrl(), SyntheticLogs.CONTRACT_ADDRESS, true);
+        Tank tank = new Tank();
+        Connector.connect(catcher, tank);
+        catcher.start();
+        List<Log> logs = new ArrayList<>();
+        SyntheticLogs.waitFor(tank.getPullableOutput(0), logs, 1);
+        waitForCalls("eth_newFilter", 1);
+
+        catcher.addAddress(other);
+        waitForCalls("eth_newFilter", 2);
+        mineTwoContractBlock(other);
+        SyntheticLogs.waitFor(tank.getPullableOutput(0), logs, 3);
+
+        catcher.removeAddress(SyntheticLogs.CONTRACT_ADDRESS.toUpperCase().replace("0X", "0x"));
+        Assert.assertEquals(Collections.singletonList(other), catcher.getAddresses());
+        waitForCalls("eth_newFilter", 3);
+        mineTwoContractBlock(other);
+        SyntheticLogs.waitFor(tank.getPullableOutput(0), logs, 4);
+        Thread.sleep(2 * CatchEthContractLogs.POLLING_INTERVAL);
+        catcher.stop();
+
+        // The log of the other contract in block 1, covered before it was added, is not pushed
+        Assert.assertEquals(SyntheticLogs.CONTRACT_ADDRESS, logs.get(0).getAddress());
+        Assert.assertEquals(BigInteger.ONE, logs.get(0).getBlockNumber());
+        Assert.assertEquals(BigInteger.valueOf(2), logs.get(1).getBlockNumber());
+        Assert.assertEquals(BigInteger.valueOf(2), logs.get(2).getBlockNumber());
+        Assert.assertEquals(other, logs.get(3).getAddress());
+        Assert.assertEquals(BigInteger.valueOf(3), logs.get(3).getBlockNumber());
+        Assert.assertNull(tank.getPullableOutput(0).pullSoft());
+        Assert.assertEquals(0, catcher.getGapCount());
+        try
+        {
+            catcher.removeAddress(other);
+            Assert.fail("A catcher cannot be left without address");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testStartAfterStop()
+    {
+        CatchEthContractLogs catcher = CatchEthContractLogs.buildWithRPC(
+                m_node.getRpcUrl(), SyntheticLogs.CONTRACT_ADDRESS, false);
+        catcher.start();
+        catcher.stop();
+        catcher.start();
+    }
+
+    @Test
+    public void testStopJoinsThread() throws Exception
+    {
+        m_generator.mineBlock(1);
+        for (int i = 0; i < 5; i++)
+        {
+            CatchEthContractLogs catcher = CatchEthContractLogs.buildWithRPC(
+                    m_node.getRpcUrl(), SyntheticLogs.CONTRACT_ADDRESS, i % 2 == 0);
+            Tank tank = new Tank();
+            Connector.connect(catcher, tank);
+            catcher.start();
+            if (i < 3)
+            {
+                long deadline = System.currentTimeMillis() + 10000;
+                while (catcher.isBackfilling() && System.currentTimeMillis() < deadline)
+                {
+                    Thread.sleep(10);
+                }
+            }
+            // The last catchers are stopped before they could even start
+            catcher.stop();
+            Assert.assertEquals(0, CatchEthContractLogsSoakTest.countCatcherThreads());
+            Assert.assertFalse(catcher.isCatching());
+            while (tank.getPullableOutput(0).pullSoft() != null)
+            {
+                // drain the logs pushed before the stop
+            }
+            m_generator.mineBlock(1);
+            Thread.sleep(2 * CatchEthContractLogs.POLLING_INTERVAL);
+            Assert.assertNull(tank.getPullableOutput(0).pullSoft());
+        }
+    }
+
+    /**
+     * Mines a block holding a log of the synthetic contract and a log of another contract
+     *
+     * @param other
+     *          The address of the other contract
+     */
+    private void mineTwoContractBlock(String other)
+    {
+        Log log = SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 0);
+        Log otherLog = SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 1);
+        otherLog.setAddress(other);
+        m_node.mineBlock(Arrays.asList(log, otherLog));
+    }
+
+    private void waitForCalls(String method, long count) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (m_node.getCallCount(method) < count && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(count, m_node.getCallCount(method));
+    }
+
+    /**
+     * Mines a block holding a log of each shape
+     *
+     * @param index
+     *          The index used to vary the values of the logs
+     */
+    private void mineMixedBlock(long index)
+    {
+        List<Log> logs = new ArrayList<>();
+        for (SyntheticLogs.Shape shape : SyntheticLogs.Shape.values())
+        {
+            logs.add(SyntheticLogs.newLog(SyntheticLogs.getEvent(shape), SyntheticLogs.getValues(shape, index),
+                    SyntheticLogs.CONTRACT_ADDRESS, 0, index, 0));
+        }
+        m_node.mineBlock(logs);
+    }
+
+    private void testCatch(boolean ipc) throws Exception
+    {
+        m_generator.mineBlock(5);
+
+        CatchEthContractLogs catcher = ipc ?
+                CatchEthContractLogs.buildWithIPC(m_node.getIpcPath(), SyntheticLogs.CONTRACT_ADDRESS, true) :
+                CatchEthContractLogs.buildWithRPC(m_node.getRpcUrl(), SyntheticLogs.CONTRACT_ADDRESS, true);
+        ApplyFunction getEventParameters =
+                new ApplyFunction(new GetEthEventParameters(SyntheticLogs.INSTRUCTOR_EVENT));
+        Tank tank = new Tank();
+        Connector.connect(catcher, getEventParameters, tank);
+        catcher.start();
+
+        m_generator.start();
+        Pullable pullable = tank.getPullableOutput(0);
+        long counter = 0;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (counter < 20 && System.currentTimeMillis() < deadline)
+        {
+            Object o = pullable.pullSoft();
+            if (o == null)
+            {
+                Thread.sleep(10);
+                continue;
+            }
+            Object[] expected = new Object[]{
+                    SyntheticLogs.getValues(SyntheticLogs.Shape.LONG_STRING, counter).get(0).getValue(),
+                    BigInteger.valueOf(counter)};
+            Assert.assertArrayEquals(expected, (Object[]) o);
+            counter++;
+        }
+        catcher.stop();
+        Assert.assertEquals(20, counter);
+    }
+}
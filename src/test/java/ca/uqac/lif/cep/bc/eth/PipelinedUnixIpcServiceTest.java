@@ -0,0 +1,175 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.apache.commons.lang3.SystemUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.protocol.core.methods.response.EthBlockNumber;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Tests the {@link PipelinedUnixIpcService} against a {@link MockEthereumNode}.
+ */
+public class PipelinedUnixIpcServiceTest
+{
+    private MockEthereumNode m_node;
+
+    @Before
+    public void startNode() throws IOException
+    {
+        Assume.assumeTrue(SystemUtils.IS_OS_UNIX);
+        m_node = new MockEthereumNode();
+        m_node.startIpc();
+        for (int i = 0; i < 10; i++)
+        {
+            m_node.mineBlock(new ArrayList<>());
+        }
+    }
+
+    @After
+    public void stopNode()
+    {
+        if (m_node != null)
+        {
+            m_node.stop();
+        }
+    }
+
+    @Test
+    public void testRequestsInFlight() throws Exception
+    {
+        PipelinedUnixIpcService service = new PipelinedUnixIpcService(m_node.getIpcPath());
+        Web3j web3j = Web3j.build(service);
+        List<CompletableFuture<EthBlock>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+        {
+            futures.add(web3j.ethGetBlockByNumber(
+                    DefaultBlockParameter.valueOf(BigInteger.valueOf(i % 11)), false).sendAsync());
+        }
+        for (int i = 0; i < futures.size(); i++)
+        {
+            Assert.assertEquals(BigInteger.valueOf(i % 11), futures.get(i).get().getBlock().getNumber());
+        }
+        Assert.assertEquals(BigInteger.TEN, web3j.ethBlockNumber().send().getBlockNumber());
+        web3j.shutdown();
+    }
+
+    @Test
+    public void testConcurrentSenders() throws Exception
+    {
+        PipelinedUnixIpcService service = new PipelinedUnixIpcService(m_node.getIpcPath());
+        Web3j web3j = Web3j.build(service);
+        List<Throwable> errors = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++)
+        {
+            Thread thread = new Thread(() -> {
+                try
+                {
+                    for (int i = 0; i < 50; i++)
+                    {
+                        EthBlockNumber number = web3j.ethBlockNumber().send();
+                        Assert.assertEquals(BigInteger.TEN, number.getBlockNumber());
+                    }
+                }
+                catch (Throwable e)
+                {
+                    synchronized (errors)
+                    {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        web3j.shutdown();
+    }
+
+    @Test
+    public void testConnectionLost() throws Exception
+    {
+        PipelinedUnixIpcService service = new PipelinedUnixIpcService(m_node.getIpcPath());
+        Web3j web3j = Web3j.build(service);
+        Assert.assertEquals(BigInteger.TEN, web3j.ethBlockNumber().send().getBlockNumber());
+        m_node.stop();
+        try
+        {
+            web3j.ethBlockNumber().send();
+            Assert.fail("The node is stopped");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        m_node = null;
+        web3j.shutdown();
+    }
+
+    @Test
+    public void testSplitMessages()
+    {
+        PipelinedUnixIpcService.MessageSplitter splitter = new PipelinedUnixIpcService.MessageSplitter();
+        String first = "{\"id\":1,\"result\":\"a}\\\"{\"}";
+        String second = "[{\"id\":2},{\"id\":3}]";
+        byte[] bytes = (first + "\n" + second + "\n").getBytes(StandardCharsets.UTF_8);
+        List<byte[]> messages = new ArrayList<>();
+        // One byte at a time, as if each read returned a single byte
+        for (byte b : bytes)
+        {
+            messages.addAll(splitter.split(ByteBuffer.wrap(new byte[]{b})));
+        }
+        Assert.assertEquals(2, messages.size());
+        Assert.assertEquals(first, new String(messages.get(0), StandardCharsets.UTF_8));
+        Assert.assertEquals(second, new String(messages.get(1), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLargeMessage()
+    {
+        PipelinedUnixIpcService.MessageSplitter splitter = new PipelinedUnixIpcService.MessageSplitter();
+        char[] chars = new char[4 * PipelinedUnixIpcService.BUFFER_SIZE];
+        Arrays.fill(chars, 'a');
+        String large = "{\"id\":1,\"result\":\"" + new String(chars) + "\"}";
+        List<byte[]> messages = splitter.split(ByteBuffer.wrap(large.getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(1, messages.size());
+        Assert.assertEquals(large.length(), messages.get(0).length);
+        // The memory of the large message is released once it is complete
+        Assert.assertEquals(PipelinedUnixIpcService.BUFFER_SIZE, splitter.getCapacity());
+    }
+
+    @Test
+    public void testMalformedId() throws IOException
+    {
+        JsonFactory factory = new JsonFactory();
+        Assert.assertEquals(7, PipelinedUnixIpcService.findId(factory.createParser("{\"id\":\"7\"}")));
+        try
+        {
+            PipelinedUnixIpcService.findId(factory.createParser("{\"id\":\"abc\"}"));
+            Assert.fail("The id is not a number");
+        }
+        catch (IOException e)
+        {
+            // handled as a malformed response, without stopping the reader thread
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.tmf.Tank;
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.Utf8String;
+import org.web3j.abi.datatypes.generated.Uint256;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the {@link PollEthContractState} processor against a {@link MockEthereumNode}.
+ */
+public class PollEthContractStateTest
+{
+    /**
+     * The address of a second contract, whose calls revert
+     */
+    private static final String OTHER_ADDRESS = "0x1111111111111111111111111111111111111111";
+
+    /**
+     * The <code>getInstructor()</code> function of {@link Coursetro}
+     */
+    private static Function getInstructor()
+    {
+        return new Function(Coursetro.FUNC_GETINSTRUCTOR, Collections.emptyList(),
+                Arrays.asList(new TypeReference<Utf8String>() {}, new TypeReference<Uint256>() {}));
+    }
+
+    private static String encodeInstructor(String name, long age)
+    {
+        List<Type> values = Arrays.asList(new Utf8String(name), new Uint256(age));
+        return "0x" + FunctionEncoder.encodeConstructor(values);
+    }
+
+    @Test
+    public void testOnlyChanges() throws Exception
+    {
+        MockEthereumNode node = new MockEthereumNode();
+        node.startHttp();
+        String data = FunctionEncoder.encode(getInstructor());
+        node.setCallResult(SyntheticLogs.CONTRACT_ADDRESS, data, encodeInstructor("Alice", 30));
+        node.mineBlock(Collections.emptyList());
+
+        PollEthContractState poll = PollEthContractState.buildWithRPC(node.getRpcUrl())
+                .watch(SyntheticLogs.CONTRACT_ADDRESS, getInstructor())
+                .watch(OTHER_ADDRESS, getInstructor());
+        Tank tank = new Tank();
+        Connector.connect(poll, tank);
+        poll.start();
+        Pullable pullable = tank.getPullableOutput(0);
+        List<ContractStateChange> changes = new ArrayList<>();
+        SyntheticLogs.waitFor(pullable, changes, 1);
+
+        // New blocks without a new value: nothing is pushed
+        node.mineBlock(Collections.emptyList());
+        long block = node.mineBlock(Collections.emptyList());
+        while (poll.getLastBlock() < block)
+        {
+            Thread.sleep(10);
+        }
+        node.setCallResult(SyntheticLogs.CONTRACT_ADDRESS, data, encodeInstructor("Bob", 40));
+        node.mineBlock(Collections.emptyList());
+        SyntheticLogs.waitFor(pullable, changes, 2);
+        poll.stop();
+        long requests = node.getHttpRequestCount();
+        long calls = node.getCallCount("eth_call");
+        long polledBlocks = calls / 2;
+        node.stop();
+
+        Assert.assertEquals(SyntheticLogs.CONTRACT_ADDRESS, changes.get(0).getContractAddress());
+        Assert.assertArrayEquals(new Object[]{"Alice", BigInteger.valueOf(30)}, changes.get(0).getValues());
+        Assert.assertArrayEquals(new Object[]{"Bob", BigInteger.valueOf(40)}, changes.get(1).getValues());
+        Assert.assertEquals(4, changes.get(1).getBlockNumber());
+        Assert.assertNull(pullable.pullSoft());
+        // Both contracts are called at each block, in a single batch
+        Assert.assertEquals(0, calls % 2);
+        Assert.assertEquals(calls, poll.getCallCount());
+        Assert.assertTrue(polledBlocks >= 3 && polledBlocks <= 4);
+        Assert.assertTrue(requests <= node.getCallCount("eth_blockNumber") + polledBlocks);
+    }
+}
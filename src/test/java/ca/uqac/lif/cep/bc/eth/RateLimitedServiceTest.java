@@ -0,0 +1,160 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.tmf.Tank;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.http.HttpService;
+
+import java.io.IOException;
+import java.math.BigInteger;
+
+/**
+ * Tests the {@link RequestBudget} and the {@link RateLimitedService}.
+ */
+public class RateLimitedServiceTest
+{
+    private MockEthereumNode m_node;
+
+    @Before
+    public void startNode() throws IOException
+    {
+        m_node = new MockEthereumNode();
+        m_node.startHttp();
+    }
+
+    @After
+    public void stopNode()
+    {
+        m_node.stop();
+    }
+
+    @Test
+    public void testAdaptiveConcurrency() throws Exception
+    {
+        RequestBudget budget = new RequestBudget(1000, 1000, 8);
+        Assert.assertEquals(1, budget.getConcurrencyLimit());
+        for (int i = 0; i < 100; i++)
+        {
+            budget.acquire(1);
+            budget.release(1000000, false);
+        }
+        Assert.assertEquals(8, budget.getConcurrencyLimit());
+        Assert.assertEquals(0, budget.getInFlightCount());
+
+        // A response much slower than the others
+        budget.acquire(1);
+        budget.release(10000000, false);
+        Assert.assertEquals(6, budget.getConcurrencyLimit());
+        Thread.sleep(10);
+        // An error
+        budget.acquire(1);
+        budget.release(-1, true);
+        Assert.assertEquals(3, budget.getConcurrencyLimit());
+        Assert.assertEquals(2, budget.getBackoffCount());
+    }
+
+    @Test
+    public void testBatchLatency() throws Exception
+    {
+        RequestBudget budget = new RequestBudget(100000, 100000, 8);
+        for (int i = 0; i < 100; i++)
+        {
+            budget.acquire(1);
+            budget.release(1000000, false);
+            // A batch takes longer than a single request without the node being loaded
+            budget.acquire(20);
+            budget.release(10000000, 20, false);
+        }
+        Assert.assertEquals(8, budget.getConcurrencyLimit());
+        Assert.assertEquals(0, budget.getBackoffCount());
+
+        // A batch much slower than the other batches
+        budget.acquire(20);
+        budget.release(50000000, 20, false);
+        Assert.assertEquals(6, budget.getConcurrencyLimit());
+        Assert.assertEquals(1, budget.getBackoffCount());
+    }
+
+    @Test
+    public void testRate() throws Exception
+    {
+        RequestBudget budget = new RequestBudget(20, 5, 4);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 25; i++)
+        {
+            budget.acquire(1);
+            budget.release(0, false);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        // The first 5 requests use the burst, the next 20 come at 20 per second
+        Assert.assertTrue("Took " + elapsed + " ms", elapsed >= 900);
+        Assert.assertEquals(20, budget.getDelayedCount());
+
+        // A batch larger than the bucket waits for a full bucket
+        budget.acquire(8);
+        budget.release(0, false);
+        start = System.currentTimeMillis();
+        budget.acquire(1);
+        budget.release(0, false);
+        Assert.assertTrue(System.currentTimeMillis() - start >= 150);
+    }
+
+    @Test
+    public void testThrottledRequests() throws Exception
+    {
+        RequestBudget budget = new RequestBudget(1000, 10, 4);
+        Web3j web3j = Web3j.build(new RateLimitedService(new HttpService(m_node.getRpcUrl()), budget));
+        m_node.throttleHttpRequests(2);
+        Assert.assertEquals(BigInteger.ZERO, web3j.ethBlockNumber().send().getBlockNumber());
+        Assert.assertEquals(3, m_node.getHttpRequestCount());
+        Assert.assertTrue(budget.getBackoffCount() > 0);
+
+        m_node.throttleHttpRequests(RateLimitedService.MAX_ATTEMPTS);
+        try
+        {
+            web3j.ethBlockNumber().send();
+            Assert.fail("The request should have been given up");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        web3j.shutdown();
+    }
+
+    @Test
+    public void testSharedBudget() throws Exception
+    {
+        SyntheticLogGenerator generator = new SyntheticLogGenerator(m_node, SyntheticLogs.Shape.STATIC,
+                SyntheticLogs.CONTRACT_ADDRESS, 100, 100);
+        generator.mineBlock(2);
+        RequestBudget budget = new RequestBudget(50, 10, 4);
+        CatchEthContractLogs first = CatchEthContractLogs.buildWithRPC(m_node.getRpcUrl(),
+                SyntheticLogs.CONTRACT_ADDRESS, true, budget);
+        CatchEthContractLogs second = CatchEthContractLogs.buildWithRPC(m_node.getRpcUrl(),
+                SyntheticLogs.CONTRACT_ADDRESS, true, budget);
+        Tank firstTank = new Tank();
+        Tank secondTank = new Tank();
+        Connector.connect(first, firstTank);
+        Connector.connect(second, secondTank);
+        first.start();
+        second.start();
+        SyntheticLogs.waitFor(firstTank.getPullableOutput(0), 2);
+        SyntheticLogs.waitFor(secondTank.getPullableOutput(0), 2);
+
+        // The catchers go on once the node stops throttling them
+        m_node.throttleHttpRequests(3);
+        generator.mineBlock(1);
+        SyntheticLogs.waitFor(firstTank.getPullableOutput(0), 1);
+        SyntheticLogs.waitFor(secondTank.getPullableOutput(0), 1);
+        first.stop();
+        second.stop();
+        generator.stop();
+        Assert.assertTrue(budget.getBackoffCount() > 0);
+    }
+}
@@ -0,0 +1,158 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.tmf.Tank;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the {@link RecordEthLogs} and {@link ReplayEthLogs} processors.
+ */
+public class RecordEthLogsTest
+{
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    @Test
+    public void testCodec()
+    {
+        Log log = SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, 42);
+        log.setRemoved(true);
+        log.setType("mined");
+        ByteBuffer buffer = EthLogCodec.encodeRecord(log, 1234, ByteBuffer.allocate(16));
+        Assert.assertTrue(EthLogCodec.hasRecord(buffer));
+        Assert.assertEquals(1234, EthLogCodec.peekTimestamp(buffer));
+        Assert.assertEquals(log, EthLogCodec.decodeRecord(buffer));
+        Assert.assertFalse(buffer.hasRemaining());
+
+        Log empty = new Log();
+        empty.setData("0x");
+        buffer = EthLogCodec.encodeRecord(empty, 0, buffer);
+        Assert.assertEquals(empty, EthLogCodec.decodeRecord(buffer));
+    }
+
+    @Test
+    public void testRecordAndReplay() throws IOException, InterruptedException
+    {
+        File file = m_folder.newFile("logs.bin");
+        List<Log> logs = new ArrayList<>();
+        for (SyntheticLogs.Shape shape : SyntheticLogs.Shape.values())
+        {
+            for (int i = 0; i < 100; i++)
+            {
+                logs.add(SyntheticLogs.newLog(shape, i));
+            }
+        }
+
+        record(file, logs.subList(0, 150));
+        // Appending to an existing file
+        record(file, logs.subList(150, logs.size()));
+
+        ReplayEthLogs replay = new ReplayEthLogs(file.getPath());
+        Tank tank = new Tank();
+        Connector.connect(replay, tank);
+        replay.start();
+        replay.waitUntilDone();
+
+        Assert.assertEquals(logs.size(), replay.getReplayCount());
+        Pullable pullable = tank.getPullableOutput(0);
+        for (Log expected : logs)
+        {
+            Assert.assertEquals(expected, pullable.pull());
+        }
+    }
+
+    @Test
+    public void testReplayAtOriginalPace() throws IOException, InterruptedException
+    {
+        File file = m_folder.newFile("paced.bin");
+        RecordEthLogs recorder = new RecordEthLogs(file);
+        Pushable input = recorder.getPushableInput(0);
+        Connector.connect(recorder, new Tank());
+        input.push(SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 0));
+        Thread.sleep(300);
+        input.push(SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 1));
+        recorder.stop();
+
+        ReplayEthLogs replay = new ReplayEthLogs(file, true);
+        Connector.connect(replay, new Tank());
+        long start = System.currentTimeMillis();
+        replay.start();
+        replay.waitUntilDone();
+        Assert.assertEquals(2, replay.getReplayCount());
+        Assert.assertTrue(System.currentTimeMillis() - start >= 250);
+    }
+
+    @Test
+    public void testAppendAfterCrash() throws IOException, InterruptedException
+    {
+        File file = m_folder.newFile("crashed.bin");
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+        {
+            logs.add(SyntheticLogs.newLog(SyntheticLogs.Shape.LONG_STRING, i));
+        }
+        record(file, logs.subList(0, 10));
+        // A crash in the middle of the write of the next record
+        long size = file.length();
+        record(file, logs.subList(10, 11));
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw"))
+        {
+            f.setLength(size + (f.length() - size) / 2);
+        }
+        record(file, logs.subList(11, 20));
+
+        ReplayEthLogs replay = new ReplayEthLogs(file.getPath());
+        Tank tank = new Tank();
+        Connector.connect(replay, tank);
+        replay.start();
+        replay.waitUntilDone();
+        Assert.assertEquals(19, replay.getReplayCount());
+        Pullable pullable = tank.getPullableOutput(0);
+        for (Log expected : logs)
+        {
+            if (expected != logs.get(10))
+            {
+                Assert.assertEquals(expected, pullable.pull());
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotALogFile() throws IOException
+    {
+        File file = m_folder.newFile("other.txt");
+        Files.write(file.toPath(), Arrays.asList("hello", "world"));
+        new RecordEthLogs(file);
+    }
+
+    private static void record(File file, List<Log> logs) throws IOException
+    {
+        RecordEthLogs recorder = new RecordEthLogs(file);
+        Tank tank = new Tank();
+        Connector.connect(recorder, tank);
+        Pushable pushable = recorder.getPushableInput(0);
+        for (Log log : logs)
+        {
+            pushable.push(log);
+        }
+        recorder.stop();
+        Assert.assertEquals(logs.size(), recorder.getRecordCount());
+        // Logs are passed through
+        Assert.assertEquals(logs.get(0), tank.getPullableOutput(0).pull());
+    }
+}
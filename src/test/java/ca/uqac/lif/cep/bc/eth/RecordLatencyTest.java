@@ -0,0 +1,164 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.functions.ApplyFunction;
+import ca.uqac.lif.cep.tmf.Tank;
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the {@link LatencyHistogram} and the tracing of logs from a
+ * {@link CatchEthContractLogs} to a {@link RecordLatency}.
+ */
+public class RecordLatencyTest
+{
+    @Test
+    public void testHistogram()
+    {
+        LatencyHistogram h = new LatencyHistogram();
+        Assert.assertEquals(0, h.getValueAtPercentile(50));
+        for (long v = 1; v <= 100000; v++)
+        {
+            h.record(v);
+        }
+        Assert.assertEquals(100000, h.getCount());
+        Assert.assertEquals(1, h.getMin());
+        Assert.assertEquals(100000, h.getMax());
+        Assert.assertEquals(50000.5, h.getMean(), 0.001);
+        assertNear(50000, h.getValueAtPercentile(50));
+        assertNear(99000, h.getValueAtPercentile(99));
+        assertNear(99900, h.getValueAtPercentile(99.9));
+        Assert.assertEquals(100000, h.getValueAtPercentile(100));
+        Assert.assertEquals(100, h.copy().getValueAtPercentile(0.1));
+
+        LatencyHistogram other = new LatencyHistogram();
+        other.record(Long.MAX_VALUE);
+        h.add(other);
+        Assert.assertEquals(100001, h.getCount());
+        Assert.assertEquals(Long.MAX_VALUE, h.getValueAtPercentile(100));
+        h.reset();
+        Assert.assertEquals(0, h.getCount());
+        Assert.assertEquals(0, h.getMax());
+    }
+
+    @Test
+    public void testUntraced()
+    {
+        RecordLatency record = new RecordLatency();
+        record.getPushableInput(0).push(SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 0));
+        record.getPushableInput(0).push(new Object[] {1, 2});
+        Assert.assertEquals(2, record.getUntracedCount());
+        Assert.assertTrue(record.getHistograms().isEmpty());
+
+        // The trace is carried over to the values and stamped, the log keeping its own
+        Log log = SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 0);
+        TracedLog traced = new TracedLog(log, new LatencyTrace().stamp(LatencyTrace.RECEIVED));
+        Object[] values = new GetEthEventParameters(SyntheticLogs.getEvent(SyntheticLogs.Shape.STATIC))
+                .getValue(traced);
+        Assert.assertEquals(1, traced.getTrace().size());
+        Assert.assertEquals(2, LatencyTrace.of(values).size());
+        Assert.assertEquals(LatencyTrace.DECODED, LatencyTrace.of(values).getStage(1));
+        // Arrays are told apart by identity, not by content
+        Assert.assertNull(LatencyTrace.of(values.clone()));
+        Assert.assertEquals(log, traced);
+    }
+
+    @Test
+    public void testTracedPipeline() throws Exception
+    {
+        MockEthereumNode node = new MockEthereumNode();
+        node.startHttp();
+        SyntheticLogGenerator generator = new SyntheticLogGenerator(node, SyntheticLogs.Shape.LONG_STRING,
+                SyntheticLogs.CONTRACT_ADDRESS, 100, 100);
+        try
+        {
+            generator.mineBlock(3);
+            CatchEthContractLogs catcher = CatchEthContractLogs.buildWithRPC(node.getRpcUrl(),
+                    SyntheticLogs.CONTRACT_ADDRESS, true).setTracing(true);
+            ApplyFunction decode = new ApplyFunction(
+                    new GetEthEventParameters(SyntheticLogs.getEvent(SyntheticLogs.Shape.LONG_STRING)));
+            RecordLatency record = new RecordLatency();
+            Connector.connect(catcher, decode, record);
+            catcher.start();
+            generator.mineBlock(2);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (record.getHistogram(RecordLatency.TOTAL).getCount() < 5 && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(10);
+            }
+            catcher.stop();
+
+            Map<String, LatencyHistogram> histograms = record.getHistograms();
+            Assert.assertEquals(new HashSet<>(Arrays.asList(LatencyTrace.RECEIVED, LatencyTrace.PUSHED,
+                    LatencyTrace.DECODED, LatencyTrace.DELIVERED, RecordLatency.TOTAL)), histograms.keySet());
+            for (String stage : Arrays.asList(LatencyTrace.PUSHED, LatencyTrace.DECODED,
+                    LatencyTrace.DELIVERED, RecordLatency.TOTAL))
+            {
+                Assert.assertEquals(5, histograms.get(stage).getCount());
+            }
+            // Only the logs whose block time was known when they were pushed have a block stage
+            long received = histograms.get(LatencyTrace.RECEIVED).getCount();
+            Assert.assertTrue(received >= 1 && received <= 5);
+            Assert.assertEquals(0, record.getUntracedCount());
+            // The mock node gives blocks the time they were mined, to the second
+            Assert.assertTrue(histograms.get(RecordLatency.TOTAL).getMax() < 20000000);
+            Assert.assertFalse(record.getReport().isEmpty());
+        }
+        finally
+        {
+            generator.stop();
+            node.stop();
+        }
+    }
+
+    @Test
+    public void testStampsOfResponse() throws Exception
+    {
+        MockEthereumNode node = new MockEthereumNode();
+        node.startHttp();
+        SyntheticLogGenerator generator = new SyntheticLogGenerator(node, SyntheticLogs.Shape.STATIC,
+                SyntheticLogs.CONTRACT_ADDRESS, 1, 1000);
+        try
+        {
+            generator.mineBlock(2);
+            generator.mineBlock(1);
+            CatchEthContractLogs catcher = CatchEthContractLogs.buildWithRPC(node.getRpcUrl(),
+                    SyntheticLogs.CONTRACT_ADDRESS, true).setTracing(true);
+            Tank tank = new Tank();
+            Connector.connect(catcher, tank);
+            catcher.start();
+            List<Object> logs = SyntheticLogs.waitFor(tank.getPullableOutput(0), 3);
+            catcher.stop();
+
+            // The past logs come in a single response, received once
+            long received = LatencyTrace.of(logs.get(0)).getTime(LatencyTrace.RECEIVED);
+            for (Object log : logs)
+            {
+                Assert.assertEquals(received, LatencyTrace.of(log).getTime(LatencyTrace.RECEIVED));
+            }
+            // The time of the head is known from its header, the others were not asked for first
+            TracedLog last = (TracedLog) logs.get(2);
+            Assert.assertEquals(node.getBlockNumber(), last.getBlockNumberValue());
+            Assert.assertEquals(LatencyTrace.BLOCK, last.getTrace().getStage(0));
+            Assert.assertEquals(-1, LatencyTrace.of(logs.get(0)).getTime(LatencyTrace.BLOCK));
+            Assert.assertEquals(0, node.getCallCount("eth_blockNumber"));
+        }
+        finally
+        {
+            generator.stop();
+            node.stop();
+        }
+    }
+
+    private static void assertNear(long expected, long actual)
+    {
+        Assert.assertTrue("Expected about " + expected + ", got " + actual,
+                Math.abs(actual - expected) <= expected / 64 + 1);
+    }
+}
@@ -0,0 +1,160 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.tmf.QueueSink;
+import ca.uqac.lif.cep.tmf.Sink;
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Tests the {@link RouteEthLogs} processor.
+ */
+public class RouteEthLogsTest
+{
+    @Test
+    public void testLanes()
+    {
+        RouteEthLogs byEvent = new RouteEthLogs(4);
+        RouteEthLogs byHolder = new RouteEthLogs(4).setKeyTopic(1);
+        Set<Integer> lanes = new HashSet<>();
+        for (int holder = 0; holder < 20; holder++)
+        {
+            Log log = SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, holder, 1, holder);
+            int lane = byHolder.getLane(log);
+            lanes.add(lane);
+            Assert.assertEquals(lane, byHolder.getLane(
+                    SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, holder, 1, 100 + holder)));
+            Assert.assertEquals(lane, byHolder.getLane(CompactLog.of(log)));
+            Assert.assertEquals(byEvent.getLane(log), byEvent.getLane(CompactLog.of(log)));
+        }
+        Assert.assertTrue(lanes.size() > 1);
+
+        // A log without the key topic is routed by its event
+        Log unkeyed = SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 0, 1, 0);
+        Assert.assertEquals(byEvent.getLane(unkeyed), byHolder.getLane(unkeyed));
+    }
+
+    @Test
+    public void testOrderPerKey() throws InterruptedException
+    {
+        int laneCount = 3;
+        RouteEthLogs router = new RouteEthLogs(laneCount, 4).setKeyTopic(1);
+        QueueSink[] sinks = new QueueSink[laneCount];
+        for (int i = 0; i < laneCount; i++)
+        {
+            sinks[i] = new QueueSink();
+            Connector.connect(router, i, sinks[i], 0);
+        }
+        router.start();
+        Pushable pushable = router.getPushableInput(0);
+        for (int i = 0; i < 1000; i++)
+        {
+            pushable.push(SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, i % 7, 1, i));
+        }
+        pushable.push(new BlockWatermark(1));
+        router.stop();
+        Assert.assertFalse(router.isRunning());
+
+        int total = 0;
+        for (int i = 0; i < laneCount; i++)
+        {
+            Queue<Object> queue = sinks[i].getQueue();
+            Assert.assertEquals(router.getRoutedCount(i), queue.size());
+            Assert.assertEquals(0, router.getQueuedCount(i));
+            Map<Long, Long> lastIndex = new HashMap<>();
+            Object o;
+            while ((o = queue.poll()) != null)
+            {
+                if (o instanceof BlockWatermark)
+                {
+                    // The watermark comes after all the logs of the lane
+                    Assert.assertTrue(queue.isEmpty());
+                    continue;
+                }
+                Log log = (Log) o;
+                Assert.assertEquals(i, router.getLane(log));
+                long holder = Long.parseLong(log.getTopics().get(1).substring(2), 16);
+                long index = log.getLogIndex().longValue();
+                Assert.assertTrue(lastIndex.getOrDefault(holder, -1L) < index);
+                lastIndex.put(holder, index);
+                total++;
+            }
+        }
+        Assert.assertEquals(1000, total);
+    }
+
+    @Test(timeout = 10000)
+    public void testFailedLane()
+    {
+        checkFailedLane(new IllegalStateException("broken chain"));
+    }
+
+    @Test(timeout = 10000)
+    public void testLaneError()
+    {
+        checkFailedLane(new AssertionError("broken chain"));
+    }
+
+    /**
+     * Checks that a lane whose chain throws dies alone, without blocking the input
+     *
+     * @param failure
+     *          The exception or error thrown by the chain of the first lane
+     */
+    private static void checkFailedLane(Throwable failure)
+    {
+        RouteEthLogs router = new RouteEthLogs(2, 2).setKeyTopic(1);
+        Sink failing = new Sink(1)
+        {
+            @Override
+            protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+            {
+                if (failure instanceof Error)
+                {
+                    throw (Error) failure;
+                }
+                throw (RuntimeException) failure;
+            }
+
+            @Override
+            public Processor duplicate(boolean with_state)
+            {
+                return this;
+            }
+        };
+        QueueSink sink = new QueueSink();
+        Connector.connect(router, 0, failing, 0);
+        Connector.connect(router, 1, sink, 0);
+        router.start();
+        Pushable pushable = router.getPushableInput(0);
+        int[] counts = new int[2];
+        for (int i = 0; i < 200; i++)
+        {
+            Log log = SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, i % 7, 1, i);
+            counts[router.getLane(log)]++;
+            // The input never waits for the dead lane
+            pushable.push(log);
+        }
+        router.stop();
+
+        Assert.assertTrue(counts[0] > 0);
+        Assert.assertSame(failure, router.getFailure(0));
+        Assert.assertEquals(counts[0] - 1, router.getDroppedCount(0));
+        Assert.assertNull(router.getFailure(1));
+        Assert.assertEquals(0, router.getDroppedCount(1));
+        Assert.assertEquals(counts[1], sink.getQueue().size());
+
+        router.reset();
+        Assert.assertNull(router.getFailure(0));
+        Assert.assertEquals(0, router.getDroppedCount(0));
+    }
+}
@@ -0,0 +1,218 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.tmf.Tank;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Tests the {@link ShardEthContracts} processor and the {@link ConsistentHashRing}.
+ */
+public class ShardEthContractsTest
+{
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private MockEthereumNode m_node;
+
+    private final List<String> m_contracts = new ArrayList<>();
+
+    @Before
+    public void startNode() throws IOException
+    {
+        m_node = new MockEthereumNode();
+        m_node.startHttp();
+        for (int i = 0; i < 8; i++)
+        {
+            m_contracts.add(String.format("0x%040x", 0xc0 + i));
+        }
+    }
+
+    @After
+    public void stopNode()
+    {
+        m_node.stop();
+    }
+
+    @Test
+    public void testRing()
+    {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+        {
+            keys.add("key" + i);
+        }
+        ConsistentHashRing ring = new ConsistentHashRing().add("a").add("b").add("c");
+        Map<String, List<String>> before = ring.assign(keys);
+        for (List<String> assigned : before.values())
+        {
+            Assert.assertTrue(assigned.size() > 200);
+        }
+        ring.remove("b");
+        Assert.assertEquals(Arrays.asList("a", "c"), new ArrayList<>(ring.getWorkers()));
+        for (String key : keys)
+        {
+            String worker = ring.get(key);
+            if (!before.get("b").contains(key))
+            {
+                // Only the keys of the worker leaving move
+                Assert.assertTrue(before.get(worker).contains(key));
+            }
+        }
+        ring.add("b");
+        Assert.assertEquals(before, ring.assign(keys));
+        Assert.assertNull(new ConsistentHashRing().get("key0"));
+    }
+
+    @Test
+    public void testRebalance() throws Exception
+    {
+        mineBlock();
+        File directory = m_folder.newFolder();
+        ShardEthContracts a = newWorker(directory, "a");
+        ShardEthContracts b = newWorker(directory, "b");
+        Tank tankA = new Tank();
+        Tank tankB = new Tank();
+        Connector.connect(a, tankA);
+        Connector.connect(b, tankB);
+        a.start();
+        b.start();
+        waitUntil(() -> a.getGroup().size() == 2 && b.getGroup().size() == 2
+                && a.getContracts().size() + b.getContracts().size() == m_contracts.size());
+        Set<String> contractsOfB = b.getContracts();
+        Set<String> all = new HashSet<>(a.getContracts());
+        all.addAll(contractsOfB);
+        Assert.assertEquals(new HashSet<>(m_contracts), all);
+        Assert.assertFalse(contractsOfB.isEmpty());
+        Assert.assertFalse(a.getContracts().isEmpty());
+
+        waitForBlock(tankA.getPullableOutput(0), 1, a.getContracts());
+        waitForBlock(tankB.getPullableOutput(0), 1, contractsOfB);
+
+        // b leaves: a takes over its contracts from their checkpoints
+        long rebalances = a.getRebalanceCount();
+        b.stop();
+        Assert.assertTrue(b.getContracts().isEmpty());
+        while (tankB.getPullableOutput(0).pullSoft() != null)
+        {
+            // drain the logs of the contracts b had before the group settled
+        }
+        for (String contract : contractsOfB)
+        {
+            Assert.assertTrue(b.getCheckpoint(contract) >= 1);
+        }
+        waitUntil(() -> a.getContracts().size() == m_contracts.size());
+        Assert.assertEquals(rebalances + 1, a.getRebalanceCount());
+        mineBlock();
+        waitForBlock(tankA.getPullableOutput(0), 2, new HashSet<>(m_contracts));
+        a.stop();
+        Assert.assertNull(tankB.getPullableOutput(0).pullSoft());
+    }
+
+    @Test
+    public void testCorruptHeartbeat() throws Exception
+    {
+        File directory = m_folder.newFolder();
+        ShardEthContracts a = newWorker(directory, "a");
+        File members = new File(directory, "members");
+        Assert.assertTrue(members.isDirectory() || members.mkdirs());
+        File corrupt = new File(members, "z");
+        Files.write(corrupt.toPath(), "not a time".getBytes(StandardCharsets.UTF_8));
+        a.start();
+        waitUntil(() -> a.getContracts().size() == m_contracts.size());
+        Assert.assertEquals(Collections.singleton("a"), new HashSet<>(a.getGroup()));
+
+        // The heartbeat survived: the member is seen once its file is valid again
+        Files.write(corrupt.toPath(), Long.toString(System.currentTimeMillis() + 60000)
+                .getBytes(StandardCharsets.UTF_8));
+        waitUntil(() -> a.getGroup().size() == 2);
+        a.stop();
+    }
+
+    private ShardEthContracts newWorker(File directory, String id) throws IOException
+    {
+        return new ShardEthContracts(directory, id, m_contracts,
+                address -> CatchEthContractLogs.buildWithRPC(m_node.getRpcUrl(), address, true))
+                .setHeartbeat(100, 1000);
+    }
+
+    /**
+     * Mines a block holding a log of each contract
+     */
+    private void mineBlock()
+    {
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < m_contracts.size(); i++)
+        {
+            Log log = SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, i);
+            log.setAddress(m_contracts.get(i));
+            logs.add(log);
+        }
+        m_node.mineBlock(logs);
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+
+    /**
+     * Waits until the logs of a block have been received for some contracts.
+     * Logs of earlier blocks, and of other contracts the worker had before
+     * the group settled, may be received as well.
+     *
+     * @param pullable
+     *          The pullable receiving the logs
+     *
+     * @param block
+     *          The block number
+     *
+     * @param contracts
+     *          The addresses of the contracts
+     */
+    private static void waitForBlock(Pullable pullable, int block, Set<String> contracts) throws InterruptedException
+    {
+        Set<String> caught = new HashSet<>();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!caught.containsAll(contracts) && System.currentTimeMillis() < deadline)
+        {
+            Object o = pullable.pullSoft();
+            if (o == null)
+            {
+                Thread.sleep(10);
+                continue;
+            }
+            Log log = (Log) o;
+            Assert.assertTrue(log.getBlockNumber().intValue() <= block);
+            if (log.getBlockNumber().intValue() == block)
+            {
+                caught.add(log.getAddress());
+            }
+        }
+        Assert.assertTrue(caught.containsAll(contracts));
+    }
+}
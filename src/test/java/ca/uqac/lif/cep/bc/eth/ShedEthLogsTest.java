@@ -0,0 +1,166 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.tmf.QueueSink;
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.abi.EventEncoder;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests the {@link ShedEthLogs} processor and the {@link ShedPolicies}.
+ */
+public class ShedEthLogsTest
+{
+    private static final String STATIC_TOPIC =
+            EventEncoder.encode(SyntheticLogs.getEvent(SyntheticLogs.Shape.STATIC));
+
+    private static final String INDEXED_TOPIC =
+            EventEncoder.encode(SyntheticLogs.getEvent(SyntheticLogs.Shape.INDEXED));
+
+    @Test
+    public void testKeepTopics()
+    {
+        AtomicLong head = new AtomicLong(10);
+        ShedEthLogs shed = new ShedEthLogs(new ShedPolicies.KeepTopics(INDEXED_TOPIC))
+                .setBlockLag(head::get, 50);
+        QueueSink sink = new QueueSink();
+        Connector.connect(shed, sink);
+        Queue<Object> queue = sink.getQueue();
+        Pushable pushable = shed.getPushableInput(0);
+
+        Log kept = SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 0, 1, 0);
+        pushable.push(kept);
+        Assert.assertEquals(kept, queue.remove());
+        Assert.assertFalse(shed.isShedding());
+
+        // The upstream catcher is now far ahead
+        head.set(100);
+        pushable.push(SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 0, 2, 0));
+        Assert.assertTrue(shed.isShedding());
+        Assert.assertTrue(queue.isEmpty());
+        Log indexed = SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, 1, 2, 1);
+        pushable.push(indexed);
+        Assert.assertEquals(indexed, queue.remove());
+        pushable.push(SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 2, 2, 2));
+        Assert.assertTrue(queue.isEmpty());
+
+        // The report of block 2 comes with the first log of block 3
+        pushable.push(SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 0, 3, 0));
+        Map<String, Long> counts = new HashMap<>();
+        counts.put(STATIC_TOPIC, 2L);
+        Assert.assertEquals(new ShedReport(2, counts), queue.remove());
+        Assert.assertTrue(queue.isEmpty());
+
+        // Still past half the threshold
+        head.set(40);
+        pushable.push(SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 1, 3, 1));
+        Assert.assertTrue(queue.isEmpty());
+        head.set(20);
+        Log caughtUp = SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 2, 3, 2);
+        pushable.push(caughtUp);
+        Assert.assertFalse(shed.isShedding());
+        Assert.assertEquals(caughtUp, queue.remove());
+        pushable.push(new BlockWatermark(3));
+        Assert.assertEquals(2L, ((ShedReport) queue.remove()).getCount(STATIC_TOPIC));
+        Assert.assertEquals(new BlockWatermark(3), queue.remove());
+        Assert.assertEquals(4, shed.getShedCount());
+        Assert.assertEquals(1, shed.getOverloadCount());
+    }
+
+    @Test
+    public void testSample()
+    {
+        ShedEthLogs shed = new ShedEthLogs(new ShedPolicies.Sample(3).setRate(INDEXED_TOPIC, 1))
+                .setQueueDepth(() -> 1000, 10);
+        QueueSink sink = new QueueSink();
+        Connector.connect(shed, sink);
+        Queue<Object> queue = sink.getQueue();
+        Pushable pushable = shed.getPushableInput(0);
+        for (int i = 0; i < 9; i++)
+        {
+            pushable.push(SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, i, 1, i));
+            pushable.push(SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, 100 + i, 1, 100 + i));
+        }
+        pushable.push(new BlockWatermark(1));
+        int staticLogs = 0;
+        int indexedLogs = 0;
+        ShedReport report = null;
+        for (Object o : queue)
+        {
+            if (o instanceof ShedReport)
+            {
+                report = (ShedReport) o;
+            }
+            else if (o instanceof Log)
+            {
+                String topic0 = ((Log) o).getTopics().get(0);
+                staticLogs += topic0.equals(STATIC_TOPIC) ? 1 : 0;
+                indexedLogs += topic0.equals(INDEXED_TOPIC) ? 1 : 0;
+            }
+        }
+        Assert.assertEquals(3, staticLogs);
+        Assert.assertEquals(9, indexedLogs);
+        Assert.assertNotNull(report);
+        Assert.assertEquals(6, report.getTotal());
+    }
+
+    @Test
+    public void testSummarizeBlocks()
+    {
+        AtomicLong depth = new AtomicLong(100);
+        ShedEthLogs shed = new ShedEthLogs(new ShedPolicies.SummarizeBlocks()).setQueueDepth(depth::get, 10);
+        QueueSink sink = new QueueSink();
+        Connector.connect(shed, sink);
+        Queue<Object> queue = sink.getQueue();
+        Pushable pushable = shed.getPushableInput(0);
+        pushable.push(SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 0, 1, 0));
+        pushable.push(SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, 1, 1, 1));
+        pushable.push(SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, 2, 1, 2));
+        Log removed = SyntheticLogs.removed(SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 0, 0, 0));
+        pushable.push(removed);
+        Assert.assertEquals(removed, queue.remove());
+        depth.set(0);
+        pushable.push(new BlockWatermark(1));
+        ShedReport report = (ShedReport) queue.remove();
+        Assert.assertEquals(1, report.getBlockNumber());
+        Assert.assertEquals(1, report.getCount(STATIC_TOPIC));
+        Assert.assertEquals(2, report.getCount(INDEXED_TOPIC.toUpperCase().replace("0X", "0x")));
+        Assert.assertEquals(new BlockWatermark(1), queue.remove());
+        Log log = SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 0, 2, 0);
+        pushable.push(log);
+        Assert.assertEquals(log, queue.remove());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testCorrectionsOfShedLogs()
+    {
+        ShedEthLogs shed = new ShedEthLogs(new ShedPolicies.KeepTopics(INDEXED_TOPIC)).setQueueDepth(() -> 100, 10);
+        QueueSink sink = new QueueSink();
+        Connector.connect(shed, sink);
+        Queue<Object> queue = sink.getQueue();
+        Pushable pushable = shed.getPushableInput(0);
+        Log dropped = SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 0, 1, 0);
+        Log kept = SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, 1, 1, 1);
+        Log alsoDropped = SyntheticLogs.newLog(SyntheticLogs.Shape.STATIC, 2, 1, 2);
+        pushable.push(dropped);
+        pushable.push(kept);
+        pushable.push(alsoDropped);
+        Assert.assertEquals(kept, queue.remove());
+
+        // Downstream never saw the shed log: its corrections are dropped too
+        pushable.push(SyntheticLogs.removed(dropped));
+        pushable.push(new EthLogRetraction(alsoDropped));
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(2, shed.getShedCorrectionCount());
+        pushable.push(SyntheticLogs.removed(kept));
+        Assert.assertEquals(SyntheticLogs.removed(kept), queue.remove());
+    }
+}
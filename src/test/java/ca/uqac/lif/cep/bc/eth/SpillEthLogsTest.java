@@ -0,0 +1,128 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.tmf.Tank;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the {@link SpillEthLogs} processor.
+ */
+public class SpillEthLogsTest
+{
+    /**
+     * A small segment size, so that the logs span several segments
+     */
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    @Test
+    public void testSpillAndDrain() throws IOException, InterruptedException
+    {
+        File directory = m_folder.newFolder("spill");
+        SpillEthLogs spill = new SpillEthLogs(directory, SEGMENT_SIZE);
+        List<Object> expected = new ArrayList<>();
+        Pushable input = spill.getPushableInput(0);
+        for (int i = 0; i < 300; i++)
+        {
+            Log log = SyntheticLogs.newLog(SyntheticLogs.Shape.values()[i % SyntheticLogs.Shape.values().length], i);
+            input.push(log);
+            expected.add(log);
+            if (i % 10 == 9)
+            {
+                input.push(new BlockWatermark(i));
+                expected.add(new BlockWatermark(i));
+            }
+        }
+        Assert.assertEquals(expected.size(), spill.getSpillCount());
+        Assert.assertTrue(spill.getBacklogSize() > SEGMENT_SIZE);
+        Assert.assertTrue(countSegments(directory) > 2);
+
+        Tank tank = new Tank();
+        Connector.connect(spill, tank);
+        spill.start();
+        List<Object> received = SyntheticLogs.waitFor(tank.getPullableOutput(0), expected.size());
+        spill.stop();
+        Assert.assertEquals(expected, received);
+        Assert.assertEquals(0, spill.getBacklogSize());
+        // Drained segments are deleted
+        Assert.assertEquals(1, countSegments(directory));
+    }
+
+    @Test
+    public void testResume() throws IOException, InterruptedException
+    {
+        File directory = m_folder.newFolder("spill");
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+        {
+            logs.add(SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, i));
+        }
+        SpillEthLogs spill = new SpillEthLogs(directory, SEGMENT_SIZE);
+        Tank tank = new Tank();
+        Connector.connect(spill, tank);
+        spill.start();
+        for (Log log : logs.subList(0, 100))
+        {
+            spill.getPushableInput(0).push(log);
+        }
+        Assert.assertEquals(logs.subList(0, 100), SyntheticLogs.waitFor(tank.getPullableOutput(0), 100));
+        spill.stop();
+        // Logs keep being spilled while nothing drains them
+        for (Log log : logs.subList(100, 200))
+        {
+            spill.getPushableInput(0).push(log);
+        }
+
+        SpillEthLogs reopened = new SpillEthLogs(directory, SEGMENT_SIZE);
+        Assert.assertTrue(reopened.getBacklogSize() > 0);
+        tank = new Tank();
+        Connector.connect(reopened, tank);
+        reopened.start();
+        Assert.assertEquals(logs.subList(100, 200), SyntheticLogs.waitFor(tank.getPullableOutput(0), 100));
+        reopened.stop();
+        Assert.assertEquals(100, reopened.getDrainCount());
+
+        // Nothing is left to drain
+        SpillEthLogs empty = new SpillEthLogs(directory, SEGMENT_SIZE);
+        Assert.assertEquals(0, empty.getBacklogSize());
+    }
+
+    @Test
+    public void testRetraction() throws IOException, InterruptedException
+    {
+        SpillEthLogs spill = new SpillEthLogs(m_folder.newFolder("spill"), SEGMENT_SIZE);
+        Log log = SyntheticLogs.newLog(SyntheticLogs.Shape.INDEXED, 1);
+        log.setRemoved(true);
+        spill.getPushableInput(0).push(new EthLogRetraction(log));
+        spill.getPushableInput(0).notifyEndOfTrace();
+        Tank tank = new Tank();
+        Connector.connect(spill, tank);
+        spill.start();
+        Assert.assertEquals(log, SyntheticLogs.waitFor(tank.getPullableOutput(0), 1).get(0));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (spill.isDraining() && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        // The thread stops once the end of the trace is reached
+        Assert.assertFalse(spill.isDraining());
+    }
+
+    private static int countSegments(File directory)
+    {
+        return directory.list((dir, name) -> name.startsWith("segment-")).length;
+    }
+}
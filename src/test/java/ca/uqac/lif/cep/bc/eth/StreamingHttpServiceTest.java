@@ -0,0 +1,99 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.tmf.Tank;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the {@link StreamingHttpService} against a {@link MockEthereumNode}.
+ */
+public class StreamingHttpServiceTest
+{
+    private MockEthereumNode m_node;
+
+    @Before
+    public void startNode() throws IOException
+    {
+        m_node = new MockEthereumNode();
+        m_node.startHttp();
+        SyntheticLogGenerator generator = new SyntheticLogGenerator(m_node, SyntheticLogs.Shape.INDEXED,
+                SyntheticLogs.CONTRACT_ADDRESS, 1, 1000);
+        for (int i = 0; i < 50; i++)
+        {
+            generator.mineBlock(4);
+        }
+    }
+
+    @After
+    public void stopNode()
+    {
+        m_node.stop();
+    }
+
+    @Test
+    public void testStreamLogs() throws IOException
+    {
+        EthFilter filter = new EthFilter(DefaultBlockParameterName.EARLIEST,
+                DefaultBlockParameterName.LATEST, SyntheticLogs.CONTRACT_ADDRESS);
+        StreamingHttpService service = new StreamingHttpService(m_node.getRpcUrl());
+        List<Log> streamed = new ArrayList<>();
+        Assert.assertEquals(200, service.streamLogs(filter, streamed::add));
+
+        Web3j web3j = Web3j.build(service);
+        List<Log> expected = new ArrayList<>();
+        for (EthLog.LogResult result : web3j.ethGetLogs(filter).send().getLogs())
+        {
+            expected.add((Log) result.get());
+        }
+        Assert.assertEquals(expected, streamed);
+        web3j.shutdown();
+    }
+
+    @Test(expected = IOException.class)
+    public void testError() throws IOException
+    {
+        m_node.setMaxLogsPerQuery(100);
+        EthFilter filter = new EthFilter(DefaultBlockParameterName.EARLIEST,
+                DefaultBlockParameterName.LATEST, SyntheticLogs.CONTRACT_ADDRESS);
+        new StreamingHttpService(m_node.getRpcUrl()).streamLogs(filter, log -> {});
+    }
+
+    @Test
+    public void testCatchFromFirstBlock() throws InterruptedException
+    {
+        CatchEthContractLogs catcher = CatchEthContractLogs.buildWithRPC(
+                m_node.getRpcUrl(), SyntheticLogs.CONTRACT_ADDRESS, true);
+        Tank tank = new Tank();
+        Connector.connect(catcher, tank);
+        catcher.start();
+        Pullable pullable = tank.getPullableOutput(0);
+        int count = 0;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (count < 200 && System.currentTimeMillis() < deadline)
+        {
+            if (pullable.pullSoft() == null)
+            {
+                Thread.sleep(10);
+                continue;
+            }
+            count++;
+        }
+        catcher.stop();
+        Assert.assertEquals(200, count);
+        // The past logs are read with a single call, not through the filter
+        Assert.assertEquals(1, m_node.getCallCount("eth_getLogs"));
+    }
+}
@@ -0,0 +1,142 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mines blocks on a {@link MockEthereumNode} at a fixed block interval, so that
+ * the node produces a configurable number of events per second. Each event is a
+ * {@link Log} of some {@link SyntheticLogs.Shape} with valid ABI-encoded data.
+ */
+public class SyntheticLogGenerator implements Runnable
+{
+    private final MockEthereumNode m_node;
+
+    private final SyntheticLogs.Shape m_shape;
+
+    private final String m_address;
+
+    private final double m_eventsPerSecond;
+
+    private final long m_blockInterval;
+
+    private volatile boolean m_run;
+
+    private Thread m_thread;
+
+    /**
+     * The number of logs generated so far
+     */
+    private volatile long m_logCount;
+
+    /**
+     * Initializes a generator
+     *
+     * @param node
+     *          The node on which blocks are mined
+     *
+     * @param shape
+     *          The shape of the generated events
+     *
+     * @param address
+     *          The address of the contract emitting the events
+     *
+     * @param events_per_second
+     *          The number of events to produce per second
+     *
+     * @param block_interval
+     *          The interval (in milliseconds) between two blocks
+     */
+    public SyntheticLogGenerator(MockEthereumNode node, SyntheticLogs.Shape shape, String address,
+                                 double events_per_second, long block_interval)
+    {
+        m_node = node;
+        m_shape = shape;
+        m_address = address;
+        m_eventsPerSecond = events_per_second;
+        m_blockInterval = block_interval;
+    }
+
+    /**
+     * Starts mining blocks in a new thread
+     */
+    public synchronized void start()
+    {
+        m_run = true;
+        m_thread = new Thread(this, "synthetic-log-generator");
+        m_thread.setDaemon(true);
+        m_thread.start();
+    }
+
+    /**
+     * Stops mining blocks and waits for the mining thread to end
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void stop() throws InterruptedException
+    {
+        m_run = false;
+        if (m_thread != null)
+        {
+            m_thread.join();
+            m_thread = null;
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        long start = System.currentTimeMillis();
+        long blocks = 0;
+        while (m_run)
+        {
+            blocks++;
+            long due = (long) (m_eventsPerSecond * blocks * m_blockInterval / 1000d);
+            mineBlock((int) (due - m_logCount));
+            long sleep = start + blocks * m_blockInterval - System.currentTimeMillis();
+            if (sleep > 0)
+            {
+                try
+                {
+                    Thread.sleep(sleep);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Mines one block holding a number of new events
+     *
+     * @param log_nb
+     *          The number of events in the block
+     *
+     * @return The number of the mined block
+     */
+    public long mineBlock(int log_nb)
+    {
+        List<Log> logs = new ArrayList<>(log_nb);
+        for (int i = 0; i < log_nb; i++)
+        {
+            logs.add(SyntheticLogs.newLog(SyntheticLogs.getEvent(m_shape),
+                    SyntheticLogs.getValues(m_shape, m_logCount), m_address, 0, m_logCount, 0));
+            m_logCount++;
+        }
+        return m_node.mineBlock(logs);
+    }
+
+    /**
+     * Gets the number of events generated so far
+     *
+     * @return The number of events
+     */
+    public long getLogCount()
+    {
+        return m_logCount;
+    }
+}
@@ -0,0 +1,362 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Pullable;
+import org.junit.Assert;
+import org.web3j.abi.EventEncoder;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Bool;
+import org.web3j.abi.datatypes.Event;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.Utf8String;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Numeric;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builds {@link Log}s that look like the ones returned by an Ethereum node,
+ * with valid ABI-encoded topics and data, without requiring a running node.
+ * Used by tests and benchmarks.
+ */
+public class SyntheticLogs
+{
+    /**
+     * The different shapes of event that can be generated
+     */
+    public enum Shape
+    {
+        /**
+         * An event with only static (fixed-size), non-indexed parameters
+         */
+        STATIC,
+
+        /**
+         * An event with a long dynamic string parameter
+         */
+        LONG_STRING,
+
+        /**
+         * An event with three indexed parameters, i.e. four topics
+         */
+        INDEXED
+    }
+
+    /**
+     * The address used as contract address in generated logs
+     */
+    public static final String CONTRACT_ADDRESS = "0x6702413c52c8cf0fc5f061c89960a262f40c850c";
+
+    /**
+     * The length of the string parameter of {@link Shape#LONG_STRING} events
+     */
+    public static final int LONG_STRING_LENGTH = 1024;
+
+    /**
+     * Same event as {@link Coursetro#INSTRUCTOR_EVENT}
+     */
+    public static final Event INSTRUCTOR_EVENT = new Event("Instructor",
+            Arrays.asList(new TypeReference<Utf8String>() {}, new TypeReference<Uint256>() {}));
+
+    private SyntheticLogs()
+    {
+        super();
+    }
+
+    /**
+     * Gets the {@link Event} definition corresponding to a shape
+     *
+     * @param shape
+     *          The shape of the event
+     *
+     * @return The event definition
+     */
+    public static Event getEvent(Shape shape)
+    {
+        switch (shape)
+        {
+            case STATIC:
+                return new Event("Static", Arrays.asList(
+                        new TypeReference<Uint256>() {},
+                        new TypeReference<Address>() {},
+                        new TypeReference<Bool>() {}));
+            case LONG_STRING:
+                return INSTRUCTOR_EVENT;
+            case INDEXED:
+            default:
+                return new Event("Indexed", Arrays.asList(
+                        new TypeReference<Address>(true) {},
+                        new TypeReference<Address>(true) {},
+                        new TypeReference<Uint256>(true) {},
+                        new TypeReference<Uint256>() {}));
+        }
+    }
+
+    /**
+     * Gets the parameter values a log of some shape will hold
+     *
+     * @param shape
+     *          The shape of the event
+     *
+     * @param index
+     *          The index of the log, used to vary the values
+     *
+     * @return The parameter values, in the order of their declaration in the event
+     */
+    public static List<Type> getValues(Shape shape, long index)
+    {
+        switch (shape)
+        {
+            case STATIC:
+                return Arrays.asList(
+                        new Uint256(BigInteger.valueOf(index)),
+                        new Address(BigInteger.valueOf(index + 1)),
+                        new Bool(index % 2 == 0));
+            case LONG_STRING:
+                char[] chars = new char[LONG_STRING_LENGTH];
+                Arrays.fill(chars, (char) ('a' + index % 26));
+                return Arrays.asList(
+                        new Utf8String(new String(chars)),
+                        new Uint256(BigInteger.valueOf(index)));
+            case INDEXED:
+            default:
+                return Arrays.asList(
+                        new Address(BigInteger.valueOf(index)),
+                        new Address(BigInteger.valueOf(index + 1)),
+                        new Uint256(BigInteger.valueOf(index + 2)),
+                        new Uint256(BigInteger.valueOf(index + 3)));
+        }
+    }
+
+    /**
+     * Builds a log of a given shape
+     *
+     * @param shape
+     *          The shape of the event
+     *
+     * @param index
+     *          The index of the log, used to vary its values and its transaction hash
+     *
+     * @return The new log
+     */
+    public static Log newLog(Shape shape, long index)
+    {
+        return newLog(getEvent(shape), getValues(shape, index), CONTRACT_ADDRESS, index, index, 0);
+    }
+
+    /**
+     * Builds the log of an event
+     *
+     * @param event
+     *          The emitted event
+     *
+     * @param values
+     *          The values of the parameters, in the order of their declaration in the event
+     *
+     * @param address
+     *          The address of the emitting contract
+     *
+     * @param block_number
+     *          The number of the block holding the log
+     *
+     * @param transaction_index
+     *          A number identifying the transaction holding the log
+     *
+     * @param log_index
+     *          The index of the log in its block
+     *
+     * @return The new log
+     */
+    @SuppressWarnings("rawtypes")
+    public static Log newLog(Event event, List<Type> values, String address,
+                             long block_number, long transaction_index, long log_index)
+    {
+        List<String> topics = new ArrayList<>();
+        topics.add(EventEncoder.encode(event));
+        List<Type> nonIndexed = new ArrayList<>();
+        for (int i = 0; i < values.size(); i++)
+        {
+            if (event.getParameters().get(i).isIndexed())
+            {
+                topics.add(CatchEthContractLogs.toTopic(values.get(i)));
+            }
+            else
+            {
+                nonIndexed.add(values.get(i));
+            }
+        }
+        String data = Numeric.prependHexPrefix(FunctionEncoder.encodeConstructor(nonIndexed));
+
+        return new Log(
+                false,
+                Numeric.toHexStringWithPrefix(BigInteger.valueOf(log_index)),
+                Numeric.toHexStringWithPrefix(BigInteger.valueOf(transaction_index)),
+                hash("tx", block_number, transaction_index),
+                hash("block", block_number, 0),
+                Numeric.toHexStringWithPrefix(BigInteger.valueOf(block_number)),
+                address,
+                data,
+                null,
+                Collections.unmodifiableList(topics));
+    }
+
+    /**
+     * Builds a log of the {@link Shape#STATIC} event, emitted by the
+     * {@link #CONTRACT_ADDRESS}
+     *
+     * @param block_number
+     *          The number of the block holding the log, also used to vary its values
+     *
+     * @param log_index
+     *          The index of the log in its block, also used as its transaction index
+     *
+     * @return The new log
+     */
+    public static Log newLog(long block_number, long log_index)
+    {
+        return newLog(CONTRACT_ADDRESS, block_number, log_index);
+    }
+
+    /**
+     * Builds a log of the {@link Shape#STATIC} event
+     *
+     * @param address
+     *          The address of the emitting contract
+     *
+     * @param block_number
+     *          The number of the block holding the log, also used to vary its values
+     *
+     * @param log_index
+     *          The index of the log in its block, also used as its transaction index
+     *
+     * @return The new log
+     */
+    public static Log newLog(String address, long block_number, long log_index)
+    {
+        return newLog(getEvent(Shape.STATIC), getValues(Shape.STATIC, block_number), address,
+                block_number, log_index, log_index);
+    }
+
+    /**
+     * Builds a log of a given shape, emitted by the {@link #CONTRACT_ADDRESS}
+     *
+     * @param shape
+     *          The shape of the event
+     *
+     * @param values_index
+     *          The number used to vary the values of the log
+     *
+     * @param block_number
+     *          The number of the block holding the log
+     *
+     * @param log_index
+     *          The index of the log in its block, also used as its transaction index
+     *
+     * @return The new log
+     */
+    public static Log newLog(Shape shape, long values_index, long block_number, long log_index)
+    {
+        return newLog(getEvent(shape), getValues(shape, values_index), CONTRACT_ADDRESS,
+                block_number, log_index, log_index);
+    }
+
+    /**
+     * Copies a log with its <code>removed</code> flag set, as the node sends it
+     * again when its block is removed by a reorganization of the chain
+     *
+     * @param log
+     *          The log
+     *
+     * @return The removed log
+     */
+    public static Log removed(Log log)
+    {
+        return new Log(true, log.getLogIndexRaw(), log.getTransactionIndexRaw(), log.getTransactionHash(),
+                log.getBlockHash(), log.getBlockNumberRaw(), log.getAddress(), log.getData(),
+                log.getType(), log.getTopics());
+    }
+
+    /**
+     * Pulls events from a pullable until a number of them have been received,
+     * and fails if they are not all received within 10 seconds
+     *
+     * @param pullable
+     *          The pullable, e.g. of a {@link ca.uqac.lif.cep.tmf.Tank}
+     *
+     * @param count
+     *          The number of events to receive
+     *
+     * @return The events received
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static List<Object> waitFor(Pullable pullable, int count) throws InterruptedException
+    {
+        return waitFor(pullable, new ArrayList<>(), count);
+    }
+
+    /**
+     * Pulls events from a pullable until a list holds a number of them, and
+     * fails if they are not all received within 10 seconds
+     *
+     * @param pullable
+     *          The pullable, e.g. of a {@link ca.uqac.lif.cep.tmf.Tank}
+     *
+     * @param received
+     *          The list the events are added to, which may already hold some
+     *
+     * @param count
+     *          The number of events the list must hold
+     *
+     * @param <T>
+     *          The type of the events
+     *
+     * @return The list
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> waitFor(Pullable pullable, List<T> received, int count) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (received.size() < count && System.currentTimeMillis() < deadline)
+        {
+            Object o = pullable.pullSoft();
+            if (o == null)
+            {
+                Thread.sleep(10);
+                continue;
+            }
+            received.add((T) o);
+        }
+        Assert.assertEquals(count, received.size());
+        return received;
+    }
+
+    /**
+     * Builds a deterministic 32-byte hash for synthetic identifiers
+     *
+     * @param kind
+     *          A string distinguishing the kind of hash (block or transaction)
+     *
+     * @param a
+     *          A first number identifying the hashed object
+     *
+     * @param b
+     *          A second number identifying the hashed object
+     *
+     * @return The hash as a 0x-prefixed hexadecimal string
+     */
+    public static String hash(String kind, long a, long b)
+    {
+        byte[] bytes = Hash.sha3((kind + ":" + a + ":" + b).getBytes());
+        return Numeric.toHexString(bytes);
+    }
+}
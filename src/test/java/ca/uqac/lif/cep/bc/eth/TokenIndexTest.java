@@ -0,0 +1,210 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.tmf.QueueSink;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests the {@link TokenIndex}, its {@link OffHeapHashTable}s, and the
+ * {@link IndexTokenTransfers} processor.
+ */
+public class TokenIndexTest
+{
+    private static final String ZERO = "0x0000000000000000000000000000000000000000";
+
+    private static final String ALICE = "0x00000000000000000000000000000000000a11ce";
+
+    private static final String BOB = "0x0000000000000000000000000000000000000b0b";
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private static Log transfer(String from, String to, long value, long block_number, long log_index)
+    {
+        List<Type> values = Arrays.asList(new Address(from), new Address(to), new Uint256(value));
+        return SyntheticLogs.newLog(StandardEvents.ERC20_TRANSFER, values, SyntheticLogs.CONTRACT_ADDRESS,
+                block_number, log_index, log_index);
+    }
+
+    private static Log transferToken(String from, String to, long token_id, long block_number)
+    {
+        List<Type> values = Arrays.asList(new Address(from), new Address(to), new Uint256(token_id));
+        return SyntheticLogs.newLog(StandardEvents.ERC721_TRANSFER, values, SyntheticLogs.CONTRACT_ADDRESS,
+                block_number, 0, 0);
+    }
+
+    private static byte[] address(String address)
+    {
+        byte[] bytes = new byte[TokenIndex.ADDRESS_SIZE];
+        HexUtils.fromHex(address, bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testTopics()
+    {
+        Assert.assertEquals("0xddf252ad1be2c89b69c2b068fc378daa952ba7f163c4a11628f55a4df523b3ef",
+                StandardEvents.TRANSFER_TOPIC);
+        Assert.assertEquals("0x8c5be1e5ebec7d5bd14f71427d1e84f3dd0314c0f7b2291e5b200ac8c7c3b925",
+                StandardEvents.APPROVAL_TOPIC);
+        Assert.assertEquals("0x17307eab39ab6107e8899845ad3d59bd9653f200f220920489ca2b5937696c31",
+                StandardEvents.APPROVAL_FOR_ALL_TOPIC);
+        Object[] values = new GetEthEventParameters(StandardEvents.ERC20_TRANSFER)
+                .getValue(transfer(ALICE, BOB, 42, 1, 0));
+        Assert.assertEquals(ALICE, values[0]);
+        Assert.assertEquals(BOB, values[1]);
+        Assert.assertEquals(BigInteger.valueOf(42), values[2]);
+    }
+
+    @Test
+    public void testHashTable()
+    {
+        OffHeapHashTable table = new OffHeapHashTable(TokenIndex.WORD_SIZE, 8, 16);
+        Map<BigInteger, Long> expected = new HashMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++)
+        {
+            // small keys, as token identifiers often are, to stress the probing
+            BigInteger key = BigInteger.valueOf(random.nextInt(20000));
+            byte[] word = TokenIndex.toWord(key);
+            if (random.nextInt(3) == 0)
+            {
+                int slot = table.find(word);
+                Assert.assertEquals(expected.containsKey(key), slot >= 0);
+                if (slot >= 0)
+                {
+                    table.remove(slot);
+                    expected.remove(key);
+                }
+            }
+            else
+            {
+                int slot = table.findOrInsert(word);
+                long value = table.buffer().getLong(table.valuePosition(slot)) + 1;
+                table.buffer().putLong(table.valuePosition(slot), value);
+                expected.merge(key, 1L, Long::sum);
+            }
+        }
+        Assert.assertEquals(expected.size(), table.size());
+        for (Map.Entry<BigInteger, Long> e : expected.entrySet())
+        {
+            int slot = table.find(TokenIndex.toWord(e.getKey()));
+            Assert.assertTrue(slot >= 0);
+            Assert.assertEquals(e.getValue().longValue(), table.buffer().getLong(table.valuePosition(slot)));
+        }
+    }
+
+    @Test
+    public void testErc20()
+    {
+        IndexTokenTransfers indexer = new IndexTokenTransfers();
+        QueueSink sink = new QueueSink();
+        Connector.connect(indexer, sink);
+        Pushable pushable = indexer.getPushableInput(0);
+
+        pushable.push(transfer(ZERO, ALICE, 1000, 1, 0));
+        pushable.push(transfer(ALICE, BOB, 300, 2, 0));
+        TokenIndex snapshot = indexer.snapshot();
+        pushable.push(CompactLog.of(transfer(BOB, ZERO, 100, 3, 0)));
+        Assert.assertEquals(3, sink.getQueue().size());
+
+        TokenIndex index = indexer.getIndex();
+        Assert.assertEquals(BigInteger.valueOf(700), index.getBalance(ALICE));
+        Assert.assertEquals(BigInteger.valueOf(200), index.getBalance(BOB));
+        Assert.assertEquals(BigInteger.valueOf(900), index.getTotalSupply());
+        Assert.assertEquals(2, index.getHolderCount());
+        Assert.assertEquals(3, index.getBlockNumber());
+
+        // The snapshot is not changed by the burn
+        Assert.assertEquals(BigInteger.valueOf(300), snapshot.getBalance(BOB));
+        Assert.assertEquals(BigInteger.valueOf(1000), snapshot.getTotalSupply());
+
+        // Alice's whole balance moves to Bob: she is no longer a holder
+        pushable.push(transfer(ALICE, BOB, 700, 4, 0));
+        Assert.assertEquals(1, index.getHolderCount());
+        Assert.assertEquals(BigInteger.ZERO, index.getBalance(ALICE));
+
+        // Undoing the last transfer
+        pushable.push(new EthLogRetraction(transfer(ALICE, BOB, 700, 4, 0)));
+        Assert.assertEquals(BigInteger.valueOf(700), index.getBalance(ALICE));
+        Assert.assertEquals(BigInteger.valueOf(200), index.getBalance(BOB));
+        Assert.assertEquals(5, indexer.getTransferCount());
+    }
+
+    @Test
+    public void testErc721()
+    {
+        IndexTokenTransfers indexer = new IndexTokenTransfers();
+        Connector.connect(indexer, new QueueSink());
+        Pushable pushable = indexer.getPushableInput(0);
+        pushable.push(transferToken(ZERO, ALICE, 1, 1));
+        pushable.push(transferToken(ZERO, ALICE, 2, 1));
+        pushable.push(transferToken(ALICE, BOB, 2, 2));
+        TokenIndex index = indexer.getIndex();
+        Assert.assertEquals(ALICE, index.getOwner(BigInteger.ONE));
+        Assert.assertEquals(BOB, index.getOwner(BigInteger.valueOf(2)));
+        Assert.assertEquals(BigInteger.ONE, index.getBalance(ALICE));
+        Assert.assertEquals(BigInteger.valueOf(2), index.getTotalSupply());
+
+        pushable.push(transferToken(BOB, ZERO, 2, 3));
+        Assert.assertNull(index.getOwner(BigInteger.valueOf(2)));
+        Assert.assertEquals(1, index.getTokenCount());
+        Assert.assertEquals(1, index.getHolderCount());
+    }
+
+    @Test
+    public void testManyHolders() throws IOException
+    {
+        TokenIndex index = new TokenIndex();
+        byte[] from = address(ZERO);
+        byte[] to = new byte[TokenIndex.ADDRESS_SIZE];
+        byte[] value = TokenIndex.toWord(BigInteger.TEN);
+        Random random = new Random(2);
+        for (int i = 0; i < 200000; i++)
+        {
+            random.nextBytes(to);
+            index.transfer(from, to, value);
+        }
+        Assert.assertEquals(200000, index.getHolderCount());
+        Assert.assertEquals(BigInteger.valueOf(2000000), index.getTotalSupply());
+        index.setBlockNumber(12);
+
+        File file = m_folder.newFile();
+        index.save(file);
+        TokenIndex loaded = TokenIndex.load(file);
+        Assert.assertEquals(200000, loaded.getHolderCount());
+        Assert.assertEquals(12, loaded.getBlockNumber());
+        Assert.assertEquals(index.getTotalSupply(), loaded.getTotalSupply());
+        List<String> holders = new ArrayList<>();
+        loaded.forEachHolder((address, balance) -> {
+            Assert.assertEquals(BigInteger.TEN, balance);
+            holders.add(address);
+        });
+        Assert.assertEquals(200000, holders.size());
+        Assert.assertEquals(BigInteger.TEN, index.getBalance(holders.get(0)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadNotAnIndex() throws IOException
+    {
+        TokenIndex.load(m_folder.newFile());
+    }
+}
@@ -0,0 +1,96 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.tmf.QueueSink;
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.math.BigInteger;
+import java.util.Queue;
+
+/**
+ * Tests the {@link WindowEthLogs} processor and the {@link BlockAggregators}.
+ */
+public class WindowEthLogsTest
+{
+    @Test
+    public void testSlidingCount()
+    {
+        WindowEthLogs window = new WindowEthLogs(new BlockAggregators.Count(), 3);
+        QueueSink sink = new QueueSink();
+        Connector.connect(window, sink);
+        Queue<Object> queue = sink.getQueue();
+        Pushable pushable = window.getPushableInput(0);
+
+        pushable.push(SyntheticLogs.newLog(1, 0));
+        pushable.push(SyntheticLogs.newLog(1, 1));
+        Assert.assertTrue(queue.isEmpty());
+        pushable.push(SyntheticLogs.newLog(2, 0));
+        Assert.assertEquals(new BlockWindowValue(0, 1, 2L), queue.remove());
+        pushable.push(SyntheticLogs.newLog(5, 0));
+        Assert.assertEquals(new BlockWindowValue(0, 2, 3L), queue.remove());
+        Assert.assertEquals(new BlockWindowValue(1, 3, 3L), queue.remove());
+        Assert.assertEquals(new BlockWindowValue(2, 4, 1L), queue.remove());
+        Assert.assertTrue(queue.isEmpty());
+
+        // The watermark closes block 5 and slides the window over blocks without logs
+        pushable.push(new BlockWatermark(100));
+        Assert.assertEquals(new BlockWindowValue(3, 5, 1L), queue.remove());
+        Assert.assertEquals(new BlockWindowValue(4, 6, 1L), queue.remove());
+        Assert.assertEquals(new BlockWindowValue(5, 7, 1L), queue.remove());
+        Assert.assertEquals(new BlockWindowValue(6, 8, 0L), queue.remove());
+        Assert.assertTrue(queue.isEmpty());
+
+        pushable.push(SyntheticLogs.newLog(50, 0));
+        Assert.assertEquals(1, window.getLateLogCount());
+        pushable.push(SyntheticLogs.newLog(101, 0));
+        pushable.push(new BlockWatermark(101));
+        Assert.assertEquals(new BlockWindowValue(99, 101, 1L), queue.remove());
+    }
+
+    @Test
+    public void testPerBlockSum()
+    {
+        WindowEthLogs window = new WindowEthLogs(new BlockAggregators.Sum(
+                log -> BigInteger.valueOf(log.getLogIndex().longValue() + 1)), 1);
+        QueueSink sink = new QueueSink();
+        Connector.connect(window, sink);
+        Queue<Object> queue = sink.getQueue();
+        Pushable pushable = window.getPushableInput(0);
+
+        pushable.push(SyntheticLogs.newLog(1, 0));
+        pushable.push(SyntheticLogs.newLog(1, 1));
+        pushable.push(SyntheticLogs.newLog(1, 2));
+        pushable.push(new BlockWatermark(2));
+        Assert.assertEquals(new BlockWindowValue(1, 1, BigInteger.valueOf(6)), queue.remove());
+        Assert.assertEquals(new BlockWindowValue(2, 2, BigInteger.ZERO), queue.remove());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testRetraction()
+    {
+        WindowEthLogs window = new WindowEthLogs(new BlockAggregators.DistinctCount(Log::getLogIndex), 2);
+        QueueSink sink = new QueueSink();
+        Connector.connect(window, sink);
+        Queue<Object> queue = sink.getQueue();
+        Pushable pushable = window.getPushableInput(0);
+
+        Log log = SyntheticLogs.newLog(1, 0);
+        pushable.push(log);
+        pushable.push(SyntheticLogs.newLog(1, 1));
+        pushable.push(SyntheticLogs.newLog(2, 0));
+        pushable.push(new BlockWatermark(2));
+        Assert.assertEquals(new BlockWindowValue(0, 1, 2), queue.remove());
+        Assert.assertEquals(new BlockWindowValue(1, 2, 2), queue.remove());
+
+        // Removing a log of block 1 changes the windows not output yet
+        pushable.push(new EthLogRetraction(SyntheticLogs.removed(SyntheticLogs.newLog(1, 1))));
+        pushable.push(new BlockWatermark(3));
+        Assert.assertEquals(new BlockWindowValue(2, 3, 1), queue.remove());
+        pushable.push(SyntheticLogs.removed(log));
+        Assert.assertEquals(0, window.getLateLogCount());
+    }
+}
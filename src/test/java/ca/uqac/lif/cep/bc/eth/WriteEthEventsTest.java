@@ -0,0 +1,159 @@
+package ca.uqac.lif.cep.bc.eth;
+
+import ca.uqac.lif.cep.Pushable;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests the {@link WriteEthEvents} processor.
+ */
+public class WriteEthEventsTest
+{
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private static List<String> readLines(File file) throws IOException
+    {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static File[] listFiles(File directory)
+    {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".csv.gz"));
+        Arrays.sort(files);
+        return files;
+    }
+
+    @Test
+    public void testFormat() throws IOException
+    {
+        File directory = m_folder.newFolder();
+        WriteEthEvents writer = new WriteEthEvents(directory, "events").setHeader("from", "value", "memo");
+        writer.start();
+        Pushable pushable = writer.getPushableInput(0);
+        pushable.push(new Object[]{"0x00000000000000000000000000000000000000aa", BigInteger.TEN, "a, \"b\""});
+        pushable.push(new Object[]{new byte[]{1, (byte) 0xff}, Arrays.asList(BigInteger.ONE, BigInteger.ZERO), null});
+        pushable.push("alone");
+        writer.stop();
+        File[] files = listFiles(directory);
+        Assert.assertEquals(1, files.length);
+        Assert.assertEquals("events-000000.csv.gz", files[0].getName());
+        Assert.assertEquals(Arrays.asList("from,value,memo",
+                "0x00000000000000000000000000000000000000aa,10,\"a, \"\"b\"\"\"",
+                "0x01ff,\"[1;0]\",",
+                "alone"), readLines(files[0]));
+        Assert.assertEquals(3, writer.getWrittenCount());
+        Assert.assertEquals(1, writer.getCommitCount());
+
+        // Started again, the processor writes to a new file
+        pushable.push("again");
+        writer.start();
+        writer.stop();
+        Assert.assertEquals("events-000001.csv.gz", listFiles(directory)[1].getName());
+
+        // So does a new processor on the same directory
+        writer = new WriteEthEvents(directory, "events");
+        writer.start();
+        writer.getPushableInput(0).push("other");
+        writer.stop();
+        Assert.assertEquals(Arrays.asList("other"), readLines(listFiles(directory)[2]));
+    }
+
+    @Test
+    public void testRotation() throws IOException
+    {
+        File directory = m_folder.newFolder();
+        WriteEthEvents writer = new WriteEthEvents(directory, "events").setHeader("n")
+                .setGroupCommit(1000, 50).setRotation(5000, 0);
+        writer.start();
+        Pushable pushable = writer.getPushableInput(0);
+        for (int i = 0; i < 10000; i++)
+        {
+            pushable.push(new Object[]{BigInteger.valueOf(i)});
+        }
+        writer.stop();
+        Assert.assertEquals(10000, writer.getReceivedCount());
+        Assert.assertEquals(10000, writer.getWrittenCount());
+        File[] files = listFiles(directory);
+        Assert.assertTrue(files.length > 1);
+        Assert.assertEquals(files.length, writer.getFileCount());
+        int expected = 0;
+        for (File file : files)
+        {
+            List<String> lines = readLines(file);
+            Assert.assertEquals("n", lines.get(0));
+            for (String line : lines.subList(1, lines.size()))
+            {
+                Assert.assertEquals(Integer.toString(expected++), line);
+            }
+        }
+        Assert.assertEquals(10000, expected);
+    }
+
+    @Test
+    public void testGroupDelay() throws IOException, InterruptedException
+    {
+        File directory = m_folder.newFolder();
+        WriteEthEvents writer = new WriteEthEvents(directory, "events").setGroupCommit(1 << 20, 50);
+        writer.start();
+        Pushable pushable = writer.getPushableInput(0);
+        pushable.push("first");
+        pushable.push("second");
+        long deadline = System.currentTimeMillis() + 10000;
+        while (writer.getWrittenCount() < 2 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        // Both lines are committed together, before the processor is stopped
+        Assert.assertEquals(2, writer.getWrittenCount());
+        Assert.assertEquals(1, writer.getCommitCount());
+        Assert.assertTrue(writer.isWriting());
+        writer.stop();
+        Assert.assertFalse(writer.isWriting());
+    }
+
+    @Test
+    public void testIdleWriter() throws IOException, InterruptedException
+    {
+        File directory = m_folder.newFolder();
+        WriteEthEvents writer = new WriteEthEvents(directory, "events").setGroupCommit(1 << 20, 20);
+        writer.start();
+        // Nothing to write for a while: the writer thread keeps waiting
+        Thread.sleep(200);
+        Assert.assertTrue(writer.isWriting());
+        writer.getPushableInput(0).push("late");
+        writer.stop();
+        Assert.assertEquals(1, writer.getWrittenCount());
+        Assert.assertEquals(Arrays.asList("late"), readLines(listFiles(directory)[0]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoGroupDelay() throws IOException
+    {
+        new WriteEthEvents(m_folder.newFolder(), "events").setGroupCommit(1000, 0);
+    }
+}